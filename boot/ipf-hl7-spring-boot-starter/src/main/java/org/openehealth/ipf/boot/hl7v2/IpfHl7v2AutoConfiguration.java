@@ -35,6 +35,9 @@ import org.openehealth.ipf.commons.ihe.hl7v2.storage.SpringCacheInteractiveConti
 import org.openehealth.ipf.commons.ihe.hl7v2.storage.SpringCacheUnsolicitedFragmentationStorage;
 import org.openehealth.ipf.commons.ihe.hl7v2.storage.InteractiveContinuationStorage;
 import org.openehealth.ipf.commons.ihe.hl7v2.storage.UnsolicitedFragmentationStorage;
+import org.openehealth.ipf.modules.hl7.idgenerator.BlockIdGenerator;
+import org.openehealth.ipf.modules.hl7.idgenerator.FileIdBlockStore;
+import org.openehealth.ipf.modules.hl7.idgenerator.IdBlockStore;
 import org.openehealth.ipf.modules.hl7.parser.CustomModelClassFactory;
 import org.openehealth.ipf.modules.hl7.parser.DefaultEscaping;
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.intercept.consumer.ConsumerDispatchingInterceptor;
@@ -49,6 +52,7 @@ import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -114,6 +118,19 @@ public class IpfHl7v2AutoConfiguration {
         return new IpfHiLoIdGenerator(properties.getIdGenerator());
     }
 
+    @Bean
+    @ConditionalOnMissingBean(IDGenerator.class)
+    @ConditionalOnProperty(prefix = "ipf.hl7v2", name = "generator", havingValue = "block")
+    public IDGenerator blockGenerator() {
+        var generatorProperties = properties.getIdGenerator();
+        IdBlockStore store = generatorProperties.isPersistent() ?
+                new FileIdBlockStore(
+                        Paths.get(generatorProperties.getDirectory(), generatorProperties.getBlockFileName()),
+                        generatorProperties.isNeverFail()) :
+                IdBlockStore.NONE;
+        return new BlockIdGenerator(generatorProperties.getNode(), generatorProperties.getLo(), store);
+    }
+
     @Bean
     @ConditionalOnMissingBean(IDGenerator.class)
     @ConditionalOnProperty(prefix = "ipf.hl7v2", name = "generator", havingValue = "uuid")
@@ -55,7 +55,7 @@ public class IpfHl7v2ConfigurationProperties {
     private boolean caching = false;
 
     /**
-     * Whether ID generator to use. One of "file" (default), "uuid", "nano". Alternatively, you can
+     * Whether ID generator to use. One of "file" (default), "block", "uuid", "nano". Alternatively, you can
      * provide your own bean of type {@link ca.uhn.hl7v2.util.idgenerator.IDGenerator}.
      */
     @Getter @Setter
@@ -68,7 +68,8 @@ public class IpfHl7v2ConfigurationProperties {
     public static class FileIdGeneratorProperties  {
 
         /**
-         * How many IDs to be generated internally before incrementing the file value
+         * How many IDs to be generated internally before incrementing the file value,
+         * i.e. the block size of the "block" generator
          */
         @Getter @Setter private int lo = 100;
 
@@ -78,7 +79,7 @@ public class IpfHl7v2ConfigurationProperties {
         @Getter @Setter private String directory = Home.getHomeDirectory().getAbsolutePath();
 
         /**
-         * Name of the ID file
+         * Name of the ID file of the "file" generator
          */
         @Getter @Setter private String fileMame = "id_file";
 
@@ -98,6 +99,24 @@ public class IpfHl7v2ConfigurationProperties {
          * instances of this generator may clobber each other's values.
          */
         @Getter @Setter private boolean minimizeReads = false;
+
+        /**
+         * Prefix of the IDs generated by the "block" generator, unique per node of a cluster
+         */
+        @Getter @Setter private String node = "";
+
+        /**
+         * Name of the ID file of the "block" generator. It must differ from the ID file of the
+         * "file" generator, which holds a different kind of value.
+         */
+        @Getter @Setter private String blockFileName = "ipf_id_file";
+
+        /**
+         * If set to <code>false</code> (default is <code>true</code>), the "block" generator
+         * does not keep its reserved blocks in the ID file, so counting starts at zero after
+         * a JVM restart.
+         */
+        @Getter @Setter private boolean persistent = true;
     }
 
 }
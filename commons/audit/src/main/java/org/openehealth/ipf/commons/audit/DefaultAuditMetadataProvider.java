@@ -37,6 +37,7 @@ public class DefaultAuditMetadataProvider implements AuditMetadataProvider {
     private String sendingApplication;
     private String timestamp;
     private TemporalUnit precision = ChronoUnit.MILLIS;
+    private volatile FormattedSecond formattedSecond;
 
     public DefaultAuditMetadataProvider() {
         this(AuditUtils.getLocalHostName(), AuditUtils.getProcessId(), "IPF", null);
@@ -72,7 +73,33 @@ public class DefaultAuditMetadataProvider implements AuditMetadataProvider {
 
     @Override
     public String getTimestamp() {
-        return timestamp != null ? timestamp : Instant.now().truncatedTo(precision).toString();
+        if (timestamp != null) {
+            return timestamp;
+        }
+        if (precision != ChronoUnit.MILLIS && precision != ChronoUnit.SECONDS) {
+            return Instant.now().truncatedTo(precision).toString();
+        }
+        // Same result as Instant.now().truncatedTo(precision).toString(), but the date and time
+        // up to the second is formatted only once per second
+        var millis = System.currentTimeMillis();
+        var epochSecond = Math.floorDiv(millis, 1000L);
+        var millisOfSecond = (int) Math.floorMod(millis, 1000L);
+        var current = formattedSecond;
+        if (current == null || current.epochSecond != epochSecond) {
+            current = new FormattedSecond(epochSecond);
+            formattedSecond = current;
+        }
+        if (precision == ChronoUnit.SECONDS || millisOfSecond == 0) {
+            return current.formatted + 'Z';
+        }
+        var result = new StringBuilder(current.formatted.length() + 5).append(current.formatted).append('.');
+        if (millisOfSecond < 100) {
+            result.append('0');
+        }
+        if (millisOfSecond < 10) {
+            result.append('0');
+        }
+        return result.append(millisOfSecond).append('Z').toString();
     }
 
     @Override
@@ -89,4 +116,17 @@ public class DefaultAuditMetadataProvider implements AuditMetadataProvider {
     public String getProcessID() {
         return processID;
     }
+
+    private static final class FormattedSecond {
+
+        private final long epochSecond;
+        private final String formatted;
+
+        FormattedSecond(long epochSecond) {
+            this.epochSecond = epochSecond;
+            var instant = Instant.ofEpochSecond(epochSecond).toString();
+            // strip the trailing 'Z'
+            this.formatted = instant.substring(0, instant.length() - 1);
+        }
+    }
 }
@@ -25,21 +25,51 @@ import java.io.Writer;
 /**
  * Uses a singleton instance of the most recent DICOM version that has relevant changes to
  * the audit message format.
+ * <p>
+ * Messages are serialized by {@link StreamingDICOM2017c}, which writes the XML directly without
+ * building a JDOM tree first. Setting the system property {@value #JDOM_SERIALIZATION_PROPERTY}
+ * to {@code true} (or calling {@link #setStreaming(boolean)}) falls back to the JDOM-based
+ * {@link DICOM2017c}.
+ * </p>
  *
  * @author Christian Ohr
  * @since 3.5
  */
 public class Current implements SerializationStrategy {
 
+    public static final String JDOM_SERIALIZATION_PROPERTY = "org.openehealth.ipf.commons.audit.marshal.jdom";
+
     public static final DICOM2017c INSTANCE = new DICOM2017c();
 
+    /**
+     * @since 4.1
+     */
+    public static final StreamingDICOM2017c STREAMING_INSTANCE = new StreamingDICOM2017c();
+
+    private static final boolean STREAMING = !Boolean.getBoolean(JDOM_SERIALIZATION_PROPERTY);
+
+    private boolean streaming = STREAMING;
+
     public static String toString(AuditMessage auditMessage, boolean pretty) {
-        return INSTANCE.marshal(auditMessage, pretty);
+        return (STREAMING ? STREAMING_INSTANCE : INSTANCE).marshal(auditMessage, pretty);
+    }
+
+    /**
+     * @param streaming whether to use {@link StreamingDICOM2017c} instead of {@link DICOM2017c}
+     * @since 4.1
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
     }
 
     @Override
     public void marshal(AuditMessage auditMessage, Writer writer, boolean pretty) throws IOException {
-        INSTANCE.marshal(auditMessage, writer, pretty);
+        (streaming ? STREAMING_INSTANCE : INSTANCE).marshal(auditMessage, writer, pretty);
+    }
+
+    @Override
+    public String marshal(AuditMessage auditMessage, boolean pretty) {
+        return (streaming ? STREAMING_INSTANCE : INSTANCE).marshal(auditMessage, pretty);
     }
 
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.marshal.dicom;
+
+import java.util.Objects;
+
+/**
+ * Minimal streaming XML writer that appends elements, attributes and text to a {@link StringBuilder},
+ * formatted and escaped exactly like JDOM's compact {@link org.jdom2.output.Format}: empty elements are
+ * written as {@code <X />}, whitespace in text is normalized, and supplementary characters are written
+ * as character references.
+ *
+ * @since 4.1
+ */
+final class DicomXmlWriter {
+
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final StringBuilder out;
+    private boolean startTagOpen;
+
+    DicomXmlWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    DicomXmlWriter start(String name) {
+        closeStartTag();
+        out.append('<').append(name);
+        startTagOpen = true;
+        return this;
+    }
+
+    DicomXmlWriter end(String name) {
+        if (startTagOpen) {
+            out.append(" />");
+            startTagOpen = false;
+        } else {
+            out.append("</").append(name).append('>');
+        }
+        return this;
+    }
+
+    /**
+     * Writes an attribute, which must not be null
+     */
+    DicomXmlWriter attribute(String name, String value) {
+        Objects.requireNonNull(value, "Can not set a null value for an Attribute");
+        out.append(' ').append(name).append("=\"");
+        for (var i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                case '\t':
+                    out.append("&#x9;");
+                    break;
+                case '\n':
+                    out.append("&#xA;");
+                    break;
+                case '\r':
+                    out.append("&#xD;");
+                    break;
+                default:
+                    i = character(value, i, c);
+            }
+        }
+        out.append('"');
+        return this;
+    }
+
+    /**
+     * Writes an attribute unless its value is null
+     */
+    DicomXmlWriter optionalAttribute(String name, String value) {
+        return value != null ? attribute(name, value) : this;
+    }
+
+    /**
+     * Writes text content with normalized whitespace. If nothing remains after normalizing,
+     * the element is still considered empty.
+     */
+    DicomXmlWriter text(String text) {
+        if (text == null) {
+            return this;
+        }
+        var written = false;
+        var pendingSpace = false;
+        for (var i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                pendingSpace = written;
+                continue;
+            }
+            if (!written) {
+                closeStartTag();
+                written = true;
+            } else if (pendingSpace) {
+                out.append(' ');
+                pendingSpace = false;
+            }
+            switch (c) {
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '&':
+                    out.append("&amp;");
+                    break;
+                default:
+                    i = character(text, i, c);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the line separator that terminates the document
+     */
+    void endDocument() {
+        out.append(LINE_SEPARATOR);
+    }
+
+    private int character(String s, int i, char c) {
+        if (Character.isHighSurrogate(c)) {
+            if (i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                out.append("&#x").append(Integer.toHexString(Character.toCodePoint(c, s.charAt(i + 1)))).append(';');
+                return i + 1;
+            }
+            throw illegalCharacter(s, c);
+        }
+        if ((c < 0x20 && c != '\t' && c != '\n' && c != '\r') || Character.isLowSurrogate(c) || c == 0xFFFE || c == 0xFFFF) {
+            throw illegalCharacter(s, c);
+        }
+        out.append(c);
+        return i;
+    }
+
+    private void closeStartTag() {
+        if (startTagOpen) {
+            out.append('>');
+            startTagOpen = false;
+        }
+    }
+
+    private static IllegalArgumentException illegalCharacter(String s, char c) {
+        return new IllegalArgumentException(String.format(
+                "The data \"%s\" is not legal for XML: 0x%s is not a legal XML character", s, Integer.toHexString(c)));
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.marshal.dicom;
+
+import org.openehealth.ipf.commons.audit.marshal.SerializationStrategy;
+import org.openehealth.ipf.commons.audit.model.*;
+import org.openehealth.ipf.commons.audit.types.CodedValueType;
+import org.openehealth.ipf.commons.audit.types.EnumeratedValueSet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.openehealth.ipf.commons.audit.XMLNames.*;
+
+/**
+ * Serializes audit messages in the format of {@link DICOM2017c} without building a JDOM tree.
+ * The XML is written straight into a reusable per-thread buffer, producing exactly the same output as
+ * {@link DICOM2017c} in compact format. Pretty-printed output is still delegated to {@link DICOM2017c}.
+ *
+ * @since 4.1
+ */
+public class StreamingDICOM2017c implements SerializationStrategy {
+
+    private static final int MAX_RETAINED_CAPACITY = 65536;
+
+    private static final DICOM2017c PRETTY = new DICOM2017c();
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+
+    @Override
+    public void marshal(AuditMessage auditMessage, Writer writer, boolean pretty) throws IOException {
+        if (pretty) {
+            PRETTY.marshal(auditMessage, writer, true);
+        } else {
+            var buffer = buffer();
+            serialize(auditMessage, new DicomXmlWriter(buffer));
+            writer.append(buffer);
+        }
+    }
+
+    @Override
+    public String marshal(AuditMessage auditMessage, boolean pretty) {
+        if (pretty) {
+            return PRETTY.marshal(auditMessage, true);
+        }
+        var buffer = buffer();
+        serialize(auditMessage, new DicomXmlWriter(buffer));
+        return buffer.toString();
+    }
+
+    private static StringBuilder buffer() {
+        var buffer = BUFFER.get();
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            // Do not keep huge buffers around after serializing an exceptionally large message
+            buffer = new StringBuilder(4096);
+            BUFFER.set(buffer);
+        }
+        buffer.setLength(0);
+        return buffer;
+    }
+
+    private void serialize(AuditMessage auditMessage, DicomXmlWriter xml) {
+        xml.start(AUDIT_MESSAGE);
+        eventIdentification(xml, auditMessage.getEventIdentification());
+        for (var activeParticipant : auditMessage.getActiveParticipants()) {
+            activeParticipant(xml, activeParticipant);
+        }
+        auditSourceIdentification(xml, auditMessage.getAuditSourceIdentification());
+        for (var poi : auditMessage.getParticipantObjectIdentifications()) {
+            participantObjectIdentification(xml, poi);
+        }
+        xml.end(AUDIT_MESSAGE);
+        xml.endDocument();
+    }
+
+    private void activeParticipant(DicomXmlWriter xml, ActiveParticipantType activeParticipant) {
+        xml.start(ACTIVE_PARTICIPANT)
+                .attribute(USER_ID, activeParticipant.getUserID())
+                .optionalAttribute(ALTERNATIVE_USER_ID, activeParticipant.getAlternativeUserID())
+                .optionalAttribute(USER_NAME, activeParticipant.getUserName())
+                .attribute(USER_IS_REQUESTOR, Boolean.toString(activeParticipant.isUserIsRequestor()))
+                .optionalAttribute(NETWORK_ACCESS_POINT_ID, activeParticipant.getNetworkAccessPointID());
+        optionalAttribute(xml, NETWORK_ACCESS_POINT_TYPE_CODE, activeParticipant.getNetworkAccessPointTypeCode());
+        if (activeParticipant.getRoleIDCodes() != null) {
+            for (var roleIdCode : activeParticipant.getRoleIDCodes()) {
+                codedValueType(xml, ROLE_ID_CODE, roleIdCode);
+            }
+        }
+        if (activeParticipant.getMediaType() != null) {
+            xml.start(MEDIA_IDENTIFIER);
+            codedValueType(xml, MEDIA_TYPE, activeParticipant.getMediaType());
+            xml.end(MEDIA_IDENTIFIER);
+        }
+        xml.end(ACTIVE_PARTICIPANT);
+    }
+
+    private void eventIdentification(DicomXmlWriter xml, EventIdentificationType eventIdentification) {
+        xml.start(EVENT_IDENTIFICATION);
+        if (eventIdentification != null) {
+            xml.attribute(EVENT_ACTION_CODE, eventIdentification.getEventActionCode().getValue())
+                    .attribute(EVENT_DATE_TIME, eventIdentification.getEventDateTime().toString())
+                    .attribute(EVENT_OUTCOME_INDICATOR, eventIdentification.getEventOutcomeIndicator().getValue().toString());
+            if (eventIdentification.getEventID() != null) {
+                codedValueType(xml, EVENT_ID, eventIdentification.getEventID());
+            }
+            for (var eventTypeCode : eventIdentification.getEventTypeCode()) {
+                codedValueType(xml, EVENT_TYPE_CODE, eventTypeCode);
+            }
+            if (eventIdentification.getEventOutcomeDescription() != null) {
+                xml.start(EVENT_OUTCOME_DESCRIPTION)
+                        .text(eventIdentification.getEventOutcomeDescription())
+                        .end(EVENT_OUTCOME_DESCRIPTION);
+            }
+            for (var purposeOfUse : eventIdentification.getPurposesOfUse()) {
+                codedValueType(xml, PURPOSE_OF_USE, purposeOfUse);
+            }
+        }
+        xml.end(EVENT_IDENTIFICATION);
+    }
+
+    private void participantObjectIdentification(DicomXmlWriter xml, ParticipantObjectIdentificationType poi) {
+        xml.start(PARTICIPANT_OBJECT_IDENTIFICATION);
+        if (poi != null) {
+            xml.optionalAttribute(PARTICIPANT_OBJECT_ID, poi.getParticipantObjectID());
+            if (poi.getParticipantObjectTypeCode() != null) {
+                xml.optionalAttribute(PARTICIPANT_OBJECT_TYPE_CODE, poi.getParticipantObjectTypeCode().getValue().toString());
+            }
+            optionalAttribute(xml, PARTICIPANT_OBJECT_TYPE_CODE_ROLE, poi.getParticipantObjectTypeCodeRole());
+            optionalAttribute(xml, PARTICIPANT_OBJECT_DATA_LIFE_CYCLE, poi.getParticipantObjectDataLifeCycle());
+            xml.optionalAttribute(PARTICIPANT_OBJECT_SENSITIVITY, poi.getParticipantObjectSensitivity());
+            codedValueType(xml, PARTICIPANT_OBJECT_ID_TYPE_CODE, poi.getParticipantObjectIDTypeCode());
+            if (poi.getParticipantObjectName() != null) {
+                xml.start(PARTICIPANT_OBJECT_NAME)
+                        .text(poi.getParticipantObjectName())
+                        .end(PARTICIPANT_OBJECT_NAME);
+            }
+            if (poi.getParticipantObjectQuery() != null) {
+                xml.start(PARTICIPANT_OBJECT_QUERY)
+                        .text(new String(Base64.getEncoder().encode(poi.getParticipantObjectQuery()), StandardCharsets.UTF_8))
+                        .end(PARTICIPANT_OBJECT_QUERY);
+            }
+            for (var participantObjectDetail : poi.getParticipantObjectDetails()) {
+                typeValuePairType(xml, PARTICIPANT_OBJECT_DETAIL, participantObjectDetail);
+            }
+            for (var dicomObjectDescription : poi.getParticipantObjectDescriptions()) {
+                dicomObjectDescription(xml, dicomObjectDescription);
+            }
+        }
+        xml.end(PARTICIPANT_OBJECT_IDENTIFICATION);
+    }
+
+    private void auditSourceIdentification(DicomXmlWriter xml, AuditSourceIdentificationType auditSourceIdentification) {
+        xml.start(AUDIT_SOURCE_IDENTIFICATION);
+        if (auditSourceIdentification != null) {
+            xml.optionalAttribute(AUDIT_ENTERPRISE_SITE_ID, auditSourceIdentification.getAuditEnterpriseSiteID())
+                    .optionalAttribute(AUDIT_SOURCE_ID, auditSourceIdentification.getAuditSourceID());
+            for (var auditSourceType : auditSourceIdentification.getAuditSourceType()) {
+                codedValueType(xml, AUDIT_SOURCE_TYPE_CODE, auditSourceType);
+            }
+        }
+        xml.end(AUDIT_SOURCE_IDENTIFICATION);
+    }
+
+    private void codedValueType(DicomXmlWriter xml, String tagName, CodedValueType codedValue) {
+        xml.start(tagName)
+                .attribute(CSD_CODE, codedValue.getCode())
+                .optionalAttribute(CODE_SYSTEM_NAME, codedValue.getCodeSystemName())
+                .optionalAttribute(DISPLAY_NAME, codedValue.getDisplayName())
+                .optionalAttribute(ORIGINAL_TEXT, codedValue.getOriginalText())
+                .end(tagName);
+    }
+
+    private void typeValuePairType(DicomXmlWriter xml, String tagName, TypeValuePairType typeValuePair) {
+        xml.start(tagName)
+                .attribute(TYPE, typeValuePair.getType())
+                .attribute(VALUE, new String(Base64.getEncoder().encode(typeValuePair.getValue()), StandardCharsets.UTF_8))
+                .end(tagName);
+    }
+
+    private void dicomObjectDescription(DicomXmlWriter xml, DicomObjectDescriptionType dicomObjectDescription) {
+        xml.start(PARTICIPANT_OBJECT_DESCRIPTION);
+        for (var mpps : dicomObjectDescription.getMPPS()) {
+            xml.start(MPPS).attribute(UID, mpps).end(MPPS);
+        }
+        for (var accession : dicomObjectDescription.getAccession()) {
+            xml.start(ACCESSION).attribute(NUMBER, accession).end(ACCESSION);
+        }
+        for (var sop : dicomObjectDescription.getSOPClasses()) {
+            xml.start(SOP_CLASS)
+                    .attribute(NUMBER_OF_INSTANCES, String.valueOf(sop.getNumberOfInstances()))
+                    .optionalAttribute(UID, sop.getUid());
+            for (var uid : sop.getInstanceUids()) {
+                xml.start(INSTANCE).attribute(UID, uid).end(INSTANCE);
+            }
+            xml.end(SOP_CLASS);
+        }
+        if (!dicomObjectDescription.getStudyIDs().isEmpty()) {
+            xml.start(PARTICIPANT_OBJECT_CONTAINS_STUDY);
+            for (var studyID : dicomObjectDescription.getStudyIDs()) {
+                xml.start(STUDY_IDS).attribute(UID, studyID).end(STUDY_IDS);
+            }
+            xml.end(PARTICIPANT_OBJECT_CONTAINS_STUDY);
+        }
+        if (dicomObjectDescription.getEncrypted() != null) {
+            xml.start(ENCRYPTED)
+                    .text(String.valueOf(dicomObjectDescription.getEncrypted()))
+                    .end(ENCRYPTED);
+        }
+        if (dicomObjectDescription.getAnonymized() != null) {
+            xml.start(ANONYMIZED)
+                    .text(String.valueOf(dicomObjectDescription.getAnonymized()))
+                    .end(ANONYMIZED);
+        }
+        xml.end(PARTICIPANT_OBJECT_DESCRIPTION);
+    }
+
+    private static void optionalAttribute(DicomXmlWriter xml, String attributeName, EnumeratedValueSet<?> value) {
+        if (value != null) {
+            xml.attribute(attributeName, value.getValue().toString());
+        }
+    }
+}
@@ -19,6 +19,8 @@ package org.openehealth.ipf.commons.audit.protocol;
 import org.openehealth.ipf.commons.audit.AuditContext;
 import org.openehealth.ipf.commons.audit.AuditMetadataProvider;
 
+import java.util.Collection;
+
 /**
  * Implementations of this interface transmit the serialized {@link org.openehealth.ipf.commons.audit.model.AuditMessage AuditMessage}
  * to an AuditRepository using IP protocols like TCP or UDP, usually wrapped into a carrier protocol (such as SYSLOG).
@@ -60,6 +62,30 @@ public interface AuditTransmissionProtocol {
      */
     void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, String auditMessage) throws Exception;
 
+    /**
+     * Transmits a batch of messages. The default implementation sends the messages one by one; implementations
+     * may override this to coalesce the messages into fewer writes. The collection must not be retained after
+     * this method returns.
+     *
+     * @param auditContext audit context that e.g. contains the destination
+     * @param auditMetadataProvider dedicated (message-specific) audit metadata
+     * @param auditMessages audit message strings
+     * @throws PartialBatchException thrown if sending the messages has failed after some of them have been sent
+     * @throws Exception thrown if sending the messages has failed
+     * @since 4.1
+     */
+    default void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, Collection<String> auditMessages) throws Exception {
+        var sent = 0;
+        for (var auditMessage : auditMessages) {
+            try {
+                send(auditContext, auditMetadataProvider, auditMessage);
+            } catch (Exception e) {
+                throw (sent > 0) ? new PartialBatchException(sent, e) : e;
+            }
+            ++sent;
+        }
+    }
+
     /**
      * May be implemented to clean up instances on shut down
      */
@@ -22,9 +22,12 @@ import org.openehealth.ipf.commons.audit.TlsParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Abstract base class for non-blocking TLS sender implementations.
@@ -37,9 +40,12 @@ public abstract class NioTLSSyslogSenderImpl<H, D extends NioTLSSyslogSenderImpl
 
     private static final Logger LOG = LoggerFactory.getLogger(NioTLSSyslogSenderImpl.class);
     private boolean loggingEnabled = false;
+    private int connections = 1;
+    private int maxBatchBytes = 65536;
     private final TlsParameters tlsParameters;
 
     private final Map<String, D> destinations = new ConcurrentHashMap<>();
+    private final AtomicInteger nextConnection = new AtomicInteger();
 
     public NioTLSSyslogSenderImpl(TlsParameters tlsParameters) {
         super();
@@ -50,6 +56,34 @@ public abstract class NioTLSSyslogSenderImpl<H, D extends NioTLSSyslogSenderImpl
         this.loggingEnabled = loggingEnabled;
     }
 
+    /**
+     * Sets the number of destinations (i.e. connections) per audit repository that are used
+     * in parallel. Defaults to 1.
+     *
+     * @param connections number of connections per audit repository
+     * @since 4.1
+     */
+    public void setConnections(int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("Number of connections must be positive, but was " + connections);
+        }
+        this.connections = connections;
+    }
+
+    /**
+     * Sets the maximum number of bytes that are written to the destination at once when sending
+     * a batch of messages. Defaults to 65536.
+     *
+     * @param maxBatchBytes maximum number of bytes per write
+     * @since 4.1
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("Maximum batch size must be positive, but was " + maxBatchBytes);
+        }
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
     /**
      * Allows to customize the destination, e.g. to set network-specific parameters
      * @param destination destination used for the connection
@@ -62,22 +96,66 @@ public abstract class NioTLSSyslogSenderImpl<H, D extends NioTLSSyslogSenderImpl
     public void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, String auditMessage) {
         if (auditMessage != null) {
             Destination<H> destination = getDestination(auditContext.getAuditRepositoryHostName(), auditContext.getAuditRepositoryPort());
-            var payload = getTransportPayload(auditMetadataProvider, auditMessage);
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Auditing {} bytes to {}:{}",
-                        payload.length,
-                        auditContext.getAuditRepositoryHostName(),
-                        auditContext.getAuditRepositoryPort());
-            }
-            destination.write(payload);
-            if (LOG.isTraceEnabled()) {
-                LOG.trace(new String(payload, StandardCharsets.UTF_8));
+            write(auditContext, destination, getTransportPayload(auditMetadataProvider, auditMessage));
+        }
+    }
+
+    /**
+     * Writes the frames of all messages to the destination with as few writes as possible,
+     * each covering at most {@link #setMaxBatchBytes(int) maxBatchBytes}. If a write fails after
+     * previous ones have succeeded, a {@link PartialBatchException} tells how many messages have been written.
+     */
+    @Override
+    public void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, Collection<String> auditMessages) {
+        Destination<H> destination = getDestination(auditContext.getAuditRepositoryHostName(), auditContext.getAuditRepositoryPort());
+        var batch = new ByteArrayOutputStream(Math.min(maxBatchBytes, 8192));
+        // messages that have been written, and messages that are in the current batch
+        var sent = 0;
+        var batched = 0;
+        for (var auditMessage : auditMessages) {
+            if (auditMessage != null) {
+                var payload = getTransportPayload(auditMetadataProvider, auditMessage);
+                if (batch.size() > 0 && batch.size() + payload.length > maxBatchBytes) {
+                    writeBatch(auditContext, destination, batch.toByteArray(), sent);
+                    batch.reset();
+                    sent += batched;
+                    batched = 0;
+                }
+                batch.writeBytes(payload);
             }
+            ++batched;
+        }
+        if (batch.size() > 0) {
+            writeBatch(auditContext, destination, batch.toByteArray(), sent);
+        }
+    }
+
+    private void writeBatch(AuditContext auditContext, Destination<H> destination, byte[] payload, int sent) {
+        try {
+            write(auditContext, destination, payload);
+        } catch (RuntimeException e) {
+            throw (sent > 0) ? new PartialBatchException(sent, e) : e;
+        }
+    }
+
+    private void write(AuditContext auditContext, Destination<H> destination, byte[] payload) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Auditing {} bytes to {}:{}",
+                    payload.length,
+                    auditContext.getAuditRepositoryHostName(),
+                    auditContext.getAuditRepositoryPort());
+        }
+        destination.write(payload);
+        if (LOG.isTraceEnabled()) {
+            LOG.trace(new String(payload, StandardCharsets.UTF_8));
         }
     }
 
     private D getDestination(String host, int port) {
-        return destinations.computeIfAbsent(host + port, s ->
+        var key = connections == 1 ?
+                host + port :
+                host + port + '#' + Math.floorMod(nextConnection.getAndIncrement(), connections);
+        return destinations.computeIfAbsent(key, s ->
                 customizeDestination(makeDestination(tlsParameters, host, port, loggingEnabled)));
     }
 
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.audit.protocol;
+
+import org.openehealth.ipf.commons.audit.AuditException;
+
+import java.util.Collection;
+
+/**
+ * Thrown by {@link AuditTransmissionProtocol#send(org.openehealth.ipf.commons.audit.AuditContext,
+ * org.openehealth.ipf.commons.audit.AuditMetadataProvider, Collection)} if a batch has been sent partially.
+ * The first {@link #getSentMessages() sentMessages} messages of the batch have been sent, the remaining
+ * ones have not. The cause is the exception that stopped the transmission.
+ *
+ * @since 4.1
+ */
+public class PartialBatchException extends AuditException {
+
+    private final int sentMessages;
+
+    /**
+     * @param sentMessages number of leading messages of the batch that have been sent
+     * @param cause        exception that stopped the transmission
+     */
+    public PartialBatchException(int sentMessages, Throwable cause) {
+        super(sentMessages + " messages of the batch have been sent before the transmission failed", cause);
+        this.sentMessages = sentMessages;
+    }
+
+    /**
+     * @return number of leading messages of the batch that have been sent
+     */
+    public int getSentMessages() {
+        return sentMessages;
+    }
+
+    /**
+     * @param t exception thrown when sending a batch
+     * @return number of leading messages of the batch that have been sent before the given exception
+     */
+    public static int sentMessages(Throwable t) {
+        return (t instanceof PartialBatchException) ? ((PartialBatchException) t).getSentMessages() : 0;
+    }
+
+    /**
+     * @param t exception thrown when sending a batch
+     * @return the exception that stopped the transmission
+     */
+    public static Throwable failure(Throwable t) {
+        return (t instanceof PartialBatchException && t.getCause() != null) ? t.getCause() : t;
+    }
+}
@@ -18,8 +18,6 @@ package org.openehealth.ipf.commons.audit.protocol;
 
 import org.openehealth.ipf.commons.audit.AuditMetadataProvider;
 
-import java.nio.charset.StandardCharsets;
-
 /**
  * Base client implementation of RFC 5424 syslog for sending audit messages to an Audit Record Repository
  * that implements RFC 5424 SYSLOG.
@@ -29,41 +27,29 @@ import java.nio.charset.StandardCharsets;
  */
 public class RFC5424Protocol {
 
-    /**
-     * Default syslog priority for this transport, according to
-     * http://dicom.nema.org/medical/dicom/current/output/html/part15.html#sect_A.6
-     */
-    private static final int TRANSPORT_PRI = 10 * 8 + 5;
-
-    /**
-     * Default syslog MSGID for this transport, according to
-     * http://dicom.nema.org/medical/dicom/current/output/html/part15.html#sect_A.6
-     */
-    private static final String TRANSPORT_MSGID = "IHE+RFC-3881";
-
+    private final SyslogFrameEncoder encoder;
 
     public RFC5424Protocol() {
+        this(false);
     }
 
+    /**
+     * @param octetCounting whether the payload is prefixed with its length as required by RFC 5425
+     * @since 4.1
+     */
+    protected RFC5424Protocol(boolean octetCounting) {
+        this.encoder = new SyslogFrameEncoder(octetCounting);
+    }
 
     /**
-     * Serialize the syslog message payload body for sending by this transport. Must only be
-     * called if this object was initialized with {@link #RFC5424Protocol()}
+     * Serialize the syslog message payload body for sending by this transport.
      *
      * @param auditMetadataProvider audit meta data
      * @param auditMessage          message to prepare
      * @return serialized message
      */
     protected byte[] getTransportPayload(AuditMetadataProvider auditMetadataProvider, String auditMessage) {
-        var msg = String.format("<%s>1 %s %s %s %s %s - \uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>%s",
-                TRANSPORT_PRI,
-                auditMetadataProvider.getTimestamp(),
-                auditMetadataProvider.getHostname(),
-                auditMetadataProvider.getSendingApplication().replace(' ', '_'),
-                auditMetadataProvider.getProcessID(),
-                TRANSPORT_MSGID,
-                auditMessage);
-        return msg.trim().getBytes(StandardCharsets.UTF_8);
+        return encoder.encode(auditMetadataProvider, auditMessage);
     }
 
 }
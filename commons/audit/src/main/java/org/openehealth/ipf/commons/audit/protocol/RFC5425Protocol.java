@@ -15,9 +15,6 @@
  */
 package org.openehealth.ipf.commons.audit.protocol;
 
-
-import org.openehealth.ipf.commons.audit.AuditMetadataProvider;
-
 /**
  * Base client implementation of RFC 5425 syslog for sending audit messages to an Audit Record Repository
  * that implements RFC 5425 (SYSLOG via TLS).
@@ -27,14 +24,8 @@ import org.openehealth.ipf.commons.audit.AuditMetadataProvider;
  */
 public class RFC5425Protocol extends RFC5424Protocol {
 
-    @Override
-    protected byte[] getTransportPayload(AuditMetadataProvider auditMetadataProvider, String auditMessage) {
-        var msgBytes = super.getTransportPayload(auditMetadataProvider, auditMessage);
-        var length = String.format("%d ", msgBytes.length).getBytes();
-        var output = new byte[length.length + msgBytes.length];
-        System.arraycopy(length, 0, output, 0, length.length);
-        System.arraycopy(msgBytes, 0, output, length.length, msgBytes.length);
-        return output;
+    public RFC5425Protocol() {
+        super(true);
     }
 
 }
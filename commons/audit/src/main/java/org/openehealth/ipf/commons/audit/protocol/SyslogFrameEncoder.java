@@ -0,0 +1,178 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.protocol;
+
+import org.openehealth.ipf.commons.audit.AuditMetadataProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Encodes audit messages into RFC 5424 syslog frames, optionally prefixed with the RFC 5425 octet count.
+ * The static part of the header (host name, application name, process ID, message ID and XML declaration)
+ * is encoded once per {@link AuditMetadataProvider} and reused as long as these values do not change.
+ * Each frame is encoded directly into a single byte array of exactly the required size.
+ *
+ * @since 4.1
+ */
+final class SyslogFrameEncoder {
+
+    /**
+     * Default syslog priority for this transport, according to
+     * http://dicom.nema.org/medical/dicom/current/output/html/part15.html#sect_A.6
+     */
+    private static final int TRANSPORT_PRI = 10 * 8 + 5;
+
+    /**
+     * Default syslog MSGID for this transport, according to
+     * http://dicom.nema.org/medical/dicom/current/output/html/part15.html#sect_A.6
+     */
+    private static final String TRANSPORT_MSGID = "IHE+RFC-3881";
+
+    private static final byte[] PRI_VERSION = ("<" + TRANSPORT_PRI + ">1 ").getBytes(StandardCharsets.US_ASCII);
+
+    private final boolean octetCounting;
+    private volatile Header header;
+
+    /**
+     * @param octetCounting whether frames are prefixed with their length as required by RFC 5425
+     */
+    SyslogFrameEncoder(boolean octetCounting) {
+        this.octetCounting = octetCounting;
+    }
+
+    /**
+     * Encodes the audit message into a syslog frame. Trailing whitespace of the message is omitted.
+     *
+     * @param auditMetadataProvider audit meta data
+     * @param auditMessage          audit message
+     * @return syslog frame
+     */
+    byte[] encode(AuditMetadataProvider auditMetadataProvider, String auditMessage) {
+        var header = header(auditMetadataProvider);
+        var timestamp = String.valueOf(auditMetadataProvider.getTimestamp());
+        var end = auditMessage.length();
+        while (end > 0 && auditMessage.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        var length = PRI_VERSION.length + utf8Length(timestamp, timestamp.length()) + header.bytes.length
+                + utf8Length(auditMessage, end);
+        var offset = 0;
+        byte[] frame;
+        if (octetCounting) {
+            var octetCount = Integer.toString(length);
+            frame = new byte[octetCount.length() + 1 + length];
+            for (var i = 0; i < octetCount.length(); i++) {
+                frame[offset++] = (byte) octetCount.charAt(i);
+            }
+            frame[offset++] = ' ';
+        } else {
+            frame = new byte[length];
+        }
+        System.arraycopy(PRI_VERSION, 0, frame, offset, PRI_VERSION.length);
+        offset = utf8(timestamp, timestamp.length(), frame, offset + PRI_VERSION.length);
+        System.arraycopy(header.bytes, 0, frame, offset, header.bytes.length);
+        utf8(auditMessage, end, frame, offset + header.bytes.length);
+        return frame;
+    }
+
+    private Header header(AuditMetadataProvider auditMetadataProvider) {
+        var hostname = auditMetadataProvider.getHostname();
+        var sendingApplication = auditMetadataProvider.getSendingApplication();
+        var processID = auditMetadataProvider.getProcessID();
+        var current = header;
+        if (current == null || !current.matches(hostname, sendingApplication, processID)) {
+            current = new Header(hostname, sendingApplication, processID);
+            header = current;
+        }
+        return current;
+    }
+
+    private static int utf8Length(String s, int end) {
+        var length = 0;
+        for (var i = 0; i < end; i++) {
+            var c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are replaced with '?', like String#getBytes does
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int utf8(String s, int end, byte[] dest, int offset) {
+        for (var i = 0; i < end; i++) {
+            var c = s.charAt(i);
+            if (c < 0x80) {
+                dest[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                dest[offset++] = (byte) (0xC0 | (c >> 6));
+                dest[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                var codePoint = Character.toCodePoint(c, s.charAt(++i));
+                dest[offset++] = (byte) (0xF0 | (codePoint >> 18));
+                dest[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                dest[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                dest[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                dest[offset++] = '?';
+            } else {
+                dest[offset++] = (byte) (0xE0 | (c >> 12));
+                dest[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dest[offset++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Encoded header fields following the timestamp, up to and including the XML declaration
+     */
+    private static final class Header {
+
+        private final String hostname;
+        private final String sendingApplication;
+        private final String processID;
+        private final byte[] bytes;
+
+        Header(String hostname, String sendingApplication, String processID) {
+            this.hostname = hostname;
+            this.sendingApplication = sendingApplication;
+            this.processID = processID;
+            this.bytes = String.format(" %s %s %s %s - \uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+                    hostname,
+                    sendingApplication.replace(' ', '_'),
+                    processID,
+                    TRANSPORT_MSGID).getBytes(StandardCharsets.UTF_8);
+        }
+
+        boolean matches(String hostname, String sendingApplication, String processID) {
+            return Objects.equals(this.hostname, hostname) &&
+                    Objects.equals(this.sendingApplication, sendingApplication) &&
+                    Objects.equals(this.processID, processID);
+        }
+    }
+}
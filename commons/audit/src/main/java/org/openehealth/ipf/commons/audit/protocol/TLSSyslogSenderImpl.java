@@ -25,19 +25,27 @@ import org.slf4j.LoggerFactory;
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Simple client implementation of RFC 5425 TLS syslog transport for sending
  * audit messages to an Audit Record Repository that implements TLS syslog.
- * Multiple messages may be sent over the same socket.
+ * Multiple messages may be sent over the same socket, and several sockets may be
+ * used in parallel (see {@link #setConnections(int)}). Batches of messages are
+ * written with a single write and flush per {@link #setMaxBatchBytes(int) maxBatchBytes}.
  * <p>
  * Designed to run in a standalone mode and is not dependent on any context or
  * configuration.
@@ -59,9 +67,14 @@ public class TLSSyslogSenderImpl extends RFC5425Protocol implements AuditTransmi
     private static final int MIN_SO_TIMEOUT = 1;
     private static final Boolean DEFAULT_SOCKET_KEEPALIVE = Boolean.TRUE;
 
-    private final AtomicReference<Socket> socket = new AtomicReference<>();
     private final SocketFactory socketFactory;
     private final SocketTestPolicy socketTestPolicy;
+    private int connectionCount = 1;
+    private int maxBatchBytes = 65536;
+    private long livenessCheckIntervalMillis = 1000;
+    private volatile Connection[] connections;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private ScheduledExecutorService livenessChecker;
 
     /**
      * Constructor which uses default values for all parameters.
@@ -103,59 +116,173 @@ public class TLSSyslogSenderImpl extends RFC5425Protocol implements AuditTransmi
     }
 
 
+    /**
+     * Sets the number of TLS connections that are used in parallel. Defaults to 1.
+     * Must be set before the first message is sent.
+     *
+     * @param connectionCount number of connections
+     * @since 4.1
+     */
+    public void setConnections(int connectionCount) {
+        if (connectionCount < 1) {
+            throw new IllegalArgumentException("Number of connections must be positive, but was " + connectionCount);
+        }
+        this.connectionCount = connectionCount;
+    }
+
+    /**
+     * Sets the maximum number of bytes that are written at once when sending a batch of messages.
+     * A single message larger than this is still written at once. Defaults to 65536.
+     *
+     * @param maxBatchBytes maximum number of bytes per write
+     * @since 4.1
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("Maximum batch size must be positive, but was " + maxBatchBytes);
+        }
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Sets the interval, in which idle connections are tested if the socket test policy is
+     * {@link SocketTestPolicy#TEST_ASYNCHRONOUSLY}. Defaults to 1000.
+     * Must be set before the first message is sent.
+     *
+     * @param livenessCheckIntervalMillis interval in milliseconds
+     * @since 4.1
+     */
+    public void setLivenessCheckIntervalMillis(long livenessCheckIntervalMillis) {
+        if (livenessCheckIntervalMillis < 1) {
+            throw new IllegalArgumentException("Liveness check interval must be positive, but was " + livenessCheckIntervalMillis);
+        }
+        this.livenessCheckIntervalMillis = livenessCheckIntervalMillis;
+    }
+
     @Override
     public String getTransportName() {
         return AuditTransmissionChannel.TLS.getProtocolName();
     }
 
-    private Socket getSocket(AuditContext auditContext) {
-        if (socket.get() == null)
-            socket.compareAndSet(null, getTLSSocket(auditContext));
-        return socket.get();
+    private Connection nextConnection() {
+        var current = connections;
+        if (current == null) {
+            synchronized (this) {
+                if (connections == null) {
+                    var created = new Connection[connectionCount];
+                    for (var i = 0; i < created.length; i++) {
+                        created[i] = new Connection();
+                    }
+                    // the liveness checker reads the connections
+                    connections = created;
+                    if (socketTestPolicy.isAsynchronous()) {
+                        livenessChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                            var thread = new Thread(runnable, "ipf-audit-tls-liveness");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                        livenessChecker.scheduleWithFixedDelay(this::checkLiveness,
+                                livenessCheckIntervalMillis, livenessCheckIntervalMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+                current = connections;
+            }
+        }
+        return current.length == 1 ? current[0] : current[Math.floorMod(nextConnection.getAndIncrement(), current.length)];
     }
 
     @Override
     public void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, String auditMessage) throws Exception {
         if (auditMessage != null) {
             var msgBytes = getTransportPayload(auditMetadataProvider, auditMessage);
-            LOG.debug("Auditing {} bytes to {}:{}",
-                    msgBytes.length,
-                    auditContext.getAuditRepositoryHostName(),
-                    auditContext.getAuditRepositoryPort());
-            try {
-                doSend(auditContext, msgBytes);
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace(new String(msgBytes, StandardCharsets.UTF_8));
-                }
-            } catch (SocketException | SocketTimeoutException e) {
-                try {
-                    LOG.info("Failed to use existing TLS socket. Will create a new connection and retry.");
-                    closeSocket(socket.get());
-                    socket.set(null);
-                    doSend(auditContext, msgBytes);
-                } catch (Exception exception) {
-                    LOG.error("Failed to audit using new TLS socket, giving up - this audit message will be lost.");
-                    closeSocket(socket.get());
-                    socket.set(null);
-                    // re-throw the exception so caller knows what happened
-                    throw exception;
+            send(auditContext, msgBytes);
+        }
+    }
+
+    /**
+     * Writes the frames of all messages with as few writes and flushes as possible,
+     * each covering at most {@link #setMaxBatchBytes(int) maxBatchBytes}. If a write fails after
+     * previous ones have succeeded, a {@link PartialBatchException} tells how many messages have been sent.
+     */
+    @Override
+    public void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, Collection<String> auditMessages) throws Exception {
+        var batch = new ByteArrayOutputStream(Math.min(maxBatchBytes, 8192));
+        // messages that have been written, and messages that are in the current batch
+        var sent = 0;
+        var batched = 0;
+        for (var auditMessage : auditMessages) {
+            if (auditMessage != null) {
+                var msgBytes = getTransportPayload(auditMetadataProvider, auditMessage);
+                if (batch.size() > 0 && batch.size() + msgBytes.length > maxBatchBytes) {
+                    sendBatch(auditContext, batch.toByteArray(), sent);
+                    batch.reset();
+                    sent += batched;
+                    batched = 0;
                 }
+                batch.writeBytes(msgBytes);
+            }
+            ++batched;
+        }
+        if (batch.size() > 0) {
+            sendBatch(auditContext, batch.toByteArray(), sent);
+        }
+    }
+
+    private void sendBatch(AuditContext auditContext, byte[] msgBytes, int sent) throws Exception {
+        try {
+            send(auditContext, msgBytes);
+        } catch (Exception e) {
+            throw (sent > 0) ? new PartialBatchException(sent, e) : e;
+        }
+    }
+
+    private void send(AuditContext auditContext, byte[] msgBytes) throws Exception {
+        LOG.debug("Auditing {} bytes to {}:{}",
+                msgBytes.length,
+                auditContext.getAuditRepositoryHostName(),
+                auditContext.getAuditRepositoryPort());
+        var connection = nextConnection();
+        try {
+            doSend(auditContext, connection, msgBytes);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace(new String(msgBytes, StandardCharsets.UTF_8));
+            }
+        } catch (SocketException | SocketTimeoutException e) {
+            try {
+                LOG.info("Failed to use existing TLS socket. Will create a new connection and retry.");
+                connection.close();
+                doSend(auditContext, connection, msgBytes);
+            } catch (Exception exception) {
+                LOG.error("Failed to audit using new TLS socket, giving up - this audit message will be lost.");
+                connection.close();
+                // re-throw the exception so caller knows what happened
+                throw exception;
             }
         }
     }
 
     @Override
     public void shutdown() {
-        if (socket.get() != null) {
+        if (livenessChecker != null) {
+            livenessChecker.shutdownNow();
+        }
+        var current = connections;
+        if (current != null) {
             // TODO could wait until everything is sent
-            closeSocket(socket.get());
+            for (var connection : current) {
+                closeSocket(connection.socket.get());
+            }
         }
     }
 
-    private synchronized void doSend(AuditContext auditContext, byte[] msgBytes)
+    private void doSend(AuditContext auditContext, Connection connection, byte[] msgBytes)
             throws IOException {
-        final var socket = getSocket(auditContext);
+        synchronized (connection) {
+            doSend(connection.getSocket(auditContext), msgBytes);
+        }
+    }
 
+    private void doSend(Socket socket, byte[] msgBytes) throws IOException {
         if (socketTestPolicy.isBeforeWrite()) {
             LOG.trace("Testing whether socket connection is alive and well before attempting to write");
             if (!isSocketConnectionAlive(socket)) {
@@ -210,6 +337,24 @@ public class TLSSyslogSenderImpl extends RFC5425Protocol implements AuditTransmi
         return socket;
     }
 
+    /**
+     * Tests the connections that are currently not in use and closes them if they are dead,
+     * so that the next message is sent over a new connection.
+     */
+    private void checkLiveness() {
+        for (var connection : connections) {
+            var socket = connection.socket.get();
+            if (socket != null && !socket.isClosed()) {
+                synchronized (connection) {
+                    if (socket == connection.socket.get() && !isSocketConnectionAlive(socket)) {
+                        LOG.info("Asynchronous socket test determined that the socket connection is dead, closing it");
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Override this method to set any socket option. The default implementation
      * sets {@code SO_KEEPALIVE} to {@code true}. The method is called once for
@@ -290,25 +435,49 @@ public class TLSSyslogSenderImpl extends RFC5425Protocol implements AuditTransmi
         }
     }
 
+    /**
+     * Holds the socket of one of the parallel connections. Writes and socket tests on the
+     * connection are synchronized on this object.
+     */
+    private final class Connection {
+
+        private final AtomicReference<Socket> socket = new AtomicReference<>();
+
+        private Socket getSocket(AuditContext auditContext) {
+            if (socket.get() == null)
+                socket.compareAndSet(null, getTLSSocket(auditContext));
+            return socket.get();
+        }
+
+        private void close() {
+            closeSocket(socket.getAndSet(null));
+        }
+    }
+
     /**
      * Enum to control the level of paranoia when it comes to trusting the socket
      * connection. The more paranoid the more overhead is incurred.
+     * {@link #TEST_ASYNCHRONOUSLY} tests idle connections in the background instead
+     * of before or after each write.
      *
      * @author taastrad
      */
     public enum SocketTestPolicy {
 
-        DONT_TEST_POLICY(false, false),
-        TEST_BEFORE_WRITE(true, false),
-        TEST_AFTER_WRITE(false, true),
-        TEST_BEFORE_AND_AFTER_WRITE(true, true);
+        DONT_TEST_POLICY(false, false, false),
+        TEST_BEFORE_WRITE(true, false, false),
+        TEST_AFTER_WRITE(false, true, false),
+        TEST_BEFORE_AND_AFTER_WRITE(true, true, false),
+        TEST_ASYNCHRONOUSLY(false, false, true);
 
         private final boolean beforeWrite;
         private final boolean afterWrite;
+        private final boolean asynchronous;
 
-        SocketTestPolicy(boolean beforeWrite, boolean afterWrite) {
+        SocketTestPolicy(boolean beforeWrite, boolean afterWrite, boolean asynchronous) {
             this.beforeWrite = beforeWrite;
             this.afterWrite = afterWrite;
+            this.asynchronous = asynchronous;
         }
 
         public boolean isBeforeWrite() {
@@ -319,6 +488,10 @@ public class TLSSyslogSenderImpl extends RFC5425Protocol implements AuditTransmi
             return afterWrite;
         }
 
+        public boolean isAsynchronous() {
+            return asynchronous;
+        }
+
     }
 
     /**
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of serialized audit records, split into memory-mapped segment files of fixed size.
+ * <p>
+ * Records are addressed by a position that grows monotonically across segments; each segment covers the
+ * positions from its base position (which is also its file name) up to the next multiple of the segment size.
+ * Each record is stored as its length, its CRC32C checksum and its UTF-8 bytes. A length of 0 marks the
+ * end of the records in a segment.
+ * </p>
+ * <p>
+ * The position up to which records have been sent is stored in a separate checkpoint file. Segments
+ * that lie completely before the checkpoint are deleted. New segments are only created as long as the
+ * number of segments stays within the disk budget.
+ * </p>
+ * <p>
+ * Records are appended by any thread, but must be read and checkpointed by a single thread.
+ * </p>
+ * <p>
+ * The mapping of a segment is released when the segment is deleted or the log is closed, rather than
+ * when the garbage collector gets to it. Where the JDK does not allow that, the mapping is left to the
+ * garbage collector, which delays releasing it.
+ * </p>
+ *
+ * @since 4.1
+ */
+class AuditLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditLog.class);
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final Pattern SEGMENT_FILE = Pattern.compile("audit-(\\d{20})\\.log");
+    private static final int RECORD_HEADER = 8;
+    private static final MethodHandle UNMAPPER = unmapper();
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final FileChannel checkpointChannel;
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(Long.BYTES);
+    private final CRC32C appendChecksum = new CRC32C();
+    private final CRC32C readChecksum = new CRC32C();
+
+    private Segment head;
+    private boolean closed;
+    private volatile long writePosition;
+    private volatile long syncedPosition;
+    private volatile long checkpoint;
+
+    /**
+     * Opens the log in the given directory, recovering the segments and the checkpoint left by
+     * a previous instance. Records at the end of the last segment that were not completely written
+     * are ignored.
+     *
+     * @param directory   directory of the segment files
+     * @param segmentSize size of a segment file in bytes
+     * @param diskBudget  maximum number of bytes of all segment files
+     * @throws IOException if the files cannot be read or created
+     */
+    AuditLog(Path directory, int segmentSize, long diskBudget) throws IOException {
+        if (segmentSize <= RECORD_HEADER * 2) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, Math.min(Integer.MAX_VALUE, diskBudget / segmentSize));
+        Files.createDirectories(directory);
+
+        this.checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        var storedCheckpoint = 0L;
+        if (checkpointChannel.read(checkpointBuffer, 0) == Long.BYTES) {
+            storedCheckpoint = checkpointBuffer.getLong(0);
+        }
+
+        List<Path> files;
+        try (var paths = Files.list(directory)) {
+            files = paths
+                    .filter(path -> SEGMENT_FILE.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (var file : files) {
+            var matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+            matcher.matches();
+            var base = Long.parseLong(matcher.group(1));
+            if (Files.size(file) != segmentSize || base % segmentSize != 0) {
+                throw new IOException("Segment " + file + " does not match the segment size of " + segmentSize + " bytes");
+            }
+            segments.put(base, new Segment(base, file));
+        }
+
+        if (segments.isEmpty()) {
+            var base = ceilToSegment(storedCheckpoint);
+            head = createSegment(base);
+            writePosition = base;
+            checkpoint = base;
+        } else {
+            head = segments.lastEntry().getValue();
+            writePosition = head.base + recover(head);
+            checkpoint = Math.max(storedCheckpoint, segments.firstKey());
+            if (checkpoint > writePosition) {
+                LOG.warn("Checkpoint {} lies beyond the end of the audit log at {}, resetting it", checkpoint, writePosition);
+                checkpoint = writePosition;
+            }
+        }
+        syncedPosition = writePosition;
+        LOG.info("Opened audit log in {} with {} segment(s), {} bytes pending", directory, segments.size(), writePosition - checkpoint);
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param record serialized audit record
+     * @return position after the record, or -1 if the disk budget is exhausted
+     * @throws IOException              if a new segment could not be created or the log is closed
+     * @throws IllegalArgumentException if the record does not fit into a segment
+     */
+    synchronized long append(byte[] record) throws IOException {
+        if (closed) {
+            throw new IOException("Audit log in " + directory + " is closed");
+        }
+        if (record.length + RECORD_HEADER * 2 > segmentSize) {
+            throw new IllegalArgumentException("Audit record of " + record.length + " bytes does not fit into a segment of " + segmentSize + " bytes");
+        }
+        var offset = (int) (writePosition - head.base);
+        if (offset + RECORD_HEADER + record.length + RECORD_HEADER > segmentSize) {
+            if (segments.size() >= maxSegments) {
+                return -1;
+            }
+            // mark the end of the segment explicitly, as a previous run may have left data behind it
+            head.buffer.putInt(offset, 0);
+            head.buffer.force();
+            var next = createSegment(head.base + segmentSize);
+            head = next;
+            offset = 0;
+        }
+        appendChecksum.reset();
+        appendChecksum.update(record);
+        var buffer = head.buffer;
+        buffer.position(offset + RECORD_HEADER);
+        buffer.put(record);
+        buffer.putInt(offset + Integer.BYTES, (int) appendChecksum.getValue());
+        // the length is written last, so that a reader never sees an incomplete record
+        buffer.putInt(offset, record.length);
+        writePosition = head.base + offset + RECORD_HEADER + record.length;
+        return writePosition;
+    }
+
+    /**
+     * Reads records starting at the given position
+     *
+     * @param position position of the first record
+     * @param max      maximum number of records to read
+     * @param records  list that the records are added to
+     * @return position after the last record read
+     */
+    long read(long position, int max, List<String> records) {
+        var end = writePosition;
+        var count = 0;
+        while (count < max && position < end) {
+            var entry = segments.floorEntry(position);
+            var segmentEnd = entry != null ? entry.getKey() + segmentSize : ceilToSegment(position + 1);
+            if (entry == null || entry.getKey() + segmentSize <= position) {
+                position = segmentEnd;
+                continue;
+            }
+            var segment = entry.getValue();
+            var offset = (int) (position - segment.base);
+            var length = offset + RECORD_HEADER <= segmentSize ? segment.reader.getInt(offset) : 0;
+            if (length <= 0) {
+                position = segmentEnd;
+                continue;
+            }
+            var bytes = new byte[length];
+            segment.reader.position(offset + RECORD_HEADER);
+            segment.reader.get(bytes);
+            readChecksum.reset();
+            readChecksum.update(bytes);
+            if ((int) readChecksum.getValue() != segment.reader.getInt(offset + Integer.BYTES)) {
+                LOG.warn("Skipping corrupt audit record at position {}", position);
+            } else {
+                records.add(new String(bytes, StandardCharsets.UTF_8));
+                count++;
+            }
+            position += RECORD_HEADER + length;
+        }
+        return position;
+    }
+
+    /**
+     * Forces all records appended so far to disk
+     *
+     * @throws IOException if forcing failed
+     */
+    void sync() throws IOException {
+        Segment segment;
+        long position;
+        synchronized (this) {
+            segment = head;
+            position = writePosition;
+        }
+        if (position > syncedPosition) {
+            // records in previous segments have been forced when the segment was completed
+            segment.force();
+            syncedPosition = position;
+        }
+    }
+
+    /**
+     * Stores the position up to which records have been sent and deletes segments that are
+     * no longer needed
+     *
+     * @param position position after the last record sent
+     * @throws IOException if the checkpoint could not be stored
+     */
+    void checkpoint(long position) throws IOException {
+        checkpointBuffer.putLong(0, position);
+        checkpointBuffer.rewind();
+        checkpointChannel.write(checkpointBuffer, 0);
+        checkpointChannel.force(false);
+        checkpoint = position;
+        for (var segment : segments.headMap(position, true).values()) {
+            if (segment.base + segmentSize <= position && segment != head) {
+                segments.remove(segment.base);
+                segment.close(true);
+                Files.deleteIfExists(segment.path);
+                LOG.debug("Deleted audit log segment {}", segment.path);
+            }
+        }
+    }
+
+    long getWritePosition() {
+        return writePosition;
+    }
+
+    long getSyncedPosition() {
+        return syncedPosition;
+    }
+
+    long getCheckpoint() {
+        return checkpoint;
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(true);
+    }
+
+    /**
+     * Closes the log.
+     *
+     * @param unmap whether the segments shall be unmapped, which must only be done if no other thread
+     *              reads the log anymore
+     * @throws IOException if forcing the records to disk failed
+     */
+    synchronized void close(boolean unmap) throws IOException {
+        if (closed) {
+            return;
+        }
+        sync();
+        closed = true;
+        for (var segment : segments.values()) {
+            segment.close(unmap);
+        }
+        checkpointChannel.close();
+    }
+
+    private long ceilToSegment(long position) {
+        return ((position + segmentSize - 1) / segmentSize) * segmentSize;
+    }
+
+    private Segment createSegment(long base) throws IOException {
+        var segment = new Segment(base, directory.resolve(String.format("audit-%020d.log", base)));
+        segments.put(base, segment);
+        LOG.debug("Created audit log segment {}", segment.path);
+        return segment;
+    }
+
+    /**
+     * @return offset after the last complete record in the segment
+     */
+    private int recover(Segment segment) {
+        var offset = 0;
+        var checksum = new CRC32C();
+        while (offset + RECORD_HEADER <= segmentSize) {
+            var length = segment.buffer.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER + length > segmentSize) {
+                break;
+            }
+            var bytes = new byte[length];
+            segment.buffer.position(offset + RECORD_HEADER);
+            segment.buffer.get(bytes);
+            checksum.reset();
+            checksum.update(bytes);
+            if ((int) checksum.getValue() != segment.buffer.getInt(offset + Integer.BYTES)) {
+                LOG.warn("Ignoring incomplete audit record at the end of {}", segment.path);
+                break;
+            }
+            offset += RECORD_HEADER + length;
+        }
+        // clear any garbage behind the last complete record, so that it is not mistaken for a record later
+        if (offset + RECORD_HEADER <= segmentSize) {
+            segment.buffer.putInt(offset, 0);
+        }
+        return offset;
+    }
+
+    private final class Segment {
+
+        private final long base;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final ByteBuffer reader;
+        private boolean closed;
+
+        Segment(long base, Path path) throws IOException {
+            this.base = base;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            this.reader = buffer.duplicate();
+        }
+
+        synchronized void force() {
+            if (!closed) {
+                buffer.force();
+            }
+        }
+
+        synchronized void close(boolean unmap) throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            channel.close();
+            if (unmap && UNMAPPER != null) {
+                try {
+                    UNMAPPER.invokeExact((ByteBuffer) buffer);
+                } catch (Throwable e) {
+                    LOG.debug("Could not unmap audit log segment {}", path, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return handle of <code>sun.misc.Unsafe.invokeCleaner(ByteBuffer)</code>, or <code>null</code> if not available
+     */
+    private static MethodHandle unmapper() {
+        try {
+            var unsafeClass = Class.forName("sun.misc.Unsafe");
+            var field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (Exception e) {
+            LOG.debug("Memory-mapped audit log segments cannot be unmapped explicitly", e);
+            return null;
+        }
+    }
+}
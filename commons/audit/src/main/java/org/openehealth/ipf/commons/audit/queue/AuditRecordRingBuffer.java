@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.queue;
+
+import org.openehealth.ipf.commons.audit.AuditContext;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded, lock-free ring buffer of serialized audit records. All slots are allocated up front, so
+ * that enqueuing a record does not allocate. Any number of threads may offer and poll concurrently;
+ * each slot carries a sequence number that tells whether it is ready to be written or read.
+ *
+ * @since 4.1
+ */
+class AuditRecordRingBuffer {
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AuditContext[] contexts;
+    private final String[] records;
+    private final long[] timestamps;
+    private final Map<String, String>[] mdcContextMaps;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity requested capacity, rounded up to the next power of two, but at least 2
+     */
+    @SuppressWarnings("unchecked")
+    AuditRecordRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30, but was " + capacity);
+        }
+        // with a single slot, the sequence numbers of a full and an empty slot would be the same
+        var size = Math.max(2, Integer.highestOneBit(capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (var i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.contexts = new AuditContext[size];
+        this.records = new String[size];
+        this.timestamps = new long[size];
+        this.mdcContextMaps = (Map<String, String>[]) new Map<?, ?>[size];
+    }
+
+    /**
+     * Adds a record unless the buffer is full
+     *
+     * @return true if the record has been added
+     */
+    boolean offer(AuditContext auditContext, String auditRecord, long timestamp, Map<String, String> mdcContextMap) {
+        var position = tail.get();
+        for (;;) {
+            var index = (int) (position & mask);
+            var difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    contexts[index] = auditContext;
+                    records[index] = auditRecord;
+                    timestamps[index] = timestamp;
+                    mdcContextMaps[index] = mdcContextMap;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes records and copies them into the given arrays, starting at index {@code from}
+     * and ending before index {@code to} at the latest
+     *
+     * @return number of records removed
+     */
+    int drain(AuditContext[] auditContexts, String[] auditRecords, long[] enqueueTimestamps, Map<String, String>[] mdcs, int from, int to) {
+        var index = from;
+        while (index < to) {
+            var position = claim();
+            if (position < 0) {
+                break;
+            }
+            var slot = (int) (position & mask);
+            auditContexts[index] = contexts[slot];
+            auditRecords[index] = records[slot];
+            enqueueTimestamps[index] = timestamps[slot];
+            mdcs[index] = mdcContextMaps[slot];
+            release(position);
+            index++;
+        }
+        return index - from;
+    }
+
+    /**
+     * Removes the oldest record and passes it to the given consumer together with its audit context
+     *
+     * @return false if the buffer was empty
+     */
+    boolean discard(BiConsumer<AuditContext, String> consumer) {
+        var position = claim();
+        if (position < 0) {
+            return false;
+        }
+        var slot = (int) (position & mask);
+        var auditContext = contexts[slot];
+        var auditRecord = records[slot];
+        release(position);
+        consumer.accept(auditContext, auditRecord);
+        return true;
+    }
+
+    private long claim() {
+        var position = head.get();
+        for (;;) {
+            var index = (int) (position & mask);
+            var difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return -1;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    private void release(long position) {
+        var index = (int) (position & mask);
+        contexts[index] = null;
+        records[index] = null;
+        mdcContextMaps[index] = null;
+        sequences.lazySet(index, position + mask + 1);
+    }
+
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
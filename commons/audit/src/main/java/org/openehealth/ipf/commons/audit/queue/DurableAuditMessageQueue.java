@@ -0,0 +1,490 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.queue;
+
+import org.openehealth.ipf.commons.audit.AuditContext;
+import org.openehealth.ipf.commons.audit.AuditException;
+import org.openehealth.ipf.commons.audit.protocol.PartialBatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audit queue that appends serialized audit records to a write-ahead log on disk before they are sent, so that
+ * records survive an unreachable audit repository as well as a restart of the application. The log consists of
+ * memory-mapped segment files in the configured {@link #setDirectory(Path) directory}.
+ * <p>
+ * A sync thread forces appended records to disk every {@link #setSyncIntervalMillis(long) syncIntervalMillis}, so
+ * that records arriving within this interval share one fsync (group commit). If
+ * {@link #setSynchronousCommit(boolean) synchronousCommit} is set, the calling thread waits until its record has
+ * been forced to disk.
+ * </p>
+ * <p>
+ * A drain thread reads the records in the order of their arrival and passes them in batches to the
+ * {@link org.openehealth.ipf.commons.audit.protocol.AuditTransmissionProtocol} of the audit context. If sending
+ * fails, the batch is retried with exponential backoff, so records may be sent more than once. After
+ * {@link #setMaxAttempts(int) maxAttempts} failed attempts, the unsent records of the batch are passed to the
+ * {@link org.openehealth.ipf.commons.audit.handler.AuditExceptionHandler} and skipped, so that records which the
+ * repository keeps refusing do not block the ones behind them. The position of the records sent is checkpointed
+ * after each batch, and segments that have been sent completely are deleted. If the
+ * {@link #setDiskBudget(long) disk budget} is
+ * exhausted, new records are rejected and passed to the
+ * {@link org.openehealth.ipf.commons.audit.handler.AuditExceptionHandler}.
+ * </p>
+ * <p>
+ * The threads are started when the first record arrives, or by calling {@link #start()}. Records left over from
+ * a previous run are sent using the audit context of the first record, unless an
+ * {@link #setAuditContext(AuditContext) audit context} has been set explicitly.
+ * </p>
+ *
+ * @since 4.1
+ */
+public class DurableAuditMessageQueue extends AbstractAuditMessageQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DurableAuditMessageQueue.class);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int STOPPED = 2;
+
+    private Path directory;
+    private int segmentSize = 16 * 1024 * 1024;
+    private long diskBudget = 1024L * 1024 * 1024;
+    private long syncIntervalMillis = 10;
+    private boolean synchronousCommit = false;
+    private int batchSize = 64;
+    private long initialBackoffMillis = 100;
+    private long maxBackoffMillis = 60000;
+    private int maxAttempts = 10;
+    private int shutdownTimeoutSeconds = 30;
+
+    private volatile int state = NEW;
+    private volatile AuditContext auditContext;
+    private AuditLog log;
+    private Thread syncer;
+    private Thread drainer;
+    private final Object syncMonitor = new Object();
+
+    private final LongAdder appendedRecords = new LongAdder();
+    private final LongAdder sentRecords = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder skippedRecords = new LongAdder();
+    private final LongAdder rejectedRecords = new LongAdder();
+
+    /**
+     * Sets the directory of the log files. Must be set before the queue is started. The directory is
+     * created if it does not exist yet.
+     *
+     * @param directory directory of the log files
+     * @throws IllegalArgumentException if the directory cannot be created or is not writable
+     */
+    public void setDirectory(Path directory) {
+        Objects.requireNonNull(directory);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot create directory " + directory + " of the audit log", e);
+        }
+        if (!Files.isWritable(directory)) {
+            throw new IllegalArgumentException("Directory " + directory + " of the audit log is not writable");
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * Sets the size of a segment file in bytes, which limits the size of a single record as well. Defaults to 16 MiB.
+     * Must not be changed while the directory contains segment files.
+     *
+     * @param segmentSize segment size in bytes
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes of all segment files, but at least two segments are used. Defaults to 1 GiB.
+     *
+     * @param diskBudget disk budget in bytes
+     */
+    public void setDiskBudget(long diskBudget) {
+        this.diskBudget = diskBudget;
+    }
+
+    /**
+     * Sets the interval in which appended records are forced to disk. Defaults to 10.
+     *
+     * @param syncIntervalMillis sync interval in milliseconds
+     */
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        if (syncIntervalMillis < 1) {
+            throw new IllegalArgumentException("Sync interval must be positive, but was " + syncIntervalMillis);
+        }
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * Sets whether the calling thread shall wait until its record has been forced to disk. Defaults to false,
+     * i.e. records appended within the last {@link #setSyncIntervalMillis(long) syncIntervalMillis} may be lost
+     * if the operating system crashes.
+     *
+     * @param synchronousCommit whether to wait for the record to be forced to disk
+     */
+    public void setSynchronousCommit(boolean synchronousCommit) {
+        this.synchronousCommit = synchronousCommit;
+    }
+
+    /**
+     * Sets the maximum number of records that are passed to the transmission protocol at once. Defaults to 64.
+     *
+     * @param batchSize maximum batch size
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, but was " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the time to wait before a failed batch is sent again. The time doubles with each further failure.
+     * Defaults to 100.
+     *
+     * @param initialBackoffMillis initial backoff in milliseconds
+     */
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Sets the maximum time to wait before a failed batch is sent again. Defaults to 60000.
+     *
+     * @param maxBackoffMillis maximum backoff in milliseconds
+     */
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Sets how often a batch is sent before its unsent records are passed to the
+     * {@link org.openehealth.ipf.commons.audit.handler.AuditExceptionHandler} and skipped. Defaults to 10.
+     * With the default backoff settings, this takes about two minutes. 0 means that batches are retried
+     * until they have been sent.
+     *
+     * @param maxAttempts maximum number of attempts per batch, or 0
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 0) {
+            throw new IllegalArgumentException("Maximum number of attempts must not be negative, but was " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Sets the timeout to wait for pending records to be sent when flushing or shutting down. Defaults to 30.
+     *
+     * @param shutdownTimeoutSeconds timeout in seconds
+     */
+    public void setShutdownTimeoutSeconds(int shutdownTimeoutSeconds) {
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * Sets the audit context used to send the records. By default, the audit context of the first record
+     * arriving after the queue has been created is used for all records.
+     *
+     * @param auditContext audit context
+     */
+    public void setAuditContext(AuditContext auditContext) {
+        this.auditContext = auditContext;
+    }
+
+    @Override
+    protected void handle(AuditContext auditContext, String auditRecord) {
+        if (auditRecord == null) {
+            return;
+        }
+        if (this.auditContext == null) {
+            this.auditContext = auditContext;
+        }
+        try {
+            if (state != RUNNING && !start()) {
+                auditContext.getAuditExceptionHandler().handleException(auditContext,
+                        new AuditException("Audit queue has been shut down, rejecting audit record"), auditRecord);
+                return;
+            }
+        } catch (IllegalStateException | UncheckedIOException e) {
+            // the queue stays new, so opening the log is tried again with the next record
+            rejected(auditContext, new AuditException("Could not open the audit log, rejecting audit record", e), auditRecord);
+            return;
+        }
+        long position;
+        try {
+            position = log.append(auditRecord.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | IllegalArgumentException e) {
+            rejected(auditContext, new AuditException("Could not append audit record to the log", e), auditRecord);
+            return;
+        }
+        if (position < 0) {
+            rejected(auditContext, new AuditException("Disk budget of audit log is exhausted, rejecting audit record"), auditRecord);
+            return;
+        }
+        appendedRecords.increment();
+        LockSupport.unpark(drainer);
+        if (synchronousCommit) {
+            awaitSync(position);
+        }
+    }
+
+    /**
+     * Opens the log and starts the sync and drain threads, so that records left over from a previous
+     * run are sent. Called implicitly when the first record arrives; if the log cannot be opened then,
+     * the record is passed to the {@link org.openehealth.ipf.commons.audit.handler.AuditExceptionHandler}.
+     *
+     * @return whether the queue is running, i.e. has not been shut down
+     * @throws IllegalStateException if the directory has not been set
+     * @throws UncheckedIOException  if the log cannot be opened
+     */
+    public synchronized boolean start() {
+        if (state == NEW) {
+            if (directory == null) {
+                throw new IllegalStateException("Directory of the audit log has not been set");
+            }
+            try {
+                log = new AuditLog(directory, segmentSize, diskBudget);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            state = RUNNING;
+            syncer = new Thread(this::sync, "ipf-audit-log-syncer");
+            syncer.setDaemon(true);
+            syncer.start();
+            drainer = new Thread(this::drain, "ipf-audit-log-drainer");
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+        return state == RUNNING;
+    }
+
+    private void rejected(AuditContext auditContext, AuditException e, String auditRecord) {
+        rejectedRecords.increment();
+        auditContext.getAuditExceptionHandler().handleException(auditContext, e, auditRecord);
+    }
+
+    private void awaitSync(long position) {
+        LockSupport.unpark(syncer);
+        synchronized (syncMonitor) {
+            while (log.getSyncedPosition() < position && state == RUNNING) {
+                try {
+                    syncMonitor.wait(syncIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void sync() {
+        var intervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        while (state == RUNNING) {
+            LockSupport.parkNanos(this, intervalNanos);
+            try {
+                log.sync();
+            } catch (IOException e) {
+                LOG.warn("Failed to force audit log to disk", e);
+            }
+            synchronized (syncMonitor) {
+                syncMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void drain() {
+        var records = new ArrayList<String>(batchSize);
+        var backoffMillis = initialBackoffMillis;
+        var attempts = 0;
+        while (state == RUNNING) {
+            var auditContext = this.auditContext;
+            var position = log.getCheckpoint();
+            if (auditContext == null || position >= log.getWritePosition()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            records.clear();
+            var next = log.read(position, batchSize, records);
+            try {
+                if (!records.isEmpty()) {
+                    auditContext.getAuditTransmissionProtocol().send(auditContext, auditContext.getAuditMetadataProvider(), records);
+                    sentRecords.add(records.size());
+                }
+            } catch (Exception e) {
+                failedAttempts.increment();
+                var sent = Math.min(PartialBatchException.sentMessages(e), records.size());
+                if (sent > 0) {
+                    // the leading records have been sent, continue after them
+                    sentRecords.add(sent);
+                    attempts = 0;
+                    next = log.read(position, sent, new ArrayList<>(sent));
+                } else if (maxAttempts > 0 && ++attempts >= maxAttempts) {
+                    LOG.warn("Failed to send {} audit record(s) {} times, giving up", records.size(), attempts, e);
+                    skip(auditContext, records, PartialBatchException.failure(e));
+                    attempts = 0;
+                } else {
+                    LOG.warn("Failed to send {} audit record(s), retrying in {} ms", records.size(), backoffMillis, e);
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+                    backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+                    continue;
+                }
+            }
+            if (next == position) {
+                continue;
+            }
+            backoffMillis = initialBackoffMillis;
+            attempts = 0;
+            try {
+                log.checkpoint(next);
+            } catch (IOException e) {
+                LOG.warn("Failed to checkpoint audit log, records may be sent again after a restart", e);
+            }
+        }
+    }
+
+    private void skip(AuditContext auditContext, List<String> records, Throwable failure) {
+        skippedRecords.add(records.size());
+        for (var record : records) {
+            try {
+                auditContext.getAuditExceptionHandler().handleException(auditContext, failure, record);
+            } catch (Exception e) {
+                LOG.warn("Audit exception handler failed", e);
+            }
+        }
+    }
+
+    /**
+     * Waits for at most {@link #setShutdownTimeoutSeconds(int) shutdownTimeoutSeconds} until all records
+     * currently in the log have been sent.
+     */
+    @Override
+    public void flush() {
+        if (state != RUNNING) {
+            return;
+        }
+        var end = log.getWritePosition();
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        while (log.getCheckpoint() < end) {
+            if (System.nanoTime() - deadline > 0) {
+                LOG.warn("Timeout occurred when flushing Audit events, {} bytes are still pending", getPendingBytes());
+                return;
+            }
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Stops the threads and closes the log. Records that have not been sent yet remain in the log
+     * and are sent when the queue is started again.
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (state != RUNNING) {
+            state = STOPPED;
+            return;
+        }
+        state = STOPPED;
+        try {
+            for (var thread : new Thread[]{drainer, syncer}) {
+                LockSupport.unpark(thread);
+                thread.join(TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds));
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Thread interrupt when shutting down audit log", e);
+            Thread.currentThread().interrupt();
+        }
+        synchronized (syncMonitor) {
+            syncMonitor.notifyAll();
+        }
+        try {
+            // segments must not be unmapped while a thread that did not terminate in time may still access them
+            log.close(!drainer.isAlive() && !syncer.isAlive());
+        } catch (IOException e) {
+            LOG.warn("Failed to close audit log", e);
+        }
+    }
+
+    /**
+     * @return number of bytes in the log that have not been sent yet
+     */
+    public long getPendingBytes() {
+        return state != NEW && log != null ? log.getWritePosition() - log.getCheckpoint() : 0;
+    }
+
+    /**
+     * @return number of segment files currently in use
+     */
+    public int getSegmentCount() {
+        return state != NEW && log != null ? log.getSegmentCount() : 0;
+    }
+
+    /**
+     * @return number of records that have been appended to the log
+     */
+    public long getAppendedRecords() {
+        return appendedRecords.sum();
+    }
+
+    /**
+     * @return number of records that have been passed to the transmission protocol successfully
+     */
+    public long getSentRecords() {
+        return sentRecords.sum();
+    }
+
+    /**
+     * @return number of failed attempts to send a batch of records
+     */
+    public long getFailedAttempts() {
+        return failedAttempts.sum();
+    }
+
+    /**
+     * @return number of records that have been given up after {@link #setMaxAttempts(int) maxAttempts}
+     * failed attempts
+     */
+    public long getSkippedRecords() {
+        return skippedRecords.sum();
+    }
+
+    /**
+     * @return number of records that have been rejected because they could not be appended to the log
+     */
+    public long getRejectedRecords() {
+        return rejectedRecords.sum();
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.queue;
+
+import org.openehealth.ipf.commons.audit.AuditContext;
+import org.openehealth.ipf.commons.audit.AuditException;
+import org.openehealth.ipf.commons.audit.protocol.PartialBatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Audit queue that puts serialized audit records into a bounded, preallocated ring buffer. Dedicated
+ * drain threads take the records out of the buffer and pass them in batches to the
+ * {@link org.openehealth.ipf.commons.audit.protocol.AuditTransmissionProtocol}. In contrast to
+ * {@link AsynchronousAuditMessageQueue}, no task object is created per record, and the memory used by
+ * the queue does not grow if the audit repository is slow or unreachable. What happens if the buffer
+ * is full is determined by the {@link OverflowPolicy}.
+ * <p>
+ * The drain threads are started when the first record arrives. When this queue is {@link #shutdown() shut down},
+ * it waits for at most {@link #setShutdownTimeoutSeconds(int) shutdownTimeoutSeconds} until all pending records
+ * are sent. Records arriving afterwards are sent synchronously.
+ * </p>
+ * <p>
+ * The MDC context map is not copied to the drain threads unless {@link #setPropagateMdc(boolean) propagateMdc}
+ * is set.
+ * </p>
+ *
+ * @since 4.1
+ */
+public class RingBufferAuditMessageQueue extends AbstractAuditMessageQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RingBufferAuditMessageQueue.class);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int STOPPED = 2;
+
+    /**
+     * Defines what happens to an audit record if the buffer is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for at most {@link #setBlockTimeoutMillis(long) blockTimeoutMillis} until there is room in
+         * the buffer, then drop the record
+         */
+        BLOCK,
+        /**
+         * Drop the oldest record in the buffer to make room for the new one
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the new record
+         */
+        DROP_NEWEST,
+        /**
+         * Pass the new record to the {@link #setSpillHandler(BiConsumer) spill handler}, which sends it
+         * synchronously by default
+         */
+        SPILL
+    }
+
+    private int capacity = 8192;
+    private int batchSize = 64;
+    private int drainThreads = 1;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private long blockTimeoutMillis = 100;
+    private long batchDelayMillis = 0;
+    private int shutdownTimeoutSeconds = 30;
+    private boolean propagateMdc = false;
+    private BiConsumer<AuditContext, String> spillHandler = RingBufferAuditMessageQueue::sendSynchronously;
+
+    private volatile int state = NEW;
+    private AuditRecordRingBuffer buffer;
+    private Thread[] drainers;
+    private final AtomicInteger idleDrainers = new AtomicInteger();
+    private final AtomicInteger busyDrainers = new AtomicInteger();
+    // callers of handle() which may be about to put a record into the buffer
+    private final AtomicInteger activeProducers = new AtomicInteger();
+
+    private final LongAdder enqueuedRecords = new LongAdder();
+    private final LongAdder sentRecords = new LongAdder();
+    private final LongAdder failedRecords = new LongAdder();
+    private final LongAdder droppedRecords = new LongAdder();
+    private final LongAdder spilledRecords = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Sets the capacity of the buffer, which is rounded up to the next power of two, but at least 2. Defaults to 8192.
+     * Must be set before the first record arrives.
+     *
+     * @param capacity capacity of the buffer
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets the maximum number of records that are passed to the transmission protocol at once. Defaults to 64.
+     *
+     * @param batchSize maximum batch size
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, but was " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets how long a drain thread waits for further records if it has found fewer than
+     * {@link #setBatchSize(int) batchSize} records, so that records arriving within this window
+     * are sent together. Defaults to 0, i.e. records are sent as soon as they have been found.
+     *
+     * @param batchDelayMillis delay in milliseconds
+     */
+    public void setBatchDelayMillis(long batchDelayMillis) {
+        this.batchDelayMillis = batchDelayMillis;
+    }
+
+    /**
+     * Sets the number of threads that drain the buffer. Defaults to 1.
+     *
+     * @param drainThreads number of drain threads
+     */
+    public void setDrainThreads(int drainThreads) {
+        if (drainThreads < 1) {
+            throw new IllegalArgumentException("Number of drain threads must be positive, but was " + drainThreads);
+        }
+        this.drainThreads = drainThreads;
+    }
+
+    /**
+     * Sets what happens if the buffer is full. Defaults to {@link OverflowPolicy#BLOCK}.
+     *
+     * @param overflowPolicy overflow policy
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+    }
+
+    /**
+     * Sets how long the caller waits for room in the buffer if the overflow policy is
+     * {@link OverflowPolicy#BLOCK}. Defaults to 100.
+     *
+     * @param blockTimeoutMillis timeout in milliseconds
+     */
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /**
+     * Sets the timeout to wait for pending records to be sent when shutting down. Defaults to 30.
+     *
+     * @param shutdownTimeoutSeconds timeout in seconds
+     */
+    public void setShutdownTimeoutSeconds(int shutdownTimeoutSeconds) {
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * Sets whether the MDC context map of the calling thread shall be copied to the drain threads.
+     * Defaults to false, because this costs a copy of the map for each record.
+     *
+     * @param propagateMdc whether to propagate the MDC
+     */
+    public void setPropagateMdc(boolean propagateMdc) {
+        this.propagateMdc = propagateMdc;
+    }
+
+    /**
+     * Sets the handler for records that do not fit into the buffer if the overflow policy is
+     * {@link OverflowPolicy#SPILL}. By default, these records are sent synchronously in the calling thread.
+     *
+     * @param spillHandler spill handler
+     */
+    public void setSpillHandler(BiConsumer<AuditContext, String> spillHandler) {
+        this.spillHandler = Objects.requireNonNull(spillHandler);
+    }
+
+    @Override
+    protected void handle(AuditContext auditContext, String auditRecord) {
+        if (auditRecord == null) {
+            return;
+        }
+        if (state != RUNNING && !start()) {
+            sendSynchronously(auditContext, auditRecord);
+            return;
+        }
+        // announce before checking the state again, so that shutdown() waits for this record to be enqueued
+        activeProducers.incrementAndGet();
+        try {
+            if (state != RUNNING) {
+                sendSynchronously(auditContext, auditRecord);
+                return;
+            }
+            enqueue(auditContext, auditRecord);
+        } finally {
+            activeProducers.decrementAndGet();
+        }
+    }
+
+    private void enqueue(AuditContext auditContext, String auditRecord) {
+        var mdcContextMap = propagateMdc ? MDC.getCopyOfContextMap() : null;
+        var timestamp = System.nanoTime();
+        if (buffer.offer(auditContext, auditRecord, timestamp, mdcContextMap)) {
+            enqueued();
+            return;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                var deadline = timestamp + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                do {
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    if (buffer.offer(auditContext, auditRecord, System.nanoTime(), mdcContextMap)) {
+                        enqueued();
+                        return;
+                    }
+                } while (System.nanoTime() - deadline < 0);
+                dropped(auditContext, auditRecord);
+                break;
+            case DROP_OLDEST:
+                while (!buffer.offer(auditContext, auditRecord, timestamp, mdcContextMap)) {
+                    buffer.discard(this::dropped);
+                }
+                enqueued();
+                break;
+            case DROP_NEWEST:
+                dropped(auditContext, auditRecord);
+                break;
+            case SPILL:
+                spilledRecords.increment();
+                spillHandler.accept(auditContext, auditRecord);
+                break;
+        }
+    }
+
+    private synchronized boolean start() {
+        if (state == NEW) {
+            buffer = new AuditRecordRingBuffer(capacity);
+            drainers = new Thread[drainThreads];
+            state = RUNNING;
+            for (var i = 0; i < drainThreads; i++) {
+                var batch = new Batch(batchSize);
+                drainers[i] = new Thread(() -> drain(batch), "ipf-audit-drainer-" + i);
+                drainers[i].setDaemon(true);
+                drainers[i].start();
+            }
+            LOG.debug("Started {} audit drain thread(s) on a buffer of {} records", drainThreads, buffer.capacity());
+        }
+        return state == RUNNING;
+    }
+
+    private void enqueued() {
+        enqueuedRecords.increment();
+        if (idleDrainers.get() > 0) {
+            for (var drainer : drainers) {
+                LockSupport.unpark(drainer);
+            }
+        }
+    }
+
+    private void dropped(AuditContext auditContext, String auditRecord) {
+        droppedRecords.increment();
+        auditContext.getAuditExceptionHandler().handleException(auditContext,
+                new AuditException("Audit queue is full, dropping audit record"), auditRecord);
+    }
+
+    private void drain(Batch batch) {
+        for (;;) {
+            busyDrainers.incrementAndGet();
+            int count;
+            try {
+                count = fill(batch, 0);
+                if (count > 0 && count < batch.size && batchDelayMillis > 0 && state == RUNNING) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(batchDelayMillis));
+                    count += fill(batch, count);
+                }
+                if (count > 0) {
+                    send(batch, count);
+                }
+            } finally {
+                busyDrainers.decrementAndGet();
+            }
+            if (count == 0) {
+                if (state != RUNNING) {
+                    return;
+                }
+                idleDrainers.incrementAndGet();
+                try {
+                    if (buffer.isEmpty() && state == RUNNING) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                } finally {
+                    idleDrainers.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private int fill(Batch batch, int from) {
+        return buffer.drain(batch.contexts, batch.records, batch.timestamps, batch.mdcContextMaps, from, batch.size);
+    }
+
+    private void send(Batch batch, int count) {
+        var start = 0;
+        for (var i = 1; i <= count; i++) {
+            // Records are passed on together as long as they share the audit context and MDC
+            if (i == count || batch.contexts[i] != batch.contexts[start] || batch.mdcContextMaps[i] != batch.mdcContextMaps[start]) {
+                send(batch, start, i);
+                start = i;
+            }
+        }
+        batch.clear(count);
+    }
+
+    private void send(Batch batch, int from, int to) {
+        var auditContext = batch.contexts[from];
+        var mdcContextMap = batch.mdcContextMaps[from];
+        var records = batch.list;
+        records.clear();
+        for (var i = from; i < to; i++) {
+            records.add(batch.records[i]);
+        }
+        try {
+            if (mdcContextMap != null) {
+                MDC.setContextMap(mdcContextMap);
+            }
+            auditContext.getAuditTransmissionProtocol().send(auditContext, auditContext.getAuditMetadataProvider(), records);
+            sentRecords.add(to - from);
+        } catch (Throwable t) {
+            // records of the batch which have been sent before the failure
+            var sent = Math.min(PartialBatchException.sentMessages(t), to - from);
+            var failure = PartialBatchException.failure(t);
+            sentRecords.add(sent);
+            failedRecords.add(to - from - sent);
+            for (var record : records.subList(sent, records.size())) {
+                try {
+                    auditContext.getAuditExceptionHandler().handleException(auditContext, failure, record);
+                } catch (Exception e) {
+                    LOG.warn("Audit exception handler failed", e);
+                }
+            }
+        } finally {
+            if (mdcContextMap != null) {
+                MDC.clear();
+            }
+            records.clear();
+            var now = System.nanoTime();
+            for (var i = from; i < to; i++) {
+                var latency = now - batch.timestamps[i];
+                latencyNanos.add(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            }
+        }
+    }
+
+    private static void sendSynchronously(AuditContext auditContext, String auditRecord) {
+        try {
+            auditContext.getAuditTransmissionProtocol().send(auditContext, auditRecord);
+        } catch (Exception e) {
+            auditContext.getAuditExceptionHandler().handleException(auditContext, e, auditRecord);
+        }
+    }
+
+    /**
+     * Waits for at most {@link #setShutdownTimeoutSeconds(int) shutdownTimeoutSeconds} until all records
+     * currently in the buffer have been sent.
+     */
+    @Override
+    public void flush() {
+        if (state != RUNNING) {
+            return;
+        }
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        while (!buffer.isEmpty() || busyDrainers.get() > 0) {
+            if (System.nanoTime() - deadline > 0) {
+                LOG.warn("Timeout occurred when flushing Audit events, {} events are still pending", buffer.size());
+                return;
+            }
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (state != RUNNING) {
+            state = STOPPED;
+            return;
+        }
+        state = STOPPED;
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        try {
+            for (var drainer : drainers) {
+                LockSupport.unpark(drainer);
+                var remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining > 0) {
+                    drainer.join(remaining);
+                }
+                if (drainer.isAlive()) {
+                    LOG.warn("Timeout occurred when flushing Audit events, some events might have been lost");
+                    drainer.interrupt();
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Thread interrupt when flushing ATNA events, some events might have been lost", e);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Records that were added while the drain threads were stopping
+        while (activeProducers.get() > 0) {
+            if (System.nanoTime() - deadline > 0) {
+                LOG.warn("Timeout occurred when waiting for Audit events to be enqueued, some events might have been lost");
+                break;
+            }
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+        }
+        var batch = new Batch(batchSize);
+        int count;
+        while ((count = fill(batch, 0)) > 0) {
+            send(batch, count);
+        }
+    }
+
+    /**
+     * @return number of records currently in the buffer
+     */
+    public int getSize() {
+        return state != NEW && buffer != null ? buffer.size() : 0;
+    }
+
+    /**
+     * @return number of records that have been put into the buffer
+     */
+    public long getEnqueuedRecords() {
+        return enqueuedRecords.sum();
+    }
+
+    /**
+     * @return number of records that have been passed to the transmission protocol successfully
+     */
+    public long getSentRecords() {
+        return sentRecords.sum();
+    }
+
+    /**
+     * @return number of records that the transmission protocol failed to send
+     */
+    public long getFailedRecords() {
+        return failedRecords.sum();
+    }
+
+    /**
+     * @return number of records that have been dropped because the buffer was full
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.sum();
+    }
+
+    /**
+     * @return number of records that have been passed to the spill handler because the buffer was full
+     */
+    public long getSpilledRecords() {
+        return spilledRecords.sum();
+    }
+
+    /**
+     * @return sum of the times in nanoseconds between enqueuing and sending the records
+     */
+    public long getTotalLatencyNanos() {
+        return latencyNanos.sum();
+    }
+
+    /**
+     * @return maximum time in nanoseconds between enqueuing and sending a record
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+    /**
+     * Preallocated holder for the records that a drain thread passes on at once
+     */
+    private static final class Batch {
+
+        private final int size;
+        private final AuditContext[] contexts;
+        private final String[] records;
+        private final long[] timestamps;
+        private final Map<String, String>[] mdcContextMaps;
+        private final List<String> list;
+
+        @SuppressWarnings("unchecked")
+        Batch(int size) {
+            this.size = size;
+            this.contexts = new AuditContext[size];
+            this.records = new String[size];
+            this.timestamps = new long[size];
+            this.mdcContextMaps = (Map<String, String>[]) new Map<?, ?>[size];
+            this.list = new ArrayList<>(size);
+        }
+
+        void clear(int count) {
+            for (var i = 0; i < count; i++) {
+                contexts[i] = null;
+                records[i] = null;
+                mdcContextMaps[i] = null;
+            }
+        }
+    }
+}
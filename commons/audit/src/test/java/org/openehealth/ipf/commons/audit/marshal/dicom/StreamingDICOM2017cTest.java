@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.marshal.dicom;
+
+import org.junit.Test;
+import org.openehealth.ipf.commons.audit.model.AuditMessage;
+import org.openehealth.ipf.commons.audit.unmarshal.dicom.DICOMAuditParser;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class StreamingDICOM2017cTest {
+
+    private final StreamingDICOM2017c streaming = new StreamingDICOM2017c();
+    private final DICOM2017c jdom = new DICOM2017c();
+
+    @Test
+    public void sameOutputAsJdom() throws Exception {
+        var files = auditFiles();
+        assertFalse(files.isEmpty());
+        for (var file : files) {
+            var auditMessage = parse(file);
+            assertSameOutput(auditMessage);
+            var writer = new StringWriter();
+            streaming.marshal(auditMessage, writer, false);
+            assertEquals(jdom.marshal(auditMessage, false), writer.toString());
+            assertEquals(jdom.marshal(auditMessage, true), streaming.marshal(auditMessage, true));
+        }
+    }
+
+    @Test
+    public void sameEscapingAsJdom() throws Exception {
+        var auditMessage = parse(auditFiles().get(0));
+        auditMessage.getEventIdentification().setEventOutcomeDescription("  a <b> & \"c\" 'd'\n\t e\r😀  ");
+        auditMessage.getActiveParticipants().get(0).setUserName(" x <y> & \"z\" 'w'\t\n\ré😀 ");
+        assertSameOutput(auditMessage);
+
+        auditMessage.getEventIdentification().setEventOutcomeDescription(" \n ");
+        assertSameOutput(auditMessage);
+
+        auditMessage.getEventIdentification().setEventOutcomeDescription("");
+        assertSameOutput(auditMessage);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalCharacter() throws Exception {
+        var auditMessage = parse(auditFiles().get(0));
+        auditMessage.getActiveParticipants().get(0).setUserName("\u0001");
+        streaming.marshal(auditMessage, false);
+    }
+
+    @Test
+    public void currentFallsBackToJdom() throws Exception {
+        var auditMessage = parse(auditFiles().get(0));
+        var current = new Current();
+        var expected = current.marshal(auditMessage, false);
+        current.setStreaming(false);
+        assertEquals(expected, current.marshal(auditMessage, false));
+    }
+
+    private void assertSameOutput(AuditMessage auditMessage) {
+        assertEquals(jdom.marshal(auditMessage, false), streaming.marshal(auditMessage, false));
+    }
+
+    private static AuditMessage parse(Path file) throws IOException {
+        return new DICOMAuditParser().parse(Files.readString(file, StandardCharsets.UTF_8), true);
+    }
+
+    private List<Path> auditFiles() throws URISyntaxException, IOException {
+        var resource = getClass().getClassLoader().getResource("audit");
+        return Files.walk(Paths.get(resource.toURI()))
+                .filter(Files::isRegularFile)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.protocol;
+
+import org.junit.Test;
+import org.openehealth.ipf.commons.audit.AuditMetadataProvider;
+import org.openehealth.ipf.commons.audit.DefaultAuditMetadataProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RFC5424ProtocolTest {
+
+    private static final List<String> MESSAGES = List.of(
+            "<AuditMessage/>",
+            "<AuditMessage a=\"ä€\">Grüße 😀</AuditMessage>\r\n",
+            "  <AuditMessage/> \t\n",
+            "\uD800 unpaired",
+            "",
+            " \r\n");
+
+    @Test
+    public void sameFramesAsFormattedString() {
+        var provider = new DefaultAuditMetadataProvider("host", "4711", "My App", "2021-01-01T12:00:00.123Z");
+        var rfc5424 = new RFC5424Protocol();
+        var rfc5425 = new RFC5425Protocol();
+        for (var message : MESSAGES) {
+            var expected = formatted(provider, message);
+            assertArrayEquals(expected, rfc5424.getTransportPayload(provider, message));
+            assertArrayEquals(octetCounted(expected), rfc5425.getTransportPayload(provider, message));
+        }
+    }
+
+    @Test
+    public void headerFollowsMetadataChanges() {
+        var provider = new DefaultAuditMetadataProvider("host", "4711", "IPF", "2021-01-01T12:00:00Z");
+        var protocol = new RFC5425Protocol();
+        assertArrayEquals(octetCounted(formatted(provider, MESSAGES.get(0))), protocol.getTransportPayload(provider, MESSAGES.get(0)));
+        provider.setHostName("otherhost");
+        provider.setSendingApplication("Other App");
+        assertArrayEquals(octetCounted(formatted(provider, MESSAGES.get(0))), protocol.getTransportPayload(provider, MESSAGES.get(0)));
+        var defaultProvider = AuditMetadataProvider.getDefault();
+        var frame = new String(protocol.getTransportPayload(defaultProvider, MESSAGES.get(0)), StandardCharsets.UTF_8);
+        assertTrue(frame.contains(" " + defaultProvider.getHostname() + " IPF " + defaultProvider.getProcessID() + " IHE+RFC-3881 - "));
+    }
+
+    @Test
+    public void cachedTimestamp() {
+        var provider = new DefaultAuditMetadataProvider();
+        for (var i = 0; i < 2000; i++) {
+            var before = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+            var timestamp = provider.getTimestamp();
+            var after = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+            var parsed = Instant.parse(timestamp);
+            assertEquals(parsed.toString(), timestamp);
+            assertTrue(!parsed.isBefore(before) && !parsed.isAfter(after));
+        }
+        provider.setPrecision(ChronoUnit.SECONDS);
+        var timestamp = provider.getTimestamp();
+        assertEquals(Instant.parse(timestamp).truncatedTo(ChronoUnit.SECONDS).toString(), timestamp);
+    }
+
+    private static byte[] formatted(AuditMetadataProvider provider, String message) {
+        return String.format("<85>1 %s %s %s %s IHE+RFC-3881 - \uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>%s",
+                provider.getTimestamp(),
+                provider.getHostname(),
+                provider.getSendingApplication().replace(' ', '_'),
+                provider.getProcessID(),
+                message).trim().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] octetCounted(byte[] frame) {
+        var length = (frame.length + " ").getBytes(StandardCharsets.US_ASCII);
+        var result = new byte[length.length + frame.length];
+        System.arraycopy(length, 0, result, 0, length.length);
+        System.arraycopy(frame, 0, result, length.length, frame.length);
+        return result;
+    }
+}
@@ -15,8 +15,12 @@
  */
 package org.openehealth.ipf.commons.audit.protocol;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -31,6 +35,7 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
@@ -242,6 +247,85 @@ public class TLSSyslogSenderImplTest {
         verify(is, never()).read();
     }
 
+    @Test
+    public void sendBatchWithSingleWriteTest() throws Exception {
+        var streamWriteCaptor = ArgumentCaptor.forClass(byte[].class);
+        tssi = new TLSSyslogSenderImpl(socketFactory, SocketTestPolicy.DONT_TEST_POLICY);
+        tssi.send(auditContext, AuditMetadataProvider.getDefault(), List.of(AUDIT_MESSAGE, AUDIT_MESSAGE, AUDIT_MESSAGE));
+
+        verify(socketFactory, times(1)).createSocket(any(InetAddress.class), any(Integer.class));
+        verify(os, times(1)).write(streamWriteCaptor.capture());
+        verify(os, times(1)).flush();
+        final var frames = new String(streamWriteCaptor.getValue(), StandardCharsets.UTF_8);
+        assertEquals(3, frames.split(AUDIT_MESSAGE, -1).length - 1);
+        assertTrue(frames.endsWith(AUDIT_MESSAGE));
+    }
+
+    @Test
+    public void sendBatchSplitByMaxBatchBytesTest() throws Exception {
+        tssi = new TLSSyslogSenderImpl(socketFactory, SocketTestPolicy.DONT_TEST_POLICY);
+        tssi.setMaxBatchBytes(1);
+        tssi.send(auditContext, AuditMetadataProvider.getDefault(), List.of(AUDIT_MESSAGE, AUDIT_MESSAGE, AUDIT_MESSAGE));
+
+        verify(os, times(3)).write(any(byte[].class));
+        verify(os, times(3)).flush();
+    }
+
+    @Test
+    public void sendBatchReportsMessagesSentBeforeFailureTest() throws Exception {
+        var failure = new IOException("Disk full on the other side");
+        doNothing().doThrow(failure).when(os).write(any(byte[].class));
+        tssi = new TLSSyslogSenderImpl(socketFactory, SocketTestPolicy.DONT_TEST_POLICY);
+        tssi.setMaxBatchBytes(1);
+        try {
+            tssi.send(auditContext, AuditMetadataProvider.getDefault(), List.of(AUDIT_MESSAGE, AUDIT_MESSAGE, AUDIT_MESSAGE));
+            fail();
+        } catch (PartialBatchException e) {
+            assertEquals(1, e.getSentMessages());
+            assertEquals(failure, e.getCause());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveMaxBatchBytesTest() {
+        new TLSSyslogSenderImpl(socketFactory, SocketTestPolicy.DONT_TEST_POLICY).setMaxBatchBytes(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveLivenessCheckIntervalTest() {
+        new TLSSyslogSenderImpl(socketFactory, SocketTestPolicy.TEST_ASYNCHRONOUSLY).setLivenessCheckIntervalMillis(0);
+    }
+
+    @Test
+    public void sendAsynchronousSocketTestPolicyTest() throws Exception {
+        when(socket.getInputStream()).thenReturn(is);
+        tssi = new TLSSyslogSenderImpl(socketFactory, SocketTestPolicy.TEST_ASYNCHRONOUSLY);
+        try {
+            tssi.send(auditContext, AUDIT_MESSAGE);
+            tssi.send(auditContext, AUDIT_MESSAGE);
+
+            verify(socket, times(1)).startHandshake();
+            verify(socket, times(1)).setSoTimeout(1);
+            verify(os, times(2)).write(any(byte[].class));
+            // No socket test on the sending thread
+            verify(is, never()).read();
+        } finally {
+            tssi.shutdown();
+        }
+    }
+
+    @Test
+    public void sendOverMultipleConnectionsTest() throws Exception {
+        tssi = new TLSSyslogSenderImpl(socketFactory, SocketTestPolicy.DONT_TEST_POLICY);
+        tssi.setConnections(2);
+        tssi.send(auditContext, AUDIT_MESSAGE);
+        tssi.send(auditContext, AUDIT_MESSAGE);
+        tssi.send(auditContext, AUDIT_MESSAGE);
+
+        verify(socketFactory, times(2)).createSocket(any(InetAddress.class), any(Integer.class));
+        verify(os, times(3)).write(any(byte[].class));
+    }
+
     private static class SocketOptionOverrideTLSSyslogSenderImpl extends TLSSyslogSenderImpl {
 
         public SocketOptionOverrideTLSSyslogSenderImpl(SSLSocketFactory socketFactory, SocketTestPolicy socketTestPolicy) {
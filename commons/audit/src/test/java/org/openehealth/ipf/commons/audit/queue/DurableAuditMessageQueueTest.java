@@ -0,0 +1,306 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.queue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openehealth.ipf.commons.audit.AuditContext;
+import org.openehealth.ipf.commons.audit.AuditMetadataProvider;
+import org.openehealth.ipf.commons.audit.DefaultAuditContext;
+import org.openehealth.ipf.commons.audit.protocol.AuditTransmissionProtocol;
+import org.openehealth.ipf.commons.audit.protocol.PartialBatchException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class DurableAuditMessageQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FlakyTransmission transmission;
+    private DefaultAuditContext context;
+    private DurableAuditMessageQueue queue;
+    private List<String> failures;
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder().toPath();
+        transmission = new FlakyTransmission();
+        failures = Collections.synchronizedList(new ArrayList<>());
+        context = new DefaultAuditContext();
+        context.setAuditEnabled(true);
+        context.setAuditTransmissionProtocol(transmission);
+        context.setAuditExceptionHandler((auditContext, t, auditMessage) -> failures.add(auditMessage));
+        queue = queue();
+        context.setAuditMessageQueue(queue);
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    public void sendInBatches() {
+        var records = records(0, 1000);
+        records.forEach(record -> queue.handle(context, record));
+        queue.flush();
+        assertEquals(records, transmission.messages);
+        assertEquals(1000, queue.getAppendedRecords());
+        assertEquals(1000, queue.getSentRecords());
+        assertEquals(0, queue.getPendingBytes());
+        assertTrue(transmission.batches < 1000);
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void retryWithBackoff() {
+        transmission.failures.set(3);
+        var records = records(0, 10);
+        records.forEach(record -> queue.handle(context, record));
+        queue.flush();
+        assertEquals(records, transmission.messages);
+        assertEquals(3, queue.getFailedAttempts());
+        assertEquals(10, queue.getSentRecords());
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void giveUpAfterMaxAttempts() {
+        queue.setMaxAttempts(3);
+        transmission.failures.set(3);
+        var records = records(0, 10);
+        records.forEach(record -> queue.handle(context, record));
+        queue.flush();
+        assertEquals(3, queue.getFailedAttempts());
+
+        // the failed batch has been passed to the exception handler and is not sent again
+        var skipped = (int) queue.getSkippedRecords();
+        assertTrue(skipped > 0);
+        assertEquals(records.subList(0, skipped), failures);
+        assertEquals(records.subList(skipped, 10), transmission.messages);
+        assertEquals(0, queue.getPendingBytes());
+    }
+
+    @Test
+    public void continueAfterPartiallySentBatch() {
+        queue.setMaxAttempts(1);
+        transmission.partial.set(2);
+        var records = records(0, 10);
+        records.forEach(record -> queue.handle(context, record));
+        queue.flush();
+
+        // the records sent before the failure are neither sent again nor skipped
+        assertEquals(records, transmission.messages);
+        assertEquals(1, queue.getFailedAttempts());
+        assertEquals(0, queue.getSkippedRecords());
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void synchronousCommit() {
+        queue.setSynchronousCommit(true);
+        var records = records(0, 100);
+        records.forEach(record -> queue.handle(context, record));
+        queue.flush();
+        assertEquals(records, transmission.messages);
+    }
+
+    @Test
+    public void replayAfterRestart() {
+        transmission.failures.set(Integer.MAX_VALUE);
+        var records = records(0, 20);
+        records.forEach(record -> queue.handle(context, record));
+        queue.shutdown();
+        assertTrue(transmission.messages.isEmpty());
+
+        transmission.failures.set(0);
+        queue = queue();
+        queue.setAuditContext(context);
+        assertTrue(queue.start());
+        queue.flush();
+        assertEquals(records, transmission.messages);
+
+        // already sent records are not sent again
+        queue.shutdown();
+        queue = queue();
+        queue.setAuditContext(context);
+        queue.start();
+        queue.handle(context, "last");
+        queue.flush();
+        assertEquals(21, transmission.messages.size());
+        assertEquals("last", transmission.messages.get(20));
+    }
+
+    @Test
+    public void ignoreIncompleteRecordAfterRestart() throws IOException {
+        transmission.failures.set(Integer.MAX_VALUE);
+        queue.handle(context, "first");
+        queue.shutdown();
+
+        // simulate a record that has not been completely written when crashing
+        try (var channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            var buffer = ByteBuffer.allocate(12).putInt(100).putInt(42).putInt(4711);
+            buffer.flip();
+            channel.write(buffer, 8 + "first".length());
+        }
+
+        transmission.failures.set(0);
+        queue = queue();
+        queue.setAuditContext(context);
+        queue.start();
+        queue.handle(context, "second");
+        queue.flush();
+        assertEquals(List.of("first", "second"), transmission.messages);
+    }
+
+    @Test
+    public void deleteSentSegments() throws IOException {
+        var records = records(0, 1000);
+        records.forEach(record -> queue.handle(context, record));
+        queue.flush();
+        assertEquals(records, transmission.messages);
+        assertEquals(1, queue.getSegmentCount());
+        assertEquals(1, segments().size());
+    }
+
+    @Test
+    public void rejectWhenDiskBudgetIsExhausted() {
+        queue.setDiskBudget(2048);
+        transmission.failures.set(Integer.MAX_VALUE);
+        var records = records(0, 200);
+        records.forEach(record -> queue.handle(context, record));
+        assertEquals(2, queue.getSegmentCount());
+        assertTrue(queue.getRejectedRecords() > 0);
+        assertEquals(200, queue.getAppendedRecords() + queue.getRejectedRecords());
+        assertEquals(queue.getRejectedRecords(), failures.size());
+
+        // records appended before the budget was exhausted are sent eventually
+        transmission.failures.set(0);
+        queue.flush();
+        assertEquals(records.subList(0, (int) queue.getAppendedRecords()), transmission.messages);
+    }
+
+    @Test
+    public void rejectTooLargeRecord() {
+        queue.handle(context, "x".repeat(2048));
+        assertEquals(1, queue.getRejectedRecords());
+        assertEquals(1, failures.size());
+    }
+
+    @Test
+    public void rejectWhenLogCannotBeOpened() {
+        var queue = new DurableAuditMessageQueue();
+        queue.handle(context, "a");
+        queue.handle(context, "b");
+        assertEquals(2, queue.getRejectedRecords());
+        assertEquals(List.of("a", "b"), failures);
+        queue.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectFileAsDirectory() throws IOException {
+        new DurableAuditMessageQueue().setDirectory(folder.newFile().toPath());
+    }
+
+    private DurableAuditMessageQueue queue() {
+        var queue = new DurableAuditMessageQueue();
+        queue.setDirectory(directory);
+        queue.setSegmentSize(1024);
+        queue.setDiskBudget(1024 * 1024);
+        queue.setInitialBackoffMillis(1);
+        queue.setMaxBackoffMillis(10);
+        queue.setShutdownTimeoutSeconds(5);
+        queue.setMaxAttempts(0);
+        return queue;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files
+                    .filter(path -> path.getFileName().toString().endsWith(".log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> records(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(i -> "record " + i)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Fails the given number of times before sending, or sends only the given number of messages of the next batch
+     */
+    private static class FlakyTransmission implements AuditTransmissionProtocol {
+
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger partial = new AtomicInteger();
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        private volatile int batches;
+
+        @Override
+        public void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, String auditMessage) {
+            send(auditContext, auditMetadataProvider, List.of(auditMessage));
+        }
+
+        @Override
+        public void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, Collection<String> auditMessages) {
+            if (failures.getAndUpdate(i -> i > 0 ? i - 1 : 0) > 0) {
+                throw new IllegalStateException("Audit repository unreachable");
+            }
+            var sent = partial.get();
+            if (sent > 0 && sent < auditMessages.size() && partial.compareAndSet(sent, 0)) {
+                messages.addAll(new ArrayList<>(auditMessages).subList(0, sent));
+                throw new PartialBatchException(sent, new IllegalStateException("Connection reset"));
+            }
+            messages.addAll(auditMessages);
+            batches++;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public String getTransportName() {
+            return "flaky";
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openehealth.ipf.commons.audit.queue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openehealth.ipf.commons.audit.AuditContext;
+import org.openehealth.ipf.commons.audit.AuditMetadataProvider;
+import org.openehealth.ipf.commons.audit.DefaultAuditContext;
+import org.openehealth.ipf.commons.audit.protocol.AuditTransmissionProtocol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class RingBufferAuditMessageQueueTest {
+
+    private BlockingTransmission transmission;
+    private DefaultAuditContext context;
+    private RingBufferAuditMessageQueue queue;
+    private List<String> failures;
+
+    @Before
+    public void setUp() {
+        transmission = new BlockingTransmission();
+        failures = Collections.synchronizedList(new ArrayList<>());
+        context = new DefaultAuditContext();
+        context.setAuditEnabled(true);
+        context.setAuditTransmissionProtocol(transmission);
+        context.setAuditExceptionHandler((auditContext, t, auditMessage) -> failures.add(auditMessage));
+        queue = new RingBufferAuditMessageQueue();
+        context.setAuditMessageQueue(queue);
+    }
+
+    @After
+    public void tearDown() {
+        transmission.release();
+        queue.shutdown();
+    }
+
+    @Test
+    public void sendInBatches() {
+        transmission.release();
+        var records = records(1000);
+        records.forEach(record -> queue.handle(context, record));
+        queue.flush();
+        assertEquals(records, transmission.messages);
+        assertEquals(1000, queue.getEnqueuedRecords());
+        assertEquals(1000, queue.getSentRecords());
+        assertEquals(0, queue.getSize());
+        assertTrue(transmission.batches < 1000);
+        assertTrue(queue.getMaxLatencyNanos() > 0);
+        assertTrue(queue.getTotalLatencyNanos() >= queue.getMaxLatencyNanos());
+    }
+
+    @Test
+    public void sendWithinBatchDelay() throws Exception {
+        transmission.release();
+        queue.setBatchDelayMillis(200);
+        var records = records(10);
+        records.forEach(record -> {
+            queue.handle(context, record);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        });
+        queue.flush();
+        assertEquals(records, transmission.messages);
+        assertTrue(transmission.batches < 10);
+    }
+
+    @Test
+    public void dropNewest() throws Exception {
+        queue.setCapacity(4);
+        queue.setBatchSize(1);
+        queue.setOverflowPolicy(RingBufferAuditMessageQueue.OverflowPolicy.DROP_NEWEST);
+        var records = records(10);
+        queue.handle(context, records.get(0));
+        transmission.awaitBlocked();
+        records.subList(1, 10).forEach(record -> queue.handle(context, record));
+        assertEquals(4, queue.getSize());
+        transmission.release();
+        queue.flush();
+        assertEquals(records.subList(0, 5), transmission.messages);
+        assertEquals(records.subList(5, 10), failures);
+        assertEquals(5, queue.getDroppedRecords());
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        queue.setCapacity(4);
+        queue.setBatchSize(1);
+        queue.setOverflowPolicy(RingBufferAuditMessageQueue.OverflowPolicy.DROP_OLDEST);
+        var records = records(10);
+        queue.handle(context, records.get(0));
+        transmission.awaitBlocked();
+        records.subList(1, 10).forEach(record -> queue.handle(context, record));
+        transmission.release();
+        queue.flush();
+        var expected = new ArrayList<>(records.subList(0, 1));
+        expected.addAll(records.subList(6, 10));
+        assertEquals(expected, transmission.messages);
+        assertEquals(records.subList(1, 6), failures);
+        assertEquals(5, queue.getDroppedRecords());
+    }
+
+    @Test
+    public void dropOldestReportsToContextOfDroppedRecord() throws Exception {
+        var otherFailures = Collections.synchronizedList(new ArrayList<String>());
+        var other = new DefaultAuditContext();
+        other.setAuditEnabled(true);
+        other.setAuditTransmissionProtocol(transmission);
+        other.setAuditExceptionHandler((auditContext, t, auditMessage) -> otherFailures.add(auditMessage));
+        queue.setCapacity(4);
+        queue.setBatchSize(1);
+        queue.setOverflowPolicy(RingBufferAuditMessageQueue.OverflowPolicy.DROP_OLDEST);
+        var records = records(6);
+        queue.handle(context, records.get(0));
+        transmission.awaitBlocked();
+        records.subList(1, 5).forEach(record -> queue.handle(context, record));
+        queue.handle(other, records.get(5));
+        assertEquals(records.subList(1, 2), failures);
+        assertTrue(otherFailures.isEmpty());
+    }
+
+    @Test
+    public void blockWithTimeout() throws Exception {
+        queue.setCapacity(2);
+        queue.setBatchSize(1);
+        queue.setBlockTimeoutMillis(50);
+        queue.handle(context, "first");
+        transmission.awaitBlocked();
+        queue.handle(context, "second");
+        queue.handle(context, "third");
+        var start = System.nanoTime();
+        queue.handle(context, "fourth");
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(List.of("fourth"), failures);
+        transmission.release();
+        queue.flush();
+        assertEquals(List.of("first", "second", "third"), transmission.messages);
+    }
+
+    @Test
+    public void spill() throws Exception {
+        var spilled = new ArrayList<String>();
+        queue.setCapacity(2);
+        queue.setBatchSize(1);
+        queue.setOverflowPolicy(RingBufferAuditMessageQueue.OverflowPolicy.SPILL);
+        queue.setSpillHandler((auditContext, auditRecord) -> spilled.add(auditRecord));
+        queue.handle(context, "first");
+        transmission.awaitBlocked();
+        queue.handle(context, "second");
+        queue.handle(context, "third");
+        queue.handle(context, "fourth");
+        assertEquals(List.of("fourth"), spilled);
+        assertEquals(1, queue.getSpilledRecords());
+    }
+
+    @Test
+    public void sendSynchronouslyAfterShutdown() {
+        transmission.release();
+        queue.handle(context, "first");
+        queue.shutdown();
+        assertEquals(List.of("first"), transmission.messages);
+        queue.handle(context, "second");
+        assertEquals(List.of("first", "second"), transmission.messages);
+    }
+
+    @Test
+    public void noRecordsLostWhenShuttingDownConcurrently() throws Exception {
+        transmission.release();
+        var producers = new ArrayList<Thread>();
+        var started = new CountDownLatch(4);
+        for (var i = 0; i < 4; i++) {
+            var records = records(500);
+            producers.add(new Thread(() -> {
+                started.countDown();
+                records.forEach(record -> queue.handle(context, record));
+            }));
+        }
+        producers.forEach(Thread::start);
+        started.await();
+        queue.shutdown();
+        for (var producer : producers) {
+            producer.join();
+        }
+        assertEquals(2000, transmission.messages.size());
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void reportOnlyUnsentRecordsOfPartialBatch() {
+        var sent = Collections.synchronizedList(new ArrayList<String>());
+        context.setAuditTransmissionProtocol(new AuditTransmissionProtocol() {
+            @Override
+            public void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, String auditMessage) throws Exception {
+                if (sent.size() == 2) {
+                    throw new IllegalStateException("Connection lost");
+                }
+                sent.add(auditMessage);
+            }
+
+            @Override
+            public void shutdown() {
+            }
+
+            @Override
+            public String getTransportName() {
+                return "partial";
+            }
+        });
+        queue.setBatchDelayMillis(100);
+        var records = records(4);
+        records.forEach(record -> queue.handle(context, record));
+        queue.flush();
+        assertEquals(records.subList(0, 2), sent);
+        assertEquals(records.subList(2, 4), failures);
+        assertEquals(2, queue.getSentRecords());
+        assertEquals(2, queue.getFailedRecords());
+    }
+
+    private static List<String> records(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> "record-" + i)
+                .collect(Collectors.toList());
+    }
+
+    private static class BlockingTransmission implements AuditTransmissionProtocol {
+
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private volatile int batches;
+
+        @Override
+        public void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, String auditMessage) throws Exception {
+            blocked.countDown();
+            released.await();
+            messages.add(auditMessage);
+        }
+
+        @Override
+        public void send(AuditContext auditContext, AuditMetadataProvider auditMetadataProvider, Collection<String> auditMessages) throws Exception {
+            batches++;
+            AuditTransmissionProtocol.super.send(auditContext, auditMetadataProvider, auditMessages);
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public String getTransportName() {
+            return "BLOCKING";
+        }
+    }
+}
@@ -16,8 +16,11 @@
 package org.openehealth.ipf.commons.ihe.hl7v2.audit
 
 import ca.uhn.hl7v2.model.Message
+import ca.uhn.hl7v2.model.Type
+import groovy.transform.CompileStatic
 import org.openehealth.ipf.commons.ihe.hl7v2.Constants
 import org.openehealth.ipf.modules.hl7.dsl.Repeatable
+import org.openehealth.ipf.modules.hl7.message.Hl7Path
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
@@ -31,6 +34,8 @@ import org.slf4j.LoggerFactory
 class AuditUtils {
     private static final transient Logger LOG = LoggerFactory.getLogger(AuditUtils.class)
 
+    private static final Hl7Path MSA_1 = Hl7Path.compile('MSA-1')
+
     private AuditUtils() {
         throw new IllegalStateException('Helper class, do not instantiate')
     }
@@ -58,9 +63,10 @@ class AuditUtils {
      * <code>null</code> values, damaged messages, etc. will lead
      * to <code>false</code> return values as well.
      */
+    @CompileStatic
     static boolean isPositiveAck(Message msg) {
         try {
-            return (msg.MSA[1].value in ['AA', 'CA'])
+            return (MSA_1.get(msg) in ['AA', 'CA'])
         } catch (Exception ignored) {
             return false
         }
@@ -74,6 +80,23 @@ class AuditUtils {
         repeatable.collect { it.encode() } ?: null
     }
 
+    /**
+     * Returns a list of patient IDs from the given field repetitions
+     * or <code>null</code>, when there are no patient IDs.
+     */
+    @CompileStatic
+    static List<String> pidList(Type[] repetitions) {
+        repetitions.collect { it.encode() } ?: null
+    }
+
+    /**
+     * Encodes the given field repetitions as they would look like in a pipe-encoded message.
+     */
+    @CompileStatic
+    static String encodeRepetitions(Message msg, Type[] repetitions) {
+        repetitions.collect { it.encode() }.join(msg.encodingCharactersValue.substring(1, 2))
+    }
+
     /**
      * Returns string representation of the request message by extracting it
      * from the corresponding header of the given Camel exchange (preferred)
@@ -16,21 +16,30 @@
 package org.openehealth.ipf.commons.ihe.hl7v2.audit.iti8
 
 import ca.uhn.hl7v2.model.Message
+import ca.uhn.hl7v2.model.Segment
+import groovy.transform.CompileStatic
+import org.openehealth.ipf.commons.ihe.hl7v2.audit.AuditUtils
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.FeedAuditDataset
+import org.openehealth.ipf.modules.hl7.message.Hl7Path
 
 /**
  * Audit Strategy Groovy Utils
  * @author Dmytro Rud
  */
+@CompileStatic
 final class Iti8AuditStrategyUtils  {
 
+    private static final Hl7Path PID_3 = Hl7Path.compile('.PID-3')
+    private static final Hl7Path MSH_9_2 = Hl7Path.compile('MSH-9-2')
+    private static final Hl7Path MRG_1 = Hl7Path.compile('PATIENT/MRG-1')
+
     static void enrichAuditDatasetFromRequest(FeedAuditDataset auditDataset, Message msg) {
-        def pid = msg.findPID()
-        if (pid) {
-            auditDataset.patientId = pid[3].encodeRepetitions()
+        Segment pid = PID_3.getSegment(msg)
+        if (pid != null && !pid.empty) {
+            auditDataset.patientId = AuditUtils.encodeRepetitions(msg, pid.getField(3))
         }
-        if(msg.MSH[9][2]?.value == 'A40') {
-            auditDataset.oldPatientId = msg.PATIENT.MRG[1].encodeRepetitions()
+        if (MSH_9_2.get(msg) == 'A40') {
+            auditDataset.oldPatientId = AuditUtils.encodeRepetitions(msg, MRG_1.getFieldRepetitions(msg))
         }
     }
 
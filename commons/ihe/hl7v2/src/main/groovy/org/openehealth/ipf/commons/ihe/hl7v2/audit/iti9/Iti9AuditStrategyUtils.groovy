@@ -16,21 +16,32 @@
 package org.openehealth.ipf.commons.ihe.hl7v2.audit.iti9
 
 import ca.uhn.hl7v2.model.Message
+import ca.uhn.hl7v2.model.Segment
+import groovy.transform.CompileStatic
 import org.openehealth.ipf.commons.audit.AuditContext
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.AuditUtils
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.QueryAuditDataset
+import org.openehealth.ipf.modules.hl7.message.Hl7Path
 
 /**
  * Groovy  audit strategy utils for ITI-9 (PIX Query).
  * @author Dmytro Rud
  */
+@CompileStatic
 class Iti9AuditStrategyUtils {
 
+    private static final Hl7Path QPD_3 = Hl7Path.compile('QPD-3')
+    private static final Hl7Path MSH_9_1 = Hl7Path.compile('MSH-9-1')
+    private static final Hl7Path MSH_9_2 = Hl7Path.compile('MSH-9-2')
+    private static final Hl7Path RESPONSE_PID_3 = Hl7Path.compile('QUERY_RESPONSE/PID-3')
+
     static void enrichAuditDatasetFromRequest(QueryAuditDataset auditDataset, Message msg, Map<String, Object> parameters) {
-        if (msg.QPD) {
-            def patientId = msg.QPD[3].encode()
+        Segment qpd = QPD_3.getSegment(msg)
+        if (qpd != null && !qpd.empty) {
+            def fields = qpd.getField(3)
+            def patientId = fields ? fields[0].encode() : null
             if (patientId) {
-                auditDataset.patientIds = [patientId]
+                auditDataset.patientIds = [patientId] as String[]
             }
         }
 
@@ -40,14 +51,15 @@ class Iti9AuditStrategyUtils {
 
 
     static boolean enrichAuditDatasetFromResponse(QueryAuditDataset auditDataset, Message msg, AuditContext auditContext) {
-        if (msg.MSH[9][1]?.value == 'RSP' && msg.MSH[9][2]?.value == 'K23' && !msg.QUERY_RESPONSE?.PID?.empty) {
-            if (auditContext.isIncludeParticipantsFromResponse()) {
-                def patientIds = AuditUtils.pidList(msg.QUERY_RESPONSE?.PID[3])
+        if (MSH_9_1.get(msg) == 'RSP' && MSH_9_2.get(msg) == 'K23') {
+            Segment pid = RESPONSE_PID_3.getSegment(msg)
+            if (pid != null && !pid.empty && auditContext.isIncludeParticipantsFromResponse()) {
+                def patientIds = AuditUtils.pidList(pid.getField(3))
                 if ((!auditDataset.patientIds) || patientIds?.contains(auditDataset.patientIds[0])) {
-                    auditDataset.patientIds = patientIds
+                    auditDataset.patientIds = patientIds as String[]
                 } else {
                     patientIds << auditDataset.patientIds[0]
-                    auditDataset.patientIds = patientIds
+                    auditDataset.patientIds = patientIds as String[]
                 }
             }
         }
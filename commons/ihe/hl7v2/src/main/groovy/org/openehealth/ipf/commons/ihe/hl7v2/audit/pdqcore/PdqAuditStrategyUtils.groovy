@@ -15,30 +15,42 @@
  */
 package org.openehealth.ipf.commons.ihe.hl7v2.audit.pdqcore
 
+import ca.uhn.hl7v2.model.Group
 import ca.uhn.hl7v2.model.Message
+import ca.uhn.hl7v2.model.Segment
+import ca.uhn.hl7v2.model.Structure
+import ca.uhn.hl7v2.model.Type
+import ca.uhn.hl7v2.util.Terser
+import groovy.transform.CompileStatic
 import org.openehealth.ipf.commons.audit.AuditContext
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.AuditUtils
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.QueryAuditDataset
+import org.openehealth.ipf.modules.hl7.message.Hl7Path
 
 /**
  * Generic audit strategy for ITI-21 and ITI-22 (PDQ).
  * @author Dmytro Rud
  */
+@CompileStatic
 abstract class PdqAuditStrategyUtils  {
-    
+
+    private static final Hl7Path QPD_3 = Hl7Path.compile('QPD-3')
+    private static final Hl7Path MSH_9_1 = Hl7Path.compile('MSH-9-1')
 
     static void enrichAuditDatasetFromRequest(QueryAuditDataset auditDataset, Message msg, Map<String, Object> parameters) {
-        if(!msg.QPD?.isEmpty()) {
+        Segment qpd = QPD_3.getSegment(msg)
+        if (qpd != null && !qpd.empty) {
             // Try to extract a complete patient ID from query pieces.  
             // Double occurrences of components are not allowed, 
             // so we do not care of them.
             final String[] names  = ['@PID.3.1', '@PID.3.4.1', '@PID.3.4.2', '@PID.3.4.3']
             String[] pieces = new String[4]
             
-            for(query in msg.QPD[3]()) {
+            for(Type query in qpd.getField(3)) {
+                String name = Terser.getPrimitive(query, 1, 1).value
                 for(int i = 0; i < 4; ++i) {
-                    if(( ! pieces[i]) && query[1].value.startsWith(names[i])) {
-                        pieces[i] = query[2].value
+                    if(( ! pieces[i]) && name?.startsWith(names[i])) {
+                        pieces[i] = Terser.getPrimitive(query, 2, 1).value
                         break
                     }
                 }
@@ -54,7 +66,7 @@ abstract class PdqAuditStrategyUtils  {
                     sb.append('&').append(pieces[2]).append('&').append(pieces[3])
                 }
                 
-                auditDataset.patientIds = [sb.toString()]
+                auditDataset.patientIds = [sb.toString()] as String[]
             }
         }
         
@@ -65,15 +77,20 @@ abstract class PdqAuditStrategyUtils  {
     
     static void enrichAuditDatasetFromResponse(QueryAuditDataset auditDataset, Message msg, AuditContext auditContext) {
         if (auditContext.isIncludeParticipantsFromResponse()) {
-            if (msg.MSH[9][1].value == 'RSP') {
-                def patientIds = []
-                for (group in msg.QUERY_RESPONSE()) {
-                    patientIds += AuditUtils.pidList(group.PID[3])
+            if (MSH_9_1.get(msg) == 'RSP') {
+                List<String> patientIds = []
+                for (Structure group in msg.getAll('QUERY_RESPONSE')) {
+                    Structure[] pids = ((Group) group).getAll('PID')
+                    List<String> groupPatientIds = pids ? AuditUtils.pidList(((Segment) pids[0]).getField(3)) : null
+                    if (groupPatientIds) {
+                        patientIds.addAll(groupPatientIds)
+                    }
                 }
                 if (patientIds) {
-                    auditDataset.patientIds = auditDataset.patientIds ?
-                            patientIds + auditDataset.patientIds[0] :
-                            patientIds
+                    if (auditDataset.patientIds) {
+                        patientIds << auditDataset.patientIds[0]
+                    }
+                    auditDataset.patientIds = patientIds as String[]
                 }
             }
         }
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.tracing
+
+import brave.SpanCustomizer
+
+/**
+ * Handler for encoded HL7v2 messages with propagated tracing information.
+ *
+ * @since 4.1
+ */
+interface EncodedHandler {
+
+    void accept(CharSequence msg, SpanCustomizer span) throws Exception
+
+}
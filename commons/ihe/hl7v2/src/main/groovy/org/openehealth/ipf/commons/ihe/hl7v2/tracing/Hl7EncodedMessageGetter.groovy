@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.tracing
+
+import brave.propagation.Propagation
+import ca.uhn.hl7v2.parser.Escape
+import ca.uhn.hl7v2.parser.EncodingCharacters
+import groovy.transform.CompileStatic
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+ * Reads a value from ZTR[1] of an encoded message, given a key, without parsing the message.
+ *
+ * @since 4.1
+ */
+@CompileStatic
+class Hl7EncodedMessageGetter implements Propagation.Getter<MessageCharSequence, String> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Hl7EncodedMessageGetter)
+    private final String segmentName
+
+    Hl7EncodedMessageGetter(String segmentName = 'ZTR') {
+        this.segmentName = segmentName
+    }
+
+    @Override
+    String get(MessageCharSequence msg, String key) {
+        String value = null
+        if (msg && msg.length() > 8) {
+            char componentSeparator = msg.charAt(4)
+            for (String qip : msg.getFieldRepetitions(segmentName, 0, 1)) {
+                int pos = qip.indexOf((int) componentSeparator)
+                if (pos == key.length() && qip.startsWith(key)) {
+                    int end = qip.indexOf((int) componentSeparator, pos + 1)
+                    value = unescape(msg, qip.substring(pos + 1, end < 0 ? qip.length() : end))
+                    break
+                }
+            }
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Extracted trace context with key [{}] and value [{}]", key, value)
+        }
+        value ?: null
+    }
+
+    private static String unescape(MessageCharSequence msg, String s) {
+        if (s.indexOf((int) msg.charAt(6)) < 0) {
+            return s
+        }
+        def encodingCharacters = new EncodingCharacters(msg.charAt(3), msg.substring(4, 8))
+        Escape.unescape(s, encodingCharacters)
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.tracing
+
+import brave.propagation.Propagation
+import ca.uhn.hl7v2.parser.Escape
+import ca.uhn.hl7v2.parser.EncodingCharacters
+import groovy.transform.CompileStatic
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+ * Appends a key/value QIP repetition to the last field of an encoded message, which is expected
+ * to end with the ZTR-1 field in progress. The delimiters are taken from MSH-1 and MSH-2.
+ *
+ * @since 4.1
+ */
+@CompileStatic
+class Hl7EncodedMessageSetter implements Propagation.Setter<StringBuilder, String> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Hl7EncodedMessageSetter)
+
+    @Override
+    void put(StringBuilder msg, String key, String value) {
+        if (msg && msg.length() > 8 && key) {
+            char fieldSeparator = msg.charAt(3)
+            char componentSeparator = msg.charAt(4)
+            if (msg.charAt(msg.length() - 1) != fieldSeparator) {
+                msg.append(msg.charAt(5))
+            }
+            msg.append(escape(msg, key)).append(componentSeparator).append(escape(msg, value ?: ''))
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Added trace context with key [{}] and value [{}]", key, value)
+            }
+        }
+    }
+
+    private static String escape(StringBuilder msg, String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i)
+            for (int j = 3; j < 8; ++j) {
+                if (c == msg.charAt(j)) {
+                    def encodingCharacters = new EncodingCharacters(msg.charAt(3), msg.substring(4, 8))
+                    return Escape.escape(s, encodingCharacters)
+                }
+            }
+        }
+        s
+    }
+}
@@ -23,12 +23,18 @@ import brave.propagation.Propagation
 import ca.uhn.hl7v2.HL7Exception
 import ca.uhn.hl7v2.model.AbstractMessage
 import ca.uhn.hl7v2.model.Message
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 /**
  * Helper class that injects and extracts tracing information from HL7 messages
  * and creates a new span on producer and consumer side.
+ * <p>
+ * Besides parsed messages, encoded messages are supported as well: the segment with the
+ * tracing information is appended to or cut out of the message string, so that tracing
+ * can be applied before the message is parsed or after it has been rendered.
+ * </p>
  *
  * @author Christian Ohr
  */
@@ -47,6 +53,8 @@ class MessageTracer {
     private final String segmentName
     private final Propagation.Setter<Message, String> setter
     private final Propagation.Getter<Message, String> getter
+    private final Propagation.Setter<StringBuilder, String> encodedSetter
+    private final Propagation.Getter<MessageCharSequence, String> encodedGetter
 
     /**
      * @param tracing Tracing instance
@@ -59,11 +67,13 @@ class MessageTracer {
         this.segmentName = segmentName
         this.setter = new Hl7MessageSetter(segmentName)
         this.getter = new Hl7MessageGetter(segmentName)
+        this.encodedSetter = new Hl7EncodedMessageSetter()
+        this.encodedGetter = new Hl7EncodedMessageGetter(segmentName)
     }
 
     void sendMessage(Message msg, String name, Handler sender) {
         Tracer tracer = tracing.tracer()
-        Span span = startSpan(tracer.nextSpan(), Span.Kind.CLIENT, name, msg)
+        Span span = startSpan(tracer.nextSpan(), Span.Kind.CLIENT, name, tags(msg))
         msg.addNonstandardSegment(segmentName)
         tracing.propagation()
                 .injector(setter)
@@ -86,7 +96,7 @@ class MessageTracer {
                 tracing.propagation()
                         .extractor(getter)
                         .extract(msg)),
-                Span.Kind.SERVER, name, msg)
+                Span.Kind.SERVER, name, tags(msg))
         Tracer.SpanInScope ws = tracer.withSpanInScope(span)
         try {
             if (removeSegment && msg instanceof AbstractMessage) {
@@ -106,14 +116,88 @@ class MessageTracer {
         }
     }
 
-    private static Span startSpan(Span span, Span.Kind kind, String name, Message msg) {
+    /**
+     * Appends a segment with the tracing information to the encoded message and passes
+     * the resulting message string to the sender.
+     */
+    void sendEncodedMessage(CharSequence msg, String name, EncodedHandler sender) {
+        MessageCharSequence mcs = MessageCharSequence.wrap(msg)
+        Tracer tracer = tracing.tracer()
+        Span span = startSpan(tracer.nextSpan(), Span.Kind.CLIENT, name, tags(mcs))
+        StringBuilder sb = new StringBuilder(msg.length() + 128).append(msg)
+        if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ('\r' as char)) {
+            sb.append('\r')
+        }
+        if (mcs.length() > 8) {
+            sb.append(segmentName).append(mcs.charAt(3))
+            tracing.propagation()
+                    .injector(encodedSetter)
+                    .inject(span.context(), sb)
+            sb.append('\r')
+        }
+        Tracer.SpanInScope ws = tracer.withSpanInScope(span)
+        try {
+            sender.accept(sb.toString(), span)
+        } catch (Throwable t) {
+            span.error(t)
+            throw t
+        } finally {
+            ws?.close()
+            span?.finish()
+        }
+    }
+
+    /**
+     * Extracts the tracing information from the encoded message without parsing it, and passes
+     * the message to the receiver, optionally without the segment with the tracing information.
+     */
+    void receiveEncodedMessage(CharSequence msg, String name, EncodedHandler receiver) {
+        MessageCharSequence mcs = MessageCharSequence.wrap(msg)
+        Tracer tracer = tracing.tracer()
+        Span span = startSpan(tracer.nextSpan(
+                tracing.propagation()
+                        .extractor(encodedGetter)
+                        .extract(mcs)),
+                Span.Kind.SERVER, name, tags(mcs))
+        Tracer.SpanInScope ws = tracer.withSpanInScope(span)
+        try {
+            CharSequence result = msg
+            int segment = (removeSegment && mcs.length() > 8) ? mcs.findSegment(segmentName, 0) : -1
+            if (segment > 0) {
+                int end = Math.min(mcs.segmentEnd(segment) + 1, mcs.length())
+                result = new StringBuilder(mcs.length())
+                        .append(mcs, 0, mcs.segmentStart(segment))
+                        .append(mcs, end, mcs.length())
+                        .toString()
+            }
+            receiver.accept(result, span)
+        } catch (Throwable t) {
+            span.error(t)
+            throw t
+        } finally {
+            ws?.close()
+            span?.finish()
+        }
+    }
+
+    private static String[] tags(Message msg) {
+        [msg.MSH[3]?.value, msg.MSH[4]?.value, msg.MSH[9][1]?.value, msg.MSH[9][2]?.value, msg.MSH[11]?.value] as String[]
+    }
+
+    private static String[] tags(MessageCharSequence msg) {
+        msg.length() > 8 ?
+            msg.getFields('MSH-3-1', 'MSH-4-1', 'MSH-9-1', 'MSH-9-2', 'MSH-11-1') :
+            new String[5]
+    }
+
+    private static Span startSpan(Span span, Span.Kind kind, String name, String[] tags) {
         span.kind(kind)
                 .name(name)
-                .tag(HL7_SENDING_APPLICATION, msg.MSH[3]?.value ?: '')
-                .tag(HL7_SENDING_FACILITY, msg.MSH[4]?.value ?: '')
-                .tag(HL7_MESSAGE_TYPE, msg.MSH[9][1]?.value ?: '')
-                .tag(HL7_TRIGGER_EVENT, msg.MSH[9][2]?.value ?: '')
-                .tag(HL7_PROCESSING_ID, msg.MSH[11]?.value ?: '')
+                .tag(HL7_SENDING_APPLICATION, tags[0] ?: '')
+                .tag(HL7_SENDING_FACILITY, tags[1] ?: '')
+                .tag(HL7_MESSAGE_TYPE, tags[2] ?: '')
+                .tag(HL7_TRIGGER_EVENT, tags[3] ?: '')
+                .tag(HL7_PROCESSING_ID, tags[4] ?: '')
         // ExtraFieldPropagation.set(span.context(), 'messageId', msg.MSH[11]?.value ?: '')
         span.start()
     }
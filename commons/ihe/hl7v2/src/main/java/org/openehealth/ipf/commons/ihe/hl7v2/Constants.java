@@ -23,9 +23,22 @@ public interface Constants {
     /**
      * Name of the prameter where a copy of the original request
      * message (as a {@link ca.uhn.hl7v2.model.Message} instance) will be saved.
+     * <p>
+     * Since 4.1, on the consumer side the message is parsed on first access, see
+     * {@link #ORIGINAL_MESSAGE_SNAPSHOT_HEADER_NAME}. It implements {@link ca.uhn.hl7v2.model.Message},
+     * but is not an instance of the concrete message structure class.
+     * </p>
      */
     String ORIGINAL_MESSAGE_ADAPTER_HEADER_NAME = "ipf.hl7v2.OriginalMessageAdapter";
 
+    /**
+     * Name of the parameter where the consumer saves an <code>OriginalMessageSnapshot</code>,
+     * which parses the original request message on first access.
+     *
+     * @since 4.1
+     */
+    String ORIGINAL_MESSAGE_SNAPSHOT_HEADER_NAME = "ipf.hl7v2.OriginalMessageSnapshot";
+
     /**
      * Name of the parameter where a copy of the original request
      * message (as a {@link String} instance) will be saved.
@@ -30,6 +30,7 @@ import org.openehealth.ipf.commons.ihe.core.TransactionConfiguration;
 import org.openehealth.ipf.commons.ihe.core.atna.AuditStrategy;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditDataset;
 import org.openehealth.ipf.modules.hl7.HL7v2Exception;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 import org.openehealth.ipf.modules.hl7.message.MessageUtils;
 
 import java.util.*;
@@ -297,6 +298,22 @@ public class Hl7v2TransactionConfiguration<T extends MllpAuditDataset> extends T
     }
 
 
+    /**
+     * Performs transaction-specific acceptance test of the given encoded response message,
+     * like {@link #checkResponseAcceptance(Message)}, but without parsing it.
+     *
+     * @param message encoded response message.
+     * @since 4.1
+     */
+    public void checkResponseAcceptance(MessageCharSequence message) throws Hl7v2AcceptanceException {
+        var fields = message.getFields("MSH-9-1", "MSH-9-2", "MSH-9-3", "MSH-12-1", "MSA-1");
+        checkMessageAcceptance(fields[0], fields[1], fields[2], fields[3], false);
+        if (!ArrayUtils.contains(new String[]{"AA", "AR", "AE", "CA", "CR", "CE"}, fields[4])) {
+            throw new Hl7v2AcceptanceException("Bad response: missing or invalid MSA segment", ErrorCode.REQUIRED_FIELD_MISSING);
+        }
+    }
+
+
     /**
      * Performs acceptance test of the given message.
      *
@@ -350,49 +367,99 @@ public class Hl7v2TransactionConfiguration<T extends MllpAuditDataset> extends T
         }
 
         if (!StringUtils.isEmpty(messageStructure)) {
-            // This may not work as the custom event map cannot be distinguished from the
-            // default one! This needs to be fixed for HAPI 2.1
-            var event = messageType + "_" + triggerEvent;
             String expectedMessageStructure;
             try {
-                expectedMessageStructure = hapiContext.getModelClassFactory().getMessageStructureForEvent(event, Version.versionOf(version));
+                expectedMessageStructure = expectedMessageStructure(messageType, triggerEvent, version);
             } catch (HL7Exception e) {
                 throw new Hl7v2AcceptanceException("Acceptance check failed", ErrorCode.UNKNOWN_KEY_IDENTIFIER);
             }
-
-            // TODO when upgrading to HAPI 2.1 remove the constant IF statements
-            if ("QBP_ZV1".equals(event)) {
-                expectedMessageStructure = "QBP_Q21";
-            } else if ("RSP_ZV2".equals(event)) {
-                expectedMessageStructure = "RSP_ZV2";
-            }
-
-            // the expected structure must be equal to the actual one,
-            // but second components may be omitted in acknowledgements
-            var bothAreEqual = messageStructure.equals(expectedMessageStructure);
-            var bothAreAcks = (messageStructure.startsWith("ACK") && expectedMessageStructure != null && expectedMessageStructure.startsWith("ACK"));
-            if (!(bothAreEqual || bothAreAcks)) {
+            if (!isMatchingMessageStructure(messageStructure, expectedMessageStructure)) {
                 throw new Hl7v2AcceptanceException("Invalid message structure " + messageStructure + 
                         ", must be " + expectedMessageStructure, ErrorCode.APPLICATION_INTERNAL_ERROR);
             }
         }
     }
 
-    private Definition getDefinitionForMessageType(String messageType, boolean isRequest) throws Hl7v2AcceptanceException {
+
+    /**
+     * Performs the same acceptance test as {@link #checkMessageAcceptance(String, String, String, String, boolean)},
+     * but reports the result as a boolean value instead of throwing an exception. This is intended for callers
+     * which probe several transactions for a message, e.g. dispatchers.
+     *
+     * @param messageType      value from MSH-9-1, can be empty or <code>null</code>.
+     * @param triggerEvent     value from MSH-9-2, can be empty or <code>null</code>.
+     * @param messageStructure value from MSH-9-3, can be empty or <code>null</code>.
+     * @param version          value from MSH-12, can be empty or <code>null</code>.
+     * @param isRequest        <code>true</code> iff the message under consideration is a request.
+     * @return <code>true</code> when the message is acceptable.
+     * @since 4.1
+     */
+    public boolean isMessageAcceptable(
+            String messageType,
+            String triggerEvent,
+            String messageStructure,
+            String version,
+            boolean isRequest)
+    {
+        if (!isSupportedVersion(version)) {
+            return false;
+        }
+        var definition = findDefinitionForMessageType(messageType, isRequest);
+        if ((definition == null) || !definition.isAllowedTriggerEvent(triggerEvent)) {
+            return false;
+        }
+        if (!StringUtils.isEmpty(messageStructure)) {
+            try {
+                return isMatchingMessageStructure(messageStructure, expectedMessageStructure(messageType, triggerEvent, version));
+            } catch (HL7Exception e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String expectedMessageStructure(String messageType, String triggerEvent, String version) throws HL7Exception {
+        // This may not work as the custom event map cannot be distinguished from the
+        // default one! This needs to be fixed for HAPI 2.1
+        var event = messageType + "_" + triggerEvent;
+
+        // TODO when upgrading to HAPI 2.1 remove the constant IF statements
+        if ("QBP_ZV1".equals(event)) {
+            return "QBP_Q21";
+        } else if ("RSP_ZV2".equals(event)) {
+            return "RSP_ZV2";
+        }
+        return hapiContext.getModelClassFactory().getMessageStructureForEvent(event, Version.versionOf(version));
+    }
+
+    private static boolean isMatchingMessageStructure(String messageStructure, String expectedMessageStructure) {
+        // the expected structure must be equal to the actual one,
+        // but second components may be omitted in acknowledgements
+        var bothAreEqual = messageStructure.equals(expectedMessageStructure);
+        var bothAreAcks = (messageStructure.startsWith("ACK") && expectedMessageStructure != null && expectedMessageStructure.startsWith("ACK"));
+        return bothAreEqual || bothAreAcks;
+    }
+
+    private Definition findDefinitionForMessageType(String messageType, boolean isRequest) {
         var definition = definitions.get(isRequest).get(messageType);
+        return (definition != null) ? definition : definitions.get(isRequest).get("*");
+    }
+
+    private Definition getDefinitionForMessageType(String messageType, boolean isRequest) throws Hl7v2AcceptanceException {
+        var definition = findDefinitionForMessageType(messageType, isRequest);
         if (definition == null) {
-            definition = definitions.get(isRequest).get("*");
-            if (definition == null) {
-                throw new Hl7v2AcceptanceException("Invalid message type " + messageType + ", must be one of " +
-                        join(definitions.get(isRequest).keySet()), ErrorCode.UNSUPPORTED_MESSAGE_TYPE);
-            }
+            throw new Hl7v2AcceptanceException("Invalid message type " + messageType + ", must be one of " +
+                    join(definitions.get(isRequest).keySet()), ErrorCode.UNSUPPORTED_MESSAGE_TYPE);
         }
         return definition;
     }
 
+    private boolean isSupportedVersion(String version) {
+        return ArrayUtils.contains(hl7Versions, Version.versionOf(version));
+    }
+
     private void checkMessageVersion(String version) throws Hl7v2AcceptanceException {
-        var messageVersion = Version.versionOf(version);
-        if (! ArrayUtils.contains(hl7Versions, messageVersion)) {
+        if (! isSupportedVersion(version)) {
             throw new Hl7v2AcceptanceException("Invalid HL7 version " + version + ", must be one of " + supportedVersions(hl7Versions),
                     ErrorCode.UNSUPPORTED_VERSION_ID);
         }
@@ -19,6 +19,7 @@ import ca.uhn.hl7v2.AcknowledgmentCode;
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.model.Message;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditDataset;
+import org.openehealth.ipf.modules.hl7.message.AckTemplate;
 import org.openehealth.ipf.modules.hl7.message.MessageUtils;
 
 import java.io.IOException;
@@ -106,6 +107,62 @@ public class NakFactory<T extends MllpAuditDataset> {
     }
 
 
+    /**
+     * Renders a transaction-specific HL7v2 ACK response message from a template on the basis
+     * of the original encoded request message, without parsing the latter.
+     *
+     * @param originalMessage original encoded request message.
+     * @return encoded ACK, or <code>null</code> when this factory does not support {@link #isTemplateRendering() template rendering}
+     * or the ACK cannot be rendered from the template, see {@link AckTemplate}.
+     * {@link #createAck(Message)} must be used then.
+     */
+    public String renderAck(CharSequence originalMessage) throws IOException {
+        return render(originalMessage, useCAckTypeCodes ? AcknowledgmentCode.CA : AcknowledgmentCode.AA, null);
+    }
+
+
+    /**
+     * Renders an HL7v2 NAK response message from a template on the basis
+     * of the thrown exception and the original encoded request message, without parsing the latter.
+     *
+     * @param originalMessage original encoded request message.
+     * @param exception       thrown exception.
+     * @param ackTypeCode     HL7v2 acknowledgement type code.
+     * @return encoded NAK, or <code>null</code> when this factory does not support {@link #isTemplateRendering() template rendering}
+     * or the NAK cannot be rendered from the template, see {@link AckTemplate}.
+     * {@link #createNak(Message, HL7Exception, AcknowledgmentCode)} must be used then.
+     */
+    public String renderNak(CharSequence originalMessage, HL7Exception exception, AcknowledgmentCode ackTypeCode) throws IOException {
+        return render(originalMessage, ackTypeCode, exception);
+    }
+
+
+    /**
+     * Renders an HL7v2 NAK response message from a template on the basis
+     * of the thrown exception and the original encoded request message, without parsing the latter.
+     *
+     * @param originalMessage original encoded request message.
+     * @param t               thrown exception.
+     * @return encoded NAK, or <code>null</code> when this factory does not support {@link #isTemplateRendering() template rendering}
+     * or the NAK cannot be rendered from the template, see {@link AckTemplate}.
+     * {@link #createNak(Message, Throwable)} must be used then.
+     */
+    public String renderNak(CharSequence originalMessage, Throwable t) throws IOException {
+        var hl7Exception = getHl7Exception(t);
+        return render(originalMessage, getAckTypeCode(hl7Exception), hl7Exception);
+    }
+
+
+    private String render(CharSequence originalMessage, AcknowledgmentCode ackTypeCode, HL7Exception exception) throws IOException {
+        if (!isTemplateRendering() || originalMessage == null) {
+            return null;
+        }
+        var parserConfiguration = config.getParser().getParserConfiguration();
+        return new AckTemplate(parserConfiguration.getIdGenerator(), parserConfiguration.getEscaping())
+                .render(originalMessage, ackTypeCode, exception);
+    }
+
+
     /**
      * Generates a "default" HL7v2 NAK message on the basis
      * of the thrown exception.
@@ -181,6 +238,18 @@ public class NakFactory<T extends MllpAuditDataset> {
         return config;
     }
 
+    /**
+     * Determines whether {@link #renderAck(CharSequence)} and the <code>renderNak</code> methods render
+     * acknowledgements from a template. This is the case for instances of this class only. Subclasses
+     * customizing {@link #createAck(Message)} or the <code>createNak</code> methods get their acknowledgements
+     * created by these methods; other subclasses can opt in by overriding this method.
+     *
+     * @return <code>true</code> if acknowledgements can be rendered from a template.
+     */
+    protected boolean isTemplateRendering() {
+        return getClass() == NakFactory.class;
+    }
+
     /**
      * Retrieves the given exception type from the exception.
      * <p/>
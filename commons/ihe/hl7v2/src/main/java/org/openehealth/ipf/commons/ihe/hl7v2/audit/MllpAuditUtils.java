@@ -20,6 +20,12 @@ import org.openehealth.ipf.commons.audit.codes.EventOutcomeIndicator;
 import org.openehealth.ipf.commons.audit.codes.EventTypeCode;
 import org.openehealth.ipf.commons.audit.event.SecurityAlertBuilder;
 import org.openehealth.ipf.commons.audit.model.AuditMessage;
+import org.openehealth.ipf.commons.ihe.hl7v2.Constants;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 
 abstract public class MllpAuditUtils {
@@ -37,5 +43,78 @@ abstract public class MllpAuditUtils {
                 .getMessage();
     }
 
+    // ----- extraction of audit data from encoded messages, without parsing them -----
+
+    /**
+     * Enriches the given audit dataset with HL7-related information common for all
+     * PIX/PDQ transactions, taken from the given encoded request message.
+     * Values are not unescaped.
+     */
+    public static void enrichGenericAuditDatasetFromRequest(MllpAuditDataset auditDataset, MessageCharSequence msg) {
+        var fields = msg.getFields("MSH-3-1", "MSH-4-1", "MSH-5-1", "MSH-6-1", "MSH-9-2", "MSH-10");
+        auditDataset.setSendingApplication(emptyIfNull(fields[0]));
+        auditDataset.setSendingFacility(emptyIfNull(fields[1]));
+        auditDataset.setReceivingApplication(emptyIfNull(fields[2]));
+        auditDataset.setReceivingFacility(emptyIfNull(fields[3]));
+        auditDataset.setMessageType(emptyIfNull(fields[4]));
+        auditDataset.setMessageControlId(emptyIfNull(fields[5]));
+    }
+
+    /**
+     * Enriches the given audit dataset with the patient IDs from PID-3 and, for A40 messages,
+     * the prior patient IDs from MRG-1 of the given encoded feed message.
+     */
+    public static void enrichFeedAuditDatasetFromRequest(FeedAuditDataset auditDataset, MessageCharSequence msg) {
+        if (hasSegment(msg, "PID")) {
+            auditDataset.setPatientId(encodeRepetitions(msg, msg.getFieldRepetitions("PID", 0, 3)));
+        }
+        if ("A40".equals(msg.getField("MSH-9-2"))) {
+            auditDataset.setOldPatientId(encodeRepetitions(msg, msg.getFieldRepetitions("MRG", 0, 1)));
+        }
+    }
+
+    /**
+     * Returns <code>true</code> when the given encoded message contains a non-empty segment with the given name.
+     */
+    public static boolean hasSegment(MessageCharSequence msg, String segmentName) {
+        var index = msg.findSegment(segmentName, 0);
+        if (index < 0) {
+            return false;
+        }
+        var fieldSeparator = msg.charAt(3);
+        for (var i = msg.segmentStart(index) + 3; i < msg.segmentEnd(index); ++i) {
+            if (msg.charAt(i) != fieldSeparator) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the given field repetitions as list, or <code>null</code> when there are none.
+     */
+    public static List<String> pidList(String[] repetitions) {
+        return (repetitions.length > 0) ? Arrays.asList(repetitions) : null;
+    }
+
+    /**
+     * Joins the given field repetitions with the repetition separator of the given encoded message.
+     */
+    public static String encodeRepetitions(MessageCharSequence msg, String[] repetitions) {
+        return String.join(String.valueOf(msg.charAt(5)), repetitions);
+    }
+
+    /**
+     * Returns string representation of the request message, either from the corresponding
+     * header (preferred) or from the given encoded message.
+     */
+    public static String getRequestString(Map<String, Object> parameters, MessageCharSequence msg) {
+        var s = (String) parameters.get(Constants.ORIGINAL_MESSAGE_STRING_HEADER_NAME);
+        return (s != null) ? s : msg.toString();
+    }
+
+    private static String emptyIfNull(String s) {
+        return (s != null) ? s : "";
+    }
 
 }
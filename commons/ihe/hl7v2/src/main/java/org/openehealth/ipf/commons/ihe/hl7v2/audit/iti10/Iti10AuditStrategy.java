@@ -23,6 +23,7 @@ import org.openehealth.ipf.commons.ihe.core.atna.AuditStrategySupport;
 import org.openehealth.ipf.commons.ihe.core.atna.event.PatientRecordEventBuilder;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.codes.MllpEventTypeCode;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.QueryAuditDataset;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 
 import java.util.Map;
 
@@ -39,7 +40,12 @@ public class Iti10AuditStrategy extends AuditStrategySupport<QueryAuditDataset>
 
     @Override
     public QueryAuditDataset enrichAuditDatasetFromRequest(QueryAuditDataset auditDataset, Object msg, Map<String, Object> parameters) {
-        Iti10AuditStrategyUtils.enrichAuditDatasetFromRequest(auditDataset, (Message) msg);
+        if (msg instanceof MessageCharSequence) {
+            var patientIds = ((MessageCharSequence) msg).getFieldRepetitions("PID", 0, 3);
+            auditDataset.setPatientIds((patientIds.length > 0) ? patientIds : null);
+        } else {
+            Iti10AuditStrategyUtils.enrichAuditDatasetFromRequest(auditDataset, (Message) msg);
+        }
         return auditDataset;
     }
 
@@ -23,7 +23,9 @@ import org.openehealth.ipf.commons.audit.model.AuditMessage;
 import org.openehealth.ipf.commons.ihe.core.atna.AuditStrategySupport;
 import org.openehealth.ipf.commons.ihe.core.atna.event.PatientRecordEventBuilder;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.FeedAuditDataset;
+import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditUtils;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.codes.MllpEventTypeCode;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 
 import java.util.Map;
 
@@ -35,7 +37,11 @@ public class Iti30AuditStrategy extends AuditStrategySupport<FeedAuditDataset> {
 
     @Override
     public FeedAuditDataset enrichAuditDatasetFromRequest(FeedAuditDataset auditDataset, Object msg, Map<String, Object> parameters) {
-        Iti30AuditStrategyUtils.enrichAuditDatasetFromRequest(auditDataset, (Message) msg);
+        if (msg instanceof MessageCharSequence) {
+            MllpAuditUtils.enrichFeedAuditDatasetFromRequest(auditDataset, (MessageCharSequence) msg);
+        } else {
+            Iti30AuditStrategyUtils.enrichAuditDatasetFromRequest(auditDataset, (Message) msg);
+        }
         return auditDataset;
     }
 
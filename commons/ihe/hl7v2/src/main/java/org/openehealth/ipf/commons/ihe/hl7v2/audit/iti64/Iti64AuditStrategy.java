@@ -21,6 +21,7 @@ import org.openehealth.ipf.commons.audit.AuditContext;
 import org.openehealth.ipf.commons.audit.model.AuditMessage;
 import org.openehealth.ipf.commons.ihe.core.atna.AuditStrategySupport;
 import org.openehealth.ipf.commons.ihe.hl7v2.definitions.xpid.v25.message.ADT_A43;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 
 import java.util.Map;
 
@@ -44,6 +45,9 @@ public class Iti64AuditStrategy extends AuditStrategySupport<Iti64AuditDataset>
 
     @Override
     public Iti64AuditDataset enrichAuditDatasetFromRequest(Iti64AuditDataset auditDataset, Object msg, Map<String, Object> parameters) {
+        if (msg instanceof MessageCharSequence) {
+            return enrichAuditDatasetFromRequest(auditDataset, (MessageCharSequence) msg);
+        }
         var message = (ADT_A43) msg;
         var patient = message.getPATIENT(0);
 
@@ -66,6 +70,24 @@ public class Iti64AuditStrategy extends AuditStrategySupport<Iti64AuditDataset>
         return auditDataset;
     }
 
+    private static Iti64AuditDataset enrichAuditDatasetFromRequest(Iti64AuditDataset auditDataset, MessageCharSequence msg) {
+        var pidPatientIdList = msg.getFieldRepetitions("PID", 0, 3);
+        if (pidPatientIdList.length > 0) {
+            auditDataset.setNewPatientId(pidPatientIdList[0]);
+            if (pidPatientIdList.length > 1) {
+                auditDataset.setLocalPatientId(pidPatientIdList[1]);
+            }
+        }
+        var mrgPatientIdList = msg.getFieldRepetitions("MRG", 0, 1);
+        if (mrgPatientIdList.length > 0) {
+            auditDataset.setPreviousPatientId(mrgPatientIdList[0]);
+            if (mrgPatientIdList.length > 1) {
+                auditDataset.setSubsumedLocalPatientId(mrgPatientIdList[1]);
+            }
+        }
+        return auditDataset;
+    }
+
     @Override
     public AuditMessage[] makeAuditMessage(AuditContext auditContext, Iti64AuditDataset auditDataset) {
         var builder = new IHEPatientRecordChangeLinkBuilder<>(auditContext, auditDataset)
@@ -20,8 +20,10 @@ import org.openehealth.ipf.commons.audit.AuditContext;
 import org.openehealth.ipf.commons.audit.model.AuditMessage;
 import org.openehealth.ipf.commons.ihe.core.atna.AuditStrategySupport;
 import org.openehealth.ipf.commons.ihe.core.atna.event.QueryInformationBuilder;
+import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditUtils;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.codes.MllpEventTypeCode;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.QueryAuditDataset;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 
 import java.util.Map;
 
@@ -41,7 +43,18 @@ public class Iti9AuditStrategy extends AuditStrategySupport<QueryAuditDataset> {
     @Override
     public QueryAuditDataset enrichAuditDatasetFromRequest(QueryAuditDataset auditDataset,
                                                            Object msg, Map<String, Object> parameters) {
-        Iti9AuditStrategyUtils.enrichAuditDatasetFromRequest(auditDataset, (Message) msg, parameters);
+        if (msg instanceof MessageCharSequence) {
+            var request = (MessageCharSequence) msg;
+            if (MllpAuditUtils.hasSegment(request, "QPD")) {
+                var patientId = request.getField("QPD", 0, 3, 0, 0, 0);
+                if (patientId != null) {
+                    auditDataset.setPatientIds(new String[]{patientId});
+                }
+            }
+            auditDataset.setPayload(MllpAuditUtils.getRequestString(parameters, request));
+        } else {
+            Iti9AuditStrategyUtils.enrichAuditDatasetFromRequest(auditDataset, (Message) msg, parameters);
+        }
         return auditDataset;
     }
 
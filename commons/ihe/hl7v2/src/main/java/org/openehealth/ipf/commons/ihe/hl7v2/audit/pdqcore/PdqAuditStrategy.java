@@ -21,8 +21,10 @@ import org.openehealth.ipf.commons.audit.model.AuditMessage;
 import org.openehealth.ipf.commons.audit.types.ParticipantObjectIdType;
 import org.openehealth.ipf.commons.ihe.core.atna.AuditStrategySupport;
 import org.openehealth.ipf.commons.ihe.core.atna.event.QueryInformationBuilder;
+import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditUtils;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.codes.MllpEventTypeCode;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.QueryAuditDataset;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 
 import java.util.Map;
 
@@ -35,6 +37,8 @@ import static java.util.Objects.requireNonNull;
  */
 public abstract class PdqAuditStrategy extends AuditStrategySupport<QueryAuditDataset> {
 
+    private static final String[] QUERY_PARAMETERS = {"@PID.3.1", "@PID.3.4.1", "@PID.3.4.2", "@PID.3.4.3"};
+
     private final MllpEventTypeCode eventTypeCode;
     private final ParticipantObjectIdType participantObjectIdType;
     
@@ -46,9 +50,45 @@ public abstract class PdqAuditStrategy extends AuditStrategySupport<QueryAuditDa
     
     @Override
     public QueryAuditDataset enrichAuditDatasetFromRequest(QueryAuditDataset auditDataset, Object msg, Map<String, Object> parameters) {
-        PdqAuditStrategyUtils.enrichAuditDatasetFromRequest(auditDataset, (Message)msg, parameters);
+        if (msg instanceof MessageCharSequence) {
+            enrichAuditDatasetFromRequest(auditDataset, (MessageCharSequence) msg, parameters);
+        } else {
+            PdqAuditStrategyUtils.enrichAuditDatasetFromRequest(auditDataset, (Message) msg, parameters);
+        }
         return auditDataset;
     }
+
+    /**
+     * Extracts a complete patient ID from the query parameters in QPD-3 of the given encoded request.
+     */
+    private static void enrichAuditDatasetFromRequest(QueryAuditDataset auditDataset, MessageCharSequence msg, Map<String, Object> parameters) {
+        if (MllpAuditUtils.hasSegment(msg, "QPD")) {
+            var pieces = new String[QUERY_PARAMETERS.length];
+            var queryCount = msg.getFieldRepetitions("QPD", 0, 3).length;
+            for (var query = 0; query < queryCount; ++query) {
+                var name = msg.getField("QPD", 0, 3, query, 1, 0);
+                for (var i = 0; i < QUERY_PARAMETERS.length; ++i) {
+                    if ((pieces[i] == null) && (name != null) && name.startsWith(QUERY_PARAMETERS[i])) {
+                        pieces[i] = msg.getField("QPD", 0, 3, query, 2, 0);
+                        break;
+                    }
+                }
+            }
+
+            // concatenate found components, if their set is complete
+            if ((pieces[0] != null) && ((pieces[1] != null) || ((pieces[2] != null) && (pieces[3] != null)))) {
+                var sb = new StringBuilder(pieces[0]).append("^^^");
+                if (pieces[1] != null) {
+                    sb.append(pieces[1]);
+                }
+                if ((pieces[2] != null) && (pieces[3] != null)) {
+                    sb.append('&').append(pieces[2]).append('&').append(pieces[3]);
+                }
+                auditDataset.setPatientIds(new String[]{sb.toString()});
+            }
+        }
+        auditDataset.setPayload(MllpAuditUtils.getRequestString(parameters, msg));
+    }
     
     @Override
     public boolean enrichAuditDatasetFromResponse(QueryAuditDataset auditDataset, Object msg, AuditContext auditContext) {
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.definitions;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.Severity;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.conf.store.ProfileStore;
+import ca.uhn.hl7v2.validation.ValidationException;
+import ca.uhn.hl7v2.validation.impl.AbstractMessageRule;
+import org.openehealth.ipf.gazelle.validation.core.CachingGazelleProfileRule;
+import org.openehealth.ipf.gazelle.validation.core.stub.HL7V2XConformanceProfile;
+import org.openehealth.ipf.gazelle.validation.profile.ConformanceProfile;
+import org.openehealth.ipf.gazelle.validation.profile.HL7v2Transactions;
+import org.openehealth.ipf.modules.hl7.message.Hl7Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Message rule that validates messages against Gazelle conformance profiles, like
+ * {@link CachingGazelleProfileRule}, but compiles each profile once into a flat validation plan
+ * instead of walking the profile definition for each message. The profile for a message is looked
+ * up by message type, trigger event and version, and cached for the transaction as well, including
+ * the absence of a matching profile up to a fixed number of misses. Compiled plans are shared by all rule instances using the same
+ * {@link ProfileStore}.
+ * <p>
+ * Optionally, validation stops at the first error. Counters of validated and failed messages
+ * and of the time spent are kept per rule instance.
+ * </p>
+ *
+ * @since 4.1
+ */
+public class CompiledConformanceProfileRule extends AbstractMessageRule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledConformanceProfileRule.class);
+
+    private static final Hl7Path MSH_9_1 = Hl7Path.compile("MSH-9-1");
+    private static final Hl7Path MSH_9_2 = Hl7Path.compile("MSH-9-2");
+    private static final Hl7Path MSH_12_1 = Hl7Path.compile("MSH-12-1");
+
+    // profile IDs are only unique within a profile store
+    private static final Map<ProfileStore, Map<String, ConformanceProfilePlan>> PLANS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private static final LongAdder COMPILED_PLANS = new LongAdder();
+
+    // bounds the number of cached misses, as message types are taken from received messages
+    static final int MAX_CACHED_PROFILES = 10000;
+
+    private final HL7v2Transactions transaction;
+    private final ConformanceProfile profile;
+    private final boolean failFast;
+    private final Map<String, Optional<ConformanceProfile>> profiles = new ConcurrentHashMap<>();
+
+    private final LongAdder validatedMessages = new LongAdder();
+    private final LongAdder failedMessages = new LongAdder();
+    private final LongAdder validationNanos = new LongAdder();
+
+    /**
+     * @param transaction transaction, whose profiles are used depending on the message type
+     * @param failFast    whether validation shall stop at the first error
+     */
+    public CompiledConformanceProfileRule(HL7v2Transactions transaction, boolean failFast) {
+        this.transaction = Objects.requireNonNull(transaction);
+        this.profile = null;
+        this.failFast = failFast;
+    }
+
+    /**
+     * @param transaction transaction, whose profiles are used depending on the message type
+     */
+    public CompiledConformanceProfileRule(HL7v2Transactions transaction) {
+        this(transaction, false);
+    }
+
+    /**
+     * @param profile  profile, which is used for all messages
+     * @param failFast whether validation shall stop at the first error
+     */
+    public CompiledConformanceProfileRule(ConformanceProfile profile, boolean failFast) {
+        this.transaction = null;
+        this.profile = Objects.requireNonNull(profile);
+        this.failFast = failFast;
+    }
+
+    @Override
+    public ValidationException[] apply(Message message) {
+        var start = System.nanoTime();
+        try {
+            var messageType = MSH_9_1.get(message);
+            var triggerEvent = MSH_9_2.get(message);
+            var version = MSH_12_1.get(message);
+            var conformanceProfile = profile != null ? profile : profile(messageType, triggerEvent, version);
+            if (conformanceProfile == null) {
+                failedMessages.increment();
+                return failed("No matching profile could be loaded for message of type " + message.getClass().getName());
+            }
+            var plan = plan(message.getParser().getHapiContext(), conformanceProfile.profileInfo().profileId());
+            var result = plan.validate(message, messageType, triggerEvent, version, failFast);
+            for (var exception : result) {
+                if (exception.getSeverity() == Severity.ERROR) {
+                    failedMessages.increment();
+                    break;
+                }
+            }
+            return result.toArray(new ValidationException[0]);
+        } catch (Exception e) {
+            failedMessages.increment();
+            return failed(e);
+        } finally {
+            validatedMessages.increment();
+            validationNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private ConformanceProfile profile(String messageType, String triggerEvent, String version) {
+        var key = messageType + '^' + triggerEvent + '^' + version;
+        var cached = profiles.get(key);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        for (var candidate : transaction.conformanceProfiles()) {
+            var info = candidate.profileInfo();
+            if (info.type().equals(messageType) && info.event().equals(triggerEvent) && info.hl7version().equals(version)) {
+                profiles.put(key, Optional.of(candidate));
+                return candidate;
+            }
+        }
+        if (profiles.size() < MAX_CACHED_PROFILES) {
+            profiles.put(key, Optional.empty());
+        }
+        return null;
+    }
+
+    private static ConformanceProfilePlan plan(HapiContext context, String profileId) throws HL7Exception, IOException, JAXBException {
+        var profileStore = context.getProfileStore();
+        var plans = PLANS.computeIfAbsent(profileStore, store -> new ConcurrentHashMap<>());
+        var plan = plans.get(profileId);
+        if (plan == null) {
+            LOG.debug("Compiling conformance profile {}", profileId);
+            var profileString = profileStore.getProfile(profileId);
+            if (profileString == null) {
+                throw new HL7Exception("Cannot find conformance profile " + profileId);
+            }
+            var unmarshaller = JaxbContextHolder.CONTEXT.createUnmarshaller();
+            var conformanceProfile = (HL7V2XConformanceProfile) unmarshaller.unmarshal(new StringReader(profileString));
+            plan = ConformanceProfilePlan.compile(conformanceProfile);
+            var previous = plans.putIfAbsent(profileId, plan);
+            if (previous != null) {
+                return previous;
+            }
+            COMPILED_PLANS.increment();
+        }
+        return plan;
+    }
+
+    /**
+     * @return whether validation stops at the first error
+     */
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * @return number of messages validated by this rule
+     */
+    public long getValidatedMessages() {
+        return validatedMessages.sum();
+    }
+
+    /**
+     * @return number of messages validated by this rule with at least one error
+     */
+    public long getFailedMessages() {
+        return failedMessages.sum();
+    }
+
+    /**
+     * @return total time in nanoseconds spent in validating messages by this rule
+     */
+    public long getValidationNanos() {
+        return validationNanos.sum();
+    }
+
+    /**
+     * @return number of conformance profiles compiled so far
+     */
+    public static long getCompiledPlans() {
+        return COMPILED_PLANS.sum();
+    }
+
+    private static final class JaxbContextHolder {
+        private static final JAXBContext CONTEXT;
+
+        static {
+            try {
+                CONTEXT = JAXBContext.newInstance(HL7V2XConformanceProfile.class);
+            } catch (JAXBException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+}
@@ -17,24 +17,39 @@
 package org.openehealth.ipf.commons.ihe.hl7v2.definitions;
 
 import ca.uhn.hl7v2.validation.builder.support.DefaultValidationWithoutTNBuilder;
-import org.openehealth.ipf.gazelle.validation.core.CachingGazelleProfileRule;
 import org.openehealth.ipf.gazelle.validation.profile.HL7v2Transactions;
 
 /**
  * Simple {@link ca.uhn.hl7v2.validation.builder.ValidationRuleBuilder validation rule builder}
  * that just uses a conformance profile to validate against a message that is allowed for a
- * defined set of {@link HL7v2Transactions HL7v2 based IHE transactions}.
+ * defined set of {@link HL7v2Transactions HL7v2 based IHE transactions}. The profiles are compiled
+ * once by a {@link CompiledConformanceProfileRule}.
  */
 public class ConformanceProfileBasedValidationBuilder extends DefaultValidationWithoutTNBuilder {
 
-    private final HL7v2Transactions transaction;
+    private final CompiledConformanceProfileRule rule;
 
     public ConformanceProfileBasedValidationBuilder(HL7v2Transactions transaction) {
-        this.transaction = transaction;
+        this(transaction, false);
     }
 
     /**
-     * Configures the matching {@link CachingGazelleProfileRule} to be validated against
+     * @param transaction HL7v2 based IHE transaction
+     * @param failFast    whether validation of a message shall stop at the first error
+     */
+    public ConformanceProfileBasedValidationBuilder(HL7v2Transactions transaction, boolean failFast) {
+        this.rule = new CompiledConformanceProfileRule(transaction, failFast);
+    }
+
+    /**
+     * @return the profile validation rule, e.g. for reading its statistics
+     */
+    public CompiledConformanceProfileRule getRule() {
+        return rule;
+    }
+
+    /**
+     * Configures the matching {@link CompiledConformanceProfileRule} to be validated against
      */
     @Override
     protected void configure() {
@@ -43,6 +58,6 @@ public class ConformanceProfileBasedValidationBuilder extends DefaultValidationW
 
         forAllVersions()
                 .message().all()
-                .test(new CachingGazelleProfileRule(transaction));
+                .test(rule);
     }
 }
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.definitions;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.Severity;
+import ca.uhn.hl7v2.model.Composite;
+import ca.uhn.hl7v2.model.Group;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.Segment;
+import ca.uhn.hl7v2.model.Structure;
+import ca.uhn.hl7v2.model.Type;
+import ca.uhn.hl7v2.model.Visitable;
+import ca.uhn.hl7v2.model.primitive.TSComponentOne;
+import ca.uhn.hl7v2.util.Terser;
+import ca.uhn.hl7v2.validation.ValidationException;
+import org.openehealth.ipf.gazelle.validation.core.GazelleProfileRule;
+import org.openehealth.ipf.gazelle.validation.core.stub.HL7V2XConformanceProfile;
+import org.openehealth.ipf.gazelle.validation.core.stub.HL7V2XStaticDef;
+import org.openehealth.ipf.gazelle.validation.core.stub.SegmentType;
+import org.openehealth.ipf.gazelle.validation.core.util.MessageUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.openehealth.ipf.gazelle.validation.core.util.ProfileAssertions.profileNotHL7Compliant;
+import static org.openehealth.ipf.gazelle.validation.core.util.ProfileAssertions.profileViolatedWhen;
+import static org.openehealth.ipf.gazelle.validation.core.util.ProfileValidationMessage.*;
+
+/**
+ * Validation plan compiled from a Gazelle conformance profile. Usage, cardinality and the set of
+ * defined structures and fields are evaluated once when the plan is compiled and stored in flat
+ * arrays per group and segment, so that validating a message is a single walk over its structure.
+ * The checks and the resulting {@link ValidationException}s are the same as those of
+ * {@link GazelleProfileRule}, which is still used to test the contents of single fields.
+ *
+ * @since 4.1
+ */
+final class ConformanceProfilePlan {
+
+    private static final String ALL_EVENTS = "ALL";
+
+    private final String messageType;
+    private final String eventType;
+    private final String version;
+    private final GroupPlan root;
+    private final FieldTester fieldTester;
+
+    private ConformanceProfilePlan(HL7V2XConformanceProfile profile) {
+        HL7V2XStaticDef staticDef = null;
+        for (var definition : profile.getDynamicDevesAndHL7V2XStaticDevesAndHL7V2XStaticDefReves()) {
+            if (definition instanceof HL7V2XStaticDef) {
+                staticDef = (HL7V2XStaticDef) definition;
+            }
+        }
+        this.version = profile.getHL7Version();
+        this.fieldTester = new FieldTester(profile);
+        if (staticDef != null) {
+            this.messageType = staticDef.getMsgType();
+            this.eventType = staticDef.getEventType();
+            this.root = new GroupPlan(staticDef.getSegmentsAndSegGroups());
+        } else {
+            this.messageType = null;
+            this.eventType = null;
+            this.root = null;
+        }
+    }
+
+    /**
+     * @param profile unmarshalled conformance profile
+     * @return the compiled plan
+     */
+    static ConformanceProfilePlan compile(HL7V2XConformanceProfile profile) {
+        return new ConformanceProfilePlan(profile);
+    }
+
+    /**
+     * Validates the message against this plan.
+     *
+     * @param message      message to be validated
+     * @param messageType  MSH-9-1 of the message
+     * @param triggerEvent MSH-9-2 of the message
+     * @param version      MSH-12-1 of the message
+     * @param failFast     whether to stop at the first violation with severity {@link Severity#ERROR}
+     * @return violations, empty if the message conforms to the profile
+     */
+    List<ValidationException> validate(Message message, String messageType, String triggerEvent, String version, boolean failFast) {
+        var pass = new Pass(failFast);
+        if (root == null) {
+            pass.result.add(new ValidationException("No Static Definitions found in HL7V2XConformance profile"));
+            return pass.result;
+        }
+        if (!Objects.equals(this.messageType, messageType) ||
+                (!ALL_EVENTS.equals(eventType) && !Objects.equals(eventType, triggerEvent)) ||
+                !Objects.equals(this.version, version)) {
+            var terser = new Terser(message);
+            MessageUtils.checkMSHTypeField(this.messageType, terser, pass.result);
+            MessageUtils.checkMSHEventField(eventType, terser, pass.result);
+            MessageUtils.checkMSHVersionField(this.version, terser, pass.result);
+            if (pass.stop()) {
+                return pass.result;
+            }
+        }
+        testGroup(message, root, pass);
+        return pass.result;
+    }
+
+    private boolean testGroup(Group group, GroupPlan plan, Pass pass) {
+        for (var i = 0; i < plan.names.length; ++i) {
+            try {
+                var structures = nonEmptyStructures(group.getAll(plan.names[i]));
+                testCardinality(structures.size(), plan.names[i], plan.min[i], plan.max[i], plan.required[i], pass);
+                for (var structure : structures) {
+                    if (testStructure(structure, plan.children[i], pass)) {
+                        return true;
+                    }
+                }
+            } catch (HL7Exception e) {
+                profileNotHL7Compliant(pass.result, PROFILE_STRUCTURE_NOT_EXIST_IN_JAVA_CLASS, plan.names[i]);
+            }
+            if (pass.stop()) {
+                return true;
+            }
+        }
+        for (var name : group.getNames()) {
+            if (!plan.defined.contains(name)) {
+                try {
+                    for (var structure : group.getAll(name)) {
+                        profileViolatedWhen(!isEmpty(structure), pass.result, STRUCTURE_NOT_DEFINED_IN_PROFILE, name);
+                    }
+                } catch (HL7Exception e) {
+                    pass.result.add(new ValidationException("Problem checking profile:" + e.getMessage()));
+                }
+            }
+        }
+        return pass.stop();
+    }
+
+    private boolean testStructure(Structure structure, Object plan, Pass pass) {
+        if (plan instanceof SegmentPlan) {
+            if (structure instanceof Segment) {
+                return testSegment((Segment) structure, (SegmentPlan) plan, pass);
+            }
+            profileNotHL7Compliant(pass.result, PROFILE_STRUCTURE_MISMATCH, "segment", structure.getClass().getName());
+        } else {
+            if (structure instanceof Group) {
+                return testGroup((Group) structure, (GroupPlan) plan, pass);
+            }
+            profileNotHL7Compliant(pass.result, PROFILE_STRUCTURE_MISMATCH, "group", structure.getClass().getName());
+        }
+        return pass.stop();
+    }
+
+    private boolean testSegment(Segment segment, SegmentPlan plan, Pass pass) {
+        var start = pass.result.size();
+        var stopped = false;
+        for (var i = 0; i < plan.positions.length && !stopped; ++i) {
+            var position = plan.positions[i];
+            var field = plan.fields[i];
+            try {
+                var repetitions = nonEmptyFields(segment.getField(position));
+                testCardinality(repetitions.size(), field.getName(), plan.min[i], plan.max[i], plan.required[i], pass);
+                for (var repetition : repetitions) {
+                    var exceptions = fieldTester.testField(repetition, field, plan.validateContent[i]);
+                    for (var exception : exceptions) {
+                        exception.setFieldPosition(position);
+                    }
+                    pass.result.addAll(exceptions);
+                }
+            } catch (HL7Exception e) {
+                profileNotHL7Compliant(pass.result, FIELD_NOT_FOUND, position);
+            }
+            stopped = pass.stop();
+        }
+        if (!stopped) {
+            testUndefinedFields(segment, plan, pass);
+        }
+        for (var exception : pass.result.subList(start, pass.result.size())) {
+            exception.setSegmentName(plan.name);
+        }
+        return stopped || pass.stop();
+    }
+
+    private static void testUndefinedFields(Segment segment, SegmentPlan plan, Pass pass) {
+        for (var position = 1; position <= segment.numFields(); ++position) {
+            if (position >= plan.defined.length || !plan.defined[position]) {
+                try {
+                    for (var repetition : segment.getField(position)) {
+                        profileViolatedWhen(!isEmpty(repetition), pass.result, FIELD_NOT_DEFINED_IN_PROFILE, position, segment.getName());
+                    }
+                } catch (HL7Exception e) {
+                    pass.result.add(new ValidationException("Problem testing against profile: " + e.getMessage()));
+                }
+            }
+        }
+    }
+
+    private static void testCardinality(int count, String name, int min, int max, boolean required, Pass pass) {
+        if (count < min && required) {
+            profileNotHL7Compliant(pass.result, LESS_THAN_MINIMUM_CARDINALITY, name, min, count);
+        }
+        if (max > 0 && count > max) {
+            profileNotHL7Compliant(pass.result, MORE_THAN_MAXIMUM_CARDINALITY, name, max, count);
+        }
+    }
+
+    private static List<Structure> nonEmptyStructures(Structure[] structures) throws HL7Exception {
+        var result = new ArrayList<Structure>(structures.length);
+        for (var structure : structures) {
+            if (!isEmpty(structure)) {
+                result.add(structure);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Mirrors the selection of field repetitions in {@link GazelleProfileRule}: if a field repeats,
+     * the first repetition is always tested.
+     */
+    private static List<Type> nonEmptyFields(Type[] repetitions) throws HL7Exception {
+        if (repetitions.length == 0) {
+            return List.of();
+        }
+        if (repetitions.length == 1) {
+            return isEmpty(repetitions[0]) ? List.of() : List.of(repetitions[0]);
+        }
+        var result = new ArrayList<Type>(repetitions.length);
+        result.add(repetitions[0]);
+        for (var i = 1; i < repetitions.length; ++i) {
+            if (!isEmpty(repetitions[i])) {
+                result.add(repetitions[i]);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isEmpty(Visitable visitable) throws HL7Exception {
+        if (visitable == null) {
+            return true;
+        }
+        if (visitable instanceof TSComponentOne) {
+            var value = ((TSComponentOne) visitable).getValue();
+            return value == null || value.isEmpty();
+        }
+        if (visitable instanceof Composite && visitable.getClass().getName().endsWith(".TS")) {
+            return isEmpty(((Composite) visitable).getComponent(0));
+        }
+        return visitable.isEmpty();
+    }
+
+    private static boolean disallowed(String usage) {
+        return "X".equalsIgnoreCase(usage);
+    }
+
+    private static boolean required(String usage) {
+        return "R".equalsIgnoreCase(usage);
+    }
+
+    private static int max(String max) {
+        return "*".equals(max) ? Short.MAX_VALUE : Short.parseShort(max);
+    }
+
+    /**
+     * Compiled segment group or message: the allowed child structures with their usage and cardinality.
+     */
+    private static final class GroupPlan {
+        private final String[] names;
+        private final int[] min;
+        private final int[] max;
+        private final boolean[] required;
+        private final Object[] children;
+        private final Set<String> defined = new HashSet<>();
+
+        private GroupPlan(List<Object> elements) {
+            var names = new String[elements.size()];
+            var min = new int[elements.size()];
+            var max = new int[elements.size()];
+            var required = new boolean[elements.size()];
+            var children = new Object[elements.size()];
+            var size = 0;
+            for (var element : elements) {
+                String usage;
+                if (element instanceof SegmentType) {
+                    var segment = (SegmentType) element;
+                    usage = segment.getUsage();
+                    if (disallowed(usage)) {
+                        continue;
+                    }
+                    names[size] = segment.getName();
+                    min[size] = segment.getMin().intValue();
+                    max[size] = max(segment.getMax());
+                    children[size] = new SegmentPlan(segment);
+                } else if (element instanceof HL7V2XStaticDef.SegGroup) {
+                    var group = (HL7V2XStaticDef.SegGroup) element;
+                    usage = group.getUsage();
+                    if (disallowed(usage)) {
+                        continue;
+                    }
+                    names[size] = group.getName();
+                    min[size] = group.getMin().intValue();
+                    max[size] = max(group.getMax());
+                    children[size] = new GroupPlan(group.getSegGroupsAndSegments());
+                } else {
+                    throw new IllegalArgumentException(element.getClass().getName() + " is not supported as profile element.");
+                }
+                required[size] = required(usage);
+                defined.add(names[size]);
+                size++;
+            }
+            this.names = Arrays.copyOf(names, size);
+            this.min = Arrays.copyOf(min, size);
+            this.max = Arrays.copyOf(max, size);
+            this.required = Arrays.copyOf(required, size);
+            this.children = Arrays.copyOf(children, size);
+        }
+    }
+
+    /**
+     * Compiled segment: the allowed fields with their usage and cardinality, and a bitmap of
+     * all field positions defined in the profile.
+     */
+    private static final class SegmentPlan {
+        private final String name;
+        private final int[] positions;
+        private final int[] min;
+        private final int[] max;
+        private final boolean[] required;
+        private final boolean[] validateContent;
+        private final SegmentType.Field[] fields;
+        private final boolean[] defined;
+
+        private SegmentPlan(SegmentType segment) {
+            name = segment.getName();
+            var profileFields = segment.getFields();
+            var positions = new int[profileFields.size()];
+            var min = new int[profileFields.size()];
+            var max = new int[profileFields.size()];
+            var required = new boolean[profileFields.size()];
+            var validateContent = new boolean[profileFields.size()];
+            var fields = new SegmentType.Field[profileFields.size()];
+            defined = new boolean[profileFields.size() + 1];
+            var size = 0;
+            var position = 0;
+            for (var field : profileFields) {
+                position++;
+                if (disallowed(field.getUsage())) {
+                    continue;
+                }
+                positions[size] = position;
+                min[size] = field.getMin().intValue();
+                max[size] = max(field.getMax());
+                required[size] = required(field.getUsage());
+                // MSH-1 and MSH-2 contain the encoding characters
+                validateContent[size] = !("MSH".equalsIgnoreCase(name) && position < 3);
+                fields[size] = field;
+                defined[position] = true;
+                size++;
+            }
+            this.positions = Arrays.copyOf(positions, size);
+            this.min = Arrays.copyOf(min, size);
+            this.max = Arrays.copyOf(max, size);
+            this.required = Arrays.copyOf(required, size);
+            this.validateContent = Arrays.copyOf(validateContent, size);
+            this.fields = Arrays.copyOf(fields, size);
+        }
+    }
+
+    /**
+     * State of a single validation pass
+     */
+    private static final class Pass {
+        private final List<ValidationException> result = new ArrayList<>();
+        private final boolean failFast;
+        private int checked;
+
+        private Pass(boolean failFast) {
+            this.failFast = failFast;
+        }
+
+        /**
+         * @return true if validation shall stop because an error has been found
+         */
+        private boolean stop() {
+            if (!failFast) {
+                return false;
+            }
+            for (; checked < result.size(); ++checked) {
+                if (result.get(checked).getSeverity() == Severity.ERROR) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Gives access to the field checks of {@link GazelleProfileRule}
+     */
+    private static final class FieldTester extends GazelleProfileRule {
+
+        private FieldTester(HL7V2XConformanceProfile profile) {
+            super(profile);
+        }
+
+        @Override
+        protected List<ValidationException> testField(Type type, SegmentType.Field profile, boolean validate) {
+            return super.testField(type, profile, validate);
+        }
+    }
+}
@@ -29,6 +29,7 @@ import ca.uhn.hl7v2.validation.builder.support.DefaultValidationWithoutTNBuilder
 import ca.uhn.hl7v2.validation.impl.SimpleValidationExceptionHandler;
 import org.openehealth.ipf.gazelle.validation.profile.HL7v2Transactions;
 import org.openehealth.ipf.gazelle.validation.profile.store.GazelleProfileStore;
+import org.openehealth.ipf.modules.hl7.idgenerator.BlockIdGenerator;
 import org.openehealth.ipf.modules.hl7.parser.DefaultEscaping;
 
 /**
@@ -42,19 +43,31 @@ import org.openehealth.ipf.modules.hl7.parser.DefaultEscaping;
  */
 public class HapiContextFactory {
 
-    private static IDGenerator idGenerator = new FileBasedHiLoGenerator();
+    private static volatile IDGenerator idGenerator = new FileBasedHiLoGenerator();
 
     /**
      * Allows to globally set the {@link ca.uhn.hl7v2.util.idgenerator.IDGenerator} that generates
      * IDs for new HL7 messages from new HapiContext instances. This does not affect the ID generation
      * of already created HapiContexts nor does it do any cleanup of the previous generator.
+     * <p>
+     * By default, a {@link FileBasedHiLoGenerator} is used. Use
+     * {@link BlockIdGenerator#defaultGenerator()} for lock-free ID generation; note that its ID file
+     * is separate from the one of the default generator, so that control IDs start over.
+     * </p>
      *
      * @param generator global ID generator
      */
-    public static synchronized void setIdGenerator(IDGenerator generator) {
+    public static void setIdGenerator(IDGenerator generator) {
         idGenerator = generator;
     }
 
+    /**
+     * @return global ID generator for new HapiContext instances
+     */
+    public static IDGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
     /**
      * Returns a default HapiContext
      *
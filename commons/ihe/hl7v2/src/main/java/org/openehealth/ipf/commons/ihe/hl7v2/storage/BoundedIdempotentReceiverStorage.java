@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.storage;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Self-contained, size- and time-bounded storage of responses to already processed HL7 v2 requests.
+ * <p>
+ * The storage holds the key, the encoded response and its expiry time per entry.
+ * Entries are distributed over a fixed number of independently locked stripes, so that concurrent consumers rarely contend for the same lock.
+ * Each stripe holds up to its share of the maximal number of entries. When a stripe is full,
+ * its oldest entry is evicted; entries older than the time-to-live are not returned and
+ * evicted lazily.
+ *
+ * @since 4.1
+ */
+public class BoundedIdempotentReceiverStorage implements IdempotentReceiverStorage {
+
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final int maxEntriesPerStripe;
+    private final long timeToLiveMillis;
+    private final Clock clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+
+    /**
+     * @param maxEntries maximal number of stored responses.
+     * @param timeToLive time after which a stored response is discarded.
+     */
+    public BoundedIdempotentReceiverStorage(int maxEntries, Duration timeToLive) {
+        this(maxEntries, timeToLive, DEFAULT_STRIPES, Clock.systemUTC());
+    }
+
+    BoundedIdempotentReceiverStorage(int maxEntries, Duration timeToLive, int stripeCount, Clock clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximal number of entries must be positive");
+        }
+        // power of two, but not more stripes than entries
+        var count = Integer.highestOneBit(Math.max(1, Math.min(stripeCount, maxEntries)));
+        this.stripes = new Stripe[count];
+        for (var i = 0; i < count; ++i) {
+            stripes[i] = new Stripe();
+        }
+        this.maxEntriesPerStripe = (maxEntries + count - 1) / count;
+        this.timeToLiveMillis = requireNonNull(timeToLive).toMillis();
+        this.clock = requireNonNull(clock);
+    }
+
+
+    @Override
+    public void put(String key, String response) {
+        var now = clock.millis();
+        var stripe = stripe(key);
+        synchronized (stripe) {
+            evictExpired(stripe, now);
+            // re-insert to keep the insertion order equal to the expiry order
+            stripe.remove(key);
+            stripe.put(key, new Entry(response, now + timeToLiveMillis));
+            var iterator = stripe.values().iterator();
+            while (stripe.size() > maxEntriesPerStripe) {
+                iterator.next();
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+
+    @Override
+    public String get(String key) {
+        var now = clock.millis();
+        var stripe = stripe(key);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.get(key);
+            if (entry != null && entry.expires <= now) {
+                evictExpired(stripe, now);
+                entry = null;
+            }
+        }
+        (entry != null ? hits : misses).increment();
+        return (entry != null) ? entry.response : null;
+    }
+
+
+    private Stripe stripe(String key) {
+        var hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static void evictExpired(Stripe stripe, long now) {
+        var iterator = stripe.values().iterator();
+        while (iterator.hasNext() && iterator.next().expires <= now) {
+            iterator.remove();
+        }
+    }
+
+
+    /**
+     * @return number of currently stored responses, including expired ones not yet evicted.
+     */
+    public int getEntries() {
+        var result = 0;
+        for (var stripe : stripes) {
+            synchronized (stripe) {
+                result += stripe.size();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of lookups which returned a stored response.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups which did not return a stored response.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of responses evicted because the storage was full.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+
+    private static final class Stripe extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class Entry {
+        private final String response;
+        private final long expires;
+
+        private Entry(String response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Self-contained, memory-bounded storage of HL7 v2 unsolicited fragmentation accumulators.
+ * <p>
+ * The size of an accumulator is accounted as the number of bytes of its UTF-8 representation.
+ * It is computed incrementally, i.e. only for the fragment appended since the accumulator has been
+ * retrieved from this storage, so that long fragment chains are not re-encoded with each fragment.
+ * The storage enforces
+ * <ul>
+ *     <li>a global budget of bytes held by all open fragment chains,</li>
+ *     <li>a budget of bytes held by the open chains of a single sender,</li>
+ *     <li>a time-to-live after which abandoned chains are evicted.</li>
+ * </ul>
+ * When the global budget would be exceeded, the least recently updated chains are evicted.
+ * When a sender exceeds its own budget, its accumulator is rejected with an {@link IllegalStateException},
+ * so that the receiver can refuse the fragment instead of requesting the next one.
+ * <p>
+ * The sender is derived from the storage key, which consists of the continuation pointer
+ * followed by MSH-3-1, MSH-3-2 and MSH-3-3, separated by <code>'\0'</code>.
+ * Accumulators are stored as they are and must not be modified after they have been put.
+ * The storage can be used concurrently, chains of different senders do not contend for a lock.
+ *
+ * @since 4.1
+ */
+public class BoundedUnsolicitedFragmentationStorage implements UnsolicitedFragmentationStorage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BoundedUnsolicitedFragmentationStorage.class);
+
+    private final long maxTotalBytes;
+    private final long maxBytesPerSender;
+    private final long timeToLiveMillis;
+    private final Clock clock;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // entries in the order of their last update, because entries are removed on retrieval
+    // and re-inserted with the next fragment; superseded entries are skipped when polled
+    private final Queue<Entry> updateOrder = new ConcurrentLinkedQueue<>();
+    private final Map<String, Long> bytesPerSender = new ConcurrentHashMap<>();
+    // sizes of accumulators which have been retrieved and will probably be put again, keyed by identity
+    private final Map<StringBuilder, Size> retrieved = Collections.synchronizedMap(new WeakHashMap<>());
+    private final AtomicLong bytesHeld = new AtomicLong();
+    private final LongAdder expiredChains = new LongAdder();
+    private final LongAdder evictedChains = new LongAdder();
+    private final LongAdder rejectedChains = new LongAdder();
+
+
+    /**
+     * @param maxTotalBytes     maximal number of bytes held by all open fragment chains.
+     * @param maxBytesPerSender maximal number of bytes held by open fragment chains of a single sender.
+     * @param timeToLive        time after which an abandoned fragment chain is evicted.
+     */
+    public BoundedUnsolicitedFragmentationStorage(long maxTotalBytes, long maxBytesPerSender, Duration timeToLive) {
+        this(maxTotalBytes, maxBytesPerSender, timeToLive, Clock.systemUTC());
+    }
+
+    BoundedUnsolicitedFragmentationStorage(long maxTotalBytes, long maxBytesPerSender, Duration timeToLive, Clock clock) {
+        if (maxTotalBytes <= 0 || maxBytesPerSender <= 0) {
+            throw new IllegalArgumentException("Byte budgets must be positive");
+        }
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxBytesPerSender = maxBytesPerSender;
+        this.timeToLiveMillis = requireNonNull(timeToLive).toMillis();
+        this.clock = requireNonNull(clock);
+    }
+
+
+    /**
+     * @throws IllegalStateException when the accumulator exceeds the budget of its sender.
+     */
+    @Override
+    public void put(String key, StringBuilder accumulator) {
+        var now = clock.millis();
+        evictExpired(now);
+        remove(key);
+
+        var bytes = utf8Length(accumulator, retrieved.remove(accumulator));
+        var sender = sender(key);
+        if (bytes > maxTotalBytes || !reserve(sender, bytes)) {
+            rejectedChains.increment();
+            LOG.warn("Reject fragment chain {} of {} bytes, budget of sender {} exceeded",
+                    printable(key), bytes, printable(sender));
+            throw new IllegalStateException("Fragment chain rejected, budget of sender " + printable(sender) + " exceeded");
+        }
+
+        var entry = new Entry(key, sender, accumulator, new Size(accumulator.length(), bytes), now);
+        var previous = entries.put(key, entry);
+        if (previous != null) {
+            // a concurrent put with the same key
+            release(previous);
+        }
+        updateOrder.add(entry);
+
+        // evict least recently updated chains until the global budget is met again
+        while (bytesHeld.get() > maxTotalBytes) {
+            var eldest = updateOrder.poll();
+            if (eldest == null) {
+                break;
+            }
+            if (entries.remove(eldest.key, eldest)) {
+                release(eldest);
+                evictedChains.increment();
+                LOG.warn("Evict fragment chain {}, storage budget of {} bytes exceeded", printable(eldest.key), maxTotalBytes);
+            }
+        }
+    }
+
+
+    @Override
+    public StringBuilder getAndRemove(String key) {
+        evictExpired(clock.millis());
+        var entry = remove(key);
+        if (entry == null) {
+            return null;
+        }
+        retrieved.put(entry.accumulator, entry.size);
+        return entry.accumulator;
+    }
+
+
+    private Entry remove(String key) {
+        var entry = entries.remove(key);
+        if (entry != null) {
+            release(entry);
+        }
+        return entry;
+    }
+
+    private boolean reserve(String sender, long bytes) {
+        var reserved = new boolean[1];
+        bytesPerSender.compute(sender, (s, held) -> {
+            var current = (held != null) ? held : 0L;
+            if (current + bytes > maxBytesPerSender) {
+                return held;
+            }
+            reserved[0] = true;
+            return current + bytes;
+        });
+        if (reserved[0]) {
+            bytesHeld.addAndGet(bytes);
+        }
+        return reserved[0];
+    }
+
+    private void release(Entry entry) {
+        bytesHeld.addAndGet(-entry.size.bytes);
+        bytesPerSender.computeIfPresent(entry.sender, (sender, bytes) ->
+                (bytes > entry.size.bytes) ? bytes - entry.size.bytes : null);
+    }
+
+    private void evictExpired(long now) {
+        Entry eldest;
+        while ((eldest = updateOrder.peek()) != null) {
+            if (entries.get(eldest.key) == eldest && now - eldest.updated < timeToLiveMillis) {
+                break;
+            }
+            if (updateOrder.remove(eldest) && entries.remove(eldest.key, eldest)) {
+                release(eldest);
+                expiredChains.increment();
+                LOG.debug("Evict abandoned fragment chain {}", printable(eldest.key));
+            }
+        }
+    }
+
+    /**
+     * Returns the UTF-8 length of the given accumulator, counting only the characters which
+     * have been appended since the given previous size of the accumulator.
+     */
+    private static long utf8Length(StringBuilder accumulator, Size previous) {
+        var start = 0;
+        var bytes = 0L;
+        if (previous != null && previous.chars <= accumulator.length()) {
+            start = previous.chars;
+            bytes = previous.bytes;
+        }
+        for (var i = start; i < accumulator.length(); ++i) {
+            var c = accumulator.charAt(i);
+            if (c < 0x80) {
+                ++bytes;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < accumulator.length()
+                    && Character.isLowSurrogate(accumulator.charAt(i + 1))) {
+                bytes += 4;
+                ++i;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static String sender(String key) {
+        var pos = key.indexOf('\0');
+        return (pos < 0) ? "" : key.substring(pos + 1);
+    }
+
+    private static String printable(String key) {
+        return key.replace('\0', '|');
+    }
+
+
+    /**
+     * @return number of currently open fragment chains.
+     */
+    public int getOpenChains() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of bytes held by currently open fragment chains.
+     */
+    public long getBytesHeld() {
+        return bytesHeld.get();
+    }
+
+    /**
+     * @return number of fragment chains evicted because their time-to-live has elapsed.
+     */
+    public long getExpiredChains() {
+        return expiredChains.sum();
+    }
+
+    /**
+     * @return number of fragment chains evicted because the global budget has been exceeded.
+     */
+    public long getEvictedChains() {
+        return evictedChains.sum();
+    }
+
+    /**
+     * @return number of accumulators which have not been stored because of exceeded budgets.
+     */
+    public long getRejectedChains() {
+        return rejectedChains.sum();
+    }
+
+
+    private static final class Entry {
+        private final String key;
+        private final String sender;
+        private final StringBuilder accumulator;
+        private final Size size;
+        private final long updated;
+
+        private Entry(String key, String sender, StringBuilder accumulator, Size size, long updated) {
+            this.key = key;
+            this.sender = sender;
+            this.accumulator = accumulator;
+            this.size = size;
+            this.updated = updated;
+        }
+    }
+
+    // must not reference the accumulator, otherwise weakly referenced accumulators would never be collected
+    private static final class Size {
+        private final int chars;
+        private final long bytes;
+
+        private Size(int chars, long bytes) {
+            this.chars = chars;
+            this.bytes = bytes;
+        }
+    }
+}
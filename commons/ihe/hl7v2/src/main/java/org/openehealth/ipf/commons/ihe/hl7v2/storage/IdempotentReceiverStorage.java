@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.storage;
+
+/**
+ * Interface for storages of responses to already processed HL7 v2 requests,
+ * which allow to answer duplicate requests without processing them again.
+ *
+ * @since 4.1
+ */
+public interface IdempotentReceiverStorage {
+
+    /**
+     * Puts a response into the storage.
+     * @param key
+     *      Key identifying the request, consisting of MSH-3, MSH-4 and MSH-10.
+     * @param response
+     *      Encoded response to the request.
+     */
+    void put(String key, String response);
+
+    /**
+     * Returns the response which corresponds to the given key.
+     * @param key
+     *      Key identifying the request, consisting of MSH-3, MSH-4 and MSH-10.
+     * @return
+     *      Encoded response or <code>null</code> when none found.
+     */
+    String get(String key);
+}
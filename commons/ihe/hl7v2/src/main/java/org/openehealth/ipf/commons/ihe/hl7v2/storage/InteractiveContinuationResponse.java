@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.storage;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Complete response to a query with interactive continuation, kept as a single encoded
+ * string together with an index of data record offsets.
+ * <p>
+ * Fragments are not materialized up front. Instead, the text of each fragment (header segments,
+ * the data records belonging to the fragment, and footer segments) is cut out of the encoded
+ * response when the corresponding continuation pointer is requested. This keeps memory consumption
+ * of open queries close to the size of the encoded response.
+ *
+ * @since 4.1
+ */
+public final class InteractiveContinuationResponse implements Serializable {
+
+    private static final long serialVersionUID = 3457316447196383537L;
+
+    private final String encodedResponse;
+    private final int[] recordOffsets;
+    private final int threshold;
+    private final String[] continuationPointers;
+
+    /**
+     * @param encodedResponse      complete encoded response message, each segment terminated by <code>'\r'</code>.
+     * @param recordOffsets        offsets of data records in the encoded response, in ascending order.
+     *                             For N data records, N+1 offsets are expected; the last offset denotes
+     *                             the beginning of the footer segments (or the end of the message).
+     * @param threshold            maximal number of data records per fragment.
+     * @param continuationPointers continuation pointers identifying the fragments, the pointer of the
+     *                             first fragment is <code>null</code>.
+     */
+    public InteractiveContinuationResponse(String encodedResponse, int[] recordOffsets, int threshold, String[] continuationPointers) {
+        this.encodedResponse = requireNonNull(encodedResponse);
+        this.recordOffsets = requireNonNull(recordOffsets);
+        this.continuationPointers = requireNonNull(continuationPointers);
+        if (recordOffsets.length < 2 || threshold < 1) {
+            throw new IllegalArgumentException("At least one data record and a positive threshold are required");
+        }
+        if (continuationPointers.length != fragmentCount(recordOffsets.length - 1, threshold)) {
+            throw new IllegalArgumentException("Expected one continuation pointer per fragment");
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return number of fragments for the given number of data records and threshold.
+     */
+    public static int fragmentCount(int recordCount, int threshold) {
+        return (recordCount + threshold - 1) / threshold;
+    }
+
+    /**
+     * @return number of fragments of this response.
+     */
+    public int getFragmentCount() {
+        return continuationPointers.length;
+    }
+
+    /**
+     * @return total number of data records in this response.
+     */
+    public int getRecordCount() {
+        return recordOffsets.length - 1;
+    }
+
+    /**
+     * @return index of the fragment identified by the given continuation pointer, or -1 if not known.
+     */
+    public int indexOf(String continuationPointer) {
+        for (var i = 0; i < continuationPointers.length; ++i) {
+            if (Objects.equals(continuationPointers[i], continuationPointer)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return continuation pointer of the fragment with the given index, <code>null</code> for the first fragment.
+     */
+    public String getContinuationPointer(int index) {
+        return continuationPointers[index];
+    }
+
+    /**
+     * @return continuation pointer of the fragment following the given one,
+     * or <code>null</code> if the given fragment is the last one.
+     */
+    public String getNextContinuationPointer(int index) {
+        return (index + 1 < continuationPointers.length) ? continuationPointers[index + 1] : null;
+    }
+
+    /**
+     * @return index of the first data record of the given fragment.
+     */
+    public int getFirstRecord(int index) {
+        return index * threshold;
+    }
+
+    /**
+     * @return index after the last data record of the given fragment.
+     */
+    public int getEndRecord(int index) {
+        return Math.min(getFirstRecord(index) + threshold, getRecordCount());
+    }
+
+    /**
+     * @return encoded text of the fragment with the given index, without fragment-specific
+     * modifications like continuation pointers and record counts.
+     */
+    public String getFragment(int index) {
+        var headerEnd = recordOffsets[0];
+        var footerStart = recordOffsets[recordOffsets.length - 1];
+        var start = recordOffsets[getFirstRecord(index)];
+        var end = recordOffsets[getEndRecord(index)];
+        return new StringBuilder(headerEnd + (end - start) + (encodedResponse.length() - footerStart))
+                .append(encodedResponse, 0, headerEnd)
+                .append(encodedResponse, start, end)
+                .append(encodedResponse, footerStart, encodedResponse.length())
+                .toString();
+    }
+
+    @Override
+    public String toString() {
+        return "InteractiveContinuationResponse{records=" + getRecordCount() +
+                ", threshold=" + threshold +
+                ", pointers=" + Arrays.toString(continuationPointers) + '}';
+    }
+}
@@ -71,4 +71,44 @@ public interface InteractiveContinuationStorage {
      */
     boolean delete(String chainId);
 
+
+    /**
+     * Returns whether this storage can hold complete encoded responses, i.e. implements
+     * {@link #putResponse(String, InteractiveContinuationResponse)} and {@link #getResponse(String)}.
+     * Endpoints creating fragments on demand refuse to start with a storage that does not.
+     *
+     * @return <code>true</code> when complete encoded responses are supported.
+     * @since 4.1
+     */
+    default boolean supportsResponses() {
+        return false;
+    }
+
+
+    /**
+     * Puts a complete encoded response into this storage, replacing all fragments
+     * of the given chain. Fragments will be created from this response on demand.
+     * Only called when {@link #supportsResponses()} returns <code>true</code>, storages which
+     * do not support complete responses may throw an {@link UnsupportedOperationException}.
+     *
+     * @param chainId
+     *      unique ID of the fragment chain, see {@link #put(String, String, Message)}.
+     * @param response
+     *      encoded response with the index of its data records.
+     * @since 4.1
+     */
+    void putResponse(String chainId, InteractiveContinuationResponse response);
+
+
+    /**
+     * Retrieves a complete encoded response stored by {@link #putResponse(String, InteractiveContinuationResponse)}.
+     *
+     * @param chainId
+     *      unique ID of the fragment chain, see {@link #put(String, String, Message)}.
+     * @return
+     *      encoded response or <code>null</code> when none found.
+     * @since 4.1
+     */
+    InteractiveContinuationResponse getResponse(String chainId);
+
 }
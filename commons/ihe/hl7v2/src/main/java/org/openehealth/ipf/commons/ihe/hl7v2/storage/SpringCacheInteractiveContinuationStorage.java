@@ -62,6 +62,24 @@ public class SpringCacheInteractiveContinuationStorage implements InteractiveCon
         return null;
     }
 
+    @Override
+    public boolean supportsResponses() {
+        return true;
+    }
+
+    @Override
+    public void putResponse(String chainId, InteractiveContinuationResponse response) {
+        LOG.debug("Store encoded response for storage key {}", chainId);
+        var chain = new InteractiveContinuationChain(response);
+        cache.put(chainId, chain);
+    }
+
+    @Override
+    public InteractiveContinuationResponse getResponse(String chainId) {
+        var chain = cache.get(chainId, InteractiveContinuationChain.class);
+        return (chain != null) ? chain.response : null;
+    }
+
     @Override
     public boolean delete(String chainId) {
         if (cache.get(chainId) != null) {
@@ -76,11 +94,22 @@ public class SpringCacheInteractiveContinuationStorage implements InteractiveCon
      * <p>
      * Keys correspond to continuation pointers of the fragments;
      * the key of the first fragment is <code>null</code>.
+     * Alternatively, the chain contains a complete encoded response.
      */
     private static class InteractiveContinuationChain implements Serializable {
         private final Map<String, Message> responseMessages =
                 Collections.synchronizedMap(new HashMap<>());
 
+        private final InteractiveContinuationResponse response;
+
+        InteractiveContinuationChain() {
+            this(null);
+        }
+
+        InteractiveContinuationChain(InteractiveContinuationResponse response) {
+            this.response = response;
+        }
+
         public void put(String continuationPointer, Message message) {
             responseMessages.put(continuationPointer, message);
         }
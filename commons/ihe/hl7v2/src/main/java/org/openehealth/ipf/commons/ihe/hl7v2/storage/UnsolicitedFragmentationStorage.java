@@ -28,6 +28,8 @@ public interface UnsolicitedFragmentationStorage {
      *      Key consisting of MSH-14/DSC-1, MSH-3-1, MSH-3-2, MSH-3-3.
      * @param accumulator
      *      Accumulator to be stored.
+     * @throws IllegalStateException
+     *      when the storage refuses to hold the accumulator, e.g. because of exhausted capacity.
      */
     void put(String key, StringBuilder accumulator);
 
@@ -71,6 +71,71 @@ class MessageTracerTest {
         assertTrue(clientSpan.durationAsLong() > serverSpan.durationAsLong())
     }
 
+    @Test
+    void traceEncodedMessage() {
+        MockReporter reporter = new MockReporter()
+        Tracing tracing = Tracing.newBuilder()
+                .localServiceName('MessageTracerTest')
+                .spanReporter(reporter)
+                .build()
+        MessageTracer messageTracer = new MessageTracer(tracing)
+        String sending = MessageUtils.makeMessage(CONTEXT, 'ORU', 'R01', '2.5').encode()
+
+        messageTracer.sendEncodedMessage(sending, "producer", new EncodedHandler() {
+            @Override
+            void accept(CharSequence receiving, SpanCustomizer sc1) {
+                assertTrue(receiving.toString().contains('\rZTR|X-B3-TraceId^'))
+                // parsed and encoded messages can be traced interchangeably
+                Message parsed = CONTEXT.pipeParser.parse(receiving.toString())
+                assertFalse(parsed.get('ZTR').empty)
+                messageTracer.receiveEncodedMessage(receiving, "consumer", new EncodedHandler() {
+                    @Override
+                    void accept(CharSequence received, SpanCustomizer sc2) {
+                        assertEquals(sending, received.toString())
+                    }
+                })
+            }
+        })
+
+        List<zipkin2.Span> spans = reporter.getSpans()
+        assertEquals(2, spans.size())
+
+        Span clientSpan = reporter.spans.find { span -> span.kind() == Span.Kind.CLIENT}
+        Span serverSpan = reporter.spans.find { span -> span.kind() == Span.Kind.SERVER}
+        assertEquals('ORU', clientSpan.tags().get('MSH-9-1'))
+        assertEquals(clientSpan.tags(), serverSpan.tags())
+        assertEquals(clientSpan.traceId(), serverSpan.traceId())
+        assertEquals(clientSpan.id(), serverSpan.parentId())
+    }
+
+    @Test
+    void traceMessageAndReceiveEncoded() {
+        MockReporter reporter = new MockReporter()
+        Tracing tracing = Tracing.newBuilder()
+                .localServiceName('MessageTracerTest')
+                .spanReporter(reporter)
+                .build()
+        MessageTracer messageTracer = new MessageTracer(tracing)
+        Message sending = MessageUtils.makeMessage(CONTEXT, 'ORU', 'R01', '2.5')
+
+        messageTracer.sendMessage(sending, "producer", new Handler() {
+            @Override
+            void accept(Message receiving, SpanCustomizer sc1) {
+                messageTracer.receiveEncodedMessage(receiving.encode(), "consumer", new EncodedHandler() {
+                    @Override
+                    void accept(CharSequence received, SpanCustomizer sc2) {
+                        assertFalse(received.toString().contains('ZTR'))
+                    }
+                })
+            }
+        })
+
+        Span clientSpan = reporter.spans.find { span -> span.kind() == Span.Kind.CLIENT}
+        Span serverSpan = reporter.spans.find { span -> span.kind() == Span.Kind.SERVER}
+        assertEquals(clientSpan.traceId(), serverSpan.traceId())
+        assertEquals(clientSpan.id(), serverSpan.parentId())
+    }
+
     private static final class MockReporter implements Reporter<zipkin2.Span> {
 
         private List<zipkin2.Span> spans = new ArrayList<>();
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.definitions;
+
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.Severity;
+import ca.uhn.hl7v2.conf.store.ProfileStore;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.validation.ValidationException;
+import org.junit.Test;
+import org.openehealth.ipf.gazelle.validation.core.CachingGazelleProfileRule;
+import org.openehealth.ipf.gazelle.validation.profile.pixpdq.PixPdqTransactions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CompiledConformanceProfileRuleTest {
+
+    private static final HapiContext CONTEXT = HapiContextFactory.createHapiContext(PixPdqTransactions.ITI8);
+
+    private static final String ADT_A01 =
+            "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||ADT^A01^ADT_A01|12345|P|2.3.1\r" +
+            "EVN|A01|20210101120000\r" +
+            "PID|||4711^^^&1.2.3&ISO||Mueller^Hans^^^^^L||19700101|M\r" +
+            "PV1||I\r";
+
+    private static final String ADT_A01_INVALID =
+            "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||ADT^A01^ADT_A01|12345|P|2.3.1\r" +
+            "EVN|A01|20210101120000\r" +
+            "PID|||||Mueller^Hans||19700101|M|||||||||||||||||||||||||||||X\r";
+
+    private static final String ADT_A40 =
+            "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||ADT^A40^ADT_A39|12345|P|2.3.1\r" +
+            "EVN|A40|20210101120000\r" +
+            "PID|||4711^^^&1.2.3&ISO||Mueller^Hans\r" +
+            "MRG|0815^^^&1.2.3&ISO\r";
+
+    private static final String ADT_A99 =
+            "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||ADT^A99|12345|P|2.3.1\r" +
+            "EVN|A99|20210101120000\r";
+
+    @Test
+    public void testSameResultsAsGazelleRule() throws Exception {
+        var compiled = new CompiledConformanceProfileRule(PixPdqTransactions.ITI8);
+        var gazelle = new CachingGazelleProfileRule(PixPdqTransactions.ITI8);
+        for (var s : List.of(ADT_A01, ADT_A01_INVALID, ADT_A40, ADT_A99)) {
+            var message = parse(s);
+            var expected = describe(gazelle.apply(message));
+            assertEquals(expected, describe(compiled.apply(message)));
+            // compiled plan is reused
+            assertEquals(expected, describe(compiled.apply(message)));
+        }
+        assertEquals(4, errors(compiled.apply(parse(ADT_A01_INVALID))));
+        assertEquals(0, errors(compiled.apply(parse(ADT_A01))));
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        var rule = new CompiledConformanceProfileRule(PixPdqTransactions.ITI8, true);
+        var all = new CompiledConformanceProfileRule(PixPdqTransactions.ITI8).apply(parse(ADT_A01_INVALID));
+        var result = rule.apply(parse(ADT_A01_INVALID));
+        assertTrue(result.length < all.length);
+        assertEquals(1, errors(result));
+        assertEquals(Severity.ERROR, result[result.length - 1].getSeverity());
+        assertEquals(0, errors(rule.apply(parse(ADT_A01))));
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        var builder = new ConformanceProfileBasedValidationBuilder(PixPdqTransactions.ITI8);
+        var rule = builder.getRule();
+        rule.apply(parse(ADT_A01));
+        rule.apply(parse(ADT_A01_INVALID));
+        rule.apply(parse(ADT_A40));
+        rule.apply(parse(ADT_A01));
+        assertEquals(4, rule.getValidatedMessages());
+        assertEquals(2, rule.getFailedMessages());
+        assertTrue(rule.getValidationNanos() > 0);
+        assertTrue(CompiledConformanceProfileRule.getCompiledPlans() >= 2);
+    }
+
+    @Test
+    public void testPlansPerProfileStore() throws Exception {
+        var rule = new CompiledConformanceProfileRule(PixPdqTransactions.ITI8);
+        assertEquals(0, errors(rule.apply(parse(ADT_A01))));
+
+        // same profile ID, but a profile store which does not know it
+        var context = HapiContextFactory.createHapiContext(PixPdqTransactions.ITI8);
+        context.setProfileStore(new ProfileStore() {
+            @Override
+            public String getProfile(String id) {
+                return null;
+            }
+
+            @Override
+            public void persistProfile(String id, String profile) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        var result = rule.apply(context.getPipeParser().parse(ADT_A01));
+        assertEquals(1, errors(result));
+        assertTrue(result[0].getMessage().contains("Cannot find conformance profile"));
+    }
+
+    @Test
+    public void testMissingProfileLookedUpOnce() throws Exception {
+        var lookups = new AtomicInteger();
+        var rule = new CompiledConformanceProfileRule(() -> {
+            lookups.incrementAndGet();
+            return PixPdqTransactions.ITI8.conformanceProfiles();
+        });
+        assertEquals(1, errors(rule.apply(parse(ADT_A99))));
+        assertEquals(1, errors(rule.apply(parse(ADT_A99))));
+        assertEquals(1, lookups.get());
+    }
+
+    private static Message parse(String s) throws Exception {
+        return CONTEXT.getPipeParser().parse(s);
+    }
+
+    private static long errors(ValidationException[] exceptions) {
+        return Arrays.stream(exceptions)
+                .filter(exception -> exception.getSeverity() == Severity.ERROR)
+                .count();
+    }
+
+    private static List<String> describe(ValidationException[] exceptions) {
+        var result = new ArrayList<String>();
+        for (var exception : exceptions) {
+            result.add(exception.getSeverity() + " " + exception.getLocation() + " " + exception.getMessage());
+        }
+        return result;
+    }
+}
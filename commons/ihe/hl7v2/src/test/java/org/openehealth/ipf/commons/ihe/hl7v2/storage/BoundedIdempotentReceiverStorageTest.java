@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 4.1
+ */
+public class BoundedIdempotentReceiverStorageTest {
+
+    private MutableClock clock;
+    private BoundedIdempotentReceiverStorage storage;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock();
+        storage = new BoundedIdempotentReceiverStorage(4, Duration.ofMinutes(1), 1, clock);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        assertNull(storage.get(key("1")));
+        storage.put(key("1"), "ACK1");
+        assertEquals("ACK1", storage.get(key("1")));
+        assertEquals("ACK1", storage.get(key("1")));
+        assertNull(storage.get(key("2")));
+        assertEquals(2, storage.getHits());
+        assertEquals(2, storage.getMisses());
+    }
+
+    @Test
+    public void testSizeBound() {
+        for (var i = 1; i <= 6; ++i) {
+            storage.put(key(Integer.toString(i)), "ACK" + i);
+        }
+        assertEquals(4, storage.getEntries());
+        assertEquals(2, storage.getEvictions());
+        assertNull(storage.get(key("1")));
+        assertNull(storage.get(key("2")));
+        assertEquals("ACK6", storage.get(key("6")));
+    }
+
+    @Test
+    public void testTimeToLive() {
+        storage.put(key("1"), "ACK1");
+        clock.advance(Duration.ofSeconds(30));
+        storage.put(key("2"), "ACK2");
+        clock.advance(Duration.ofSeconds(30));
+        assertNull(storage.get(key("1")));
+        assertEquals("ACK2", storage.get(key("2")));
+        assertEquals(1, storage.getEntries());
+    }
+
+    @Test
+    public void testHashCollision() {
+        // "Aa" and "BB" have the same hash code
+        storage.put(key("Aa"), "ACK1");
+        assertNull(storage.get(key("BB")));
+        storage.put(key("BB"), "ACK2");
+        assertEquals("ACK1", storage.get(key("Aa")));
+        assertEquals("ACK2", storage.get(key("BB")));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        var concurrent = new BoundedIdempotentReceiverStorage(10000, Duration.ofMinutes(1));
+        var executor = Executors.newFixedThreadPool(8);
+        for (var t = 0; t < 8; ++t) {
+            var thread = t;
+            executor.execute(() -> {
+                for (var i = 0; i < 1000; ++i) {
+                    var key = key(thread + "-" + i);
+                    concurrent.put(key, "ACK" + i);
+                    concurrent.get(key);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(8000, concurrent.getEntries());
+        assertEquals(8000, concurrent.getHits());
+    }
+
+    private static String key(String msh10) {
+        return "SND\0FAC\0" + msh10;
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant = Instant.EPOCH;
+
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
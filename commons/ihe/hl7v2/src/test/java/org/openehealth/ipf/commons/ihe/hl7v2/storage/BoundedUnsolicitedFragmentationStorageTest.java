@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.ihe.hl7v2.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @since 4.1
+ */
+public class BoundedUnsolicitedFragmentationStorageTest {
+
+    private MutableClock clock;
+    private BoundedUnsolicitedFragmentationStorage storage;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock();
+        storage = new BoundedUnsolicitedFragmentationStorage(100, 60, Duration.ofMinutes(1), clock);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        storage.put(key("1", "A"), new StringBuilder("MSH|abc"));
+        assertEquals(1, storage.getOpenChains());
+        assertEquals(7, storage.getBytesHeld());
+        assertEquals("MSH|abc", storage.getAndRemove(key("1", "A")).toString());
+        assertNull(storage.getAndRemove(key("1", "A")));
+        assertEquals(0, storage.getOpenChains());
+        assertEquals(0, storage.getBytesHeld());
+    }
+
+    @Test
+    public void testSenderBudget() {
+        storage.put(key("1", "A"), accumulator(40));
+        try {
+            storage.put(key("2", "A"), accumulator(30));
+            fail();
+        } catch (IllegalStateException expected) {
+            // sender budget exceeded
+        }
+        assertNull(storage.getAndRemove(key("2", "A")));
+        assertEquals(1, storage.getRejectedChains());
+
+        // other senders are not affected
+        storage.put(key("3", "B"), accumulator(30));
+        assertEquals(2, storage.getOpenChains());
+        assertEquals(70, storage.getBytesHeld());
+
+        // replacing an accumulator of the same chain releases its previous bytes
+        storage.put(key("1", "A"), accumulator(55));
+        assertEquals(85, storage.getBytesHeld());
+        assertEquals(1, storage.getRejectedChains());
+    }
+
+    @Test
+    public void testIncrementalByteCount() {
+        storage.put(key("1", "A"), new StringBuilder("MSH|\u00e4"));
+        assertEquals(6, storage.getBytesHeld());
+        var accumulator = storage.getAndRemove(key("1", "A"));
+        accumulator.append("PID|\u20ac\ud83d\ude00");
+        storage.put(key("2", "A"), accumulator);
+        assertEquals(17, storage.getBytesHeld());
+        assertEquals("MSH|\u00e4PID|\u20ac\ud83d\ude00", storage.getAndRemove(key("2", "A")).toString());
+        assertEquals(0, storage.getBytesHeld());
+    }
+
+    @Test
+    public void testGlobalBudget() {
+        storage.put(key("1", "A"), accumulator(40));
+        storage.put(key("2", "B"), accumulator(40));
+        storage.put(key("3", "C"), accumulator(40));
+        assertEquals(1, storage.getEvictedChains());
+        assertNull(storage.getAndRemove(key("1", "A")));
+        assertEquals(40, storage.getAndRemove(key("2", "B")).length());
+        assertEquals(40, storage.getAndRemove(key("3", "C")).length());
+    }
+
+    @Test
+    public void testTimeToLive() {
+        storage.put(key("1", "A"), accumulator(10));
+        clock.advance(Duration.ofSeconds(40));
+        storage.put(key("2", "A"), accumulator(10));
+        clock.advance(Duration.ofSeconds(30));
+        assertNull(storage.getAndRemove(key("1", "A")));
+        assertEquals(1, storage.getExpiredChains());
+        assertEquals(10, storage.getAndRemove(key("2", "A")).length());
+    }
+
+    private static String key(String pointer, String sender) {
+        return String.join("\0", pointer, sender, "", "");
+    }
+
+    private static StringBuilder accumulator(int length) {
+        return new StringBuilder("x".repeat(length));
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant = Instant.EPOCH;
+
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -44,6 +44,12 @@ class CustomModelClassFactoryConfigurer<R : Registry> : OrderedConfigurer<Custom
             val currentFactory = delegateFactory
             delegateFactory = configureAndDelegate(currentFactory, configuration)
         }
+        // resolutions cached by a factory may stem from its delegates, which have been changed meanwhile
+        var factory: ModelClassFactory? = customModelClassFactory
+        while (factory is CustomModelClassFactory) {
+            factory.invalidate()
+            factory = factory.delegate
+        }
         logger.debug {"Custom model classes configured: $configuration"}
     }
 
@@ -16,10 +16,20 @@
 
 package org.openehealth.ipf.modules.hl7.kotlin.parser
 
+import ca.uhn.hl7v2.Version
+import ca.uhn.hl7v2.model.Group
+import ca.uhn.hl7v2.model.Message
+import ca.uhn.hl7v2.model.Segment
+import ca.uhn.hl7v2.model.Type
 import ca.uhn.hl7v2.parser.DefaultModelClassFactory
 import ca.uhn.hl7v2.parser.ModelClassFactory
+import java.util.concurrent.ConcurrentHashMap
 
 /**
+ * CustomModelClassFactory that caches resolved model classes by kind, name and version,
+ * including unsuccessful resolutions, so that unknown structures are not searched for again
+ * on every parse. The cache is invalidated when custom model packages are added.
+ *
  * @author Christian Ohr
  * @since 3.5
  */
@@ -27,4 +37,67 @@ class CustomModelClassFactory(val delegate: ModelClassFactory, map: Map<String,
         ca.uhn.hl7v2.parser.CustomModelClassFactory(delegate, map) {
 
     constructor(map: Map<String, Array<String>>): this(DefaultModelClassFactory(), map)
+
+    companion object {
+        // bounds the number of cached misses, as structure names are taken from received messages
+        internal const val MAX_CACHED_CLASSES = 10000
+        // marks unsuccessful resolutions, as the cache does not hold null values
+        private val NOT_FOUND: Class<*> = Void::class.java
+    }
+
+    private val classes = ConcurrentHashMap<String, Class<*>>()
+
+    /**
+     * Number of cached model class resolutions, including unsuccessful ones
+     */
+    val cachedClasses: Int
+        get() = classes.size
+
+    override fun getMessageClass(name: String, version: String, isExplicit: Boolean): Class<out Message>? =
+            resolve("${if (isExplicit) "message!" else "message"}\u0000$name\u0000$version") {
+                val structure = if (isExplicit) name else getMessageStructureForEvent(name, Version.versionOf(version))
+                findClass<Message>("message", structure, version) ?: delegate.getMessageClass(structure, version, isExplicit)
+            }
+
+    override fun getGroupClass(name: String, version: String): Class<out Group>? =
+            resolve("group\u0000$name\u0000$version") {
+                findClass<Group>("group", name, version) ?: delegate.getGroupClass(name, version)
+            }
+
+    override fun getSegmentClass(name: String, version: String): Class<out Segment>? =
+            resolve("segment\u0000$name\u0000$version") {
+                findClass<Segment>("segment", name, version) ?: delegate.getSegmentClass(name, version)
+            }
+
+    override fun getTypeClass(name: String, version: String): Class<out Type>? =
+            resolve("datatype\u0000$name\u0000$version") {
+                findClass<Type>("datatype", name, version) ?: delegate.getTypeClass(name, version)
+            }
+
+    /**
+     * Adds custom model packages and invalidates the cache of resolved model classes.
+     */
+    override fun addModels(addedModelClasses: Map<String, Array<String>>?) {
+        super.addModels(addedModelClasses)
+        invalidate()
+    }
+
+    /**
+     * Invalidates the cache of resolved model classes, e.g. after the custom model packages
+     * of the delegate factory have been changed.
+     */
+    fun invalidate() = classes.clear()
+
+    @Suppress("UNCHECKED_CAST")
+    private inline fun <T> resolve(key: String, resolver: () -> Class<out T>?): Class<out T>? {
+        val cached = classes[key]
+        if (cached != null) {
+            return if (cached !== NOT_FOUND) cached as Class<out T> else null
+        }
+        val result = resolver()
+        if (result != null || classes.size < MAX_CACHED_CLASSES) {
+            classes[key] = result ?: NOT_FOUND
+        }
+        return result
+    }
 }
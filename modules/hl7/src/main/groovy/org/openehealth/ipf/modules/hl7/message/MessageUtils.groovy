@@ -138,7 +138,8 @@ class MessageUtils {
             String msh9) {
         def cause = encodeHL7String(e.message ?: e.class.simpleName, null)
         def now = hl7Now()
-        def cannedNak = "MSH|^~\\&|${sendingApplication}|${sendingFacility}|unknown|unknown|$now||${msh9}|unknown|T|$version|\r" +
+        def controlId = PARSER.parserConfiguration.idGenerator.getID()
+        def cannedNak = "MSH|^~\\&|${sendingApplication}|${sendingFacility}|unknown|unknown|$now||${msh9}|${controlId}|T|$version|\r" +
                 "MSA|AE|MsgIdUnknown|$cause|\r" +
                 "ERR|\r"
 
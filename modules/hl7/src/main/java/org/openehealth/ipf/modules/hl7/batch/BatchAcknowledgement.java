@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.batch;
+
+import ca.uhn.hl7v2.util.idgenerator.IDGenerator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Collects acknowledgements to the messages of an HL7v2 batch file, possibly in an arbitrary
+ * order, and renders them in the order of the original messages into a batch acknowledgement.
+ * <p>
+ * For each batch of the original file, the acknowledgement contains a BHS segment with swapped
+ * sending and receiving application and facility, and the original batch control ID as reference
+ * (BHS-12), followed by the acknowledgements and a BTS segment with the message count. If the
+ * original file had a file header, the batches are enclosed in corresponding FHS and FTS segments.
+ * Only the acknowledgements and the header context are retained, not the original messages.
+ * </p>
+ * This class is thread-safe.
+ *
+ * @since 4.1
+ */
+public class BatchAcknowledgement {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss.SSSZ");
+    private static final String DEFAULT_BATCH_HEADER = "BHS|^~\\&";
+
+    private final IDGenerator idGenerator;
+    private final Map<Integer, Entry> entries = new TreeMap<>();
+
+    /**
+     * Creates a batch acknowledgement without control IDs in FHS-11 and BHS-11.
+     */
+    public BatchAcknowledgement() {
+        this(null);
+    }
+
+    /**
+     * @param idGenerator generator of control IDs for FHS-11 and BHS-11, may be <code>null</code>
+     */
+    public BatchAcknowledgement(IDGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Adds the acknowledgement to a message of the batch file.
+     *
+     * @param message original message
+     * @param ack     encoded acknowledgement
+     */
+    public synchronized void add(BatchMessage message, String ack) {
+        entries.put(message.getIndex(), new Entry(
+                message.getBatchIndex(), message.getFileHeader(), message.getBatchHeader(), normalize(ack)));
+    }
+
+    /**
+     * @return number of acknowledgements added so far
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return batch acknowledgement, segments separated by <code>'\r'</code>
+     */
+    public synchronized String render() {
+        var timestamp = TIMESTAMP_FORMAT.format(ZonedDateTime.now());
+        var sb = new StringBuilder();
+        var first = entries.isEmpty() ? null : entries.values().iterator().next();
+        var fileHeader = (first != null) ? first.fileHeader : null;
+        if (fileHeader != null) {
+            appendHeader(sb, fileHeader, timestamp);
+        }
+        var batches = 0;
+        var messages = 0;
+        var currentBatch = -1;
+        var batchHeader = DEFAULT_BATCH_HEADER;
+        for (var entry : entries.values()) {
+            if (entry.batchIndex != currentBatch) {
+                if (currentBatch >= 0) {
+                    appendTrailer(sb, "BTS", batchHeader, messages);
+                }
+                batchHeader = (entry.batchHeader != null) ? entry.batchHeader : DEFAULT_BATCH_HEADER;
+                appendHeader(sb, batchHeader, timestamp);
+                currentBatch = entry.batchIndex;
+                messages = 0;
+                ++batches;
+            }
+            sb.append(entry.ack).append('\r');
+            ++messages;
+        }
+        if (currentBatch < 0) {
+            appendHeader(sb, DEFAULT_BATCH_HEADER, timestamp);
+            ++batches;
+        }
+        appendTrailer(sb, "BTS", batchHeader, messages);
+        if (fileHeader != null) {
+            appendTrailer(sb, "FTS", fileHeader, batches);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the response header to the given FHS or BHS segment.
+     */
+    private void appendHeader(StringBuilder sb, String header, String timestamp) {
+        var fieldSeparator = fieldSeparator(header);
+        var fields = new ArrayList<>(Arrays.asList(header.split(Pattern.quote(String.valueOf(fieldSeparator)), -1)));
+        while (fields.size() < 12) {
+            fields.add("");
+        }
+        // field n of the header is at position n - 1, except for the field separator itself
+        var response = new String[]{
+                fields.get(0), fields.get(1),
+                fields.get(4), fields.get(5), fields.get(2), fields.get(3),
+                timestamp, "", "", "",
+                controlId(), fields.get(10)};
+        var length = response.length;
+        while (length > 2 && response[length - 1].isEmpty()) {
+            --length;
+        }
+        sb.append(String.join(String.valueOf(fieldSeparator), Arrays.asList(response).subList(0, length))).append('\r');
+    }
+
+    /**
+     * Appends the BTS or FTS segment with the given count, using the field separator of the
+     * corresponding header.
+     */
+    private static void appendTrailer(StringBuilder sb, String name, String header, int count) {
+        sb.append(name).append(fieldSeparator(header)).append(count).append('\r');
+    }
+
+    private static char fieldSeparator(String header) {
+        return header.length() > 3 ? header.charAt(3) : '|';
+    }
+
+    private String controlId() {
+        try {
+            return (idGenerator != null) ? idGenerator.getID() : "";
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String normalize(String ack) {
+        var s = ack.replace("\r\n", "\r").replace('\n', '\r');
+        var end = s.length();
+        while (end > 0 && s.charAt(end - 1) == '\r') {
+            --end;
+        }
+        return s.substring(0, end);
+    }
+
+    private static final class Entry {
+        private final int batchIndex;
+        private final String fileHeader;
+        private final String batchHeader;
+        private final String ack;
+
+        private Entry(int batchIndex, String fileHeader, String batchHeader, String ack) {
+            this.batchIndex = batchIndex;
+            this.fileHeader = fileHeader;
+            this.batchHeader = batchHeader;
+            this.ack = ack;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.batch;
+
+/**
+ * Single message read from an HL7v2 batch file, together with the file and batch header
+ * segments it was enclosed in.
+ *
+ * @since 4.1
+ */
+public final class BatchMessage {
+
+    private final String message;
+    private final int index;
+    private final int batchIndex;
+    private final String fileHeader;
+    private final String batchHeader;
+
+    /**
+     * @param message     encoded message, segments separated by <code>'\r'</code>
+     * @param index       0-based position of the message in the file
+     * @param batchIndex  0-based position of the enclosing batch in the file
+     * @param fileHeader  FHS segment, or <code>null</code> if not present
+     * @param batchHeader BHS segment, or <code>null</code> if not present
+     */
+    public BatchMessage(String message, int index, int batchIndex, String fileHeader, String batchHeader) {
+        this.message = message;
+        this.index = index;
+        this.batchIndex = batchIndex;
+        this.fileHeader = fileHeader;
+        this.batchHeader = batchHeader;
+    }
+
+    /**
+     * @return encoded message, segments separated by <code>'\r'</code>
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return 0-based position of the message in the file
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return 0-based position of the enclosing batch in the file
+     */
+    public int getBatchIndex() {
+        return batchIndex;
+    }
+
+    /**
+     * @return FHS segment, or <code>null</code> if not present
+     */
+    public String getFileHeader() {
+        return fileHeader;
+    }
+
+    /**
+     * @return BHS segment, or <code>null</code> if not present
+     */
+    public String getBatchHeader() {
+        return batchHeader;
+    }
+
+    @Override
+    public String toString() {
+        return message;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Iterator over the messages of an HL7v2 batch file (FHS, BHS, messages, BTS, FTS),
+ * which reads the file segment by segment. The largest portion of the file that is kept
+ * in memory is a single message, so that batch files of any size can be processed.
+ * <p>
+ * Each message is returned together with the FHS and BHS segments it was enclosed in.
+ * Segments may be separated by <code>'\r'</code>, <code>'\n'</code> or <code>"\r\n"</code>;
+ * the returned messages always use <code>'\r'</code>. Files containing plain messages without
+ * batch envelope are supported as well.
+ * </p>
+ *
+ * @since 4.1
+ */
+public class BatchReader implements Iterator<BatchMessage>, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchReader.class);
+
+    private final BufferedReader reader;
+    private String pendingLine;
+    private BatchMessage next;
+    private boolean closed;
+
+    private String fileHeader;
+    private String batchHeader;
+    private String batchTrailer;
+    private String fileTrailer;
+    private int batchIndex = -1;
+    private int messageCount;
+
+    /**
+     * @param reader reader of the batch file contents
+     */
+    public BatchReader(Reader reader) {
+        requireNonNull(reader, "reader");
+        this.reader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Opens an HL7v2 batch file for reading.
+     *
+     * @param file    batch file
+     * @param charset character set of the batch file
+     * @return batch reader, which must be closed when not read to the end
+     * @throws IOException if the file does not exist or could not be read
+     */
+    public static BatchReader open(Path file, Charset charset) throws IOException {
+        return new BatchReader(Files.newBufferedReader(file, charset));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !closed) {
+            try {
+                next = readMessage();
+            } catch (IOException e) {
+                close();
+                throw new IllegalStateException(e);
+            }
+            if (next == null) {
+                close();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public BatchMessage next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * Closes the underlying reader and stops an active iteration.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // Ignored, because we simply try to close the stream to avoid
+            // resources being locked.
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the underlying reader was closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return number of messages read so far
+     */
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * @return number of batches (BHS segments) read so far
+     */
+    public int getBatchCount() {
+        return batchIndex + 1;
+    }
+
+    /**
+     * @return the last BTS segment read so far, or <code>null</code>
+     */
+    public String getBatchTrailer() {
+        return batchTrailer;
+    }
+
+    /**
+     * @return the FTS segment, or <code>null</code> if not (yet) read
+     */
+    public String getFileTrailer() {
+        return fileTrailer;
+    }
+
+    private BatchMessage readMessage() throws IOException {
+        StringBuilder message = null;
+        String line;
+        while ((line = readSegment()) != null) {
+            if (line.startsWith("MSH")) {
+                if (message != null) {
+                    pendingLine = line;
+                    break;
+                }
+                message = new StringBuilder(line);
+            } else if (isEnvelope(line)) {
+                if (message != null) {
+                    pendingLine = line;
+                    break;
+                }
+                envelope(line);
+            } else if (message != null) {
+                message.append('\r').append(line);
+            } else {
+                LOG.warn("Ignoring segment {} outside of a message", line.substring(0, Math.min(3, line.length())));
+            }
+        }
+        return (message == null) ? null : new BatchMessage(
+                message.toString(), messageCount++, Math.max(batchIndex, 0), fileHeader, batchHeader);
+    }
+
+    private String readSegment() throws IOException {
+        if (pendingLine != null) {
+            var result = pendingLine;
+            pendingLine = null;
+            return result;
+        }
+        String line;
+        do {
+            line = reader.readLine();
+        } while (line != null && line.isBlank());
+        return line;
+    }
+
+    private static boolean isEnvelope(String line) {
+        return line.startsWith("FHS") || line.startsWith("BHS") || line.startsWith("BTS") || line.startsWith("FTS");
+    }
+
+    private void envelope(String line) {
+        switch (line.substring(0, 3)) {
+            case "FHS":
+                fileHeader = line;
+                break;
+            case "BHS":
+                batchHeader = line;
+                ++batchIndex;
+                break;
+            case "BTS":
+                batchTrailer = line;
+                break;
+            default:
+                fileTrailer = line;
+        }
+    }
+}
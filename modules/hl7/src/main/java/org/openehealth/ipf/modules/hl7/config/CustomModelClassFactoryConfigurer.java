@@ -56,6 +56,13 @@ public class CustomModelClassFactoryConfigurer<R extends Registry> extends Order
             currentFactory = (CustomModelClassFactory) delegateFactory;
             delegateFactory = configureAndDelegate(currentFactory, configuration);
         }
+        // resolutions cached by a factory may stem from its delegates, which have been changed meanwhile
+        ModelClassFactory factory = customModelClassFactory;
+        while (factory instanceof CustomModelClassFactory) {
+            currentFactory = (CustomModelClassFactory) factory;
+            currentFactory.invalidate();
+            factory = currentFactory.getDelegate();
+        }
         LOG.debug("Custom model classes configured: {}", configuration);
     }
 
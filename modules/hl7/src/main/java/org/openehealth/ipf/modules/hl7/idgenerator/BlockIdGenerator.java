@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.idgenerator;
+
+import ca.uhn.hl7v2.util.Home;
+import ca.uhn.hl7v2.util.idgenerator.IDGenerator;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link IDGenerator} for HL7 control IDs (MSH-10) and continuation pointers, which hands out
+ * IDs from a shared atomic counter without locking. IDs are reserved in blocks; only reserving
+ * the next block, i.e. once per <code>blockSize</code> IDs, is synchronized and touches the
+ * {@link IdBlockStore}. After a restart, counting resumes after the last reserved block.
+ * <p>
+ * IDs are prefixed with an optional node prefix, so that several nodes of a cluster can
+ * generate unique IDs without any coordination.
+ * </p>
+ *
+ * @since 4.1
+ */
+public class BlockIdGenerator implements IDGenerator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+    public static final String DEFAULT_FILE_NAME = "ipf_id_file";
+
+    private final String nodePrefix;
+    private final int blockSize;
+    private final IdBlockStore store;
+
+    private final AtomicLong counter = new AtomicLong();
+    private final LongAdder reservedBlocks = new LongAdder();
+    private final Object reservationLock = new Object();
+    private volatile long limit;
+    private volatile long base;
+    private boolean initialized;
+
+    /**
+     * Creates a generator without node prefix and persistence.
+     */
+    public BlockIdGenerator() {
+        this("", DEFAULT_BLOCK_SIZE, IdBlockStore.NONE);
+    }
+
+    /**
+     * @param nodePrefix prefix of all IDs, unique per node
+     * @param blockSize  number of IDs reserved at once
+     * @param store      persistence strategy for the reserved blocks
+     */
+    public BlockIdGenerator(String nodePrefix, int blockSize, IdBlockStore store) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        this.nodePrefix = Objects.requireNonNull(nodePrefix);
+        this.blockSize = blockSize;
+        this.store = Objects.requireNonNull(store);
+    }
+
+    /**
+     * @return process-wide generator without node prefix, which keeps its blocks in the file
+     * {@value #DEFAULT_FILE_NAME} in the HAPI home directory and ignores file errors
+     */
+    public static BlockIdGenerator defaultGenerator() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    @Override
+    public String getID() throws IOException {
+        return nodePrefix.isEmpty() ? Long.toString(nextValue()) : nodePrefix + nextValue();
+    }
+
+    /**
+     * @return next numeric value, without node prefix
+     * @throws IOException if a new block could not be reserved
+     */
+    public long nextValue() throws IOException {
+        var value = counter.getAndIncrement();
+        if (value >= limit) {
+            reserve(value);
+        }
+        return base + value;
+    }
+
+    private void reserve(long value) throws IOException {
+        synchronized (reservationLock) {
+            if (!initialized) {
+                base = store.load();
+                initialized = true;
+            }
+            while (value >= limit) {
+                var next = limit + blockSize;
+                store.store(base + next);
+                limit = next;
+                reservedBlocks.increment();
+            }
+        }
+    }
+
+    public String getNodePrefix() {
+        return nodePrefix;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return number of blocks reserved by this generator
+     */
+    public long getReservedBlocks() {
+        return reservedBlocks.sum();
+    }
+
+    private static final class DefaultHolder {
+        private static final BlockIdGenerator INSTANCE = new BlockIdGenerator("", DEFAULT_BLOCK_SIZE,
+                new FileIdBlockStore(Home.getHomeDirectory().toPath().resolve(DEFAULT_FILE_NAME), true));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.idgenerator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+
+/**
+ * {@link IdBlockStore} that keeps the limit of the last reserved block in a file. The file is
+ * replaced atomically, so that a crash while writing does not lose the current value.
+ * <p>
+ * If <code>neverFail</code> is set, read and write errors are only logged, which means that IDs
+ * may be repeated after a JVM restart.
+ * </p>
+ *
+ * @since 4.1
+ */
+public class FileIdBlockStore implements IdBlockStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileIdBlockStore.class);
+
+    private final Path file;
+    private final boolean neverFail;
+
+    /**
+     * @param file      file holding the limit of the last reserved block
+     * @param neverFail whether read and write errors shall be ignored
+     */
+    public FileIdBlockStore(Path file, boolean neverFail) {
+        this.file = Objects.requireNonNull(file);
+        this.neverFail = neverFail;
+    }
+
+    @Override
+    public long load() throws IOException {
+        try {
+            if (!Files.exists(file)) {
+                return 0L;
+            }
+            var content = Files.readString(file, StandardCharsets.US_ASCII).trim();
+            return content.isEmpty() ? 0L : Long.parseLong(content);
+        } catch (IOException | NumberFormatException e) {
+            if (neverFail) {
+                LOG.warn("Could not read ID file {}, starting at zero", file, e);
+                return 0L;
+            }
+            throw e instanceof IOException ? (IOException) e : new IOException("Invalid content of ID file " + file, e);
+        }
+    }
+
+    @Override
+    public void store(long limit) throws IOException {
+        try {
+            var parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            var temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, Long.toString(limit), StandardCharsets.US_ASCII);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!neverFail) {
+                throw e;
+            }
+            LOG.warn("Could not write ID file {}", file, e);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.idgenerator;
+
+import java.io.IOException;
+
+/**
+ * Persistence strategy of a {@link BlockIdGenerator}. Only the upper limit of the last reserved
+ * block of IDs is stored, so the store is accessed once per block rather than once per ID.
+ *
+ * @since 4.1
+ */
+public interface IdBlockStore {
+
+    /**
+     * Store that does not persist anything. Counting starts at zero after each restart.
+     */
+    IdBlockStore NONE = new IdBlockStore() {
+        @Override
+        public long load() {
+            return 0L;
+        }
+
+        @Override
+        public void store(long limit) {
+        }
+    };
+
+    /**
+     * @return upper limit of the last reserved block, or zero if nothing was reserved yet
+     * @throws IOException if the value could not be read
+     */
+    long load() throws IOException;
+
+    /**
+     * @param limit upper limit (exclusive) of the newly reserved block
+     * @throws IOException if the value could not be written
+     */
+    void store(long limit) throws IOException;
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.message;
+
+import ca.uhn.hl7v2.AcknowledgmentCode;
+import ca.uhn.hl7v2.ErrorCode;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.Version;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.EncodingCharacters;
+import ca.uhn.hl7v2.parser.Escaping;
+import ca.uhn.hl7v2.util.idgenerator.IDGenerator;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Objects;
+
+/**
+ * Renders HL7v2 acknowledgements directly from the MSH segment of the encoded request, as an alternative
+ * to {@link Message#generateACK(AcknowledgmentCode, HL7Exception)}, which requires the parsed request and
+ * instantiates, populates and encodes a HAPI ACK message.
+ * <p>
+ * The rendered ACK has the same layout as the one generated by HAPI: MSH with swapped sender and receiver,
+ * MSA, and for negative acknowledgements an ERR segment in the version-specific format. Only the
+ * timestamp in MSH-7 and the control ID in MSH-10 differ, of course. Acknowledgements for exceptions
+ * which carry a location or a prepared response message cannot be rendered, see {@link #isApplicable(HL7Exception)}.
+ * </p>
+ *
+ * @since 4.1
+ */
+public final class AckTemplate {
+
+    private static final DateTimeFormatter SECONDS = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final DateTimeFormatter OFFSET = DateTimeFormatter.ofPattern("Z");
+    private static final String[] MSH_FIELDS = {
+            "MSH-2", "MSH-3-1-1", "MSH-4-1-1", "MSH-5-1-1", "MSH-6-1-1", "MSH-9-2-1", "MSH-10-1-1", "MSH-11-1-1", "MSH-12-1-1"};
+
+    private final IDGenerator idGenerator;
+    private final Escaping escaping;
+
+    /**
+     * @param idGenerator generator for MSH-10 of the acknowledgements
+     * @param escaping    escaping for error messages
+     */
+    public AckTemplate(IDGenerator idGenerator, Escaping escaping) {
+        this.idGenerator = Objects.requireNonNull(idGenerator);
+        this.escaping = Objects.requireNonNull(escaping);
+    }
+
+    /**
+     * @return <code>true</code> if an acknowledgement for the given exception (may be <code>null</code>)
+     * can be rendered by this template
+     */
+    public static boolean isApplicable(HL7Exception exception) {
+        return exception == null || (
+                exception.getResponseMessage() == null &&
+                exception.getError() != null &&
+                exception.getMessageWithoutLocation() != null &&
+                (exception.getLocation() == null || exception.getLocation().isUnknown()));
+    }
+
+    /**
+     * Renders an acknowledgement for the given encoded request.
+     *
+     * @param request   encoded request message
+     * @param ackCode   acknowledgement code for MSA-1
+     * @param exception exception for ERR, may be <code>null</code>
+     * @return encoded acknowledgement, or <code>null</code> if the request has no valid MSH segment
+     * or the exception is not {@link #isApplicable(HL7Exception) applicable}
+     * @throws IOException if no control ID could be generated
+     */
+    public String render(CharSequence request, AcknowledgmentCode ackCode, HL7Exception exception) throws IOException {
+        if (!isApplicable(exception)) {
+            return null;
+        }
+        var msg = MessageCharSequence.wrap(request);
+        if (msg.length() < 8 || !"MSH".equals(msg.substring(0, 3))) {
+            return null;
+        }
+        var fields = msg.getFields(MSH_FIELDS);
+        var encodingCharacters = fields[0];
+        var versionId = fields[8];
+        var version = (versionId == null) ? null : Version.versionOf(versionId);
+        if (encodingCharacters == null || encodingCharacters.length() < 4 || version == null) {
+            return null;
+        }
+        var fieldSeparator = msg.charAt(3);
+        var componentSeparator = encodingCharacters.charAt(0);
+        var subcomponentSeparator = encodingCharacters.charAt(3);
+        var asOf25 = version.isGreaterThan(Version.V24);
+
+        var sb = new StringBuilder(128 + ((exception == null) ? 0 : 2 * exception.getMessage().length()));
+
+        // MSH
+        sb.append("MSH").append(fieldSeparator).append(encodingCharacters);
+        appendField(sb, fieldSeparator, fields[3]);
+        appendField(sb, fieldSeparator, fields[4]);
+        appendField(sb, fieldSeparator, fields[1]);
+        appendField(sb, fieldSeparator, fields[2]);
+        sb.append(fieldSeparator);
+        appendTimestamp(sb);
+        sb.append(fieldSeparator).append(fieldSeparator).append("ACK");
+        if (asOf25) {
+            sb.append(componentSeparator).append(emptyIfNull(fields[5])).append(componentSeparator).append("ACK");
+        } else if (fields[5] != null) {
+            sb.append(componentSeparator).append(fields[5]);
+        }
+        appendField(sb, fieldSeparator, idGenerator.getID());
+        appendField(sb, fieldSeparator, fields[7]);
+        appendField(sb, fieldSeparator, versionId);
+        sb.append('\r');
+
+        // MSA
+        var msaStart = sb.length();
+        sb.append("MSA").append(fieldSeparator).append(ackCode.name());
+        appendField(sb, fieldSeparator, fields[6]);
+        if (exception != null && !asOf25) {
+            appendField(sb, fieldSeparator, exception.getError().getMessage());
+        }
+        trim(sb, msaStart, fieldSeparator, fieldSeparator);
+        sb.append('\r');
+
+        // ERR
+        if (exception != null) {
+            var error = exception.getError();
+            var message = escaping.escape(exception.getMessage(), new EncodingCharacters(fieldSeparator, encodingCharacters));
+            var errStart = sb.length();
+            sb.append("ERR").append(fieldSeparator);
+            if (asOf25) {
+                sb.append(fieldSeparator).append(fieldSeparator);
+                appendCodedError(sb, componentSeparator, error, message, true);
+                sb.append(fieldSeparator).append('E');
+            } else {
+                sb.append(componentSeparator).append(componentSeparator).append(componentSeparator);
+                appendCodedError(sb, subcomponentSeparator, error, message, false);
+                trim(sb, errStart, fieldSeparator, subcomponentSeparator);
+            }
+            sb.append('\r');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the current time like {@link ca.uhn.hl7v2.model.primitive.CommonTS#toHl7TSFormat(java.util.Calendar)},
+     * i.e. with milliseconds without trailing zeros.
+     */
+    private static void appendTimestamp(StringBuilder sb) {
+        var now = ZonedDateTime.now();
+        SECONDS.formatTo(now, sb);
+        var millis = now.getNano() / 1_000_000;
+        if (millis > 0) {
+            sb.append('.').append(millis / 100);
+            if (millis % 100 > 0) {
+                sb.append(millis / 10 % 10);
+                if (millis % 10 > 0) {
+                    sb.append(millis % 10);
+                }
+            }
+        }
+        OFFSET.formatTo(now, sb);
+    }
+
+    /**
+     * Appends the coded error, as CWE in ERR-3 as of HL7 v2.5 (<code>asOf25</code>), or as CE in ERR-1-4 before.
+     */
+    private static void appendCodedError(StringBuilder sb, char separator, ErrorCode error, String message, boolean asOf25) {
+        var start = sb.length();
+        sb.append(error.getCode())
+                .append(separator).append(error.getMessage())
+                .append(separator).append(ErrorCode.codeTable());
+        if (!message.isEmpty()) {
+            // original text is the 9th component of CWE, and the 5th subcomponent of CE within CM_ELD
+            var skip = asOf25 ? 6 : 2;
+            for (var i = 0; i < skip; ++i) {
+                sb.append(separator);
+            }
+            sb.append(message);
+        }
+        trim(sb, start, separator, separator);
+    }
+
+    private static void appendField(StringBuilder sb, char fieldSeparator, String value) {
+        sb.append(fieldSeparator);
+        if (value != null) {
+            sb.append(value);
+        }
+    }
+
+    /**
+     * Removes trailing separators, as the HAPI encoder does.
+     */
+    private static void trim(StringBuilder sb, int start, char separator1, char separator2) {
+        var end = sb.length();
+        while (end > start && (sb.charAt(end - 1) == separator1 || sb.charAt(end - 1) == separator2)) {
+            --end;
+        }
+        sb.setLength(end);
+    }
+
+    private static String emptyIfNull(String s) {
+        return (s == null) ? "" : s;
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.message;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.AbstractMessage;
+import ca.uhn.hl7v2.model.GenericMessage;
+import ca.uhn.hl7v2.model.Group;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.Segment;
+import ca.uhn.hl7v2.model.Structure;
+import ca.uhn.hl7v2.model.Type;
+import ca.uhn.hl7v2.parser.ModelClassFactory;
+import ca.uhn.hl7v2.util.Terser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Precompiled accessor for a field, component or subcomponent of HAPI messages, an alternative
+ * to repeated {@link Terser} calls with the same path.
+ * <p>
+ * Paths follow the {@link Terser} syntax, e.g. <code>MSH-9-1</code>, <code>QPD-3(1)-1</code>,
+ * <code>/QUERY_RESPONSE/PID-3</code> or <code>.MRG-1</code>, and are always evaluated from the
+ * root of the message. A path is parsed once when it is compiled. Structures prefixed with a dot
+ * are searched for in the message structure, depth-first and in definition order; the location
+ * found is cached per message class, so that subsequent accesses just walk down the structure.
+ * Compiled paths are immutable and can be kept in static fields.
+ * <p>
+ * In contrast to {@link Terser#get(String)}, reading a value never adds empty segments, groups
+ * or field repetitions to the message.
+ *
+ * @since 4.1
+ */
+public final class Hl7Path {
+
+    private static final Pattern ELEMENT_PATTERN = Pattern.compile("(\\.)?([A-Z][A-Z0-9_]*?)(?:\\((\\d+)\\))?");
+    private static final Pattern FIELD_PATTERN = Pattern.compile(
+            "(\\.)?([A-Z][A-Z0-9]{2})(?:\\((\\d+)\\))?-(\\d+)(?:\\((\\d+)\\))?(?:-(\\d+)(?:-(\\d+))?)?");
+
+    private static final Map<String, Hl7Path> CACHE = new ConcurrentHashMap<>();
+
+    private final String path;
+    private final Location direct;
+    private final boolean[] search;
+    private final int field;
+    private final int fieldRepetition;
+    private final int component;
+    private final int subcomponent;
+
+    // resolved location per message class, for paths containing searched structures
+    private final Map<Class<?>, Location> locations = new ConcurrentHashMap<>();
+
+    private Hl7Path(String path) {
+        this.path = Objects.requireNonNull(path);
+        var elements = (path.startsWith("/") ? path.substring(1) : path).split("/");
+        var last = elements.length - 1;
+        var names = new String[elements.length];
+        var repetitions = new int[elements.length];
+        search = new boolean[elements.length];
+        for (var i = 0; i < last; ++i) {
+            var matcher = ELEMENT_PATTERN.matcher(elements[i]);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Invalid HL7v2 structure " + elements[i] + " in path " + path);
+            }
+            search[i] = matcher.group(1) != null;
+            names[i] = matcher.group(2);
+            repetitions[i] = intValue(matcher.group(3), 0);
+        }
+        var fieldMatcher = FIELD_PATTERN.matcher(elements[last]);
+        if (!fieldMatcher.matches()) {
+            throw new IllegalArgumentException("Invalid HL7v2 field path " + path);
+        }
+        search[last] = fieldMatcher.group(1) != null;
+        names[last] = fieldMatcher.group(2);
+        repetitions[last] = intValue(fieldMatcher.group(3), 0);
+        field = Integer.parseInt(fieldMatcher.group(4));
+        fieldRepetition = intValue(fieldMatcher.group(5), 0);
+        component = intValue(fieldMatcher.group(6), 1);
+        subcomponent = intValue(fieldMatcher.group(7), 1);
+        direct = new Location(names, repetitions);
+    }
+
+    private static int intValue(String s, int defaultValue) {
+        return (s != null) ? Integer.parseInt(s) : defaultValue;
+    }
+
+    /**
+     * Compiles the given path. Compiled paths are cached, so that calling this method
+     * repeatedly with the same path is cheap as well.
+     *
+     * @param path path in {@link Terser} syntax
+     * @return compiled path
+     * @throws IllegalArgumentException if the path is invalid
+     */
+    public static Hl7Path compile(String path) {
+        return CACHE.computeIfAbsent(path, Hl7Path::new);
+    }
+
+    /**
+     * @return the path this instance has been compiled from.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the segment addressed by this path.
+     *
+     * @param message HAPI message
+     * @return segment, or <code>null</code> when it is not present in the message
+     */
+    public Segment getSegment(Message message) throws HL7Exception {
+        var location = location(message);
+        if (location == null) {
+            return null;
+        }
+        Structure structure = message;
+        for (var i = 0; i < location.names.length; ++i) {
+            var group = (Group) structure;
+            if (!isChild(group, location.names[i])) {
+                return null;
+            }
+            var structures = group.getAll(location.names[i]);
+            if (structures.length <= location.repetitions[i]) {
+                return null;
+            }
+            structure = structures[location.repetitions[i]];
+        }
+        return (Segment) structure;
+    }
+
+    /**
+     * Returns all repetitions of the field addressed by this path.
+     *
+     * @param message HAPI message
+     * @return field repetitions, empty when the segment is not present
+     */
+    public Type[] getFieldRepetitions(Message message) throws HL7Exception {
+        var segment = getSegment(message);
+        return (segment != null) ? segment.getField(field) : new Type[0];
+    }
+
+    /**
+     * Returns the value of the primitive addressed by this path, like {@link Terser#get(String)}.
+     *
+     * @param message HAPI message
+     * @return value, or <code>null</code> when not present
+     */
+    public String get(Message message) throws HL7Exception {
+        var fields = getFieldRepetitions(message);
+        if (fields.length <= fieldRepetition) {
+            return null;
+        }
+        return Terser.getPrimitive(fields[fieldRepetition], component, subcomponent).getValue();
+    }
+
+    /**
+     * Sets the value of the primitive addressed by this path, like {@link Terser#set(String, String)}.
+     * Missing structures are created.
+     *
+     * @param message HAPI message
+     * @param value   new value
+     * @throws HL7Exception if the segment cannot be found in the message structure
+     */
+    public void set(Message message, String value) throws HL7Exception {
+        var location = location(message);
+        if (location == null) {
+            throw new HL7Exception("Segment " + direct.names[direct.names.length - 1] +
+                    " not found in message structure " + message.getName());
+        }
+        Structure structure = message;
+        for (var i = 0; i < location.names.length; ++i) {
+            structure = ((Group) structure).get(location.names[i], location.repetitions[i]);
+        }
+        Terser.set((Segment) structure, field, fieldRepetition, component, subcomponent, value);
+    }
+
+    private Location location(Message message) throws HL7Exception {
+        if (!searching()) {
+            return direct;
+        }
+        var location = locations.get(message.getClass());
+        if (location == null) {
+            var template = template(message);
+            location = (template != null) ? resolve(template, true) : resolve(message, false);
+            if (location == null) {
+                return null;
+            }
+            // structures of generic messages depend on message contents and cannot be cached
+            if (template != null) {
+                locations.put(message.getClass(), location);
+            }
+        }
+        return location;
+    }
+
+    private boolean searching() {
+        for (var b : search) {
+            if (b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates an empty message of the same class, whose structure can be explored without
+     * touching the original message.
+     */
+    private static Message template(Message message) {
+        if (message instanceof GenericMessage || !(message instanceof AbstractMessage)) {
+            return null;
+        }
+        try {
+            return message.getClass()
+                    .getConstructor(ModelClassFactory.class)
+                    .newInstance(((AbstractMessage) message).getModelClassFactory());
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces searched structures of this path by the full name paths to them.
+     *
+     * @param create whether missing groups shall be created in order to explore their structure
+     */
+    private Location resolve(Message message, boolean create) throws HL7Exception {
+        var names = new ArrayList<String>();
+        var repetitions = new ArrayList<Integer>();
+        Group group = message;
+        for (var i = 0; i < search.length; ++i) {
+            var name = direct.names[i];
+            if (search[i]) {
+                var found = find(group, name, create);
+                if (found == null) {
+                    return null;
+                }
+                for (var j = 0; j < found.size() - 1; ++j) {
+                    group = child(group, found.get(j), create);
+                    if (group == null) {
+                        return null;
+                    }
+                    names.add(found.get(j));
+                    repetitions.add(0);
+                }
+                name = found.get(found.size() - 1);
+            }
+            names.add(name);
+            repetitions.add(direct.repetitions[i]);
+            if (i < search.length - 1) {
+                group = child(group, name, create);
+                if (group == null) {
+                    return null;
+                }
+            }
+        }
+        return new Location(
+                names.toArray(new String[0]),
+                repetitions.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static Group child(Group group, String name, boolean create) throws HL7Exception {
+        if (create) {
+            return (Group) group.get(name);
+        }
+        if (!isChild(group, name)) {
+            return null;
+        }
+        var structures = group.getAll(name);
+        return (structures.length > 0) ? (Group) structures[0] : null;
+    }
+
+    private static boolean isChild(Group group, String name) {
+        for (var childName : group.getNames()) {
+            if (childName.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Depth-first search for a structure with the given name.
+     *
+     * @param create whether missing groups shall be created in order to explore their structure
+     * @return names of the structures from the given group down to the found one, or <code>null</code>
+     */
+    private static List<String> find(Group group, String name, boolean create) throws HL7Exception {
+        for (var childName : group.getNames()) {
+            if (group.isGroup(childName)) {
+                if (childName.equals(name)) {
+                    return new ArrayList<>(List.of(childName));
+                }
+                var structures = create ? new Structure[] {group.get(childName)} : group.getAll(childName);
+                if (structures.length > 0) {
+                    var found = find((Group) structures[0], name, create);
+                    if (found != null) {
+                        found.add(0, childName);
+                        return found;
+                    }
+                }
+            } else if (childName.equals(name)) {
+                return new ArrayList<>(List.of(childName));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    private static final class Location {
+        private final String[] names;
+        private final int[] repetitions;
+
+        private Location(String[] names, int[] repetitions) {
+            this.names = names;
+            this.repetitions = repetitions;
+        }
+    }
+}
@@ -0,0 +1,611 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.message;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only, charset-aware {@link CharSequence} view of an encoded HL7v2 message, backed by the
+ * bytes as they have been received.
+ * <p>
+ * For single-byte character sets (e.g. ISO-8859-x, US-ASCII), characters are decoded on the fly
+ * without copying the bytes. Multi-byte character sets are decoded once on first access. In any case,
+ * the {@link String} representation required for HAPI parsing is created at most once and cached.
+ * Line feeds are presented as carriage returns, i.e. this view corresponds to the message as
+ * returned by <code>Hl7v2MarshalUtils.convertBodyToString</code>.
+ * <p>
+ * Segment boundaries are indexed lazily, which allows {@link ca.uhn.hl7v2.preparser.PreParser}-style
+ * field lookups by means of {@link #getField(String)} and {@link #getFields(String...)} without
+ * materializing the whole message as String.
+ * <p>
+ * Instances backed by a {@link ByteBuffer} whose memory is recycled (e.g. pooled network buffers)
+ * must be {@link #detach() detached} before the buffer is released.
+ * <p>
+ * Instances can be read by several threads concurrently, also while one of them detaches the view.
+ * The underlying buffer, however, must not be released before all readers are done with the view
+ * or it has been detached.
+ *
+ * @since 4.1
+ */
+public final class MessageCharSequence implements CharSequence {
+
+    private static final Map<Charset, char[]> DECODING_TABLES = new ConcurrentHashMap<>();
+    private static final char[] NO_TABLE = new char[0];
+    private static final Pattern PATH_PATTERN = Pattern.compile(
+            "([A-Z][A-Z0-9]{2})(?:\\((\\d+)\\))?(?:-(\\d+)(?:\\((\\d+)\\))?(?:-(\\d+)(?:-(\\d+))?)?)?");
+
+    private final Charset charset;
+    private final int length;
+
+    // either bytes and table or string are set after construction, bytes and table are cleared
+    // when the String representation is created
+    private ByteBuffer bytes;
+    private char[] table;
+    private volatile String string;
+
+    private volatile SegmentIndex segments;
+
+    private MessageCharSequence(ByteBuffer bytes, Charset charset) {
+        this.charset = Objects.requireNonNull(charset);
+        var decodingTable = decodingTable(charset);
+        if (decodingTable == NO_TABLE) {
+            this.string = normalize(charset.decode(bytes.duplicate()).toString());
+            this.length = string.length();
+        } else {
+            this.bytes = bytes.slice();
+            this.table = decodingTable;
+            this.length = this.bytes.remaining();
+        }
+    }
+
+    private MessageCharSequence(String s) {
+        this.charset = null;
+        this.string = normalize(s);
+        this.length = string.length();
+    }
+
+    /**
+     * Creates a view of the readable bytes of the given buffer. The buffer position is not changed.
+     */
+    public static MessageCharSequence wrap(ByteBuffer buffer, Charset charset) {
+        return new MessageCharSequence(buffer, charset);
+    }
+
+    /**
+     * Creates a view of the given byte array region.
+     */
+    public static MessageCharSequence wrap(byte[] bytes, int offset, int length, Charset charset) {
+        return new MessageCharSequence(ByteBuffer.wrap(bytes, offset, length), charset);
+    }
+
+    /**
+     * Creates a view of an already decoded message.
+     */
+    public static MessageCharSequence wrap(CharSequence s) {
+        return s instanceof MessageCharSequence ?
+                (MessageCharSequence) s :
+                new MessageCharSequence(s.toString());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        var s = string;
+        if (s != null) {
+            return s.charAt(index);
+        }
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        var b = bytes;
+        var t = table;
+        if (b == null || t == null) {
+            // detached by another thread in the meantime
+            return toString().charAt(index);
+        }
+        return t[b.get(index) & 0xff];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return substring(start, end);
+    }
+
+    /**
+     * Returns the given region as String without materializing the whole message.
+     */
+    public String substring(int start, int end) {
+        var s = string;
+        if (s != null) {
+            return s.substring(start, end);
+        }
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        var b = bytes;
+        var t = table;
+        if (b == null || t == null) {
+            return toString().substring(start, end);
+        }
+        var chars = new char[end - start];
+        for (var i = start; i < end; ++i) {
+            chars[i - start] = t[b.get(i) & 0xff];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the String representation of this message. It is created on first invocation
+     * and cached afterwards.
+     */
+    @Override
+    public String toString() {
+        var s = string;
+        if (s == null) {
+            synchronized (this) {
+                s = string;
+                if (s == null) {
+                    var array = new byte[length];
+                    bytes.duplicate().get(array);
+                    s = normalize(new String(array, charset));
+                    string = s;
+                    bytes = null;
+                    table = null;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Makes this view independent from the underlying buffer, which can be released afterwards.
+     */
+    public void detach() {
+        toString();
+    }
+
+    /**
+     * @return the character set this view has been created with, or <code>null</code> when
+     * it has been created from an already decoded message
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    // ----- segment index -----
+
+    /**
+     * @return number of segments in this message
+     */
+    public int segmentCount() {
+        return indexSegments().count;
+    }
+
+    /**
+     * @return start position of the segment with the given index (0-based)
+     */
+    public int segmentStart(int index) {
+        return indexSegments().checkIndex(index).starts[index];
+    }
+
+    /**
+     * @return end position (exclusive, not including the segment delimiter) of the segment with the given index (0-based)
+     */
+    public int segmentEnd(int index) {
+        return indexSegments().checkIndex(index).ends[index];
+    }
+
+    /**
+     * @return name of the segment with the given index (0-based)
+     */
+    public String segmentName(int index) {
+        var start = segmentStart(index);
+        return substring(start, Math.min(start + 3, segmentEnd(index)));
+    }
+
+    /**
+     * Returns the index of the given occurrence (0-based) of the given segment, or -1 if not found.
+     */
+    public int findSegment(String segmentName, int occurrence) {
+        var chars = snapshot();
+        return findSegment(chars, indexSegments(chars), segmentName, occurrence);
+    }
+
+    // ----- field access -----
+
+    /**
+     * Returns values of the given fields, see {@link #getField(String)}.
+     */
+    public String[] getFields(String... paths) {
+        var chars = snapshot();
+        var index = indexSegments(chars);
+        var result = new String[paths.length];
+        for (var i = 0; i < paths.length; ++i) {
+            result[i] = getField(chars, index, FieldPath.of(paths[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the raw (not unescaped) value of a field, component or subcomponent denoted
+     * by a path like <code>MSH-9-1</code>, <code>PID-3(1)-1</code> or <code>OBX(2)-5</code>.
+     * Segment and field repetition numbers in parentheses are 0-based, field, component and
+     * subcomponent numbers are 1-based, as with {@link ca.uhn.hl7v2.preparser.PreParser}.
+     * <p>
+     * Parsed paths are cached, callers in hot paths may as well use
+     * {@link #getField(String, int, int, int, int, int)}.
+     *
+     * @return value, or <code>null</code> when the value is not present or empty
+     */
+    public String getField(String path) {
+        var chars = snapshot();
+        return getField(chars, indexSegments(chars), FieldPath.of(path));
+    }
+
+    /**
+     * Returns the raw value of the given field, component or subcomponent.
+     *
+     * @param segmentName      segment name
+     * @param segmentIndex     0-based segment occurrence
+     * @param field            1-based field number, 0 for the whole segment
+     * @param fieldRepetition  0-based field repetition
+     * @param component        1-based component number, 0 for the whole field
+     * @param subcomponent     1-based subcomponent number, 0 for the whole component
+     * @return value, or <code>null</code> when the value is not present or empty
+     */
+    public String getField(String segmentName, int segmentIndex, int field, int fieldRepetition, int component, int subcomponent) {
+        var chars = snapshot();
+        return getField(chars, indexSegments(chars),
+                new FieldPath(segmentName, segmentIndex, field, fieldRepetition, component, subcomponent));
+    }
+
+    /**
+     * Returns the raw values of all repetitions of the given field.
+     *
+     * @param segmentName  segment name
+     * @param segmentIndex 0-based segment occurrence
+     * @param field        1-based field number
+     * @return repetitions, empty when the field is not present or empty; single repetitions may be empty strings
+     */
+    public String[] getFieldRepetitions(String segmentName, int segmentIndex, int field) {
+        var chars = snapshot();
+        var bounds = fieldBounds(chars, indexSegments(chars), segmentName, segmentIndex, field);
+        if (bounds == null || bounds[1] == bounds[0]) {
+            return new String[0];
+        }
+        var repetitions = new ArrayList<String>();
+        var separator = chars.charAt(5);
+        var pos = bounds[0];
+        while (true) {
+            var end = endOf(chars, separator, pos, bounds[1]);
+            repetitions.add(chars.subSequence(pos, end).toString());
+            if (end == bounds[1]) {
+                return repetitions.toArray(new String[0]);
+            }
+            pos = end + 1;
+        }
+    }
+
+    /**
+     * Returns a snapshot of the current content, so that lookups read the shared state only once.
+     */
+    private CharSequence snapshot() {
+        var s = string;
+        if (s != null) {
+            return s;
+        }
+        var b = bytes;
+        var t = table;
+        if (b == null || t == null) {
+            // detached by another thread in the meantime
+            return toString();
+        }
+        return new Undecoded(b, t, length);
+    }
+
+    private static String getField(CharSequence chars, SegmentIndex index, FieldPath path) {
+        var length = chars.length();
+        if (path.field == 0) {
+            var segment = (length < 8) ? -1 : findSegment(chars, index, path.segmentName, path.segmentIndex);
+            return (segment < 0) ? null : chars.subSequence(index.starts[segment], index.ends[segment]).toString();
+        }
+        var msh = "MSH".equals(path.segmentName);
+        if (msh && path.field == 1) {
+            return (length < 8) ? null : String.valueOf(chars.charAt(3));
+        }
+        var bounds = fieldBounds(chars, index, path.segmentName, path.segmentIndex, path.field);
+        if (bounds == null) {
+            return null;
+        }
+        if (msh && path.field == 2) {
+            return value(chars, bounds[0], bounds[1]);
+        }
+
+        // narrow down to repetition, component and subcomponent
+        bounds = narrow(chars, chars.charAt(5), bounds[0], bounds[1], path.fieldRepetition + 1);
+        if (bounds != null && path.component > 0) {
+            bounds = narrow(chars, chars.charAt(4), bounds[0], bounds[1], path.component);
+        }
+        if (bounds != null && path.subcomponent > 0) {
+            bounds = narrow(chars, chars.charAt(7), bounds[0], bounds[1], path.subcomponent);
+        }
+        return bounds != null ? value(chars, bounds[0], bounds[1]) : null;
+    }
+
+    private static int findSegment(CharSequence chars, SegmentIndex index, String segmentName, int occurrence) {
+        for (var i = 0; i < index.count; ++i) {
+            var start = index.starts[i];
+            if (index.ends[i] - start >= 3 &&
+                    chars.charAt(start) == segmentName.charAt(0) &&
+                    chars.charAt(start + 1) == segmentName.charAt(1) &&
+                    chars.charAt(start + 2) == segmentName.charAt(2) &&
+                    occurrence-- == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns start and end position of the given field, or <code>null</code> when not present.
+     */
+    private static int[] fieldBounds(CharSequence chars, SegmentIndex index, String segmentName, int segmentIndex, int field) {
+        if (chars.length() < 8) {
+            return null;
+        }
+        var segment = findSegment(chars, index, segmentName, segmentIndex);
+        if (segment < 0) {
+            return null;
+        }
+        var start = index.starts[segment];
+        var end = index.ends[segment];
+        var fieldSeparator = chars.charAt(3);
+
+        // skip to the requested field
+        var separators = "MSH".equals(segmentName) ? field - 1 : field;
+        var pos = start + 3;
+        while (separators > 0) {
+            pos = indexOf(chars, fieldSeparator, pos, end);
+            if (pos < 0) {
+                return null;
+            }
+            ++pos;
+            --separators;
+        }
+        return new int[]{pos, endOf(chars, fieldSeparator, pos, end)};
+    }
+
+    private static int[] narrow(CharSequence chars, char separator, int start, int end, int number) {
+        var pos = start;
+        for (var i = 1; i < number; ++i) {
+            pos = indexOf(chars, separator, pos, end);
+            if (pos < 0) {
+                return null;
+            }
+            ++pos;
+        }
+        return new int[]{pos, endOf(chars, separator, pos, end)};
+    }
+
+    private static String value(CharSequence chars, int start, int end) {
+        return (end > start) ? chars.subSequence(start, end).toString() : null;
+    }
+
+    private static int indexOf(CharSequence chars, char c, int start, int end) {
+        for (var i = start; i < end; ++i) {
+            if (chars.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int endOf(CharSequence chars, char c, int start, int end) {
+        var pos = indexOf(chars, c, start, end);
+        return pos < 0 ? end : pos;
+    }
+
+    private SegmentIndex indexSegments() {
+        var index = segments;
+        return index != null ? index : indexSegments(snapshot());
+    }
+
+    private SegmentIndex indexSegments(CharSequence chars) {
+        var index = segments;
+        if (index != null) {
+            return index;
+        }
+        var starts = new int[16];
+        var ends = new int[16];
+        var count = 0;
+        var segmentStart = 0;
+        for (var i = 0; i <= length; ++i) {
+            if (i == length || chars.charAt(i) == '\r') {
+                if (i > segmentStart) {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                        ends = Arrays.copyOf(ends, count * 2);
+                    }
+                    starts[count] = segmentStart;
+                    ends[count++] = i;
+                }
+                segmentStart = i + 1;
+            }
+        }
+        // concurrent readers may index the segments more than once, but always see a complete index
+        index = new SegmentIndex(starts, ends, count);
+        segments = index;
+        return index;
+    }
+
+    private static int intValue(String s, int defaultValue) {
+        return s != null ? Integer.parseInt(s) : defaultValue;
+    }
+
+    private static String normalize(String s) {
+        return s.replace('\n', '\r');
+    }
+
+    /**
+     * Returns a byte-to-char decoding table for single-byte character sets, with line feeds
+     * mapped to carriage returns, or {@link #NO_TABLE} for multi-byte character sets.
+     */
+    private static char[] decodingTable(Charset charset) {
+        return DECODING_TABLES.computeIfAbsent(charset, cs -> {
+            var encoder = cs.newEncoder();
+            var decoder = cs.newDecoder();
+            if (encoder.maxBytesPerChar() != 1.0f || decoder.maxCharsPerByte() != 1.0f) {
+                return NO_TABLE;
+            }
+            var all = new byte[256];
+            for (var i = 0; i < all.length; ++i) {
+                all[i] = (byte) i;
+            }
+            CharBuffer decoded = cs.decode(ByteBuffer.wrap(all));
+            if (decoded.remaining() != 256) {
+                return NO_TABLE;
+            }
+            var table = new char[256];
+            decoded.get(table);
+            table['\n'] = '\r';
+            return table;
+        });
+    }
+
+    /**
+     * Immutable view of undecoded single-byte characters, valid as long as the underlying buffer is.
+     */
+    private static final class Undecoded implements CharSequence {
+        private final ByteBuffer bytes;
+        private final char[] table;
+        private final int length;
+
+        private Undecoded(ByteBuffer bytes, char[] table, int length) {
+            this.bytes = bytes;
+            this.table = table;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return table[bytes.get(index) & 0xff];
+        }
+
+        @Override
+        public String subSequence(int start, int end) {
+            var chars = new char[end - start];
+            for (var i = start; i < end; ++i) {
+                chars[i - start] = table[bytes.get(i) & 0xff];
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length);
+        }
+    }
+
+    /**
+     * Parsed field path. Parsed paths are cached up to a fixed number of distinct paths, as
+     * applications usually look up a small set of constant paths only.
+     */
+    private static final class FieldPath {
+        private static final int MAX_CACHED_PATHS = 1000;
+        private static final Map<String, FieldPath> PATHS = new ConcurrentHashMap<>();
+
+        private final String segmentName;
+        private final int segmentIndex;
+        private final int field;
+        private final int fieldRepetition;
+        private final int component;
+        private final int subcomponent;
+
+        private FieldPath(String segmentName, int segmentIndex, int field, int fieldRepetition, int component, int subcomponent) {
+            this.segmentName = segmentName;
+            this.segmentIndex = segmentIndex;
+            this.field = field;
+            this.fieldRepetition = fieldRepetition;
+            this.component = component;
+            this.subcomponent = subcomponent;
+        }
+
+        private static FieldPath of(String path) {
+            var fieldPath = PATHS.get(path);
+            if (fieldPath == null) {
+                fieldPath = parse(path);
+                if (PATHS.size() < MAX_CACHED_PATHS) {
+                    PATHS.putIfAbsent(path, fieldPath);
+                }
+            }
+            return fieldPath;
+        }
+
+        private static FieldPath parse(String path) {
+            var matcher = PATH_PATTERN.matcher(path);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Invalid HL7v2 field path " + path);
+            }
+            return new FieldPath(
+                    matcher.group(1),
+                    intValue(matcher.group(2), 0),
+                    intValue(matcher.group(3), 0),
+                    intValue(matcher.group(4), 0),
+                    intValue(matcher.group(5), 0),
+                    intValue(matcher.group(6), 0));
+        }
+    }
+
+    /**
+     * Immutable segment boundaries, published at once to concurrent readers.
+     */
+    private static final class SegmentIndex {
+        private final int[] starts;
+        private final int[] ends;
+        private final int count;
+
+        private SegmentIndex(int[] starts, int[] ends, int count) {
+            this.starts = starts;
+            this.ends = ends;
+            this.count = count;
+        }
+
+        private SegmentIndex checkIndex(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("segment index " + index + ", segment count " + count);
+            }
+            return this;
+        }
+    }
+
+}
@@ -1,16 +1,37 @@
 package org.openehealth.ipf.modules.hl7.parser;
 
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.Version;
+import ca.uhn.hl7v2.model.Group;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.Segment;
+import ca.uhn.hl7v2.model.Type;
 import ca.uhn.hl7v2.parser.DefaultModelClassFactory;
 import ca.uhn.hl7v2.parser.ModelClassFactory;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * CustomModelClassFactory implementation that exposes the delegate ModelClassFactory
+ * CustomModelClassFactory implementation that exposes the delegate ModelClassFactory.
+ * <p>
+ * Resolved model classes are cached by kind, name and version, including the information
+ * that no class could be found, so that unknown structures (e.g. Z-segments without custom
+ * model class) are not searched for again on every parse. The cache is invalidated when
+ * custom model packages are added. Unlike the positive-only cache of the HAPI superclass,
+ * it does not keep resolutions made before custom model packages were added.
+ * </p>
  */
 public class CustomModelClassFactory extends ca.uhn.hl7v2.parser.CustomModelClassFactory {
 
+    // bounds the number of cached misses, as structure names are taken from received messages
+    static final int MAX_CACHED_CLASSES = 10000;
+    // marks unsuccessful resolutions, as the cache does not hold null values
+    private static final Class<?> NOT_FOUND = Void.class;
+
     private final ModelClassFactory defaultFactory;
+    private final ModelClassFactory lookupDelegate;
+    private final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
 
     public CustomModelClassFactory() {
         this(null);
@@ -23,15 +44,93 @@ public class CustomModelClassFactory extends ca.uhn.hl7v2.parser.CustomModelClas
     public CustomModelClassFactory(String packageName, ModelClassFactory defaultFactory) {
         super(packageName);
         this.defaultFactory = defaultFactory;
+        this.lookupDelegate = new DefaultModelClassFactory();
     }
 
     public CustomModelClassFactory(ModelClassFactory defaultFactory, Map<String, String[]> map) {
         super(defaultFactory, map);
         this.defaultFactory = defaultFactory;
+        this.lookupDelegate = defaultFactory;
     }
 
     public ModelClassFactory getDelegate() {
         return defaultFactory;
     }
 
+    @Override
+    public Class<? extends Message> getMessageClass(String name, String version, boolean isExplicit) throws HL7Exception {
+        var key = (isExplicit ? "message!" : "message") + '\0' + name + '\0' + version;
+        return resolve(key, () -> {
+            var structure = isExplicit ? name : getMessageStructureForEvent(name, Version.versionOf(version));
+            Class<? extends Message> result = findClass("message", structure, version);
+            return (result != null) ? result : lookupDelegate.getMessageClass(structure, version, isExplicit);
+        });
+    }
+
+    @Override
+    public Class<? extends Group> getGroupClass(String name, String version) throws HL7Exception {
+        return resolve("group\0" + name + '\0' + version, () -> {
+            Class<? extends Group> result = findClass("group", name, version);
+            return (result != null) ? result : lookupDelegate.getGroupClass(name, version);
+        });
+    }
+
+    @Override
+    public Class<? extends Segment> getSegmentClass(String name, String version) throws HL7Exception {
+        return resolve("segment\0" + name + '\0' + version, () -> {
+            Class<? extends Segment> result = findClass("segment", name, version);
+            return (result != null) ? result : lookupDelegate.getSegmentClass(name, version);
+        });
+    }
+
+    @Override
+    public Class<? extends Type> getTypeClass(String name, String version) throws HL7Exception {
+        return resolve("datatype\0" + name + '\0' + version, () -> {
+            Class<? extends Type> result = findClass("datatype", name, version);
+            return (result != null) ? result : lookupDelegate.getTypeClass(name, version);
+        });
+    }
+
+    /**
+     * Adds custom model packages and invalidates the cache of resolved model classes.
+     */
+    @Override
+    public void addModels(Map<String, String[]> addedModelClasses) {
+        super.addModels(addedModelClasses);
+        invalidate();
+    }
+
+    /**
+     * Invalidates the cache of resolved model classes, e.g. after the custom model packages
+     * of the delegate factory have been changed.
+     */
+    public void invalidate() {
+        classes.clear();
+    }
+
+    /**
+     * @return number of cached model class resolutions, including unsuccessful ones
+     */
+    public int getCachedClasses() {
+        return classes.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Class<? extends T> resolve(String key, Resolver<T> resolver) throws HL7Exception {
+        var cached = classes.get(key);
+        if (cached != null) {
+            return (cached != NOT_FOUND) ? (Class<? extends T>) cached : null;
+        }
+        var result = resolver.resolve();
+        if (result != null || classes.size() < MAX_CACHED_CLASSES) {
+            classes.put(key, (result != null) ? result : NOT_FOUND);
+        }
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface Resolver<T> {
+        Class<? extends T> resolve() throws HL7Exception;
+    }
+
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.batch;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 4.1
+ */
+public class BatchReaderTest {
+
+    static final String FHS = "FHS|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||||F001";
+    static final String BHS1 = "BHS|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||||B001";
+    static final String BHS2 = "BHS|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||||B002";
+    static final String MSG1 = "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||ADT^A01|M1|P|2.5\rEVN|A01\rPID|||1";
+    static final String MSG2 = "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||ADT^A01|M2|P|2.5\rEVN|A01\rPID|||2";
+    static final String MSG3 = "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||ADT^A01|M3|P|2.5\rEVN|A01\rPID|||3";
+
+    static final String BATCH = String.join("\n",
+            FHS, BHS1, MSG1.replace('\r', '\n'), MSG2.replace('\r', '\n'), "BTS|2",
+            BHS2, MSG3.replace('\r', '\n'), "BTS|1", "FTS|2", "");
+
+    @Test
+    public void testReadBatch() {
+        var reader = new BatchReader(new StringReader(BATCH));
+        var messages = new ArrayList<BatchMessage>();
+        reader.forEachRemaining(messages::add);
+
+        assertEquals(3, messages.size());
+        assertEquals(MSG1, messages.get(0).getMessage());
+        assertEquals(MSG2, messages.get(1).getMessage());
+        assertEquals(MSG3, messages.get(2).getMessage());
+        for (var i = 0; i < 3; ++i) {
+            assertEquals(i, messages.get(i).getIndex());
+            assertEquals(FHS, messages.get(i).getFileHeader());
+        }
+        assertEquals(BHS1, messages.get(1).getBatchHeader());
+        assertEquals(0, messages.get(1).getBatchIndex());
+        assertEquals(BHS2, messages.get(2).getBatchHeader());
+        assertEquals(1, messages.get(2).getBatchIndex());
+
+        assertEquals(3, reader.getMessageCount());
+        assertEquals(2, reader.getBatchCount());
+        assertEquals("BTS|1", reader.getBatchTrailer());
+        assertEquals("FTS|2", reader.getFileTrailer());
+        assertTrue(reader.isClosed());
+    }
+
+    @Test
+    public void testReadFileWithoutEnvelope() throws Exception {
+        var file = Files.createTempFile("batch", ".hl7");
+        try {
+            Files.writeString(file, MSG1 + "\r\n" + MSG2 + "\r\n", StandardCharsets.ISO_8859_1);
+            try (var reader = BatchReader.open(file, StandardCharsets.ISO_8859_1)) {
+                var first = reader.next();
+                assertEquals(MSG1, first.getMessage());
+                assertNull(first.getFileHeader());
+                assertNull(first.getBatchHeader());
+                assertEquals(MSG2, reader.next().getMessage());
+                assertFalse(reader.hasNext());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testEmpty() {
+        var reader = new BatchReader(new StringReader("FHS|^~\\&\rFTS|0\r"));
+        assertFalse(reader.hasNext());
+        reader.next();
+    }
+
+    @Test
+    public void testBatchAcknowledgement() {
+        var messages = new ArrayList<BatchMessage>();
+        new BatchReader(new StringReader(BATCH)).forEachRemaining(messages::add);
+
+        // acknowledgements arrive in arbitrary order
+        var acknowledgement = new BatchAcknowledgement(() -> "ID");
+        var shuffled = new ArrayList<>(messages);
+        Collections.reverse(shuffled);
+        for (var message : shuffled) {
+            var controlId = "M" + (message.getIndex() + 1);
+            acknowledgement.add(message, "MSH|^~\\&|RCV|RCVFAC|SND|SNDFAC|20210101120001||ACK^A01|A" + controlId +
+                    "|P|2.5\nMSA|AA|" + controlId + "\n");
+        }
+        assertEquals(3, acknowledgement.size());
+
+        var segments = acknowledgement.render().split("\r");
+        assertEquals(12, segments.length);
+        assertTrue(segments[0].startsWith("FHS|^~\\&|RCV|RCVFAC|SND|SNDFAC|20"));
+        assertTrue(segments[0].endsWith("||||ID|F001"));
+        assertTrue(segments[1].startsWith("BHS|^~\\&|RCV|RCVFAC|SND|SNDFAC|"));
+        assertTrue(segments[1].endsWith("||||ID|B001"));
+        assertEquals("MSA|AA|M1", segments[3]);
+        assertEquals("MSA|AA|M2", segments[5]);
+        assertEquals("BTS|2", segments[6]);
+        assertTrue(segments[7].endsWith("|B002"));
+        assertEquals("MSA|AA|M3", segments[9]);
+        assertEquals("BTS|1", segments[10]);
+        assertEquals("FTS|2", segments[11]);
+    }
+
+    @Test
+    public void testBatchAcknowledgementWithCustomFieldSeparator() {
+        var fileHeader = "FHS#^~\\&#SND#SNDFAC#RCV#RCVFAC#20210101120000####F001";
+        var batchHeader = "BHS#^~\\&#SND#SNDFAC#RCV#RCVFAC#20210101120000####B001";
+        var acknowledgement = new BatchAcknowledgement();
+        acknowledgement.add(new BatchMessage(MSG1, 0, 0, fileHeader, batchHeader), "MSA#AA#M1");
+
+        var segments = acknowledgement.render().split("\r");
+        assertEquals(5, segments.length);
+        assertTrue(segments[0].startsWith("FHS#^~\\&#RCV#RCVFAC#SND#SNDFAC#"));
+        assertTrue(segments[1].endsWith("#B001"));
+        assertEquals("BTS#1", segments[3]);
+        assertEquals("FTS#1", segments[4]);
+    }
+}
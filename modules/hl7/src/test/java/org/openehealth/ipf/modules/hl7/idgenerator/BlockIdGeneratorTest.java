@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.idgenerator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BlockIdGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUniqueIdsFromConcurrentThreads() throws Exception {
+        var generator = new BlockIdGenerator("node1-", 10, IdBlockStore.NONE);
+        var ids = ConcurrentHashMap.<String>newKeySet();
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (var i = 0; i < 8; ++i) {
+                futures.add(executor.submit(() -> {
+                    for (var j = 0; j < 1000; ++j) {
+                        ids.add(generator.getID());
+                    }
+                    return null;
+                }));
+            }
+            for (var future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(8000, ids.size());
+        assertTrue(ids.stream().allMatch(id -> id.startsWith("node1-")));
+        assertTrue(ids.contains("node1-0"));
+        assertTrue(ids.contains("node1-7999"));
+        assertEquals(800, generator.getReservedBlocks());
+    }
+
+    @Test
+    public void testResumeAfterLastReservedBlock() throws Exception {
+        var file = folder.getRoot().toPath().resolve("id_file");
+        var first = new BlockIdGenerator("", 100, new FileIdBlockStore(file, false));
+        assertEquals("0", first.getID());
+        assertEquals("1", first.getID());
+        assertEquals("100", Files.readString(file));
+        for (var i = 2; i < 150; ++i) {
+            first.getID();
+        }
+        assertEquals(2, first.getReservedBlocks());
+        assertEquals("200", Files.readString(file));
+
+        var second = new BlockIdGenerator("", 100, new FileIdBlockStore(file, false));
+        assertEquals(200L, second.nextValue());
+        assertEquals("300", Files.readString(file));
+    }
+
+    @Test
+    public void testFileErrors() throws Exception {
+        var file = folder.getRoot().toPath().resolve("id_file");
+        Files.writeString(file, "garbage");
+        try {
+            new BlockIdGenerator("", 100, new FileIdBlockStore(file, false)).getID();
+            fail();
+        } catch (IOException expected) {
+            // expected
+        }
+        var generator = new BlockIdGenerator("", 100, new FileIdBlockStore(file, true));
+        assertEquals("0", generator.getID());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.message;
+
+import ca.uhn.hl7v2.AcknowledgmentCode;
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.ErrorCode;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import org.junit.Test;
+import org.openehealth.ipf.modules.hl7.parser.DefaultEscaping;
+
+import static org.junit.Assert.*;
+
+public class AckTemplateTest {
+
+    private static final String[] VERSIONS = {"2.2", "2.3", "2.3.1", "2.4", "2.5", "2.5.1"};
+
+    private static final HapiContext CONTEXT = new DefaultHapiContext();
+
+    static {
+        CONTEXT.getParserConfiguration().setValidating(false);
+        CONTEXT.getParserConfiguration().setIdGenerator(() -> "4711");
+        CONTEXT.getParserConfiguration().setEscaping(DefaultEscaping.INSTANCE);
+    }
+
+    private static final AckTemplate TEMPLATE = new AckTemplate(() -> "4711", DefaultEscaping.INSTANCE);
+
+    private static String request(String version) {
+        return "MSH|^~\\&|SND&1^X|SNDFAC^1.2^ISO|RCV|RCVFAC|20210101120000||ADT^A01^ADT_A01|12345^x|P^T|" + version + "|||AL|NE\r" +
+                "EVN|A01|20210101120000\r" +
+                "PID|||4711^^^&1.2.3&ISO||Mueller^Hans\r";
+    }
+
+    @Test
+    public void testSameAcksAsHapi() throws Exception {
+        for (var version : VERSIONS) {
+            var request = request(version);
+            var message = CONTEXT.getPipeParser().parse(request);
+            assertSameAck(message.generateACK().encode(), TEMPLATE.render(request, AcknowledgmentCode.AA, null));
+            assertSameAck(message.generateACK(AcknowledgmentCode.CA, null).encode(), TEMPLATE.render(request, AcknowledgmentCode.CA, null));
+            for (var ackCode : new AcknowledgmentCode[]{AcknowledgmentCode.AE, AcknowledgmentCode.AR, AcknowledgmentCode.CR}) {
+                for (var text : new String[]{"Failed | because of ^ & \\ ~ \r", ""}) {
+                    // render first, HAPI attaches the generated response to the exception
+                    var exception = new HL7Exception(text, ErrorCode.UNKNOWN_KEY_IDENTIFIER);
+                    var rendered = TEMPLATE.render(request, ackCode, exception);
+                    assertSameAck(message.generateACK(ackCode, exception).encode(), rendered);
+                    assertFalse(AckTemplate.isApplicable(exception));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCustomComponentSeparator() throws Exception {
+        for (var version : VERSIONS) {
+            var request = request(version).replace('^', '$');
+            var message = CONTEXT.getPipeParser().parse(request);
+            var exception = new HL7Exception("Failed", ErrorCode.UNKNOWN_KEY_IDENTIFIER);
+            var rendered = TEMPLATE.render(request, AcknowledgmentCode.AE, exception);
+            assertSameAck(message.generateACK(AcknowledgmentCode.AE, exception).encode(), rendered);
+        }
+    }
+
+    @Test
+    public void testMinimalRequest() throws Exception {
+        var request = "MSH|^~\\&|||||||ADT^A01||P|2.5\r";
+        var message = CONTEXT.getPipeParser().parse(request);
+        assertSameAck(message.generateACK().encode(), TEMPLATE.render(request, AcknowledgmentCode.AA, null));
+    }
+
+    @Test
+    public void testNotApplicable() throws Exception {
+        var exception = new HL7Exception("Missing", ErrorCode.REQUIRED_FIELD_MISSING);
+        exception.setSegmentName("PID");
+        exception.setFieldPosition(3);
+        assertFalse(AckTemplate.isApplicable(exception));
+        assertNull(TEMPLATE.render(request("2.5"), AcknowledgmentCode.AE, exception));
+        assertNull(TEMPLATE.render("EVN|A01\r", AcknowledgmentCode.AA, null));
+        assertNull(TEMPLATE.render("MSH|^~\\&|||||||ADT||P\r", AcknowledgmentCode.AA, null));
+        assertTrue(AckTemplate.isApplicable(null));
+    }
+
+    /**
+     * Compares two acknowledgements, ignoring the timestamp in MSH-7
+     */
+    private static void assertSameAck(String expected, String actual) {
+        assertEquals(withoutTimestamp(expected), withoutTimestamp(actual));
+        assertTrue(actual.matches("(?s)MSH(\\|[^|]*){5}\\|\\d{14}(\\.\\d{1,3})?[+-]\\d{4}\\|.*"));
+    }
+
+    private static String withoutTimestamp(String ack) {
+        return ack.replaceFirst("^(MSH(\\|[^|]*){5}\\|)[^|]*", "$1");
+    }
+}
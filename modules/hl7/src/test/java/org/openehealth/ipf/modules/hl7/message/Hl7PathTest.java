@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.message;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.model.GenericMessage;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.GenericModelClassFactory;
+import ca.uhn.hl7v2.parser.PipeParser;
+import ca.uhn.hl7v2.util.Terser;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class Hl7PathTest {
+
+    private static final String RESPONSE =
+            "MSH|^~\\&|RCV|RCVFAC|SND|SNDFAC|20210101120000||RSP^K23^RSP_K23|54321|P|2.5\r" +
+            "MSA|AA|12345\r" +
+            "QAK|q1|OK\r" +
+            "QPD|IHE PIX Query|q1|4711^^^&1.2.3&ISO\r" +
+            "PID|||4711^^^&1.2.3&ISO~0815^^^&4.5.6&ISO||~\r";
+
+    private static final String MERGE =
+            "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||ADT^A40^ADT_A39|12345|P|2.5\r" +
+            "EVN|A40|20210101120000\r" +
+            "PID|||4711^^^&1.2.3&ISO\r" +
+            "MRG|0815^^^&1.2.3&ISO\r";
+
+    private static final String[] PATHS = {
+            "MSH-9-1", "MSH-9-2", "MSA-2", "QPD-3-1", "QPD-3-4-2", "/QUERY_RESPONSE/PID-3-1",
+            "QUERY_RESPONSE/PID-3(1)-1", "QUERY_RESPONSE/PID-3(1)-4-2", "QUERY_RESPONSE/PID-3(2)-1",
+            ".PID-3-1", ".PID-3(1)-4-2", "/.QUERY_RESPONSE/PID-3(1)-1", "DSC-1"
+    };
+
+    @Test
+    public void testSameValuesAsTerser() throws Exception {
+        var message = parse(RESPONSE);
+        for (var path : PATHS) {
+            var expected = new Terser(parse(RESPONSE)).get(path);
+            assertEquals(path, expected, Hl7Path.compile(path).get(message));
+            // cached location
+            assertEquals(path, expected, Hl7Path.compile(path).get(message));
+        }
+    }
+
+    @Test
+    public void testReadDoesNotModifyMessage() throws Exception {
+        var message = parse(MERGE);
+        var encoded = message.encode();
+        assertEquals("0815", Hl7Path.compile("PATIENT/MRG-1-1").get(message));
+        assertEquals("0815", Hl7Path.compile(".MRG-1-1").get(message));
+        assertNull(Hl7Path.compile("MRG-1-1").get(message));
+        assertNull(Hl7Path.compile(".PV1-2").get(message));
+        assertNull(Hl7Path.compile(".PID-3(3)-1").get(message));
+        assertNull(Hl7Path.compile("PATIENT(1)/PID-3-1").get(message));
+        assertEquals(encoded, message.encode());
+        assertEquals(1, Hl7Path.compile(".PID-3").getFieldRepetitions(message).length);
+        assertEquals(0, Hl7Path.compile("PATIENT/PV1-2").getFieldRepetitions(message).length);
+    }
+
+    @Test
+    public void testSet() throws Exception {
+        var message = parse(MERGE);
+        Hl7Path.compile("MSH-10").set(message, "67890");
+        Hl7Path.compile("PATIENT/MRG-1-1").set(message, "0816");
+        Hl7Path.compile(".PV1-2").set(message, "I");
+        var terser = new Terser(message);
+        assertEquals("67890", terser.get("MSH-10"));
+        assertEquals("0816", terser.get("/PATIENT/MRG-1-1"));
+        assertEquals("I", terser.get("/PATIENT/PV1-2"));
+    }
+
+    @Test
+    public void testGenericMessage() throws Exception {
+        var context = new DefaultHapiContext(new GenericModelClassFactory());
+        Message message = context.getPipeParser().parse(RESPONSE.replace("RSP^K23^RSP_K23", "ZZZ^Z99"));
+        assertTrue(message instanceof GenericMessage);
+        assertEquals("0815", Hl7Path.compile("PID-3(1)-1").get(message));
+        assertEquals("0815", Hl7Path.compile(".PID-3(1)-1").get(message));
+        assertEquals("q1", Hl7Path.compile("QAK-1").get(message));
+    }
+
+    @Test
+    public void testCompiledPathsAreShared() {
+        assertSame(Hl7Path.compile("PID-3-1"), Hl7Path.compile("PID-3-1"));
+        assertEquals("PID-3-1", Hl7Path.compile("PID-3-1").getPath());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPath() {
+        Hl7Path.compile("PID");
+    }
+
+    private static Message parse(String s) throws Exception {
+        return new PipeParser().parse(s);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.message;
+
+import ca.uhn.hl7v2.preparser.PreParser;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class MessageCharSequenceTest {
+
+    private static final String MESSAGE =
+            "MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20210101120000||ADT^A01^ADT_A01|12345|P|2.5\n" +
+            "EVN|A01|20210101120000\n" +
+            "PID|||4711^^^&1.2.3&ISO~0815^^^&4.5.6&ISO||Müller^Hans||19700101|M\n" +
+            "PV1||I\n";
+
+    @Test
+    public void testSingleByteCharset() throws Exception {
+        var bytes = MESSAGE.getBytes(StandardCharsets.ISO_8859_1);
+        var buffer = ByteBuffer.allocateDirect(bytes.length + 2);
+        buffer.put((byte) 0x0b).put(bytes).put((byte) 0x1c).flip();
+        buffer.position(1).limit(bytes.length + 1);
+
+        var view = MessageCharSequence.wrap(buffer, StandardCharsets.ISO_8859_1);
+        assertEquals(1, buffer.position());
+        assertViewMatches(view);
+    }
+
+    @Test
+    public void testMultiByteCharset() throws Exception {
+        var bytes = MESSAGE.getBytes(StandardCharsets.UTF_8);
+        var view = MessageCharSequence.wrap(bytes, 0, bytes.length, StandardCharsets.UTF_8);
+        assertViewMatches(view);
+    }
+
+    @Test
+    public void testString() throws Exception {
+        assertViewMatches(MessageCharSequence.wrap(MESSAGE));
+    }
+
+    @Test
+    public void testConcurrentReadsWhileDetaching() throws Exception {
+        var bytes = MESSAGE.getBytes(StandardCharsets.ISO_8859_1);
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            for (var i = 0; i < 200; ++i) {
+                var view = MessageCharSequence.wrap(bytes, 0, bytes.length, StandardCharsets.ISO_8859_1);
+                var start = new CountDownLatch(1);
+                var readers = new ArrayList<Future<String[]>>();
+                for (var j = 0; j < 3; ++j) {
+                    readers.add(executor.submit(() -> {
+                        start.await();
+                        return view.getFields("MSH-10", "PID-3(1)-1", "PV1-2");
+                    }));
+                }
+                var detacher = executor.submit(() -> {
+                    start.await();
+                    view.detach();
+                    return null;
+                });
+                start.countDown();
+                detacher.get();
+                for (var reader : readers) {
+                    assertArrayEquals(new String[]{"12345", "0815", "I"}, reader.get());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertViewMatches(MessageCharSequence view) throws Exception {
+        var expected = MESSAGE.replace('\n', '\r');
+        assertEquals(expected.length(), view.length());
+        assertEquals('\r', view.charAt(MESSAGE.indexOf('\n')));
+        assertEquals("EVN|A01", view.subSequence(view.segmentStart(1), view.segmentStart(1) + 7).toString());
+
+        assertEquals(4, view.segmentCount());
+        assertEquals("PID", view.segmentName(2));
+        assertEquals(-1, view.findSegment("PID", 1));
+
+        assertArrayEquals(new String[]{"|", "^~\\&"}, view.getFields("MSH-1", "MSH-2"));
+
+        var paths = new String[]{"MSH-3", "MSH-9-1", "MSH-9-2", "MSH-9-3", "MSH-10", "MSH-12",
+                "PID-3-1", "PID-3(1)-1", "PID-3(1)-4-2", "PID-5-1", "PID-99", "PV1-2", "PV1-3", "OBX-1"};
+        var fields = view.getFields(paths);
+        assertArrayEquals(PreParser.getFields(expected, paths), fields);
+        assertEquals("Müller", fields[9]);
+
+        assertArrayEquals(new String[]{"4711^^^&1.2.3&ISO", "0815^^^&4.5.6&ISO"}, view.getFieldRepetitions("PID", 0, 3));
+        assertArrayEquals(new String[]{"ADT^A01^ADT_A01"}, view.getFieldRepetitions("MSH", 0, 9));
+        assertEquals(0, view.getFieldRepetitions("PV1", 0, 3).length);
+        assertEquals(0, view.getFieldRepetitions("OBX", 0, 1).length);
+
+        assertSame(view.toString(), view.toString());
+        assertEquals(expected, view.toString());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.modules.hl7.parser;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Segment;
+import ca.uhn.hl7v2.parser.DefaultModelClassFactory;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @since 4.1
+ */
+public class CustomModelClassFactoryTest {
+
+    private static final String CUSTOM_PACKAGE = "org.openehealth.ipf.modules.hl7.parser.test.hl7v2.def.v25";
+
+    @Test
+    public void testCachedResolution() throws HL7Exception {
+        var delegate = new CountingModelClassFactory();
+        var factory = new CustomModelClassFactory(delegate, Map.of("2.5", new String[]{CUSTOM_PACKAGE}));
+
+        assertEquals(CUSTOM_PACKAGE + ".segment.ZBE", factory.getSegmentClass("ZBE", "2.5").getName());
+        assertSame(ca.uhn.hl7v2.model.v25.segment.PID.class, factory.getSegmentClass("PID", "2.5"));
+        assertNull(factory.getSegmentClass("ZZZ", "2.5"));
+        assertEquals(2, delegate.segmentLookups.get());
+
+        // repeated lookups, successful or not, are answered from the cache
+        for (var i = 0; i < 10; ++i) {
+            factory.getSegmentClass("ZBE", "2.5");
+            factory.getSegmentClass("PID", "2.5");
+            assertNull(factory.getSegmentClass("ZZZ", "2.5"));
+        }
+        assertEquals(2, delegate.segmentLookups.get());
+        assertEquals(3, factory.getCachedClasses());
+
+        // kind and version are part of the key
+        assertEquals(CUSTOM_PACKAGE + ".message.MDM_T02", factory.getMessageClass("MDM_T02", "2.5", true).getName());
+        assertSame(ca.uhn.hl7v2.model.v24.segment.PID.class, factory.getSegmentClass("PID", "2.4"));
+        assertEquals(5, factory.getCachedClasses());
+    }
+
+    @Test
+    public void testInvalidationOnAddedModels() throws HL7Exception {
+        var delegate = new CountingModelClassFactory();
+        var factory = new CustomModelClassFactory(delegate, new HashMap<>());
+        assertSame(ca.uhn.hl7v2.model.v25.message.MDM_T02.class, factory.getMessageClass("MDM_T02", "2.5", true));
+
+        factory.addModels(Map.of("2.5", new String[]{CUSTOM_PACKAGE}));
+        assertEquals(0, factory.getCachedClasses());
+        assertEquals(CUSTOM_PACKAGE + ".message.MDM_T02", factory.getMessageClass("MDM_T02", "2.5", true).getName());
+    }
+
+    private static class CountingModelClassFactory extends DefaultModelClassFactory {
+        private final AtomicInteger segmentLookups = new AtomicInteger();
+
+        @Override
+        public Class<? extends Segment> getSegmentClass(String name, String version) throws HL7Exception {
+            segmentLookups.incrementAndGet();
+            return super.getSegmentClass(name, version);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.hl7;
+
+import ca.uhn.hl7v2.AcknowledgmentCode;
+import ca.uhn.hl7v2.ErrorCode;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.DefaultEscaping;
+import ca.uhn.hl7v2.parser.ParserConfiguration;
+import ca.uhn.hl7v2.util.idgenerator.IDGenerator;
+import org.apache.camel.AggregationStrategy;
+import org.apache.camel.Exchange;
+import org.openehealth.ipf.modules.hl7.HL7v2Exception;
+import org.openehealth.ipf.modules.hl7.batch.BatchAcknowledgement;
+import org.openehealth.ipf.modules.hl7.batch.BatchMessage;
+import org.openehealth.ipf.modules.hl7.message.AckTemplate;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Aggregation strategy for splitting HL7v2 batch files with {@link HL7v2#batchMessages()}, which
+ * aggregates the acknowledgements returned for the single messages into a batch acknowledgement.
+ * <p>
+ * The acknowledgements are ordered like the original messages, also when the messages have been
+ * processed in parallel. Only the acknowledgements are retained until the split is completed.
+ * </p>
+ * <p>
+ * When processing a message has failed, or has not resulted in an ACK message, a negative
+ * acknowledgement (AE) is rendered for this message instead, and the failure does not
+ * propagate to the exchange of the batch file.
+ * </p>
+ * <pre>
+ *     from(...)
+ *         .split(batchMessages(), batchAcknowledgement()).streaming().parallelProcessing()
+ *             .to(...)
+ *             .transform(ack())
+ *         .end()
+ * </pre>
+ *
+ * @since 4.1
+ */
+public class BatchAcknowledgementAggregationStrategy implements AggregationStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchAcknowledgementAggregationStrategy.class);
+
+    private static final String ACKNOWLEDGEMENT_PROPERTY = BatchAcknowledgementAggregationStrategy.class.getName();
+
+    private final IDGenerator idGenerator;
+    private final AckTemplate nakTemplate;
+
+    public BatchAcknowledgementAggregationStrategy() {
+        this(null);
+    }
+
+    /**
+     * @param idGenerator generator of control IDs for FHS-11 and BHS-11 of the batch acknowledgement
+     */
+    public BatchAcknowledgementAggregationStrategy(IDGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+        this.nakTemplate = new AckTemplate(
+                (idGenerator != null) ? idGenerator : new ParserConfiguration().getIdGenerator(),
+                new DefaultEscaping());
+    }
+
+    @Override
+    public Exchange aggregate(Exchange oldExchange, Exchange newExchange) {
+        var result = (oldExchange != null) ? oldExchange : newExchange;
+        var acknowledgement = result.getProperty(ACKNOWLEDGEMENT_PROPERTY, BatchAcknowledgement.class);
+        if (acknowledgement == null) {
+            acknowledgement = new BatchAcknowledgement(idGenerator);
+            result.setProperty(ACKNOWLEDGEMENT_PROPERTY, acknowledgement);
+        }
+
+        var message = newExchange.getMessage();
+        var batchMessage = message.getHeader(HL7v2.BATCH_MESSAGE, BatchMessage.class);
+        if (batchMessage == null) {
+            LOG.warn("Cannot aggregate exchange without batch message header");
+            return result;
+        }
+
+        String ack;
+        var exception = newExchange.getException();
+        if (exception != null) {
+            // reported in the batch acknowledgement instead
+            newExchange.setException(null);
+            ack = nak(batchMessage, exception);
+        } else {
+            ack = ack(message.getBody());
+            if (ack == null || !"ACK".equals(MessageCharSequence.wrap(ack).getField("MSH-9-1"))) {
+                ack = nak(batchMessage, new HL7Exception("No acknowledgement returned", ErrorCode.APPLICATION_INTERNAL_ERROR));
+            }
+        }
+        if (ack == null) {
+            LOG.warn("Cannot acknowledge message {} of the batch", batchMessage.getIndex());
+        } else {
+            acknowledgement.add(batchMessage, ack);
+        }
+        return result;
+    }
+
+    @Override
+    public void onCompletion(Exchange exchange) {
+        if (exchange != null) {
+            var acknowledgement = exchange.getProperty(ACKNOWLEDGEMENT_PROPERTY, BatchAcknowledgement.class);
+            if (acknowledgement != null) {
+                exchange.removeProperty(ACKNOWLEDGEMENT_PROPERTY);
+                exchange.getMessage().removeHeader(HL7v2.BATCH_MESSAGE);
+                exchange.getMessage().setBody(acknowledgement.render());
+            }
+        }
+    }
+
+    private String nak(BatchMessage batchMessage, Exception exception) {
+        LOG.warn("Processing of message {} of the batch failed", batchMessage.getIndex(), exception);
+        var hl7e = new HL7Exception(
+                (exception.getMessage() != null) ? exception.getMessage() : exception.getClass().getName(),
+                (exception instanceof HL7Exception) ? ((HL7Exception) exception).getError() : ErrorCode.APPLICATION_INTERNAL_ERROR);
+        try {
+            return nakTemplate.render(batchMessage.getMessage(), AcknowledgmentCode.AE, hl7e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String ack(Object body) {
+        if (body instanceof Message) {
+            try {
+                return ((Message) body).encode();
+            } catch (HL7Exception e) {
+                throw new HL7v2Exception(e);
+            }
+        }
+        return (body instanceof CharSequence) ? body.toString() : null;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.hl7;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.apache.camel.InvalidPayloadException;
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.support.DefaultMessage;
+import org.apache.camel.support.ExchangeHelper;
+import org.openehealth.ipf.modules.hl7.batch.BatchReader;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * Expression that streams the messages of an HL7v2 batch file contained in the body.
+ * Each message is returned as Camel message with the encoded HL7 message as body and
+ * the {@link org.openehealth.ipf.modules.hl7.batch.BatchMessage} as {@link HL7v2#BATCH_MESSAGE} header.
+ */
+class BatchMessagesExpression implements Expression {
+
+    @Override
+    public <T> T evaluate(Exchange exchange, Class<T> type) {
+        try {
+            var body = exchange.getIn().getBody();
+            var reader = (body instanceof Reader) ?
+                    (Reader) body :
+                    new InputStreamReader(
+                            exchange.getIn().getMandatoryBody(InputStream.class),
+                            Charset.forName(ExchangeHelper.getCharsetName(exchange, true)));
+            return type.cast(new BatchMessageIterator(exchange, new BatchReader(reader)));
+        } catch (InvalidPayloadException e) {
+            throw new RuntimeCamelException(e);
+        }
+    }
+
+    private static final class BatchMessageIterator implements Iterator<org.apache.camel.Message>, Closeable {
+
+        private final Exchange exchange;
+        private final BatchReader reader;
+
+        private BatchMessageIterator(Exchange exchange, BatchReader reader) {
+            this.exchange = exchange;
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return reader.hasNext();
+        }
+
+        @Override
+        public org.apache.camel.Message next() {
+            var batchMessage = reader.next();
+            var message = new DefaultMessage(exchange.getContext());
+            message.setBody(batchMessage.getMessage());
+            message.setHeader(HL7v2.BATCH_MESSAGE, batchMessage);
+            return message;
+        }
+
+        @Override
+        public void close() {
+            reader.close();
+        }
+    }
+}
@@ -23,6 +23,7 @@ import ca.uhn.hl7v2.HapiContext;
 import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.parser.GenericParser;
 import ca.uhn.hl7v2.parser.Parser;
+import org.apache.camel.AggregationStrategy;
 import org.apache.camel.Exchange;
 import org.apache.camel.Expression;
 import org.apache.camel.Predicate;
@@ -40,6 +41,12 @@ import static java.util.Objects.requireNonNull;
  */
 public final class HL7v2 {
 
+    /**
+     * Name of the header containing the {@link org.openehealth.ipf.modules.hl7.batch.BatchMessage}
+     * of messages split by {@link #batchMessages()}
+     */
+    public static final String BATCH_MESSAGE = "CamelHl7BatchMessage";
+
     private static final Parser FALLBACK = new GenericParser();
 
     private HL7v2() {
@@ -102,6 +109,27 @@ public final class HL7v2 {
         return new ValueBuilder(new StaticResponseExpression(message));
     }
 
+    /**
+     * Returns an expression for splitting the HL7v2 batch file in the body into single messages
+     * without loading the whole file into memory. The split messages contain the encoded message
+     * as body and the enclosing batch header segments in the {@link #BATCH_MESSAGE} header.
+     *
+     * @return expression that streams the messages of an HL7v2 batch file
+     */
+    public static ValueBuilder batchMessages() {
+        return new ValueBuilder(new BatchMessagesExpression());
+    }
+
+    /**
+     * Returns an aggregation strategy for {@link #batchMessages()}, which renders the acknowledgements
+     * of the split messages into a batch acknowledgement ordered like the original messages.
+     *
+     * @return aggregation strategy for batch acknowledgements
+     */
+    public static AggregationStrategy batchAcknowledgement() {
+        return new BatchAcknowledgementAggregationStrategy();
+    }
+
     /**
      * Returns a validating Camel processor for a message. The actual validation rules
      * to be used is defined in the message's HapiContext. Unlike {@link #messageConforms()}, this processor
@@ -20,15 +20,57 @@ import ca.uhn.hl7v2.AcknowledgmentCode;
 import ca.uhn.hl7v2.ErrorCode;
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.model.Message;
+import org.apache.camel.Exchange;
 import org.apache.camel.RuntimeCamelException;
+import org.openehealth.ipf.modules.hl7.message.AckTemplate;
+import org.openehealth.ipf.platform.camel.core.util.Exchanges;
 
 /**
- *
+ * Creates an acknowledgement for the HL7 message in the exchange. If the message is still encoded,
+ * the acknowledgement is rendered by an {@link AckTemplate} without parsing the message, and the result
+ * body is the encoded acknowledgement as well.
  */
 public class AcknowledgementAdapter extends HapiAdapter {
 
+    @Override
+    protected void doProcess(Exchange exchange, Object inputData, Object... inputParams) throws Exception {
+        if (inputData instanceof String) {
+            var t = exchange.getProperty(Exchange.EXCEPTION_CAUGHT, Throwable.class);
+            var hl7e = generateHL7Exception(t, inputParams);
+            var parser = parser(exchange);
+            var parserConfiguration = parser.getParserConfiguration();
+            var ack = new AckTemplate(parserConfiguration.getIdGenerator(), parserConfiguration.getEscaping())
+                    .render((String) inputData, acknowledgementCode(t, inputParams), hl7e);
+            if (ack != null) {
+                Exchanges.prepareResult(exchange).setBody(ack);
+                return;
+            }
+        }
+        super.doProcess(exchange, inputData, inputParams);
+    }
+
     @Override
     protected Message doProcessMessage(Message message, Throwable t, Object... inputParams) {
+        try {
+            var hl7e = generateHL7Exception(t, inputParams);
+            return message.generateACK(acknowledgementCode(t, inputParams), hl7e);
+        } catch (Exception e) {
+            throw RuntimeCamelException.wrapRuntimeCamelException(e);
+        }
+
+    }
+
+    private static AcknowledgmentCode acknowledgementCode(Throwable t, Object... inputParams) {
+        var acknowledgementCode = inputParams != null && inputParams.length > 0 ?
+                (AcknowledgmentCode) inputParams[0] :
+                AcknowledgmentCode.AA;
+        if (t != null && acknowledgementCode == null) {
+            acknowledgementCode = AcknowledgmentCode.AE;
+        }
+        return acknowledgementCode == null ? AcknowledgmentCode.AA : acknowledgementCode;
+    }
+
+    private HL7Exception generateHL7Exception(Throwable t, Object... inputParams) {
         var acknowledgementCode = inputParams != null && inputParams.length > 0 ?
                 (AcknowledgmentCode) inputParams[0] :
                 AcknowledgmentCode.AA;
@@ -38,16 +80,7 @@ public class AcknowledgementAdapter extends HapiAdapter {
         var errorCode = inputParams != null && inputParams.length > 2 ?
                 (ErrorCode) inputParams[2] :
                 ErrorCode.APPLICATION_INTERNAL_ERROR;
-        try {
-            var hl7e = generateHL7Exception(t, acknowledgementCode, errorMessage, errorCode);
-            if (t != null && acknowledgementCode == null) {
-                acknowledgementCode = AcknowledgmentCode.AE;
-            }
-            return message.generateACK(acknowledgementCode == null ? AcknowledgmentCode.AA : acknowledgementCode, hl7e);
-        } catch (Exception e) {
-            throw RuntimeCamelException.wrapRuntimeCamelException(e);
-        }
-
+        return generateHL7Exception(t, acknowledgementCode, errorMessage, errorCode);
     }
 
     private HL7Exception generateHL7Exception(Throwable t, AcknowledgmentCode acknowledgementCode, String errorMessage, ErrorCode errorCode) {
@@ -51,9 +51,7 @@ public abstract class HapiAdapter extends ProcessorAdapter {
         if (inputData instanceof Message) {
             message = (Message)inputData;
         } else if (inputData instanceof String) {
-            var context = exchange.getIn().getHeader("CamelHL7Context", HapiContext.class);
-            var parser = context != null ? context.getGenericParser() : FALLBACK;
-            message = parser.parse((String)inputData);
+            message = parser(exchange).parse((String)inputData);
         } else {
             // try type conversion
             message = exchange.getIn().getBody(Message.class);
@@ -61,4 +59,12 @@ public abstract class HapiAdapter extends ProcessorAdapter {
         requireNonNull(message, "Exchange does not contain or can be converted to the required 'ca.uhn.hl7v2.model.Message' type");
         return message;
     }
+
+    /**
+     * @return parser of the HapiContext in the exchange header, or a generic default parser
+     */
+    protected static Parser parser(Exchange exchange) {
+        var context = exchange.getIn().getHeader("CamelHL7Context", HapiContext.class);
+        return context != null ? context.getGenericParser() : FALLBACK;
+    }
 }
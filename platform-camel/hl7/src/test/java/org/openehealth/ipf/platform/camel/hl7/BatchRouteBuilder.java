@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.hl7;
+
+import org.apache.camel.builder.RouteBuilder;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
+
+import static org.openehealth.ipf.platform.camel.hl7.HL7v2.ack;
+import static org.openehealth.ipf.platform.camel.hl7.HL7v2.batchAcknowledgement;
+import static org.openehealth.ipf.platform.camel.hl7.HL7v2.batchMessages;
+
+/**
+ * Route that splits an HL7v2 batch file and aggregates the acknowledgements
+ * into a batch acknowledgement.
+ */
+public class BatchRouteBuilder extends RouteBuilder {
+
+    @Override
+    public void configure() throws Exception {
+
+        from("direct:batch")
+                .split(batchMessages(), batchAcknowledgement()).streaming().parallelProcessing()
+                    .transform(ack())
+                .end()
+                .to("mock:output");
+
+        from("direct:batch-failing")
+                .split(batchMessages(), batchAcknowledgement()).streaming().parallelProcessing()
+                    .process(exchange -> {
+                        var message = MessageCharSequence.wrap(exchange.getIn().getBody(String.class));
+                        if ("5".equals(message.getField("MSH-10"))) {
+                            throw new IllegalStateException("Cannot process message 5");
+                        }
+                    })
+                    .transform(ack())
+                .end()
+                .to("mock:output");
+    }
+
+}
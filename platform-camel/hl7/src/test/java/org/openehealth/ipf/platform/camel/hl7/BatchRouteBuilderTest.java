@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.hl7;
+
+import org.junit.Test;
+import org.openehealth.ipf.platform.camel.hl7.extend.AbstractExtensionTest;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 4.1
+ */
+@ContextConfiguration(locations = { "/config/context-batch.xml" })
+public class BatchRouteBuilderTest extends AbstractExtensionTest {
+
+    @Test
+    public void testBatchAcknowledgement() throws Exception {
+        mockOutput.expectedMessageCount(1);
+        try (InputStream batch = getClass().getResourceAsStream("/message/batch-01.hl7")) {
+            producerTemplate.sendBody("direct:batch", batch);
+        }
+        mockOutput.assertIsSatisfied();
+
+        var segments = mockOutput.getExchanges().get(0).getIn().getBody(String.class).split("\r");
+        assertEquals(2 + 20 * 2 + 2, segments.length);
+        assertTrue(segments[0].startsWith("FHS|^~\\&|RCV|RCVFAC|SAP-ISH|HZL|"));
+        assertTrue(segments[0].endsWith("|F4711"));
+        assertTrue(segments[1].endsWith("|B4711"));
+        // acknowledgements are in the order of the original messages
+        for (var i = 1; i <= 20; ++i) {
+            assertTrue(segments[i * 2].startsWith("MSH|"));
+            assertEquals("MSA|AA|" + i, segments[i * 2 + 1]);
+        }
+        assertEquals("BTS|20", segments[42]);
+        assertEquals("FTS|1", segments[43]);
+    }
+
+    @Test
+    public void testNegativeAcknowledgementForFailedMessage() throws Exception {
+        mockOutput.expectedMessageCount(1);
+        try (InputStream batch = getClass().getResourceAsStream("/message/batch-01.hl7")) {
+            producerTemplate.sendBody("direct:batch-failing", batch);
+        }
+        mockOutput.assertIsSatisfied();
+
+        var exchange = mockOutput.getExchanges().get(0);
+        assertNull(exchange.getException());
+        var acknowledgements = Arrays.stream(exchange.getIn().getBody(String.class).split("\r"))
+                .filter(segment -> segment.startsWith("MSA|"))
+                .collect(Collectors.toList());
+        assertEquals(20, acknowledgements.size());
+        for (var i = 1; i <= 20; ++i) {
+            var acknowledgement = acknowledgements.get(i - 1);
+            if (i == 5) {
+                assertTrue(acknowledgement.startsWith("MSA|AE|5"));
+            } else {
+                assertEquals("MSA|AA|" + i, acknowledgement);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.hl7v2;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import org.apache.camel.Converter;
+import org.apache.camel.Exchange;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
+
+/**
+ * Camel type converters for HL7v2-based IPF components.
+ *
+ * @since 4.1
+ */
+@Converter(generateLoader = true)
+public class Hl7v2Converters {
+
+    @Converter
+    public static Message convert(OriginalMessageSnapshot in) {
+        return in.getMessage();
+    }
+
+    /**
+     * Parses a received message with the parser of the HL7v2 endpoint the exchange has been created by.
+     * The result is shared with the consumer interceptors, see {@link Hl7v2MarshalUtils#parse(Exchange, String, ca.uhn.hl7v2.parser.Parser)}.
+     */
+    @Converter
+    public static Message convert(MessageCharSequence in, Exchange exchange) throws HL7Exception {
+        var endpoint = (exchange != null) ? exchange.getFromEndpoint() : null;
+        if (!(endpoint instanceof HL7v2Endpoint)) {
+            return null;
+        }
+        var parser = ((HL7v2Endpoint<?>) endpoint).getHl7v2TransactionConfiguration().getParser();
+        return Hl7v2MarshalUtils.parse(exchange, in.toString(), parser);
+    }
+}
@@ -15,16 +15,25 @@
  */
 package org.openehealth.ipf.platform.camel.ihe.hl7v2;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.parser.Parser;
+import org.apache.camel.Exchange;
 import org.apache.camel.Message;
 import org.apache.camel.WrappedFile;
-import org.apache.camel.converter.IOConverter;
 
 
 /**
@@ -33,6 +42,30 @@ import org.apache.camel.converter.IOConverter;
  */
 public class Hl7v2MarshalUtils {
 
+    /**
+     * Name of the exchange property holding the last message parsed by {@link #parse(Exchange, String, Parser)}.
+     */
+    private static final String PARSED_MESSAGE_PROPERTY = "ipf.hl7v2.ParsedMessage";
+
+    private static final int CHUNK_SIZE = 8192;
+
+    // decoded bodies up to this size keep their character buffer for the next body decoded with the same buffers
+    private static final int MAX_POOLED_CHARS = 1024 * 1024;
+
+    // shared by all threads instead of one per thread, which would be one per virtual thread
+    private static final BlockingQueue<DecodingBuffers> DECODING_BUFFERS =
+            new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+
+    private static final class ParsedMessage {
+        private final String source;
+        private final ca.uhn.hl7v2.model.Message message;
+
+        private ParsedMessage(String source, ca.uhn.hl7v2.model.Message message) {
+            this.source = source;
+            this.message = message;
+        }
+    }
+
     private Hl7v2MarshalUtils() {
         throw new IllegalStateException("Cannot instantiate helper class");
     }
@@ -59,33 +92,119 @@ public class Hl7v2MarshalUtils {
         }
         
         String s = null;
-        if(body instanceof String) {
-            s = (String) body;
+        if(body instanceof CharSequence) {
+            // includes acknowledgements rendered from templates
+            s = body.toString();
         } else if(body instanceof ca.uhn.hl7v2.model.Message) {
             s = parser.encode((ca.uhn.hl7v2.model.Message) body);
         } else if(body instanceof File) {
-            s = readFile(body, charset);
+            s = readFile((File) body, charset);
         } else if(body instanceof WrappedFile<?>) {
             var file = ((WrappedFile<?>) body).getFile();
             if(file instanceof File) {
-                s = readFile(file, charset);
+                s = readFile((File) file, charset);
             }
-        } else {
-            // In standard Camel distribution this will concern  
-            // byte[], InputStream and ByteBuffer.
-            // See also: http://camel.apache.org/list-of-type-conversions.html
-            var bytes = message.getBody(byte[].class);
-            if(bytes != null) {
-                s = new String(bytes, charset);
+        } else if(body instanceof byte[]) {
+            s = new String((byte[]) body, charset);
+        } else if(body instanceof ByteBuffer) {
+            // decode the readable bytes without copying them into an intermediate array
+            s = Charset.forName(charset).decode(((ByteBuffer) body).duplicate()).toString();
+        } else if(body instanceof InputStream) {
+            try (var channel = Channels.newChannel((InputStream) body)) {
+                s = decode(channel, Charset.forName(charset), CHUNK_SIZE, false);
             }
         }
         return s;
     }
     
 
-    private static String readFile(Object file, String charset) throws Exception {
-        var bytes = IOConverter.toByteArray((File) file);
-        return new String(bytes, charset).replace('\n', '\r');
+    private static String readFile(File file, String charset) throws IOException {
+        try (var channel = FileChannel.open(file.toPath())) {
+            return decode(channel, Charset.forName(charset), channel.size(), true);
+        }
+    }
+
+
+    /**
+     * Streams the content of the given channel through pooled buffers
+     * and decodes it into a String, which is the only copy of the content created on the heap.
+     * Malformed input is replaced, as with {@link String#String(byte[], String)}.
+     */
+    private static String decode(ReadableByteChannel channel, Charset charset, long size, boolean replaceLineFeeds) throws IOException {
+        var decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        var buffers = DECODING_BUFFERS.poll();
+        if (buffers == null) {
+            buffers = new DecodingBuffers();
+        }
+        try {
+            return decode(channel, decoder, buffers, size, replaceLineFeeds);
+        } finally {
+            // surplus buffers are dropped when the pool is full
+            DECODING_BUFFERS.offer(buffers);
+        }
+    }
+
+
+    private static String decode(ReadableByteChannel channel, CharsetDecoder decoder, DecodingBuffers buffers,
+                                 long size, boolean replaceLineFeeds) throws IOException {
+        var bytes = buffers.bytes.clear();
+        var chars = buffers.chars((int) Math.min(size * (double) decoder.averageCharsPerByte() + 16, Integer.MAX_VALUE - 8));
+        var endOfInput = false;
+        while (!endOfInput) {
+            endOfInput = channel.read(bytes) < 0;
+            bytes.flip();
+            chars = decode(decoder, bytes, chars, endOfInput);
+            bytes.compact();
+        }
+        while (decoder.flush(chars).isOverflow()) {
+            chars = grow(chars);
+        }
+        chars.flip();
+        if (replaceLineFeeds) {
+            var array = chars.array();
+            for (var i = 0; i < chars.limit(); ++i) {
+                if (array[i] == '\n') {
+                    array[i] = '\r';
+                }
+            }
+        }
+        var result = chars.toString();
+        buffers.release(chars);
+        return result;
+    }
+
+
+    private static CharBuffer decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, boolean endOfInput) {
+        while (decoder.decode(bytes, chars, endOfInput).isOverflow()) {
+            chars = grow(chars);
+        }
+        return chars;
+    }
+
+
+    private static CharBuffer grow(CharBuffer chars) {
+        return CharBuffer.allocate(chars.capacity() * 2).put(chars.flip());
+    }
+
+
+    /**
+     * Byte and character buffers, used by one thread at a time.
+     */
+    private static final class DecodingBuffers {
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        private CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+
+        private CharBuffer chars(int capacity) {
+            return (chars.capacity() < capacity) ? CharBuffer.allocate(capacity) : chars.clear();
+        }
+
+        private void release(CharBuffer used) {
+            if (used.capacity() <= MAX_POOLED_CHARS) {
+                chars = used;
+            }
+        }
     }
     
     
@@ -99,26 +218,15 @@ public class Hl7v2MarshalUtils {
      *      by the HL7v2 adapter out-of-the-box, <code>false</code> otherwise.
      */
     public static boolean typeSupported(Object body) {
-        final var knownTypes = new Class<?>[] {
-            String.class,
-            ca.uhn.hl7v2.model.Message.class,
-            File.class,
-            InputStream.class,
-            java.nio.ByteBuffer.class,
-            byte[].class,
-            WrappedFile.class
-        };
-        
-        for(var type : knownTypes) {
-            try {
-                type.cast(body);
-                return true;
-            } catch (ClassCastException cce) {
-                // nop
-            }
-        }
-        
-        return false;
+        // null is castable to any type and has therefore always been regarded as supported
+        return (body == null)
+                || (body instanceof CharSequence)
+                || (body instanceof ca.uhn.hl7v2.model.Message)
+                || (body instanceof File)
+                || (body instanceof InputStream)
+                || (body instanceof ByteBuffer)
+                || (body instanceof byte[])
+                || (body instanceof WrappedFile);
     }
 
     
@@ -132,15 +240,22 @@ public class Hl7v2MarshalUtils {
             String charset, 
             boolean defragmentSegments) throws IOException 
     {
-        var stream = message.getBody(InputStream.class);
-        try (var br = new BufferedReader(new InputStreamReader(stream, charset))){
-            var s = IOConverter.toString(br);
-            s = s.replace('\n', '\r');
-            if (defragmentSegments) {
-                s = s.replace("\rADD" + s.charAt(3), "");
+        String s;
+        var body = message.getBody();
+        if (body instanceof CharSequence) {
+            // already decoded, e.g. by the Netty MLLP transport
+            s = body.toString();
+        } else {
+            var stream = message.getBody(InputStream.class);
+            try (var channel = Channels.newChannel(stream)) {
+                s = decode(channel, Charset.forName(charset), CHUNK_SIZE, false);
             }
-            return s;
         }
+        s = s.replace('\n', '\r');
+        if (defragmentSegments) {
+            s = s.replace("\rADD" + s.charAt(3), "");
+        }
+        return s;
     }
     
     
@@ -178,4 +293,29 @@ public class Hl7v2MarshalUtils {
         return msg;
     }
 
+
+    /**
+     * Parses the given request string, reusing the result of a previous invocation on the same exchange
+     * when the string is the same instance. This way, interceptors of a consumer chain which need the
+     * parsed request share a single parsing run.
+     * <p>
+     * The returned message is shared, callers which modify it must be aware of that. Interceptors
+     * placed after the marshalling interceptor should use the exchange body instead.
+     *
+     * @param exchange Camel exchange.
+     * @param s        request string.
+     * @param parser   HL7 parser.
+     * @return parsed message.
+     * @throws HL7Exception on parsing errors.
+     * @since 4.1
+     */
+    public static ca.uhn.hl7v2.model.Message parse(Exchange exchange, String s, Parser parser) throws HL7Exception {
+        var parsed = exchange.getProperty(PARSED_MESSAGE_PROPERTY, ParsedMessage.class);
+        if ((parsed != null) && (parsed.source == s)) {
+            return parsed.message;
+        }
+        var message = parser.parse(s);
+        exchange.setProperty(PARSED_MESSAGE_PROPERTY, new ParsedMessage(s, message));
+        return message;
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.hl7v2;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.Parser;
+import org.openehealth.ipf.modules.hl7.HL7v2Exception;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Lazily created snapshot of an original request message, stored in the Camel header
+ * {@link org.openehealth.ipf.commons.ihe.hl7v2.Constants#ORIGINAL_MESSAGE_SNAPSHOT_HEADER_NAME}.
+ * <p>
+ * The request message given to the route may be modified by route processors, therefore
+ * the snapshot must be independent of it. Instead of copying every request up front, the
+ * snapshot keeps the original request string and parses it when the message is actually
+ * requested for the first time. Most routes never access the original message, so the
+ * copy is avoided altogether.
+ * <p>
+ * The header {@link org.openehealth.ipf.commons.ihe.hl7v2.Constants#ORIGINAL_MESSAGE_ADAPTER_HEADER_NAME}
+ * still contains a {@link Message}, namely the {@link #asMessage() view} of the snapshot.
+ *
+ * @since 4.1
+ */
+public final class OriginalMessageSnapshot {
+
+    private final String messageString;
+    private final Parser parser;
+    private volatile Message message;
+
+    /**
+     * @param messageString original request message string, must be parseable by the given parser.
+     * @param parser        HL7 parser of the transaction.
+     */
+    public OriginalMessageSnapshot(String messageString, Parser parser) {
+        this.messageString = requireNonNull(messageString);
+        this.parser = requireNonNull(parser);
+    }
+
+    /**
+     * @return original request message, parsed on first access.
+     */
+    public Message getMessage() {
+        var result = message;
+        if (result == null) {
+            synchronized (this) {
+                result = message;
+                if (result == null) {
+                    try {
+                        result = parser.parse(messageString);
+                    } catch (HL7Exception e) {
+                        throw new HL7v2Exception(e);
+                    }
+                    message = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a {@link Message} which delegates all method invocations to the {@link #getMessage() original message},
+     * so that the message is parsed on the first invocation. The result is not an instance of the concrete
+     * message structure class, callers which need the latter shall use {@link #getMessage()}.
+     *
+     * @return view of the original request message.
+     */
+    public Message asMessage() {
+        return (Message) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class<?>[]{Message.class}, (proxy, method, args) -> {
+            if ("equals".equals(method.getName()) && method.getParameterCount() == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(method.getName()) && method.getParameterCount() == 0) {
+                return System.identityHashCode(proxy);
+            }
+            try {
+                return method.invoke(getMessage(), args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    /**
+     * @return <code>true</code> if the original message has already been parsed.
+     */
+    public boolean isParsed() {
+        return message != null;
+    }
+
+    /**
+     * @return original request message string.
+     */
+    public String getMessageString() {
+        return messageString;
+    }
+
+    @Override
+    public String toString() {
+        return messageString;
+    }
+}
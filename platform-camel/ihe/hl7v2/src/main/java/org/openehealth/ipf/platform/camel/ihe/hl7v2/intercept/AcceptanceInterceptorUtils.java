@@ -17,6 +17,7 @@ package org.openehealth.ipf.platform.camel.ihe.hl7v2.intercept;
 
 import ca.uhn.hl7v2.model.Message;
 import org.apache.camel.Exchange;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 import org.openehealth.ipf.platform.camel.core.util.Exchanges;
 import org.openehealth.ipf.platform.camel.ihe.core.InterceptorSupport;
 import org.openehealth.ipf.platform.camel.ihe.hl7v2.HL7v2Endpoint;
@@ -59,8 +60,13 @@ public class AcceptanceInterceptorUtils {
         // run the route
         interceptor.getWrappedProcessor().process(exchange);
 
-        // check output message
+        // check output message, rendered acknowledgements are checked without parsing them
         var config = interceptor.getEndpoint().getHl7v2TransactionConfiguration();
-        config.checkResponseAcceptance(Exchanges.resultMessage(exchange).getBody(Message.class));
+        var body = Exchanges.resultMessage(exchange).getBody();
+        if (body instanceof MessageCharSequence) {
+            config.checkResponseAcceptance((MessageCharSequence) body);
+        } else {
+            config.checkResponseAcceptance(Exchanges.resultMessage(exchange).getBody(Message.class));
+        }
     }
 }
@@ -21,6 +21,7 @@ import ca.uhn.hl7v2.model.Message;
 import org.apache.camel.Exchange;
 import org.apache.commons.lang3.ClassUtils;
 import org.openehealth.ipf.commons.ihe.hl7v2.Constants;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 import org.openehealth.ipf.platform.camel.core.util.Exchanges;
 import org.openehealth.ipf.platform.camel.ihe.core.InterceptorSupport;
 import org.openehealth.ipf.platform.camel.ihe.hl7v2.HL7v2Endpoint;
@@ -37,6 +38,11 @@ import static org.openehealth.ipf.platform.camel.core.util.Exchanges.resultMessa
 /**
  * Consumer-side Camel interceptor which creates a {@link Message}
  * from various possible response types.
+ * <p>
+ * Automatic acknowledgements which can be rendered from a template by the
+ * {@link org.openehealth.ipf.commons.ihe.hl7v2.NakFactory} are passed on as encoded
+ * {@link MessageCharSequence} without being parsed. Camel type conversion provides
+ * the corresponding {@link Message} when needed.
  *
  * @author Dmytro Rud
  */
@@ -72,12 +78,17 @@ public class ConsumerAdaptingInterceptor extends InterceptorSupport<HL7v2Endpoin
 
     
     /**
-     * Converts response to a {@link Message}, throws
+     * Converts response to a {@link Message} or a rendered {@link MessageCharSequence}, throws
      * a {@link org.openehealth.ipf.platform.camel.ihe.hl7v2.Hl7v2AdaptingException} on failure.
      */
     @Override
     public void process(Exchange exchange) throws Exception {
-        var originalMessage = exchange.getIn().getHeader(Constants.ORIGINAL_MESSAGE_ADAPTER_HEADER_NAME, Message.class);
+        // converted to a Message only when needed, see OriginalMessageSnapshot
+        var originalHeader = exchange.getIn().getHeader(Constants.ORIGINAL_MESSAGE_SNAPSHOT_HEADER_NAME);
+        if (originalHeader == null) {
+            originalHeader = exchange.getIn().getHeader(Constants.ORIGINAL_MESSAGE_ADAPTER_HEADER_NAME);
+        }
+        var originalString = exchange.getIn().getHeader(Constants.ORIGINAL_MESSAGE_STRING_HEADER_NAME, String.class);
 
         // run the route
         try {
@@ -88,29 +99,34 @@ public class ConsumerAdaptingInterceptor extends InterceptorSupport<HL7v2Endpoin
             }
         } catch (Exception e) {
             LOG.warn("Message processing failed", e);
-            resultMessage(exchange).setBody(getEndpoint().getNakFactory().createNak(originalMessage, e));
+            resultMessage(exchange).setBody(createNak(exchange, originalHeader, originalString, e));
         }
 
         var m = Exchanges.resultMessage(exchange);
         var body = m.getBody();
-
-        // try to convert route response from a known type
         if (charsetName != null) {
             exchange.setProperty(Exchange.CHARSET_NAME, charsetName);
         }
-        var msg = Hl7v2MarshalUtils.extractHapiMessage(
+
+        // acknowledgement rendered from a template, marshalled as it is
+        if (body instanceof MessageCharSequence) {
+            return;
+        }
+
+        // try to convert route response from a known type
+        Object msg = Hl7v2MarshalUtils.extractHapiMessage(
                 m,
                 characterSet(exchange),
                 getEndpoint().getHl7v2TransactionConfiguration().getParser());
         
         // additionally: an Exception in the body?
         if((msg == null) && (body instanceof Throwable)) {
-           msg = getEndpoint().getNakFactory().createNak(originalMessage, (Throwable) body);
+           msg = createNak(exchange, originalHeader, originalString, (Throwable) body);
         }
         
         // no known data type --> determine user's intention on the basis of a header 
         if(msg == null) {
-            msg = analyseMagicHeader(m, originalMessage);
+            msg = analyseMagicHeader(m, exchange, originalHeader, originalString);
         }
 
         // unable to create a Message :-(
@@ -128,26 +144,41 @@ public class ConsumerAdaptingInterceptor extends InterceptorSupport<HL7v2Endpoin
      * Considers a specific header to determine whether the route author want us to generate
      * an automatic acknowledgment, and generates the latter when the author really does.   
      */
-    private Message analyseMagicHeader(org.apache.camel.Message m, Message originalMessage) throws HL7Exception, IOException {
+    private Object analyseMagicHeader(org.apache.camel.Message m, Exchange exchange, Object originalHeader, String originalString) throws HL7Exception, IOException {
         var header = m.getHeader(ACK_TYPE_CODE_HEADER);
         if (!(header instanceof AcknowledgmentCode)) {
             return null;
         }
+        var nakFactory = getEndpoint().getNakFactory();
 
-        Message ack;
+        // render from a template when possible, this avoids parsing the original message
         if ((header == AcknowledgmentCode.AA) || (header == AcknowledgmentCode.CA)) {
-            ack = getEndpoint().getNakFactory().createAck(
-                    originalMessage);
+            var ack = nakFactory.renderAck(originalString);
+            return (ack != null) ?
+                    MessageCharSequence.wrap(ack) :
+                    nakFactory.createAck(originalMessage(exchange, originalHeader));
         } else {
             var exception = new HL7Exception(
                     "HL7v2 processing failed",
                     getEndpoint().getHl7v2TransactionConfiguration().getResponseErrorDefaultErrorCode());
-            ack = getEndpoint().getNakFactory().createNak(
-                    originalMessage,
-                    exception, 
-                    (AcknowledgmentCode) header);
+            var nak = nakFactory.renderNak(originalString, exception, (AcknowledgmentCode) header);
+            return (nak != null) ?
+                    MessageCharSequence.wrap(nak) :
+                    nakFactory.createNak(originalMessage(exchange, originalHeader), exception, (AcknowledgmentCode) header);
         }
-        return ack;
     }
 
+
+    private Object createNak(Exchange exchange, Object originalHeader, String originalString, Throwable t) throws HL7Exception, IOException {
+        var nakFactory = getEndpoint().getNakFactory();
+        var nak = nakFactory.renderNak(originalString, t);
+        return (nak != null) ?
+                MessageCharSequence.wrap(nak) :
+                nakFactory.createNak(originalMessage(exchange, originalHeader), t);
+    }
+
+
+    private static Message originalMessage(Exchange exchange, Object originalHeader) {
+        return exchange.getContext().getTypeConverter().convertTo(Message.class, exchange, originalHeader);
+    }
 }
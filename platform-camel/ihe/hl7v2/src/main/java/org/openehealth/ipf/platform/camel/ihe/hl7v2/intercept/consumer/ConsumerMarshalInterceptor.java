@@ -19,11 +19,11 @@ import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.model.Message;
 import org.apache.camel.Exchange;
 import org.openehealth.ipf.commons.ihe.hl7v2.Constants;
-import org.openehealth.ipf.modules.hl7.message.MessageUtils;
 import org.openehealth.ipf.platform.camel.ihe.core.InterceptorSupport;
 import org.openehealth.ipf.platform.camel.ihe.hl7v2.HL7v2Endpoint;
 import org.openehealth.ipf.platform.camel.ihe.hl7v2.Hl7v2AdaptingException;
 import org.openehealth.ipf.platform.camel.ihe.hl7v2.Hl7v2MarshalUtils;
+import org.openehealth.ipf.platform.camel.ihe.hl7v2.OriginalMessageSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,12 +52,13 @@ public class ConsumerMarshalInterceptor extends InterceptorSupport<HL7v2Endpoint
         var parser = getEndpoint().getHl7v2TransactionConfiguration().getParser();
 
         var inMessage = exchange.getIn();
-        var originalString = inMessage.getBody(String.class);
+        var body = inMessage.getBody();
+        var originalString = (body instanceof CharSequence) ? body.toString() : inMessage.getBody(String.class);
 
         // unmarshal
         var unmarshallingFailed = false;
         try {
-            originalMessage = parser.parse(originalString);
+            originalMessage = Hl7v2MarshalUtils.parse(exchange, originalString, parser);
         } catch (HL7Exception e) {
             unmarshallingFailed = true;
             LOG.error("Unmarshalling failed, message processing not possible", e);
@@ -66,18 +67,11 @@ public class ConsumerMarshalInterceptor extends InterceptorSupport<HL7v2Endpoint
         }
 
         if( ! unmarshallingFailed) {
-            // prepare exchange
-            Message copy;
-            try {
-
-                copy = MessageUtils.copy(originalMessage);
-            } catch (Exception e) {
-                // this exception will occur when the message structure (MSH-9-3) of
-                // the original adapter is wrong or when unknown segments are present
-                copy = originalMessage;
-            }
+            // prepare exchange, the copy of the original message will be parsed on demand
             inMessage.setBody(originalMessage);
-            inMessage.setHeader(Constants.ORIGINAL_MESSAGE_ADAPTER_HEADER_NAME, copy);
+            var snapshot = new OriginalMessageSnapshot(originalString, parser);
+            inMessage.setHeader(Constants.ORIGINAL_MESSAGE_SNAPSHOT_HEADER_NAME, snapshot);
+            inMessage.setHeader(Constants.ORIGINAL_MESSAGE_ADAPTER_HEADER_NAME, snapshot.asMessage());
             inMessage.setHeader(Constants.ORIGINAL_MESSAGE_STRING_HEADER_NAME, originalString);
 
             // run the route
@@ -87,8 +81,9 @@ public class ConsumerMarshalInterceptor extends InterceptorSupport<HL7v2Endpoint
                 throw mae;
             } catch (Exception e) {
                 LOG.error("Message processing failed", e);
-                resultMessage(exchange).setBody(
-                        getEndpoint().getNakFactory().createNak(originalMessage, e));
+                var nakFactory = getEndpoint().getNakFactory();
+                var nak = nakFactory.renderNak(originalString, e);
+                resultMessage(exchange).setBody((nak != null) ? nak : nakFactory.createNak(originalMessage, e));
             }
         }
         
@@ -24,20 +24,48 @@ import org.openehealth.ipf.platform.camel.ihe.core.InterceptorSupport;
 import org.openehealth.ipf.platform.camel.ihe.hl7v2.HL7v2Endpoint;
 
 /**
+ * Continues the trace propagated with the incoming message. By default, the trace context is
+ * extracted from the parsed message. When configured to work on encoded messages, the trace
+ * context is extracted from the message string before it is parsed.
+ *
  * @author Christian Ohr
  */
 public class ConsumerTracingInterceptor extends InterceptorSupport<HL7v2Endpoint> {
 
     private final MessageTracer messageTracer;
+    private final boolean encoded;
 
     public ConsumerTracingInterceptor(MessageTracer messageTracer) {
+        this(messageTracer, false);
+    }
+
+    /**
+     * @param messageTracer message tracer
+     * @param encoded       whether the trace context shall be extracted from the encoded message
+     * @since 4.1
+     */
+    public ConsumerTracingInterceptor(MessageTracer messageTracer, boolean encoded) {
         super();
         this.messageTracer = messageTracer;
-        addAfter(ConsumerMarshalInterceptor.class.getName());
+        this.encoded = encoded;
+        if (encoded) {
+            addBefore(ConsumerMarshalInterceptor.class.getName());
+        } else {
+            addAfter(ConsumerMarshalInterceptor.class.getName());
+        }
     }
 
     @Override
     public void process(Exchange exchange) throws Exception {
+        if (encoded) {
+            var body = exchange.getIn().getBody();
+            var msg = (body instanceof CharSequence) ? (CharSequence) body : exchange.getIn().getMandatoryBody(String.class);
+            messageTracer.receiveEncodedMessage(msg, getEndpoint().getEndpointUri(), (message, span) -> {
+                exchange.getIn().setBody(message);
+                getWrappedProcessor().process(exchange);
+            });
+            return;
+        }
         var msg = exchange.getIn().getMandatoryBody(Message.class);
         messageTracer.receiveMessage(msg, getEndpoint().getEndpointUri(), (message, span) ->
                 getWrappedProcessor().process(exchange));
@@ -45,14 +73,20 @@ public class ConsumerTracingInterceptor extends InterceptorSupport<HL7v2Endpoint
 
     public static class Factory implements InterceptorFactory<HL7v2Endpoint, ConsumerTracingInterceptor> {
         private final MessageTracer messageTracer;
+        private final boolean encoded;
 
         public Factory(MessageTracer messageTracer) {
+            this(messageTracer, false);
+        }
+
+        public Factory(MessageTracer messageTracer, boolean encoded) {
             this.messageTracer = messageTracer;
+            this.encoded = encoded;
         }
 
         @Override
         public ConsumerTracingInterceptor getNewInstance() {
-            return new ConsumerTracingInterceptor(messageTracer);
+            return new ConsumerTracingInterceptor(messageTracer, encoded);
         }
     }
 }
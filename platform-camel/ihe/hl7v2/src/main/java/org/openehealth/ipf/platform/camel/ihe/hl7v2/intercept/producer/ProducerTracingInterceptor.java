@@ -32,11 +32,24 @@ import org.openehealth.ipf.platform.camel.ihe.hl7v2.HL7v2Endpoint;
 public class ProducerTracingInterceptor extends InterceptorSupport<HL7v2Endpoint> {
 
     private final MessageTracer messageTracer;
+    private final boolean encoded;
 
     public ProducerTracingInterceptor(MessageTracer messageTracer) {
+        this(messageTracer, false);
+    }
+
+    /**
+     * @param messageTracer message tracer
+     * @param encoded       whether the trace context shall be appended to the encoded message
+     * @since 4.1
+     */
+    public ProducerTracingInterceptor(MessageTracer messageTracer, boolean encoded) {
         super();
         this.messageTracer = messageTracer;
-        addAfter(ProducerAdaptingInterceptor.class.getName());
+        this.encoded = encoded;
+        addAfter(encoded ?
+                ProducerMarshalInterceptor.class.getName() :
+                ProducerAdaptingInterceptor.class.getName());
     }
 
     /**
@@ -45,6 +58,14 @@ public class ProducerTracingInterceptor extends InterceptorSupport<HL7v2Endpoint
      */
     @Override
     public void process(Exchange exchange) throws Exception {
+        if (encoded) {
+            var msg = exchange.getIn().getMandatoryBody(String.class);
+            messageTracer.sendEncodedMessage(msg, getEndpoint().getEndpointUri(), (message, span) -> {
+                exchange.getIn().setBody(message.toString());
+                getWrappedProcessor().process(exchange);
+            });
+            return;
+        }
         var msg = exchange.getIn().getMandatoryBody(Message.class);
         messageTracer.sendMessage(msg, getEndpoint().getEndpointUri(), (message, span) -> {
             exchange.getIn().setBody(message, Message.class);
@@ -54,14 +75,20 @@ public class ProducerTracingInterceptor extends InterceptorSupport<HL7v2Endpoint
 
     public static class Factory implements InterceptorFactory<HL7v2Endpoint, ProducerTracingInterceptor> {
         private final MessageTracer messageTracer;
+        private final boolean encoded;
 
         public Factory(MessageTracer messageTracer) {
+            this(messageTracer, false);
+        }
+
+        public Factory(MessageTracer messageTracer, boolean encoded) {
             this.messageTracer = messageTracer;
+            this.encoded = encoded;
         }
 
         @Override
         public ProducerTracingInterceptor getNewInstance() {
-            return new ProducerTracingInterceptor(messageTracer);
+            return new ProducerTracingInterceptor(messageTracer, encoded);
         }
     }
 }
@@ -15,6 +15,9 @@
  */
 package org.openehealth.ipf.platform.camel.ihe.mllp.core;
 
+import org.openehealth.ipf.commons.ihe.hl7v2.definitions.HapiContextFactory;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -160,9 +163,24 @@ public class FragmentationUtils {
 
 
     /**
-     * Returns an unique value which can be used, for example, as an HL7v2 message ID.
+     * Returns an unique value which can be used, for example, as a continuation pointer.
+     * The value is a random UUID, i.e. neither guessable nor colliding between nodes.
      */
     public static String uniqueId() {
         return UUID.randomUUID().toString();
     }
+
+
+    /**
+     * Returns an unique HL7v2 message control ID (MSH-10) taken from the
+     * {@link HapiContextFactory#getIdGenerator() global ID generator};
+     * a random UUID is only used when the generator fails.
+     */
+    public static String messageControlId() {
+        try {
+            return HapiContextFactory.getIdGenerator().getID();
+        } catch (IOException e) {
+            return uniqueId();
+        }
+    }
 }
@@ -15,6 +15,7 @@
  */
 package org.openehealth.ipf.platform.camel.ihe.mllp.core;
 
+import org.apache.camel.api.management.ManagedAttribute;
 import org.apache.camel.component.mina.MinaEndpoint;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditDataset;
 import org.openehealth.ipf.platform.camel.ihe.core.Interceptor;
@@ -22,7 +23,9 @@ import org.openehealth.ipf.platform.camel.ihe.mllp.core.intercept.consumer.Consu
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.intercept.consumer.ConsumerStringProcessingInterceptor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * MLLP dispatching Camel endpoint.
@@ -31,6 +34,8 @@ import java.util.List;
  */
 public class MllpDispatchEndpoint extends MllpEndpoint<MllpDispatchEndpointConfiguration, MllpAuditDataset, MllpDispatchComponent> {
 
+    private ConsumerDispatchingInterceptor dispatcher;
+
     public MllpDispatchEndpoint(
             MllpDispatchComponent mllpComponent,
             MinaEndpoint wrappedEndpoint,
@@ -43,7 +48,7 @@ public class MllpDispatchEndpoint extends MllpEndpoint<MllpDispatchEndpointConfi
         List<Interceptor> initialChain = new ArrayList<>();
         initialChain.add(new ConsumerStringProcessingInterceptor());
 
-        var dispatcher = getConfig().getDispatcher();
+        dispatcher = getConfig().getDispatcher();
         if (dispatcher != null) {
             dispatcher.addTransactionRoutes(getConfig().getRoutes());
         } else {
@@ -59,4 +64,14 @@ public class MllpDispatchEndpoint extends MllpEndpoint<MllpDispatchEndpointConfi
         throw new IllegalStateException("No producer support for MLLP dispatch endpoints.");
     }
 
+    @ManagedAttribute(description = "Dispatched Messages per Route")
+    public Map<String, Long> getDispatchCounts() {
+        return (dispatcher != null) ? dispatcher.getDispatchCounts() : Collections.emptyMap();
+    }
+
+    @ManagedAttribute(description = "Undispatched Messages")
+    public long getUndispatchedCount() {
+        return (dispatcher != null) ? dispatcher.getUndispatchedCount() : 0L;
+    }
+
 }
@@ -72,6 +72,8 @@ public abstract class MllpEndpoint<
     @Getter(AccessLevel.PROTECTED)
     private final MinaEndpoint wrappedEndpoint;
 
+    private volatile NettyMllpConnectionPool connectionPool;
+
     /**
      * Constructor.
      *
@@ -102,9 +104,14 @@ public abstract class MllpEndpoint<
     /**
      * Returns the original camel-mina producer which will be wrapped
      * into a set of PIX/PDQ-specific interceptors in {@link #createProducer()}.
+     * When the Netty transport has been configured, a {@link NettyMllpProducer} using
+     * the connection pool of this endpoint is returned instead.
      */
     @Override
     public Producer doCreateProducer() throws Exception {
+        if (config.getTransport() == MllpTransport.NETTY) {
+            return new NettyMllpProducer(this);
+        }
         var producer = (MinaProducer) wrappedEndpoint.createProducer();
         if (config.getSslContext() != null) {
             var filterChain = producer.getFilterChain();
@@ -123,11 +130,15 @@ public abstract class MllpEndpoint<
     /**
      * Returns the original starting point of the camel-mina route which will be wrapped
      * into a set of PIX/PDQ-specific interceptors in {@link #createConsumer(Processor)}.
+     * When the Netty transport has been configured, a {@link NettyMllpConsumer} is returned instead.
      *
      * @param processor The original consumer processor.
      */
     @Override
     public Consumer doCreateConsumer(Processor processor) throws Exception {
+        if (config.getTransport() == MllpTransport.NETTY) {
+            return new NettyMllpConsumer(this, processor, this::auditHandshakeFailure);
+        }
         var consumer = (MinaConsumer) wrappedEndpoint.createConsumer(processor);
         if (config.getSslContext() != null) {
             var filterChain = consumer.getAcceptor().getFilterChain();
@@ -146,16 +157,48 @@ public abstract class MllpEndpoint<
     }
 
 
+    /**
+     * @return connection pool of the Netty transport, created on first use after the endpoint has been started
+     */
+    NettyMllpConnectionPool getConnectionPool() {
+        var pool = connectionPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = connectionPool;
+                if (pool == null) {
+                    pool = new NettyMllpConnectionPool(this, this::auditHandshakeFailure);
+                    connectionPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        synchronized (this) {
+            if (connectionPool != null) {
+                connectionPool.close();
+                connectionPool = null;
+            }
+        }
+        super.doStop();
+    }
+
+
     private class HandshakeFailureCallback implements HandshakeCallbackSSLFilter.Callback {
 
         @Override
         public void run(IoSession session, String message) {
-            if (config.isAudit()) {
-                var hostAddress = session.getRemoteAddress().toString();
-                var auditMessage = MllpAuditUtils.auditAuthenticationNodeFailure(
-                        config.getAuditContext(), message, hostAddress);
-                config.getAuditContext().audit(auditMessage);
-            }
+            auditHandshakeFailure(session.getRemoteAddress().toString(), message);
+        }
+    }
+
+    private void auditHandshakeFailure(String hostAddress, String message) {
+        if (config.isAudit()) {
+            var auditMessage = MllpAuditUtils.auditAuthenticationNodeFailure(
+                    config.getAuditContext(), message, hostAddress);
+            config.getAuditContext().audit(auditMessage);
         }
     }
 
@@ -252,6 +295,47 @@ public abstract class MllpEndpoint<
         return toStringArray(filters);
     }
 
+    @ManagedAttribute(description = "Transport")
+    public String getTransport() {
+        return config.getTransport().name();
+    }
+
+    @ManagedAttribute(description = "Virtual Threads Enabled")
+    public boolean isVirtualThreads() {
+        return config.isVirtualThreads();
+    }
+
+    @ManagedAttribute(description = "Ordering Lanes")
+    public int getOrderingLanes() {
+        return config.getOrderingLanes();
+    }
+
+    @ManagedAttribute(description = "Ordering High Water Mark")
+    public int getOrderingHighWaterMark() {
+        return config.getOrderingHighWaterMark();
+    }
+
+    @ManagedAttribute(description = "Connection Pool Size")
+    public int getConnectionPoolSize() {
+        return config.getConnectionPoolSize();
+    }
+
+    @ManagedAttribute(description = "Connection Idle Timeout")
+    public long getConnectionIdleTimeout() {
+        return config.getConnectionIdleTimeout();
+    }
+
+    @ManagedAttribute(description = "Pipelining Enabled")
+    public boolean isPipelining() {
+        return config.isPipelining();
+    }
+
+    @ManagedAttribute(description = "Leased Pooled Connections")
+    public synchronized int getLeasedConnections() {
+        var pool = connectionPool;
+        return (pool != null) ? pool.getAcquiredConnections() : 0;
+    }
+
     @ManagedAttribute(description = "SSL Secure Enabled")
     public boolean isSslSecure() {
         return getSslContext() != null;
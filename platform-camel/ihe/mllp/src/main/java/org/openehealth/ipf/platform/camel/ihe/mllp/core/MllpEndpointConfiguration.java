@@ -30,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLContext;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Configuration of an MLLP endpoint.
@@ -61,6 +62,27 @@ public class MllpEndpointConfiguration extends AuditableEndpointConfiguration {
     @Getter
     private final ConsumerDispatchingInterceptor dispatcher;
 
+    @Getter
+    private final MllpTransport transport;
+
+    @Getter
+    private final ExecutorService consumerExecutor;
+    @Getter
+    private final boolean virtualThreads;
+    @Getter
+    private final int orderingLanes;
+    @Getter
+    private final String[] orderingKey;
+    @Getter
+    private final int orderingHighWaterMark;
+
+    @Getter
+    private final int connectionPoolSize;
+    @Getter
+    private final long connectionIdleTimeout;
+    @Getter
+    private final boolean pipelining;
+
     protected MllpEndpointConfiguration(MllpComponent<?, ?> component, String uri, Map<String, Object> parameters) throws Exception {
         super(component, parameters);
         codecFactory = EndpointHelper.resolveReferenceParameter(component.getCamelContext(), (String)parameters.get("codec"), ProtocolCodecFactory.class);
@@ -124,6 +146,27 @@ public class MllpEndpointConfiguration extends AuditableEndpointConfiguration {
 
         dispatcher = component.resolveAndRemoveReferenceParameter(parameters, "dispatcher", ConsumerDispatchingInterceptor.class);
 
+        transport = component.getAndRemoveParameter(parameters, "transport", MllpTransport.class, MllpTransport.MINA);
+
+        // effective for Netty consumers only
+        consumerExecutor = component.resolveAndRemoveReferenceParameter(parameters, "consumerExecutor", ExecutorService.class);
+        virtualThreads = component.getAndRemoveParameter(parameters, "virtualThreads", boolean.class, false);
+        orderingLanes = component.getAndRemoveParameter(parameters, "orderingLanes", int.class, 0);
+        var orderingKeyString = component.getAndRemoveParameter(parameters, "orderingKey", String.class, "PID-3-1");
+        orderingKey = orderingKeyString.split("\\s*,\\s*");
+        orderingHighWaterMark = component.getAndRemoveParameter(parameters, "orderingHighWaterMark", int.class, 64);
+        if (orderingHighWaterMark <= 0) {
+            throw new IllegalArgumentException("Parameter orderingHighWaterMark must be positive");
+        }
+        if ((consumerExecutor != null || virtualThreads || orderingLanes > 0) && transport != MllpTransport.NETTY) {
+            LOG.warn("Parameters consumerExecutor, virtualThreads and orderingLanes are only effective with transport=netty, ignored for {}", uri);
+        }
+
+        // effective for Netty producers only
+        connectionPoolSize = component.getAndRemoveParameter(parameters, "connectionPoolSize", int.class, 1);
+        connectionIdleTimeout = component.getAndRemoveParameter(parameters, "connectionIdleTimeout", long.class, 0L);
+        pipelining = component.getAndRemoveParameter(parameters, "pipelining", boolean.class, false);
+
     }
 
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.mllp.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Netty decoder for MLLP frames (<tt>&lt;VT&gt;message&lt;FS&gt;&lt;CR&gt;</tt>).
+ * <p>
+ * Emits the message payload as a retained slice of the cumulation buffer, i.e. without
+ * copying the received bytes. Receivers are responsible for releasing the emitted buffers.
+ * Bytes received outside of a frame are discarded.
+ *
+ * @since 4.1
+ */
+public class MllpFrameDecoder extends ByteToMessageDecoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MllpFrameDecoder.class);
+
+    static final byte START_BYTE = 0x0b;
+    static final byte END_BYTE_1 = 0x1c;
+    static final byte END_BYTE_2 = 0x0d;
+
+    private final int maxFrameLength;
+
+    // offset relative to the frame start from which the search for the end byte is continued
+    private int scanOffset;
+
+    /**
+     * @param maxFrameLength maximal accepted payload length in bytes, non-positive values mean "unlimited"
+     */
+    public MllpFrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength > 0 ? maxFrameLength : Integer.MAX_VALUE;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        var start = in.indexOf(in.readerIndex(), in.writerIndex(), START_BYTE);
+        if (start < 0) {
+            if (in.isReadable()) {
+                LOG.debug("Discarding {} bytes received outside of an MLLP frame", in.readableBytes());
+                in.skipBytes(in.readableBytes());
+            }
+            scanOffset = 0;
+            return;
+        }
+        if (start > in.readerIndex()) {
+            LOG.debug("Discarding {} bytes received outside of an MLLP frame", start - in.readerIndex());
+            in.readerIndex(start);
+            scanOffset = 0;
+        }
+
+        // continue scanning where the previous invocation has stopped
+        var end = in.indexOf(start + 1 + scanOffset, in.writerIndex(), END_BYTE_1);
+        if (end < 0 || end + 1 >= in.writerIndex()) {
+            var scanned = (end < 0 ? in.writerIndex() : end) - start - 1;
+            if (scanned > maxFrameLength) {
+                in.skipBytes(in.readableBytes());
+                scanOffset = 0;
+                throw new TooLongFrameException("MLLP frame exceeds " + maxFrameLength + " bytes");
+            }
+            scanOffset = Math.max(0, scanned);
+            return;
+        }
+
+        scanOffset = 0;
+        out.add(in.retainedSlice(start + 1, end - start - 1));
+        in.readerIndex(in.getByte(end + 1) == END_BYTE_2 ? end + 2 : end + 1);
+    }
+}
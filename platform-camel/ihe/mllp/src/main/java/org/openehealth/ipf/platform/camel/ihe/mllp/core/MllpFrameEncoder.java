@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.mllp.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpFrameDecoder.*;
+
+/**
+ * Netty encoder which writes a character sequence as MLLP frame directly
+ * into a (pooled, direct) buffer sized up front. UTF-8 frames are sized exactly,
+ * frames in other character sets by the maximum number of bytes per character.
+ *
+ * @since 4.1
+ */
+@ChannelHandler.Sharable
+public class MllpFrameEncoder extends MessageToByteEncoder<CharSequence> {
+
+    private final Charset charset;
+    private final int maxBytesPerChar;
+    private final boolean utf8;
+
+    public MllpFrameEncoder(Charset charset) {
+        super(CharSequence.class);
+        this.charset = charset;
+        this.maxBytesPerChar = (int) Math.ceil(charset.newEncoder().maxBytesPerChar());
+        this.utf8 = StandardCharsets.UTF_8.equals(charset);
+    }
+
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, CharSequence msg, boolean preferDirect) {
+        var capacity = (utf8 ? ByteBufUtil.utf8Bytes(msg) : msg.length() * maxBytesPerChar) + 3;
+        return preferDirect ?
+                ctx.alloc().ioBuffer(capacity) :
+                ctx.alloc().heapBuffer(capacity);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, CharSequence msg, ByteBuf out) {
+        out.writeByte(START_BYTE);
+        out.writeCharSequence(msg, charset);
+        out.writeByte(END_BYTE_1);
+        out.writeByte(END_BYTE_2);
+    }
+}
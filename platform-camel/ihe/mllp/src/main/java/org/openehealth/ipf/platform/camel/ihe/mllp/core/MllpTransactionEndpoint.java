@@ -20,6 +20,7 @@ import org.apache.camel.component.mina.MinaEndpoint;
 import org.openehealth.ipf.commons.audit.AuditContext;
 import org.openehealth.ipf.commons.ihe.core.atna.AuditStrategy;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditDataset;
+import org.openehealth.ipf.commons.ihe.hl7v2.storage.IdempotentReceiverStorage;
 import org.openehealth.ipf.commons.ihe.hl7v2.storage.InteractiveContinuationStorage;
 import org.openehealth.ipf.commons.ihe.hl7v2.storage.UnsolicitedFragmentationStorage;
 import org.openehealth.ipf.platform.camel.ihe.atna.AuditableEndpoint;
@@ -67,6 +68,9 @@ public class MllpTransactionEndpoint<AuditDatasetType extends MllpAuditDataset>
         List<Interceptor> initialChain = new ArrayList<>();
         initialChain.add(new ConsumerRequestInteractionSetterInterceptor());
         initialChain.add(new ConsumerStringProcessingInterceptor());
+        if (isIdempotentReceiver()) {
+            initialChain.add(new ConsumerIdempotentReceiverInterceptor());
+        }
         if (isSupportUnsolicitedFragmentation()) {
             initialChain.add(new ConsumerRequestDefragmenterInterceptor());
         }
@@ -120,6 +124,17 @@ public class MllpTransactionEndpoint<AuditDatasetType extends MllpAuditDataset>
         return getAuditContext().isAuditEnabled();
     }
 
+    /**
+     * Returns <code>true</code> when audit datasets shall be filled from the encoded
+     * request messages instead of walking the HAPI object model.
+     * All audit strategies of the endpoint's component must support this.
+     * Only consumers use the encoded messages, producers always walk the object model.
+     */
+    @ManagedAttribute(description = "Raw Audit Enabled")
+    public boolean isRawAudit() {
+        return getConfig().isRawAudit();
+    }
+
     @Override
     public AuditStrategy<AuditDatasetType> getClientAuditStrategy() {
         return getMllpComponent().getClientAuditStrategy();
@@ -189,6 +204,16 @@ public class MllpTransactionEndpoint<AuditDatasetType extends MllpAuditDataset>
         return getConfig().getInteractiveContinuationStorage();
     }
 
+    /**
+     * Returns <code>true</code> if the complete response should be kept in the interactive
+     * continuation storage as encoded string, with fragments being created on demand
+     * (relevant on consumer side only). Otherwise, all fragments are created up front.
+     */
+    @ManagedAttribute(description = "Interactive Continuation Lazy Fragments Enabled")
+    public boolean isInteractiveContinuationLazyFragments() {
+        return getConfig().isInteractiveContinuationLazyFragments();
+    }
+
     /**
      * Returns true, when the producer should automatically send a cancel
      * message after it has collected all interactive continuation pieces.
@@ -204,4 +229,26 @@ public class MllpTransactionEndpoint<AuditDatasetType extends MllpAuditDataset>
                 getInteractiveContinuationStorage().getClass().getName() : "";
     }
 
+    /**
+     * Returns <code>true</code> if duplicates of already acknowledged requests shall be answered
+     * with the stored acknowledgement instead of being processed again (relevant on consumer side only).
+     */
+    @ManagedAttribute(description = "Idempotent Receiver Enabled")
+    public boolean isIdempotentReceiver() {
+        return getIdempotentReceiverStorage() != null;
+    }
+
+    /**
+     * Returns the idempotent receiver storage bean.
+     */
+    public IdempotentReceiverStorage getIdempotentReceiverStorage() {
+        return getConfig().getIdempotentReceiverStorage();
+    }
+
+    @ManagedAttribute(description = "Idempotent Receiver Storage Cache Type")
+    public String getIdempotentReceiverStorageType() {
+        return isIdempotentReceiver() ?
+                getIdempotentReceiverStorage().getClass().getName() : "";
+    }
+
 }
@@ -21,6 +21,7 @@ import lombok.Getter;
 import java.util.Map;
 
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditDataset;
+import org.openehealth.ipf.commons.ihe.hl7v2.storage.IdempotentReceiverStorage;
 import org.openehealth.ipf.commons.ihe.hl7v2.storage.UnsolicitedFragmentationStorage;
 import org.openehealth.ipf.commons.ihe.hl7v2.storage.InteractiveContinuationStorage;
 
@@ -38,8 +39,13 @@ public class MllpTransactionEndpointConfiguration extends MllpEndpointConfigurat
     @Getter private final boolean supportInteractiveContinuation;
     @Getter private final int interactiveContinuationDefaultThreshold;
     @Getter private final InteractiveContinuationStorage interactiveContinuationStorage;
+    @Getter private final boolean interactiveContinuationLazyFragments;
     @Getter private final boolean autoCancel;
 
+    @Getter private final boolean rawAudit;
+
+    @Getter private final IdempotentReceiverStorage idempotentReceiverStorage;
+
 
     protected MllpTransactionEndpointConfiguration(MllpComponent<MllpTransactionEndpointConfiguration, ? extends MllpAuditDataset> component, String uri, Map<String, Object> parameters) throws Exception {
         super(component, uri, parameters);
@@ -63,8 +69,17 @@ public class MllpTransactionEndpointConfiguration extends MllpEndpointConfigurat
                         parameters,
                         "interactiveContinuationStorage",
                         InteractiveContinuationStorage.class);
+        interactiveContinuationLazyFragments = component.getAndRemoveParameter(
+                parameters, "interactiveContinuationLazyFragments", boolean.class, false);
 
         autoCancel = component.getAndRemoveParameter(parameters, "autoCancel", boolean.class, false);
+
+        rawAudit = component.getAndRemoveParameter(parameters, "rawAudit", boolean.class, false);
+
+        idempotentReceiverStorage = component.resolveAndRemoveReferenceParameter(
+                parameters,
+                "idempotentReceiverStorage",
+                IdempotentReceiverStorage.class);
     }
 
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.mllp.core;
+
+/**
+ * Network transport used by MLLP endpoints. Can be selected using the
+ * endpoint URI parameter <code>transport</code>, e.g.
+ * <code>pix-iti8://0.0.0.0:8888?transport=netty</code>.
+ *
+ * @since 4.1
+ */
+public enum MllpTransport {
+
+    /**
+     * camel-mina based transport, the default.
+     */
+    MINA,
+
+    /**
+     * Netty based transport using pooled direct buffers and native MLLP framing.
+     * Uses epoll when available on the current platform. Producers lease persistent connections
+     * from a pool, see the endpoint parameters <code>connectionPoolSize</code>,
+     * <code>connectionIdleTimeout</code> and <code>pipelining</code>.
+     */
+    NETTY
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.mllp.core;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Pool of persistent Netty connections to the destination of an MLLP endpoint, shared by all
+ * {@link NettyMllpProducer}s of this endpoint.
+ * <p>
+ * The pool opens at most <code>connectionPoolSize</code> connections. Connections are checked
+ * for being active when they are leased, and closed when they have been idle for longer than
+ * <code>connectionIdleTimeout</code> milliseconds.
+ * <p>
+ * Without pipelining, a connection is leased exclusively for one request/response round trip.
+ * With pipelining, the connection is given back to the pool as soon as the request has been written,
+ * so that further requests can be sent over it before the response has arrived. Responses are then
+ * correlated with requests by comparing MSA-2 with the MSH-10 of the request, which requires that
+ * the receiver supports pipelining and that the control IDs of messages in flight are unique.
+ *
+ * @since 4.1
+ */
+public class NettyMllpConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NettyMllpConnectionPool.class);
+
+    private static final String SINGLE_REQUEST_KEY = "";
+
+    private final Charset charset;
+    private final InetSocketAddress address;
+    private final long timeout;
+    private final boolean pipelining;
+    private final boolean disconnect;
+    private final EventLoopGroup eventLoopGroup;
+    private final FixedChannelPool channelPool;
+
+    /**
+     * @param endpoint                 MLLP endpoint
+     * @param handshakeFailureCallback called with remote host address and error message on TLS handshake failures
+     */
+    NettyMllpConnectionPool(MllpEndpoint<?, ?, ?> endpoint, BiConsumer<String, String> handshakeFailureCallback) {
+        var configuration = endpoint.getConfiguration();
+        var mllpConfiguration = endpoint.getConfig();
+        this.charset = Charset.forName(configuration.getCharsetName());
+        this.timeout = configuration.getTimeout();
+        this.disconnect = configuration.isDisconnect();
+        this.pipelining = mllpConfiguration.isPipelining() && !disconnect;
+        var encoder = new MllpFrameEncoder(charset);
+        var idleTimeout = mllpConfiguration.getConnectionIdleTimeout();
+        this.address = InetSocketAddress.createUnresolved(configuration.getHost(), configuration.getPort());
+
+        eventLoopGroup = NettyTransports.eventLoopGroup(0, "mllp-client");
+        var bootstrap = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(NettyTransports.channelClass())
+                .remoteAddress(configuration.getHost(), configuration.getPort())
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) Math.min(timeout, Integer.MAX_VALUE));
+
+        channelPool = new FixedChannelPool(
+                bootstrap,
+                new AbstractChannelPoolHandler() {
+                    @Override
+                    public void channelCreated(Channel channel) {
+                        LOG.debug("Opening pooled MLLP connection to {}", address);
+                        var pipeline = channel.pipeline();
+                        var sslContext = mllpConfiguration.getSslContext();
+                        if (sslContext != null) {
+                            pipeline.addLast("ssl", createSslHandler(sslContext, mllpConfiguration, address, handshakeFailureCallback));
+                        }
+                        if (idleTimeout > 0) {
+                            pipeline.addLast("idle", new IdleStateHandler(0, 0, idleTimeout, TimeUnit.MILLISECONDS));
+                        }
+                        pipeline.addLast("decoder", new MllpFrameDecoder(0));
+                        pipeline.addLast("encoder", encoder);
+                        pipeline.addLast("handler", new MllpProducerHandler());
+                    }
+                },
+                ChannelHealthChecker.ACTIVE,
+                FixedChannelPool.AcquireTimeoutAction.FAIL,
+                timeout,
+                mllpConfiguration.getConnectionPoolSize(),
+                Integer.MAX_VALUE,
+                true);
+    }
+
+    private static SslHandler createSslHandler(
+            SSLContext sslContext,
+            MllpEndpointConfiguration configuration,
+            InetSocketAddress address,
+            BiConsumer<String, String> handshakeFailureCallback)
+    {
+        var engine = sslContext.createSSLEngine(address.getHostString(), address.getPort());
+        engine.setUseClientMode(true);
+        if (configuration.getSslProtocols() != null) {
+            engine.setEnabledProtocols(configuration.getSslProtocols());
+        }
+        if (configuration.getSslCiphers() != null) {
+            engine.setEnabledCipherSuites(configuration.getSslCiphers());
+        }
+        var sslHandler = new SslHandler(engine);
+        sslHandler.handshakeFuture().addListener(future -> {
+            if (future.cause() instanceof SSLHandshakeException) {
+                handshakeFailureCallback.accept(address.getHostString(), future.cause().getMessage());
+            }
+        });
+        return sslHandler;
+    }
+
+
+    /**
+     * Sends the given request over a pooled connection and waits for the response.
+     *
+     * @param request HL7 v2 request message
+     * @return HL7 v2 response message
+     */
+    public String send(String request) throws Exception {
+        var key = pipelining ? MessageCharSequence.wrap(request).getField("MSH-10") : SINGLE_REQUEST_KEY;
+        if (key == null || (pipelining && key.isEmpty())) {
+            throw new IllegalArgumentException("Pipelined requests must contain a control ID in MSH-10");
+        }
+        var acquired = channelPool.acquire();
+        if (!acquired.await(timeout, TimeUnit.MILLISECONDS)) {
+            // give back a connection which is acquired too late
+            acquired.addListener(future -> {
+                if (future.isSuccess()) {
+                    channelPool.release(acquired.getNow());
+                }
+            });
+            throw new TimeoutException("No connection to " + address + " acquired within " + timeout + " ms");
+        }
+        if (!acquired.isSuccess()) {
+            throw (acquired.cause() instanceof Exception) ? (Exception) acquired.cause() : new ExecutionException(acquired.cause());
+        }
+        var channel = acquired.getNow();
+        var handler = channel.pipeline().get(MllpProducerHandler.class);
+        var responseFuture = new CompletableFuture<String>();
+        var released = false;
+        try {
+            if (handler.pending.putIfAbsent(key, responseFuture) != null) {
+                throw new IllegalStateException("A message with control ID " + key + " is already in flight on " + channel);
+            }
+            channel.writeAndFlush(request).addListener(future -> {
+                if (!future.isSuccess()) {
+                    responseFuture.completeExceptionally(future.cause());
+                }
+            });
+            if (pipelining) {
+                channelPool.release(channel);
+                released = true;
+            }
+            try {
+                return responseFuture.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // the connection state is unknown, a late response must not be taken for the next one
+                if (!pipelining) {
+                    channel.close();
+                }
+                throw new TimeoutException("No response received from " + channel.remoteAddress() + " within " + timeout + " ms");
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            }
+        } finally {
+            handler.pending.remove(key, responseFuture);
+            if (!released) {
+                if (disconnect) {
+                    channel.close();
+                }
+                channelPool.release(channel);
+            }
+        }
+    }
+
+    /**
+     * @return number of connections currently leased from the pool.
+     */
+    public int getAcquiredConnections() {
+        return channelPool.acquiredChannelCount();
+    }
+
+    /**
+     * @return <code>true</code> if requests are pipelined over pooled connections.
+     */
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * Closes all pooled connections and releases network resources.
+     */
+    void close() {
+        channelPool.close();
+        if (!eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).awaitUninterruptibly(5000)) {
+            LOG.warn("Could not shut down Netty event loop group, producer may hang");
+        }
+    }
+
+
+    /**
+     * Completes pending requests of one connection with the received responses.
+     */
+    private class MllpProducerHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private final Map<String, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            var response = frame.toString(charset);
+            var key = pipelining ? MessageCharSequence.wrap(response).getField("MSA-2") : SINGLE_REQUEST_KEY;
+            var responseFuture = (key != null) ? pending.remove(key) : null;
+            if (responseFuture != null) {
+                responseFuture.complete(response);
+            } else {
+                LOG.warn("Discarding unexpected response on {}, correlation key {}", ctx.channel(), key);
+            }
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object event) throws Exception {
+            if (event instanceof IdleStateEvent && pending.isEmpty()) {
+                LOG.debug("Closing idle pooled MLLP connection {}", ctx.channel());
+                ctx.close();
+            }
+            super.userEventTriggered(ctx, event);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            failPending(new IOException("Connection " + ctx.channel() + " has been closed"));
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOG.debug("Exception on pooled MLLP connection {}", ctx.channel(), cause);
+            failPending(cause);
+            ctx.close();
+        }
+
+        private void failPending(Throwable cause) {
+            pending.values().forEach(future -> future.completeExceptionally(cause));
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.mllp.core;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.apache.camel.CamelException;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.component.mina.MinaConstants;
+import org.apache.camel.support.DefaultConsumer;
+import org.openehealth.ipf.commons.ihe.core.ClientAuthType;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static java.util.Objects.requireNonNull;
+import static org.openehealth.ipf.platform.camel.core.util.Exchanges.resultMessage;
+
+/**
+ * Netty-based MLLP consumer, an alternative to the camel-mina one wrapped by {@link MllpConsumer}.
+ * <p>
+ * Received frames are decoded by {@link MllpFrameDecoder} into pooled direct buffers and handed
+ * over to the interceptor chain of the endpoint as {@link MessageCharSequence} without copying.
+ * Interceptors can look up single fields from this view, the String representation needed for
+ * parsing is created only once.
+ * Route processing happens on a separate executor group (sized by the endpoint parameter
+ * <code>maximumPoolSize</code>), which preserves the order of messages received on a connection.
+ * Alternatively, frames can be handed over to a custom executor (endpoint parameter
+ * <code>consumerExecutor</code>) or, on Java 21 and newer, to a virtual-thread-per-message executor
+ * (endpoint parameter <code>virtualThreads=true</code>). In this case, frames of one connection
+ * are processed one after another as well, so that responses are sent in the order of requests,
+ * but a blocking route does not occupy a platform thread while waiting.
+ * <p>
+ * With the endpoint parameter <code>orderingLanes</code>, frames are instead distributed over
+ * the given number of {@link PartitionedExecutor ordered lanes} by the value of the first non-empty
+ * field listed in the endpoint parameter <code>orderingKey</code> (<code>PID-3-1</code> by default).
+ * Messages concerning the same patient are thereby processed in order, also when they arrive over
+ * different connections, while messages concerning different patients are processed concurrently.
+ * Messages without any of these fields are processed on the lane of their connection.
+ * Responses are still sent in the order of requests on each connection. When the number of
+ * pending requests of a connection reaches the endpoint parameter <code>orderingHighWaterMark</code>
+ * (64 by default), reading from this connection is suspended until half of them have been answered.
+ * <p>
+ * In all cases, routes receive the parsed HAPI message as body, as with camel-mina. Interceptors
+ * placed before the marshalling interceptor see the {@link MessageCharSequence} view, which can
+ * be read by several threads and converted to a HAPI message by Camel type conversion. The view is
+ * detached from the frame before the frame is released, so it remains valid when the exchange is
+ * handed over to other threads.
+ * <p>
+ * Local and remote addresses are provided in the same Camel message headers as with camel-mina,
+ * so that auditing works regardless of the selected transport.
+ *
+ * @since 4.1
+ */
+public class NettyMllpConsumer extends DefaultConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NettyMllpConsumer.class);
+
+    /**
+     * Camel message header containing the {@link javax.net.ssl.SSLSession} of secure connections.
+     */
+    public static final String SSL_SESSION_HEADER = "CamelMllpSslSession";
+
+    private final MllpEndpoint<?, ?, ?> mllpEndpoint;
+    private final BiConsumer<String, String> handshakeFailureCallback;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private EventExecutorGroup executorGroup;
+    private Executor executor;
+    private ExecutorService ownedExecutor;
+    private PartitionedExecutor lanes;
+    private String[] orderingKey;
+    private int orderingHighWaterMark;
+    private Channel serverChannel;
+    private ChannelGroup childChannels;
+    private Charset charset;
+
+    /**
+     * @param endpoint                 MLLP endpoint
+     * @param processor                first processor of the consumer interceptor chain
+     * @param handshakeFailureCallback called with remote host address and error message on TLS handshake failures
+     */
+    NettyMllpConsumer(MllpEndpoint<?, ?, ?> endpoint, Processor processor, BiConsumer<String, String> handshakeFailureCallback) {
+        super(endpoint, processor);
+        this.mllpEndpoint = requireNonNull(endpoint);
+        this.handshakeFailureCallback = requireNonNull(handshakeFailureCallback);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        var configuration = mllpEndpoint.getConfiguration();
+        charset = Charset.forName(configuration.getCharsetName());
+        var encoder = new MllpFrameEncoder(charset);
+        childChannels = new DefaultChannelGroup("mllp-connections", GlobalEventExecutor.INSTANCE);
+
+        bossGroup = NettyTransports.eventLoopGroup(1, "mllp-boss");
+        workerGroup = NettyTransports.eventLoopGroup(0, "mllp-io");
+        var mllpConfiguration = mllpEndpoint.getConfig();
+        if (mllpConfiguration.isVirtualThreads()) {
+            ownedExecutor = newVirtualThreadPerTaskExecutor();
+            executor = ownedExecutor;
+        } else if (mllpConfiguration.getConsumerExecutor() != null) {
+            executor = mllpConfiguration.getConsumerExecutor();
+        } else if (mllpConfiguration.getOrderingLanes() > 0) {
+            ownedExecutor = Executors.newFixedThreadPool(
+                    mllpConfiguration.getOrderingLanes(),
+                    new DefaultThreadFactory("mllp-lane", true));
+            executor = ownedExecutor;
+        } else {
+            executorGroup = new DefaultEventExecutorGroup(
+                    configuration.getMaximumPoolSize(),
+                    new DefaultThreadFactory("mllp-consumer", true));
+        }
+        if (mllpConfiguration.getOrderingLanes() > 0) {
+            lanes = new PartitionedExecutor(executor, mllpConfiguration.getOrderingLanes());
+            orderingKey = mllpConfiguration.getOrderingKey();
+            orderingHighWaterMark = mllpConfiguration.getOrderingHighWaterMark();
+        }
+
+        var bootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NettyTransports.serverChannelClass())
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        childChannels.add(channel);
+                        var pipeline = channel.pipeline();
+                        var sslContext = mllpEndpoint.getSslContext();
+                        if (sslContext != null) {
+                            pipeline.addLast("ssl", createSslHandler(sslContext, channel));
+                        }
+                        pipeline.addLast("decoder", new MllpFrameDecoder(0));
+                        pipeline.addLast("encoder", encoder);
+                        if (lanes != null) {
+                            pipeline.addLast("handler", new MllpConsumerHandler(null));
+                        } else if (executor != null) {
+                            pipeline.addLast("handler", new MllpConsumerHandler(new OrderedExecutor(executor)));
+                        } else {
+                            pipeline.addLast(executorGroup, "handler", new MllpConsumerHandler(null));
+                        }
+                    }
+                });
+
+        serverChannel = bootstrap.bind(configuration.getHost(), configuration.getPort()).sync().channel();
+        LOG.info("Netty MLLP consumer listening on {} ({} transport)",
+                serverChannel.localAddress(), NettyTransports.isEpoll() ? "epoll" : "nio");
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+            serverChannel = null;
+        }
+        // close open connections while the event loops are still running
+        if (childChannels != null) {
+            childChannels.close().awaitUninterruptibly(5000);
+            childChannels = null;
+        }
+        shutdown(bossGroup);
+        shutdown(workerGroup);
+        shutdown(executorGroup);
+        executorGroup = null;
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+            if (!ownedExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOG.warn("Could not shut down virtual thread executor, consumer may hang");
+            }
+            ownedExecutor = null;
+        }
+        executor = null;
+        lanes = null;
+        super.doStop();
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor, which is available on Java 21 and newer.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            var method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not supported by Java " +
+                    System.getProperty("java.version") + ", use the parameter consumerExecutor instead", e);
+        }
+    }
+
+    private static void shutdown(EventExecutorGroup group) {
+        if (group != null && !group.shutdownGracefully(0, 1, TimeUnit.SECONDS).awaitUninterruptibly(5000)) {
+            LOG.warn("Could not shut down Netty executor group, consumer may hang");
+        }
+    }
+
+    private SslHandler createSslHandler(SSLContext sslContext, Channel channel) {
+        var engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        var clientAuthType = mllpEndpoint.getClientAuthType();
+        engine.setNeedClientAuth(clientAuthType == ClientAuthType.MUST);
+        engine.setWantClientAuth(clientAuthType == ClientAuthType.WANT);
+        if (mllpEndpoint.getSslProtocols() != null) {
+            engine.setEnabledProtocols(mllpEndpoint.getSslProtocols());
+        }
+        if (mllpEndpoint.getSslCiphers() != null) {
+            engine.setEnabledCipherSuites(mllpEndpoint.getSslCiphers());
+        }
+        var sslHandler = new SslHandler(engine);
+        sslHandler.handshakeFuture().addListener(future -> {
+            if (future.cause() instanceof SSLHandshakeException) {
+                handshakeFailureCallback.accept(hostAddress(channel), future.cause().getMessage());
+            }
+        });
+        return sslHandler;
+    }
+
+    private static String hostAddress(Channel channel) {
+        var address = channel.remoteAddress();
+        return address instanceof InetSocketAddress ?
+                ((InetSocketAddress) address).getAddress().getHostAddress() :
+                String.valueOf(address);
+    }
+
+
+    /**
+     * Passes each decoded frame through the interceptor chain and writes back the response.
+     */
+    private class MllpConsumerHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        // null when the handler itself runs on the executor group, or when ordering lanes are used
+        private final Executor connectionExecutor;
+
+        // completes when the response to the latest request has been sent, used with ordering lanes only
+        private CompletableFuture<Void> lastResponse = CompletableFuture.completedFuture(null);
+
+        // number of requests not answered yet, used with ordering lanes only
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private MllpConsumerHandler(Executor connectionExecutor) {
+            this.connectionExecutor = connectionExecutor;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            if (lanes != null) {
+                processOnLane(ctx, frame);
+                return;
+            }
+            if (connectionExecutor == null) {
+                process(ctx, frame);
+                return;
+            }
+            frame.retain();
+            try {
+                connectionExecutor.execute(() -> {
+                    try {
+                        process(ctx, frame);
+                    } finally {
+                        frame.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                frame.release();
+                throw e;
+            }
+        }
+
+        private void processOnLane(ChannelHandlerContext ctx, ByteBuf frame) {
+            var processed = new CompletableFuture<Exchange>();
+            var key = orderingKey(frame);
+            frame.retain();
+            try {
+                lanes.execute(key != null ? key : ctx.channel().id(), () -> {
+                    try {
+                        processed.complete(processFrame(ctx, frame));
+                    } catch (RuntimeException e) {
+                        processed.completeExceptionally(e);
+                    } finally {
+                        frame.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                frame.release();
+                throw e;
+            }
+            // lane queues are shared by all connections, stop reading when this one is too far ahead
+            if (pending.incrementAndGet() >= orderingHighWaterMark) {
+                ctx.channel().config().setAutoRead(false);
+            }
+            // lanes may complete out of order, but responses must be sent in the order of requests
+            lastResponse = lastResponse
+                    .thenCombine(processed, (ignored, exchange) -> exchange)
+                    .thenAccept(exchange -> respond(ctx, exchange))
+                    .exceptionally(e -> {
+                        LOG.warn("Error processing MLLP request on channel {}", ctx.channel(), e);
+                        ctx.close();
+                        return null;
+                    })
+                    .thenRun(() -> responded(ctx));
+        }
+
+        private void responded(ChannelHandlerContext ctx) {
+            var config = ctx.channel().config();
+            if (pending.decrementAndGet() <= orderingHighWaterMark / 2 && !config.isAutoRead()) {
+                config.setAutoRead(true);
+            }
+        }
+
+        private String orderingKey(ByteBuf frame) {
+            // transient view, the frame is not released before the view is gone
+            var message = MessageCharSequence.wrap(frame.nioBuffer(), charset);
+            for (var value : message.getFields(orderingKey)) {
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        private void process(ChannelHandlerContext ctx, ByteBuf frame) {
+            respond(ctx, processFrame(ctx, frame));
+        }
+
+        private Exchange processFrame(ChannelHandlerContext ctx, ByteBuf frame) {
+            var exchange = mllpEndpoint.createExchange();
+            var message = exchange.getIn();
+            message.setHeader(MinaConstants.MINA_LOCAL_ADDRESS, ctx.channel().localAddress());
+            message.setHeader(MinaConstants.MINA_REMOTE_ADDRESS, ctx.channel().remoteAddress());
+            var sslHandler = ctx.pipeline().get(SslHandler.class);
+            if (sslHandler != null) {
+                message.setHeader(SSL_SESSION_HEADER, sslHandler.engine().getSession());
+            }
+            // the frame is released by this handler after the route has finished
+            var request = MessageCharSequence.wrap(frame.nioBuffer(), charset);
+            message.setBody(request);
+
+            try {
+                getProcessor().process(exchange);
+            } catch (Exception e) {
+                exchange.setException(e);
+            } finally {
+                request.detach();
+            }
+            return exchange;
+        }
+
+        private void respond(ChannelHandlerContext ctx, Exchange exchange) {
+            if (exchange.getException() != null) {
+                getExceptionHandler().handleException("Error processing MLLP request", exchange, exchange.getException());
+                ctx.close();
+            } else {
+                sendResponse(ctx, exchange);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (!isRunAllowed() || !ctx.channel().isActive()) {
+                LOG.debug("Exception on inactive channel {}", ctx.channel(), cause);
+                ctx.close();
+                return;
+            }
+            if (cause instanceof SSLException || cause.getCause() instanceof SSLException) {
+                LOG.debug("TLS failure on channel {}", ctx.channel(), cause);
+                ctx.close();
+                return;
+            }
+            Exception exception = new CamelException(cause.getMessage());
+            var exchange = mllpEndpoint.createExchange();
+            exchange.setException(exception);
+            getExceptionHandler().handleException("", exchange, exception);
+            sendResponse(ctx, exchange);
+        }
+
+        private void sendResponse(ChannelHandlerContext ctx, Exchange exchange) {
+            var disconnect = mllpEndpoint.getConfiguration().isDisconnect();
+            var close = resultMessage(exchange).getHeader(MinaConstants.MINA_CLOSE_SESSION_WHEN_COMPLETE, Boolean.class);
+            if (close != null) {
+                disconnect = close;
+            }
+            var response = resultMessage(exchange).getBody(String.class);
+            if (response == null) {
+                LOG.debug("Writing no response");
+                ctx.close();
+            } else {
+                var future = ctx.writeAndFlush(response);
+                if (disconnect) {
+                    LOG.debug("Closing channel when complete at address: {}", ctx.channel().localAddress());
+                    future.addListener(ChannelFutureListener.CLOSE);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.mllp.core;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.support.DefaultProducer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Netty-based MLLP producer, an alternative to the camel-mina one wrapped by {@link MllpProducer}.
+ * <p>
+ * Requests are sent over persistent connections leased from the {@link NettyMllpConnectionPool}
+ * of the endpoint, so that concurrent exchanges do not have to wait for each other and connections
+ * are not opened in an unmanaged way. The pool is looked up for each request, as the endpoint
+ * replaces it when it is restarted.
+ *
+ * @since 4.1
+ */
+public class NettyMllpProducer extends DefaultProducer {
+
+    private final MllpEndpoint<?, ?, ?> mllpEndpoint;
+
+    NettyMllpProducer(MllpEndpoint<?, ?, ?> endpoint) {
+        super(endpoint);
+        this.mllpEndpoint = requireNonNull(endpoint);
+    }
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        var request = exchange.getIn().getBody(String.class);
+        var response = mllpEndpoint.getConnectionPool().send(request);
+        exchange.getMessage().setBody(response);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.mllp.core;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the native epoll transport when it is available on the classpath and on the
+ * current platform, and falls back to the NIO transport otherwise.
+ *
+ * @since 4.1
+ */
+final class NettyTransports {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NettyTransports.class);
+
+    private static final boolean EPOLL = epollAvailable();
+
+    private NettyTransports() {
+        throw new IllegalStateException("Cannot instantiate helper class");
+    }
+
+    static boolean isEpoll() {
+        return EPOLL;
+    }
+
+    /**
+     * @param threads number of threads, 0 means Netty's default (2 * number of cores)
+     * @param name    thread name prefix
+     */
+    static EventLoopGroup eventLoopGroup(int threads, String name) {
+        var threadFactory = new DefaultThreadFactory(name, true);
+        // no conditional expressions here: the epoll classes must not be loaded when they are not needed
+        if (EPOLL) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+        return new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    static Class<? extends ServerSocketChannel> serverChannelClass() {
+        if (EPOLL) {
+            return EpollServerSocketChannel.class;
+        }
+        return NioServerSocketChannel.class;
+    }
+
+    static Class<? extends SocketChannel> channelClass() {
+        if (EPOLL) {
+            return EpollSocketChannel.class;
+        }
+        return NioSocketChannel.class;
+    }
+
+    private static boolean epollAvailable() {
+        try {
+            var available = Epoll.isAvailable();
+            LOG.debug("Netty epoll transport available: {}", available);
+            return available;
+        } catch (NoClassDefFoundError e) {
+            LOG.debug("Netty epoll transport not found on classpath, using NIO");
+            return false;
+        }
+    }
+}
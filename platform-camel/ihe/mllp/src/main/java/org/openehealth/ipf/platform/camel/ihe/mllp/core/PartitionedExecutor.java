@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.mllp.core;
+
+import java.util.concurrent.Executor;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Executor with a fixed number of ordered lanes. Tasks are assigned to lanes by hashing
+ * a partitioning key, e.g. a patient ID. Tasks with the same key are run one after another
+ * in submission order, while tasks on different lanes run concurrently on the threads
+ * of the delegate executor.
+ *
+ * @since 4.1
+ */
+public class PartitionedExecutor {
+
+    private final OrderedExecutor[] lanes;
+
+    /**
+     * @param delegate  executor providing the threads
+     * @param laneCount number of ordered lanes, should not exceed the number of threads of the delegate
+     */
+    public PartitionedExecutor(Executor delegate, int laneCount) {
+        requireNonNull(delegate);
+        if (laneCount <= 0) {
+            throw new IllegalArgumentException("Number of lanes must be positive");
+        }
+        lanes = new OrderedExecutor[laneCount];
+        for (var i = 0; i < laneCount; ++i) {
+            lanes[i] = new OrderedExecutor(delegate);
+        }
+    }
+
+    /**
+     * Runs the given task on the lane of the given key.
+     *
+     * @param key  partitioning key, must not be <code>null</code>
+     * @param task task to run
+     */
+    public void execute(Object key, Runnable task) {
+        lanes[laneOf(requireNonNull(key))].execute(task);
+    }
+
+    int laneOf(Object key) {
+        var hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+}
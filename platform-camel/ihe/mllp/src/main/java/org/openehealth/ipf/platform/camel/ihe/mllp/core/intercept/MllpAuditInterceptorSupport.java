@@ -17,10 +17,8 @@
 package org.openehealth.ipf.platform.camel.ihe.mllp.core.intercept;
 
 import ca.uhn.hl7v2.model.Message;
-import ca.uhn.hl7v2.util.Terser;
 import org.apache.camel.Exchange;
 import org.apache.camel.component.mina.MinaConstants;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.ssl.SslFilter;
@@ -28,10 +26,14 @@ import org.openehealth.ipf.commons.audit.AuditContext;
 import org.openehealth.ipf.commons.audit.codes.EventOutcomeIndicator;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.AuditUtils;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditDataset;
+import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditUtils;
+import org.openehealth.ipf.modules.hl7.message.Hl7Path;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 import org.openehealth.ipf.modules.hl7.message.MessageUtils;
 import org.openehealth.ipf.platform.camel.ihe.atna.interceptor.AuditInterceptor;
 import org.openehealth.ipf.platform.camel.ihe.core.InterceptorSupport;
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpTransactionEndpoint;
+import org.openehealth.ipf.platform.camel.ihe.mllp.core.NettyMllpConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +52,7 @@ public abstract class MllpAuditInterceptorSupport<AuditDatasetType extends MllpA
         implements AuditInterceptor<AuditDatasetType, MllpTransactionEndpoint<AuditDatasetType>> {
 
     private static final Logger LOG = LoggerFactory.getLogger(MllpAuditInterceptorSupport.class);
+    private static final Hl7Path DSC_1 = Hl7Path.compile("DSC-1");
     private final AuditContext auditContext;
 
     public MllpAuditInterceptorSupport(AuditContext auditContext) {
@@ -73,9 +76,16 @@ public abstract class MllpAuditInterceptorSupport<AuditDatasetType extends MllpA
         var failed = false;
         try {
             getWrappedProcessor().process(exchange);
-            var result = resultMessage(exchange).getBody(Message.class);
-            enrichAuditDatasetFromResponse(auditDataset, result);
-            failed = !AuditUtils.isPositiveAck(result);
+            var body = resultMessage(exchange).getBody();
+            if (body instanceof MessageCharSequence) {
+                // acknowledgement rendered from a template, nothing to enrich the dataset with
+                var ackCode = ((MessageCharSequence) body).getField("MSA-1");
+                failed = !("AA".equals(ackCode) || "CA".equals(ackCode));
+            } else {
+                var result = resultMessage(exchange).getBody(Message.class);
+                enrichAuditDatasetFromResponse(auditDataset, result);
+                failed = !AuditUtils.isPositiveAck(result);
+            }
         } catch (Exception e) {
             failed = true;
             if (auditDataset != null) {
@@ -95,30 +105,46 @@ public abstract class MllpAuditInterceptorSupport<AuditDatasetType extends MllpA
     }
 
     private void extractSslClientUser(Exchange exchange, AuditDatasetType auditDataset) {
-        var ioSession = exchange.getIn().getHeader(MinaConstants.MINA_IOSESSION, IoSession.class);
-        if (ioSession != null) {
-            var sslSession = (SSLSession) ioSession.getAttribute(SslFilter.SSL_SESSION);
-            if (sslSession != null) {
-                try {
-                    var principal = sslSession.getPeerPrincipal();
-                    if (principal != null) {
-                        var dn = principal.getName();
-                        var ldapDN = new LdapName(dn);
-                        for (var rdn : ldapDN.getRdns()) {
-                            if (rdn.getType().equalsIgnoreCase("CN")) {
-                                auditDataset.setSourceUserName((String) rdn.getValue());
-                                break;
-                            }
+        var sslSession = exchange.getIn().getHeader(NettyMllpConsumer.SSL_SESSION_HEADER, SSLSession.class);
+        if (sslSession == null) {
+            var ioSession = exchange.getIn().getHeader(MinaConstants.MINA_IOSESSION, IoSession.class);
+            if (ioSession != null) {
+                sslSession = (SSLSession) ioSession.getAttribute(SslFilter.SSL_SESSION);
+            }
+        }
+        if (sslSession != null) {
+            try {
+                var principal = sslSession.getPeerPrincipal();
+                if (principal != null) {
+                    var dn = principal.getName();
+                    var ldapDN = new LdapName(dn);
+                    for (var rdn : ldapDN.getRdns()) {
+                        if (rdn.getType().equalsIgnoreCase("CN")) {
+                            auditDataset.setSourceUserName((String) rdn.getValue());
+                            break;
                         }
                     }
-                } catch (Exception e) {
-                    LOG.info("Could not extract CN from client certificate", e);
                 }
+            } catch (Exception e) {
+                LOG.info("Could not extract CN from client certificate", e);
             }
         }
     }
 
 
+    /**
+     * Returns the request message as it has been received, which is used to fill the audit
+     * dataset when the endpoint is configured with <code>rawAudit=true</code>, or <code>null</code>
+     * when it is not available. In the latter case, the HAPI object model is used.
+     * <p>
+     * The default implementation returns <code>null</code>: producers hold the HAPI message anyway,
+     * and encoding it just for auditing would be more expensive than walking the object model.
+     * Therefore, <code>rawAudit</code> only has an effect on consumers.
+     */
+    protected CharSequence encodedRequest(Exchange exchange, Message msg) {
+        return null;
+    }
+
     /**
      * Creates a new audit dataset and enriches it with data from the request
      * message.  All exception are ignored.
@@ -128,6 +154,12 @@ public abstract class MllpAuditInterceptorSupport<AuditDatasetType extends MllpA
     private AuditDatasetType createAndEnrichAuditDatasetFromRequest(Exchange exchange, Message msg) {
         var auditDataset = getAuditStrategy().createAuditDataset();
         try {
+            var raw = getEndpoint().isRawAudit() ? encodedRequest(exchange, msg) : null;
+            if (raw != null) {
+                var encoded = MessageCharSequence.wrap(raw);
+                MllpAuditUtils.enrichGenericAuditDatasetFromRequest(auditDataset, encoded);
+                return getAuditStrategy().enrichAuditDatasetFromRequest(auditDataset, encoded, exchange.getIn().getHeaders());
+            }
             AuditUtils.enrichGenericAuditDatasetFromRequest(auditDataset, msg);
             return getAuditStrategy().enrichAuditDatasetFromRequest(auditDataset, msg, exchange.getIn().getHeaders());
         } catch (Exception e) {
@@ -155,9 +187,7 @@ public abstract class MllpAuditInterceptorSupport<AuditDatasetType extends MllpA
     private boolean isAuditable(Message message) {
         try {
             // no audit for fragments 2..n
-            var terser = new Terser(message);
-            return (!ArrayUtils.contains(message.getNames(), "DSC") ||
-                    !StringUtils.isNotEmpty(terser.get("DSC-1"))) &&
+            return StringUtils.isEmpty(DSC_1.get(message)) &&
                     getEndpoint().getHl7v2TransactionConfiguration().isAuditable(MessageUtils.eventType(message));
         } catch (Exception e) {
             LOG.warn("Exception when determining message auditability, no audit will be performed", e);
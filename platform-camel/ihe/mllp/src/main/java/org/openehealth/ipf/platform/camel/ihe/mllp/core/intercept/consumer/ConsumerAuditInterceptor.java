@@ -20,6 +20,7 @@ import org.apache.camel.Message;
 import org.apache.camel.component.mina.MinaConstants;
 import org.openehealth.ipf.commons.audit.AuditContext;
 import org.openehealth.ipf.commons.ihe.core.atna.AuditStrategy;
+import org.openehealth.ipf.commons.ihe.hl7v2.Constants;
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditDataset;
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.intercept.MllpAuditInterceptorSupport;
 
@@ -50,6 +51,14 @@ public class ConsumerAuditInterceptor<AuditDatasetType extends MllpAuditDataset>
         auditDataset.setRemoteAddress(addressFromHeader(message, MinaConstants.MINA_REMOTE_ADDRESS));
     }
 
+    /**
+     * Uses the request message as it has been received, when available.
+     */
+    @Override
+    protected CharSequence encodedRequest(Exchange exchange, ca.uhn.hl7v2.model.Message msg) {
+        return exchange.getIn().getHeader(Constants.ORIGINAL_MESSAGE_STRING_HEADER_NAME, String.class);
+    }
+
     /**
      * Extracts string representation of IP address from socket address instance
      * stored in the given header of the given Camel message.
@@ -23,10 +23,10 @@ import org.apache.camel.CamelException;
 import org.apache.camel.Exchange;
 import org.apache.camel.RuntimeCamelException;
 import org.apache.camel.StartupListener;
-import org.openehealth.ipf.commons.ihe.hl7v2.Hl7v2AcceptanceException;
+import org.apache.camel.support.DefaultConsumer;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 import org.openehealth.ipf.platform.camel.ihe.core.Interceptor;
 import org.openehealth.ipf.platform.camel.ihe.core.InterceptorSupport;
-import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpConsumer;
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpDispatchEndpoint;
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpEndpoint;
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpTransactionEndpoint;
@@ -38,21 +38,27 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.openehealth.ipf.platform.camel.core.util.Exchanges.resultMessage;
 
 /**
  * Interceptor which dispatches an incoming request message to another MLLP route.
  * <p>
+ * Target routes are looked up in a {@link DispatchTable} which is built once when the
+ * Camel context has been started.
  *
  * @author Dmytro Rud
  */
 public final class ConsumerDispatchingInterceptor extends InterceptorSupport<MllpDispatchEndpoint>
         implements StartupListener {
     private static final transient Logger LOG = LoggerFactory.getLogger(ConsumerDispatchingInterceptor.class);
+    private static final String[] DISPATCH_FIELDS = {"MSH-9-1", "MSH-9-2", "MSH-9-3", "MSH-12"};
 
     private final List<String> routeIds = new ArrayList<>();
     private final Map<String, Interceptor<? extends MllpEndpoint>> map = new HashMap<>();
+    private final LongAdder undispatched = new LongAdder();
+    private volatile DispatchTable dispatchTable = DispatchTable.EMPTY;
 
 
     /**
@@ -92,6 +98,7 @@ public final class ConsumerDispatchingInterceptor extends InterceptorSupport<Mll
         if (!addTargets(camelContext)) {
             LOG.info("Mllp Dispatcher endpoint exposed without transaction targets.");
         }
+        dispatchTable = DispatchTable.build(routeIds, map);
     }
 
     /**
@@ -116,7 +123,7 @@ public final class ConsumerDispatchingInterceptor extends InterceptorSupport<Mll
             try {
                 var route = camelContext.getRoute(routeId);
                 if (route != null) {
-                    var consumer = (MllpConsumer) route.getConsumer();
+                    var consumer = (DefaultConsumer) route.getConsumer();
                     var interceptor = (Interceptor) consumer.getProcessor();
                     while (!(interceptor instanceof ConsumerStringProcessingInterceptor)) {
                         interceptor = (Interceptor) interceptor.getWrappedProcessor();
@@ -137,32 +144,24 @@ public final class ConsumerDispatchingInterceptor extends InterceptorSupport<Mll
     public void process(Exchange exchange) throws Exception {
 
         // determine attributes of the message
-        var message = exchange.getIn().getBody(String.class);
-        var fields = PreParser.getFields(message, "MSH-9-1", "MSH-9-2", "MSH-9-3", "MSH-12");
+        var body = exchange.getIn().getBody();
+        var fields = (body instanceof MessageCharSequence) ?
+                ((MessageCharSequence) body).getFields(DISPATCH_FIELDS) :
+                PreParser.getFields(exchange.getIn().getBody(String.class), DISPATCH_FIELDS);
         var messageType = fields[0];
         var triggerEvent = fields[1];
         var messageStructure = fields[2];
         var version = fields[3];
 
         // check who can accept the message
-        var found = false;
-        for (var routeId : routeIds) {
-            var interceptor = map.get(routeId);
-            var config = interceptor.getEndpoint().getHl7v2TransactionConfiguration();
-            try {
-                config.checkMessageAcceptance(messageType, triggerEvent, messageStructure, version, true);
-
-                LOG.debug("Dispatch message with MSH-9-1='{}', MSH-9-2='{}', MSH-9-3='{}', MSH-12='{}' to route '{}'",
-                        messageType, triggerEvent, messageStructure, version, routeId);
-                found = true;
-                interceptor.process(exchange);
-                break;
-            } catch (Hl7v2AcceptanceException e) {
-                // no problem
-            }
-        }
-
-        if (!found) {
+        var target = dispatchTable.lookup(messageType, triggerEvent, messageStructure, version);
+        if (target != null) {
+            LOG.debug("Dispatch message with MSH-9-1='{}', MSH-9-2='{}', MSH-9-3='{}', MSH-12='{}' to route '{}'",
+                    messageType, triggerEvent, messageStructure, version, target.getRouteId());
+            target.hit();
+            target.getInterceptor().process(exchange);
+        } else {
+            undispatched.increment();
             LOG.debug("Nobody can process message with MSH-9-1='{}', MSH-9-2='{}', MSH-9-3='{}', MSH-12='{}'",
                     messageType, triggerEvent, messageStructure, version);
             var exception = new HL7Exception(
@@ -171,5 +170,19 @@ public final class ConsumerDispatchingInterceptor extends InterceptorSupport<Mll
         }
     }
 
+    /**
+     * @return numbers of messages dispatched to each transaction route since the start of the Camel context.
+     * @since 4.1
+     */
+    public Map<String, Long> getDispatchCounts() {
+        return dispatchTable.getHitCounts();
+    }
 
+    /**
+     * @return number of messages which could not be dispatched to any transaction route.
+     * @since 4.1
+     */
+    public long getUndispatchedCount() {
+        return undispatched.sum();
+    }
 }
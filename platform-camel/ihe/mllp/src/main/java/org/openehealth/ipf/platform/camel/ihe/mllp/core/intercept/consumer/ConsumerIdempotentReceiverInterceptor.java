@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.mllp.core.intercept.consumer;
+
+import org.apache.camel.Exchange;
+import org.openehealth.ipf.commons.ihe.hl7v2.storage.IdempotentReceiverStorage;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
+import org.openehealth.ipf.platform.camel.core.util.Exchanges;
+import org.openehealth.ipf.platform.camel.ihe.core.InterceptorSupport;
+import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpTransactionEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.Objects.requireNonNull;
+import static org.apache.commons.lang3.StringUtils.isEmpty;
+
+/**
+ * Consumer-side interceptor which answers duplicates of already processed requests
+ * with the acknowledgement sent for the original request, without processing them again.
+ * <p>
+ * Requests are identified by MSH-3, MSH-4 and MSH-10, which are extracted without parsing
+ * the request. Only positive acknowledgements (message type ACK, MSA-1 equal to AA or CA)
+ * are stored, so that requests which could not be processed can be sent again.
+ *
+ * @since 4.1
+ */
+public class ConsumerIdempotentReceiverInterceptor extends InterceptorSupport<MllpTransactionEndpoint<?>> {
+    private static final Logger LOG = LoggerFactory.getLogger(ConsumerIdempotentReceiverInterceptor.class);
+
+    private static final String[] REQUEST_FIELDS = {"MSH-3", "MSH-4", "MSH-10"};
+    private static final String[] RESPONSE_FIELDS = {"MSH-9-1", "MSA-1"};
+
+    private IdempotentReceiverStorage storage;
+
+
+    @Override
+    public void setEndpoint(MllpTransactionEndpoint<?> endpoint) {
+        super.setEndpoint(endpoint);
+        this.storage = getEndpoint().getIdempotentReceiverStorage();
+        requireNonNull(storage);
+    }
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        var body = exchange.getIn().getBody();
+        var request = (body instanceof MessageCharSequence) ?
+                (MessageCharSequence) body :
+                MessageCharSequence.wrap(exchange.getIn().getBody(String.class));
+        var fields = request.getFields(REQUEST_FIELDS);
+
+        // pass when the request cannot be identified
+        if (isEmpty(fields[2])) {
+            getWrappedProcessor().process(exchange);
+            return;
+        }
+
+        var key = fields[0] + '\0' + fields[1] + '\0' + fields[2];
+        var response = storage.get(key);
+        if (response != null) {
+            LOG.info("Answer duplicate request with MSH-10=={} with the stored acknowledgement", fields[2]);
+            Exchanges.resultMessage(exchange).setBody(response);
+            return;
+        }
+
+        getWrappedProcessor().process(exchange);
+
+        if (exchange.getException() == null) {
+            response = Exchanges.resultMessage(exchange).getBody(String.class);
+            if (response != null && isPositiveAck(response)) {
+                storage.put(key, response);
+            }
+        }
+    }
+
+    private static boolean isPositiveAck(String response) {
+        var fields = MessageCharSequence.wrap(response).getFields(RESPONSE_FIELDS);
+        return "ACK".equals(fields[0]) && ("AA".equals(fields[1]) || "CA".equals(fields[1]));
+    }
+}
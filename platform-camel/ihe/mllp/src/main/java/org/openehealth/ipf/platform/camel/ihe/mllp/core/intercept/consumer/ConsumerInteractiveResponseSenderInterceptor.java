@@ -19,9 +19,11 @@ import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.model.Segment;
 import ca.uhn.hl7v2.util.Terser;
 import org.apache.camel.Exchange;
-import org.openehealth.ipf.commons.ihe.hl7v2.Constants;
 import org.openehealth.ipf.commons.ihe.hl7v2.Hl7v2TransactionConfiguration;
+import org.openehealth.ipf.commons.ihe.hl7v2.storage.InteractiveContinuationResponse;
 import org.openehealth.ipf.commons.ihe.hl7v2.storage.InteractiveContinuationStorage;
+import org.openehealth.ipf.modules.hl7.message.Hl7Path;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 import org.openehealth.ipf.modules.hl7.message.MessageUtils;
 import org.openehealth.ipf.platform.camel.core.util.Exchanges;
 import org.openehealth.ipf.platform.camel.ihe.core.InterceptorSupport;
@@ -45,6 +47,25 @@ import static org.openehealth.ipf.platform.camel.ihe.mllp.core.FragmentationUtil
  */
 public class ConsumerInteractiveResponseSenderInterceptor extends InterceptorSupport<MllpTransactionEndpoint<?>> {
     private static final transient Logger LOG = LoggerFactory.getLogger(ConsumerInteractiveResponseSenderInterceptor.class);
+
+    private static final Hl7Path DSC_1 = Hl7Path.compile("DSC-1");
+    private static final Hl7Path DSC_2 = Hl7Path.compile("DSC-2");
+    private static final Hl7Path MSA_2 = Hl7Path.compile("MSA-2");
+    private static final Hl7Path MSH_3_1 = Hl7Path.compile("MSH-3-1");
+    private static final Hl7Path MSH_3_2 = Hl7Path.compile("MSH-3-2");
+    private static final Hl7Path MSH_3_3 = Hl7Path.compile("MSH-3-3");
+    private static final Hl7Path MSH_7 = Hl7Path.compile("MSH-7");
+    private static final Hl7Path MSH_9_1 = Hl7Path.compile("MSH-9-1");
+    private static final Hl7Path MSH_9_2 = Hl7Path.compile("MSH-9-2");
+    private static final Hl7Path MSH_10 = Hl7Path.compile("MSH-10");
+    private static final Hl7Path QAK_4 = Hl7Path.compile("QAK-4");
+    private static final Hl7Path QAK_5 = Hl7Path.compile("QAK-5");
+    private static final Hl7Path QAK_6 = Hl7Path.compile("QAK-6");
+    private static final Hl7Path QID_1 = Hl7Path.compile("QID-1");
+    private static final Hl7Path QPD_2 = Hl7Path.compile("QPD-2");
+    private static final Hl7Path RCP_2_1 = Hl7Path.compile("RCP-2-1");
+    private static final Hl7Path RCP_2_2 = Hl7Path.compile("RCP-2-2");
+
     private InteractiveContinuationStorage storage;
 
 
@@ -52,25 +73,29 @@ public class ConsumerInteractiveResponseSenderInterceptor extends InterceptorSup
     public void setEndpoint(MllpTransactionEndpoint<?> endpoint) {
         super.setEndpoint(endpoint);
         this.storage = requireNonNull(getEndpoint().getInteractiveContinuationStorage());
+        if (getEndpoint().isInteractiveContinuationLazyFragments() && !storage.supportsResponses()) {
+            throw new IllegalArgumentException("Interactive continuation storage " + storage.getClass().getName() +
+                    " does not support lazy fragments, set interactiveContinuationLazyFragments=false");
+        }
     }
 
     @Override
     public void process(Exchange exchange) throws Exception {
         var parser = getEndpoint().getHl7v2TransactionConfiguration().getParser();
-        var requestMessage = exchange.getIn().getHeader(Constants.ORIGINAL_MESSAGE_ADAPTER_HEADER_NAME, Message.class);
-        var requestTerser = new Terser(requestMessage);
-        var requestMessageType = requestTerser.get("MSH-9-1");
+        // the route has not been run yet, so the body still contains the unmodified parsed request
+        var requestMessage = exchange.getIn().getBody(Message.class);
+        var requestMessageType = MSH_9_1.get(requestMessage);
 
         // get pieces of fragments' keys
-        final var msh31 = requestTerser.get("MSH-3-1");
-        final var msh32 = requestTerser.get("MSH-3-2");
-        final var msh33 = requestTerser.get("MSH-3-3");
+        final var msh31 = MSH_3_1.get(requestMessage);
+        final var msh32 = MSH_3_2.get(requestMessage);
+        final var msh33 = MSH_3_3.get(requestMessage);
 
         // handle cancel messages; if there is nothing to cancel -- pass to the route
-        if ("QCN".equals(requestMessageType) || "CNQ".equals(requestTerser.get("MSH-9-2"))) {
+        if ("QCN".equals(requestMessageType) || "CNQ".equals(MSH_9_2.get(requestMessage))) {
             var queryTag = "QCN".equals(requestMessageType) ?
-                    requestTerser.get("QID-1") :
-                    requestTerser.get("QPD-2");
+                    QID_1.get(requestMessage) :
+                    QPD_2.get(requestMessage);
             if (storage.delete(keyString(queryTag, msh31, msh32, msh33))) {
                 LOG.debug("Dropped response chain for query tag {}", queryTag);
                 var ack = requestMessage.generateACK();
@@ -91,7 +116,7 @@ public class ConsumerInteractiveResponseSenderInterceptor extends InterceptorSup
         }
 
         // check whether requested unit type is supported
-        var rcp22 = requestTerser.get("RCP-2-2");
+        var rcp22 = RCP_2_2.get(requestMessage);
         if (! "RD".equals(rcp22)) {
             if (rcp22 != null) {
                 LOG.warn("Unit '{}' in RCP-2-2 is not supported", rcp22);
@@ -103,7 +128,7 @@ public class ConsumerInteractiveResponseSenderInterceptor extends InterceptorSup
         // determine the threshold (maximal records count per message)
         var threshold = -1;
         try {
-            threshold = Integer.parseInt(requestTerser.get("RCP-2-1"));
+            threshold = Integer.parseInt(RCP_2_1.get(requestMessage));
         } catch (NumberFormatException nfe) {
             LOG.warn("Cannot parse RCP-2-1, try to use default threshold", nfe);
         }
@@ -117,18 +142,18 @@ public class ConsumerInteractiveResponseSenderInterceptor extends InterceptorSup
         }
         
         // check whether the request is acceptable; if not -- pass it to the route, let the user decide 
-        var continuationPointer = requestTerser.get("DSC-1");
+        var continuationPointer = DSC_1.get(requestMessage);
         if (isEmpty(continuationPointer)) {
             continuationPointer = null;
         }
 
-        if ((continuationPointer != null) && ! "I".equals(requestTerser.get("DSC-2"))) {
+        if ((continuationPointer != null) && ! "I".equals(DSC_2.get(requestMessage))) {
             LOG.warn("Cannot perform interactive continuation: DSC-1 is not empty and DSC-2 is not 'I'");
             getWrappedProcessor().process(exchange);
             return;
         }
         
-        final var queryTag = requestTerser.get("QPD-2");
+        final var queryTag = QPD_2.get(requestMessage);
         if (isEmpty(queryTag)) {
             LOG.warn("Cannot perform interactive continuation: empty query tag in QPD-2");
             getWrappedProcessor().process(exchange);
@@ -137,30 +162,50 @@ public class ConsumerInteractiveResponseSenderInterceptor extends InterceptorSup
 
         // handle query
         final var chainId = keyString(queryTag, msh31, msh32, msh33);
-        var responseMessage = storage.get(continuationPointer, chainId);
+        var responseMessage = getEndpoint().isInteractiveContinuationLazyFragments() ?
+                getLazyFragment(continuationPointer, chainId) :
+                storage.get(continuationPointer, chainId);
         if (responseMessage != null) {
             // a prepared response fragment found -- perform some post-processing and send it to the user
             LOG.debug("Use prepared fragment for {}", continuationPointer);
             synchronized (responseMessage) {
-                var responseTerser = new Terser(responseMessage);
-                responseTerser.set("MSH-7", MessageUtils.hl7Now());
-                responseTerser.set("MSH-10", uniqueId());
-                responseTerser.set("MSA-2", requestTerser.get("MSH-10"));
+                MSH_7.set(responseMessage, MessageUtils.hl7Now());
+                MSH_10.set(responseMessage, messageControlId());
+                MSA_2.set(responseMessage, MSH_10.get(requestMessage));
             }
         } else {
             // no fragment found --> run the route and create fragments if necessary
             getWrappedProcessor().process(exchange);
+            if (Exchanges.resultMessage(exchange).getBody() instanceof MessageCharSequence) {
+                // acknowledgement rendered from a template, nothing to fragment
+                return;
+            }
             var response = Exchanges.resultMessage(exchange).getBody(Message.class);
             responseMessage = considerFragmentingResponse(response, threshold, queryTag, chainId);
         }
         Exchanges.resultMessage(exchange).setBody(parser.encode(responseMessage));
     }
+
+
+    /**
+     * Creates the fragment with the given continuation pointer from the encoded response
+     * stored for the given chain, or returns <code>null</code> if there is none.
+     */
+    private Message getLazyFragment(String continuationPointer, String chainId) throws Exception {
+        var response = storage.getResponse(chainId);
+        if (response == null) {
+            return null;
+        }
+        var index = response.indexOf(continuationPointer);
+        return (index < 0) ? null : createFragment(response, index);
+    }
      
     
     /**
      * Checks whether the given response message should and can be fragmented.
      * <br>
-     * If yes -- stores the fragments into the storage and returns the first fragment,
+     * If yes -- stores the fragments (or the complete response, when fragments are
+     * created lazily) into the storage and returns the first fragment,
      * i.e. the one that must be sent immediately.
      * <br>
      * If no -- simply returns the response message back.
@@ -171,8 +216,7 @@ public class ConsumerInteractiveResponseSenderInterceptor extends InterceptorSup
             String queryTag,
             String chainId) throws Exception
     {
-        var responseTerser = new Terser(responseMessage);
-        if (isNotEmpty(responseTerser.get("DSC-1"))) {
+        if (isNotEmpty(DSC_1.get(responseMessage))) {
             LOG.warn("Cannot perform interactive continuation: DSC-1 already " +
             		 "present in the response message returned from the route");
             return responseMessage;
@@ -184,53 +228,68 @@ public class ConsumerInteractiveResponseSenderInterceptor extends InterceptorSup
         if (recordBoundaries.size() - 1 <= threshold) {
             return responseMessage;
         }
-        
-        // prepare header and footer segment groups
-        var headerSegments = joinSegments(segments, 0, recordBoundaries.get(0));
-        var footerSegments = joinSegments(
-                segments, recordBoundaries.get(recordBoundaries.size() - 1), segments.size());
-
-        // determine count of resulting fragments
-        final var fragmentsCount = (recordBoundaries.size() + threshold - 2) / threshold;
-        
-        // create a new chain of fragments
-        var parser = getEndpoint().getHl7v2TransactionConfiguration().getParser();
-        String continuationPointer = null;
-        for (var currentFragmentIndex = 0; currentFragmentIndex < fragmentsCount; ++currentFragmentIndex) {
-            // create the current fragment as String 
-            var startRecordIndex = currentFragmentIndex * threshold;
-            var endRecordIndex = Math.min(startRecordIndex + threshold, recordBoundaries.size() - 1);
-            int startSegmentIndex = recordBoundaries.get(startRecordIndex);
-            int endSegmentIndex = recordBoundaries.get(endRecordIndex);
 
-            var sb = new StringBuilder(headerSegments);
-            appendSegments(sb, segments, startSegmentIndex, endSegmentIndex);
-            sb.append(footerSegments);
-
-            // parse, post-process and register the current fragment
-            var fragment = parser.parse(sb.toString());
-            var fragmentTerser = new Terser(fragment);
-            var nextContinuationPointer = uniqueId();
-            if (currentFragmentIndex != fragmentsCount - 1) {
-                fragmentTerser.set("DSC-1", nextContinuationPointer);
-                fragmentTerser.set("DSC-2", "I");
+        // join segments and remember character offsets of the data records
+        var sb = new StringBuilder();
+        var recordOffsets = new int[recordBoundaries.size()];
+        var boundaryIndex = 0;
+        for (var i = 0; i < segments.size(); ++i) {
+            while ((boundaryIndex < recordOffsets.length) && (recordBoundaries.get(boundaryIndex) == i)) {
+                recordOffsets[boundaryIndex++] = sb.length();
             }
-            fragmentTerser.set("QAK-4", Integer.toString(recordBoundaries.size() - 1));
-            fragmentTerser.set("QAK-5", Integer.toString(endRecordIndex - startRecordIndex));
-            fragmentTerser.set("QAK-6", Integer.toString(recordBoundaries.size() - 1 - endRecordIndex));
+            sb.append(segments.get(i)).append('\r');
+        }
+        while (boundaryIndex < recordOffsets.length) {
+            recordOffsets[boundaryIndex++] = sb.length();
+        }
 
-            storage.put(continuationPointer, chainId, fragment);
-            continuationPointer = nextContinuationPointer;
+        // create continuation pointers for the fragments, the first one is addressed by null
+        final var fragmentsCount = InteractiveContinuationResponse.fragmentCount(recordBoundaries.size() - 1, threshold);
+        var continuationPointers = new String[fragmentsCount];
+        for (var i = 1; i < fragmentsCount; ++i) {
+            continuationPointers[i] = uniqueId();
+        }
+        var response = new InteractiveContinuationResponse(sb.toString(), recordOffsets, threshold, continuationPointers);
 
-            // remember the first fragment in order to return it
-            if (currentFragmentIndex == 0) {
-                responseMessage = fragment;
+        // register either the complete response or all fragments
+        if (getEndpoint().isInteractiveContinuationLazyFragments()) {
+            storage.putResponse(chainId, response);
+            responseMessage = createFragment(response, 0);
+        } else {
+            for (var currentFragmentIndex = 0; currentFragmentIndex < fragmentsCount; ++currentFragmentIndex) {
+                var fragment = createFragment(response, currentFragmentIndex);
+                storage.put(response.getContinuationPointer(currentFragmentIndex), chainId, fragment);
+
+                // remember the first fragment in order to return it
+                if (currentFragmentIndex == 0) {
+                    responseMessage = fragment;
+                }
             }
         }
         LOG.debug("Prepared {} interactive fragments for query tag {}", fragmentsCount, queryTag);
         return responseMessage;
     }
 
+
+    /**
+     * Parses and post-processes the fragment with the given index.
+     */
+    private Message createFragment(InteractiveContinuationResponse response, int index) throws Exception {
+        var parser = getEndpoint().getHl7v2TransactionConfiguration().getParser();
+        var fragment = parser.parse(response.getFragment(index));
+        var nextContinuationPointer = response.getNextContinuationPointer(index);
+        if (nextContinuationPointer != null) {
+            DSC_1.set(fragment, nextContinuationPointer);
+            DSC_2.set(fragment, "I");
+        }
+        var recordCount = response.getRecordCount();
+        var endRecordIndex = response.getEndRecord(index);
+        QAK_4.set(fragment, Integer.toString(recordCount));
+        QAK_5.set(fragment, Integer.toString(endRecordIndex - response.getFirstRecord(index)));
+        QAK_6.set(fragment, Integer.toString(recordCount - endRecordIndex));
+        return fragment;
+    }
+
     
     /**
      * Determines boundaries for data records among the given segments' list.
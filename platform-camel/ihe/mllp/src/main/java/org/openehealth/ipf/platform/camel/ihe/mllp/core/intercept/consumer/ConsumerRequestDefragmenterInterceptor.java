@@ -15,13 +15,17 @@
  */
 package org.openehealth.ipf.platform.camel.ihe.mllp.core.intercept.consumer;
 
+import ca.uhn.hl7v2.AcknowledgmentCode;
+import ca.uhn.hl7v2.ErrorCode;
 import ca.uhn.hl7v2.HL7Exception;
-import ca.uhn.hl7v2.util.Terser;
 import org.apache.camel.Exchange;
 import org.openehealth.ipf.commons.ihe.hl7v2.storage.UnsolicitedFragmentationStorage;
+import org.openehealth.ipf.modules.hl7.message.Hl7Path;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 import org.openehealth.ipf.modules.hl7.message.MessageUtils;
 import org.openehealth.ipf.platform.camel.core.util.Exchanges;
 import org.openehealth.ipf.platform.camel.ihe.core.InterceptorSupport;
+import org.openehealth.ipf.platform.camel.ihe.hl7v2.Hl7v2MarshalUtils;
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpTransactionEndpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +44,14 @@ import static org.openehealth.ipf.platform.camel.ihe.mllp.core.FragmentationUtil
 public class ConsumerRequestDefragmenterInterceptor extends InterceptorSupport<MllpTransactionEndpoint<?>> {
     private static final transient Logger LOG = LoggerFactory.getLogger(ConsumerRequestDefragmenterInterceptor.class);
     
+    // fields needed for fragment bookkeeping, extracted without parsing the request
+    private static final String[] FRAGMENT_FIELDS = {"MSH-14-1", "DSC-1-1", "DSC-2-1", "MSH-3-1", "MSH-3-2", "MSH-3-3"};
+
+    private static final Hl7Path MSA_1 = Hl7Path.compile("MSA-1");
+    private static final Hl7Path MSA_2 = Hl7Path.compile("MSA-2");
+    private static final Hl7Path MSH_9_2 = Hl7Path.compile("MSH-9-2");
+    private static final Hl7Path MSH_10 = Hl7Path.compile("MSH-10");
+
     // keys consist of: continuation pointer, MSH-3-1, MSH-3-2, and MSH-3-3  
     private UnsolicitedFragmentationStorage storage;
 
@@ -56,19 +68,13 @@ public class ConsumerRequestDefragmenterInterceptor extends InterceptorSupport<M
      */
     @Override
     public void process(Exchange exchange) throws Exception {
-        var requestString = exchange.getIn().getBody(String.class);
-        var parser = getEndpoint().getHl7v2TransactionConfiguration().getParser();
-        var requestMessage = parser.parse(requestString);
-        var requestTerser = new Terser(requestMessage);
-        var msh14 = requestTerser.get("MSH-14");
-        String dsc1 = null;
-        try {
-            if (! "I".equals(requestTerser.get("DSC-2"))) {
-                dsc1 = requestTerser.get("DSC-1");
-            }
-        } catch (HL7Exception e) {
-            // segment DSC does not exist in cancel requests
-        }
+        var body = exchange.getIn().getBody();
+        var request = (body instanceof MessageCharSequence) ?
+                (MessageCharSequence) body :
+                MessageCharSequence.wrap(exchange.getIn().getBody(String.class));
+        var fields = request.getFields(FRAGMENT_FIELDS);
+        var msh14 = fields[0];
+        var dsc1 = "I".equals(fields[2]) ? null : fields[1];
 
         // pass when the message is not fragmented
         if (isEmpty(msh14) && isEmpty(dsc1)) {
@@ -77,9 +83,10 @@ public class ConsumerRequestDefragmenterInterceptor extends InterceptorSupport<M
         }
 
         // get pieces of the accumulator's key
-        var msh31 = requestTerser.get("MSH-3-1");
-        var msh32 = requestTerser.get("MSH-3-2");
-        var msh33 = requestTerser.get("MSH-3-3");
+        var msh31 = fields[3];
+        var msh32 = fields[4];
+        var msh33 = fields[5];
+        var requestString = request.toString();
 
         // create an accumulator (on the arrival of the first fragment) 
         // or get an existing one (on the arrival of fragments 2..n)
@@ -111,13 +118,25 @@ public class ConsumerRequestDefragmenterInterceptor extends InterceptorSupport<M
         // DSC-1 is not empty -- update accumulators map, request the next fragment
         LOG.debug("Processed fragment {} requesting {}", msh14, dsc1);
             
-        storage.put(keyString(dsc1, msh31, msh32, msh33), accumulator);
+        var parser = getEndpoint().getHl7v2TransactionConfiguration().getParser();
+        var requestMessage = Hl7v2MarshalUtils.parse(exchange, requestString, parser);
+        try {
+            storage.put(keyString(dsc1, msh31, msh32, msh33), accumulator);
+        } catch (IllegalStateException e) {
+            // the storage refuses the chain, the sender shall not send further fragments
+            LOG.warn("Refuse fragment {} of sender {}: {}", msh14, msh31, e.getMessage());
+            var nak = getEndpoint().getNakFactory().createNak(
+                    requestMessage,
+                    new HL7Exception(e.getMessage(), ErrorCode.APPLICATION_INTERNAL_ERROR),
+                    AcknowledgmentCode.CR);
+            Exchanges.resultMessage(exchange).setBody(parser.encode(nak));
+            return;
+        }
         var ack = MessageUtils.response(
                 requestMessage, "ACK", 
-                requestTerser.get("MSH-9-2"));
-        var ackTerser = new Terser(ack);
-        ackTerser.set("MSA-1", "CA");
-        ackTerser.set("MSA-2", requestTerser.get("MSH-10"));
+                MSH_9_2.get(requestMessage));
+        MSA_1.set(ack, "CA");
+        MSA_2.set(ack, MSH_10.get(requestMessage));
         Exchanges.resultMessage(exchange).setBody(parser.encode(ack));
     }
     
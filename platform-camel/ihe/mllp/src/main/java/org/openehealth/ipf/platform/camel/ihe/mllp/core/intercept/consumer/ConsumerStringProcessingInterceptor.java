@@ -16,6 +16,7 @@
 package org.openehealth.ipf.platform.camel.ihe.mllp.core.intercept.consumer;
 
 import org.apache.camel.Exchange;
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence;
 import org.openehealth.ipf.platform.camel.core.util.Exchanges;
 import org.openehealth.ipf.platform.camel.ihe.core.InterceptorSupport;
 import org.openehealth.ipf.platform.camel.ihe.hl7v2.Hl7v2MarshalUtils;
@@ -38,12 +39,14 @@ public class ConsumerStringProcessingInterceptor extends InterceptorSupport<Mllp
         var supportSegmentFragmentation = getEndpoint().isSupportSegmentFragmentation();
         var segmentFragmentationThreshold = getEndpoint().getSegmentFragmentationThreshold();
         
-        // read in the request
+        // read in the request, unless it has already been provided as decoded view
         var message = exchange.getIn();
-        message.setBody(Hl7v2MarshalUtils.convertBodyToString(
-                message,
-                charsetName,
-                supportSegmentFragmentation));
+        if (supportSegmentFragmentation || !(message.getBody() instanceof MessageCharSequence)) {
+            message.setBody(Hl7v2MarshalUtils.convertBodyToString(
+                    message,
+                    charsetName,
+                    supportSegmentFragmentation));
+        }
         
         // run the route
         getWrappedProcessor().process(exchange);
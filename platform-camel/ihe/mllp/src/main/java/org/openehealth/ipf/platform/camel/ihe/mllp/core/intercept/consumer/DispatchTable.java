@@ -0,0 +1,220 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.ihe.mllp.core.intercept.consumer;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.Version;
+import org.apache.commons.lang3.StringUtils;
+import org.openehealth.ipf.commons.ihe.hl7v2.Hl7v2TransactionConfiguration;
+import org.openehealth.ipf.platform.camel.ihe.core.Interceptor;
+import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpEndpoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Immutable lookup index used by {@link ConsumerDispatchingInterceptor}.
+ * <p>
+ * For all transaction targets, each combination of allowed request message type, trigger event
+ * and HL7 version is registered under the key (MSH-9-1, MSH-9-2, MSH-9-3, MSH-12), both with the
+ * expected message structure and with an empty MSH-9-3. Targets accepting wildcard message types
+ * or trigger events cannot be enumerated and are probed in order instead. Combinations not covered
+ * by the index (e.g. unknown message types) fall back to probing all targets, so that the result
+ * is the same as checking the targets one by one in registration order.
+ *
+ * @since 4.1
+ */
+final class DispatchTable {
+
+    /**
+     * A transaction route the dispatcher can forward messages to.
+     */
+    static final class Target {
+        private final String routeId;
+        private final int ordinal;
+        private final Interceptor<? extends MllpEndpoint> interceptor;
+        private final Hl7v2TransactionConfiguration<?> config;
+        private final LongAdder hits = new LongAdder();
+
+        private Target(String routeId, int ordinal, Interceptor<? extends MllpEndpoint> interceptor) {
+            this.routeId = routeId;
+            this.ordinal = ordinal;
+            this.interceptor = interceptor;
+            this.config = interceptor.getEndpoint().getHl7v2TransactionConfiguration();
+        }
+
+        String getRouteId() {
+            return routeId;
+        }
+
+        Interceptor<? extends MllpEndpoint> getInterceptor() {
+            return interceptor;
+        }
+
+        void hit() {
+            hits.increment();
+        }
+
+        private boolean accepts(String messageType, String triggerEvent, String messageStructure, String version) {
+            return config.isMessageAcceptable(messageType, triggerEvent, messageStructure, version, true);
+        }
+    }
+
+    static final DispatchTable EMPTY = new DispatchTable(Collections.emptyList(), Collections.emptyList(), Collections.emptyMap());
+
+    private final List<Target> targets;
+    private final List<Target> wildcardTargets;
+    private final Map<String, Target> index;
+
+
+    private DispatchTable(List<Target> targets, List<Target> wildcardTargets, Map<String, Target> index) {
+        this.targets = targets;
+        this.wildcardTargets = wildcardTargets;
+        this.index = index;
+    }
+
+    /**
+     * Builds the lookup index.
+     *
+     * @param routeIds     IDs of target routes in the order of precedence, duplicates are ignored.
+     * @param interceptors target interceptors keyed by route ID.
+     */
+    static DispatchTable build(List<String> routeIds, Map<String, Interceptor<? extends MllpEndpoint>> interceptors) {
+        var targets = new ArrayList<Target>();
+        var wildcardTargets = new ArrayList<Target>();
+        var index = new HashMap<String, Target>();
+        for (var routeId : routeIds) {
+            var interceptor = interceptors.get(routeId);
+            if (interceptor == null || targets.stream().anyMatch(t -> t.routeId.equals(routeId))) {
+                continue;
+            }
+            var target = new Target(routeId, targets.size(), interceptor);
+            targets.add(target);
+            if (!register(target, index)) {
+                wildcardTargets.add(target);
+            }
+        }
+        return new DispatchTable(
+                Collections.unmodifiableList(targets),
+                Collections.unmodifiableList(wildcardTargets),
+                Collections.unmodifiableMap(index));
+    }
+
+    /**
+     * @return <code>false</code> if the target accepts wildcards and could not be registered completely.
+     */
+    private static boolean register(Target target, Map<String, Target> index) {
+        var config = target.config;
+        var complete = true;
+        var messageTypes = config.getAllowedRequestMessageTypes();
+        for (var i = 0; i < messageTypes.length; ++i) {
+            var triggerEvents = StringUtils.split(config.getAllowedRequestTriggerEvents()[i], ' ');
+            if ("*".equals(messageTypes[i])) {
+                complete = false;
+                continue;
+            }
+            for (var triggerEvent : triggerEvents) {
+                if ("*".equals(triggerEvent)) {
+                    complete = false;
+                    continue;
+                }
+                for (var hl7Version : config.getHl7Versions()) {
+                    var version = hl7Version.getVersion();
+                    registerIfAccepted(target, index, messageTypes[i], triggerEvent, "", version);
+                    var messageStructure = expectedMessageStructure(target, messageTypes[i], triggerEvent, version);
+                    if (messageStructure != null) {
+                        registerIfAccepted(target, index, messageTypes[i], triggerEvent, messageStructure, version);
+                    }
+                }
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Structures deviating from the model class factory are not indexed and handled by the fallback.
+     */
+    private static String expectedMessageStructure(Target target, String messageType, String triggerEvent, String version) {
+        try {
+            return target.config.getHapiContext().getModelClassFactory()
+                    .getMessageStructureForEvent(messageType + "_" + triggerEvent, Version.versionOf(version));
+        } catch (HL7Exception e) {
+            return null;
+        }
+    }
+
+    private static void registerIfAccepted(Target target, Map<String, Target> index,
+                                           String messageType, String triggerEvent, String messageStructure, String version) {
+        if (target.accepts(messageType, triggerEvent, messageStructure, version)) {
+            // first target wins, as when probing the targets in order
+            index.putIfAbsent(key(messageType, triggerEvent, messageStructure, version), target);
+        }
+    }
+
+    private static String key(String messageType, String triggerEvent, String messageStructure, String version) {
+        return StringUtils.defaultString(messageType) + '\u0000' +
+                StringUtils.defaultString(triggerEvent) + '\u0000' +
+                StringUtils.defaultString(messageStructure) + '\u0000' +
+                StringUtils.defaultString(version);
+    }
+
+    /**
+     * Finds the target which accepts a request with the given attributes.
+     *
+     * @return the first accepting target, or <code>null</code> if none accepts the message.
+     */
+    Target lookup(String messageType, String triggerEvent, String messageStructure, String version) {
+        var target = index.get(key(messageType, triggerEvent, messageStructure, version));
+        for (var wildcardTarget : wildcardTargets) {
+            if ((target != null) && (wildcardTarget.ordinal > target.ordinal)) {
+                break;
+            }
+            if (wildcardTarget.accepts(messageType, triggerEvent, messageStructure, version)) {
+                return wildcardTarget;
+            }
+        }
+        if (target != null) {
+            return target;
+        }
+        // combinations not covered by the index, e.g. acknowledgement structures
+        for (var candidate : targets) {
+            if (candidate.accepts(messageType, triggerEvent, messageStructure, version)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    boolean isEmpty() {
+        return targets.isEmpty();
+    }
+
+    /**
+     * @return numbers of dispatched messages keyed by route ID, in the order of precedence.
+     */
+    Map<String, Long> getHitCounts() {
+        var result = new LinkedHashMap<String, Long>();
+        for (var target : targets) {
+            result.put(target.routeId, target.hits.sum());
+        }
+        return result;
+    }
+}
@@ -124,7 +124,7 @@ public class ProducerMarshalAndInteractiveResponseReceiverInterceptor extends In
                         requestTerser.set("DSC-1", continuationPointer);
                         requestTerser.set("DSC-2", "I");
                         requestTerser.set("MSH-7", MessageUtils.hl7Now());
-                        requestTerser.set("MSH-10", uniqueId());
+                        requestTerser.set("MSH-10", messageControlId());
                         mustSend = true;
                     }
                 }
@@ -229,7 +229,7 @@ public class ProducerMarshalAndInteractiveResponseReceiverInterceptor extends In
         Terser.set(cancelMsh,  9, 0, 1, 1, "QCN");
         Terser.set(cancelMsh,  9, 0, 2, 1, "J01");
         Terser.set(cancelMsh,  9, 0, 3, 1, "QCN_J01");
-        Terser.set(cancelMsh, 10, 0, 1, 1, uniqueId());
+        Terser.set(cancelMsh, 10, 0, 1, 1, messageControlId());
         Terser.set(cancelMsh, 11, 0, 1, 1, "P");
 
         // version
@@ -263,7 +263,7 @@ public class ProducerMarshalAndInteractiveResponseReceiverInterceptor extends In
         Terser.set(cancelMsh,  7, 0, 1, 1, MessageUtils.hl7Now());
         Terser.set(cancelMsh,  9, 0, 2, 1, "CNQ");
         Terser.set(cancelMsh,  9, 0, 3, 1, "");
-        Terser.set(cancelMsh, 10, 0, 1, 1, uniqueId());
+        Terser.set(cancelMsh, 10, 0, 1, 1, messageControlId());
 
         return parser.encode(cancel);
     }
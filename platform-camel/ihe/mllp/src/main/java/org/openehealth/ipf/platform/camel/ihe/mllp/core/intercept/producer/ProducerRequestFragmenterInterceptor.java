@@ -141,7 +141,7 @@ public class ProducerRequestFragmenterInterceptor extends InterceptorSupport<Mll
     
                 // update fields for next fragment
                 mshFields.set(6, MessageUtils.hl7Now());
-                mshFields.set(9, uniqueId());
+                mshFields.set(9, messageControlId());
                 mshFields.set(13, continuationPointer);
             }
         }
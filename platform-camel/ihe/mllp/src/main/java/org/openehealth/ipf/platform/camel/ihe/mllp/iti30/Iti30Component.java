@@ -35,6 +35,12 @@ import static org.openehealth.ipf.commons.ihe.hl7v2.PAM.Interactions.ITI_30;
  * The endpoints take an additional parameter "options", that refer to the
  * transaction options as specified in {@link Iti30Options} that need to be supported.
  * You can also provide different options specified by an additional parameter "optionsProvider".
+ * <p>
+ * With the Netty transport, messages can be processed concurrently while preserving the order
+ * of messages concerning the same patient: the parameter "orderingLanes" sets the number of
+ * ordered processing lanes, and "orderingKey" lists the fields identifying the patient
+ * (default <code>PID-3-1</code>, e.g. <code>MRG-1-1,PID-3-1</code> to order merges along
+ * with the messages concerning the obsolete patient).
  *
  * @author Christian Ohr
  */
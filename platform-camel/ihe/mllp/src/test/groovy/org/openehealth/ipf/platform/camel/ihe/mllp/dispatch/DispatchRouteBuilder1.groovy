@@ -30,6 +30,9 @@ class DispatchRouteBuilder1 extends RouteBuilder {
         from('mllp-dispatch://0.0.0.0:18500?routes=pixfeed,xadpid')
                 .process {}
 
+        from('mllp-dispatch://0.0.0.0:18506?routes=pixfeed,xadpid&transport=netty')
+                .process {}
+
         from('pix-iti8://0.0.0.0:18501')
                 .routeId('pixfeed')
                 .process(validatingProcessor())
@@ -53,18 +53,22 @@ abstract class TestDispatch extends MllpTestContainer {
     // ITI-8 and ITI-64 can be dispatched, ITI-9 must fail
     @Test
     void testHappyCaseAndAudit1() {
+        doTestHappyCaseAndAudit(getDispatcherPort())
+    }
+
+    protected void doTestHappyCaseAndAudit(String dispatcherPort) {
         DefaultExchange exchange = new DefaultExchange(camelContext)
 
-        exchange.in.body = send('pix-iti8://localhost:' + getDispatcherPort(), ITI_8_REQUEST)
+        exchange.in.body = send('pix-iti8://localhost:' + dispatcherPort, ITI_8_REQUEST)
         validatingProcessor().process(exchange)
         assertACK(exchange.in.body)
 
-        exchange.in.body = send('pix-iti9://localhost:' + getDispatcherPort(), ITI_9_REQUEST)
+        exchange.in.body = send('pix-iti9://localhost:' + dispatcherPort, ITI_9_REQUEST)
         // This does not pass response validation!!
         // iti9ResponseValidator().process(exchange)
         assertNAK(exchange.in.body)
 
-        exchange.in.body = send('xpid-iti64://localhost:' + getDispatcherPort(), ITI_64_REQUEST)
+        exchange.in.body = send('xpid-iti64://localhost:' + dispatcherPort, ITI_64_REQUEST)
         validatingProcessor().process(exchange)
         assertACK(exchange.in.body)
 
@@ -16,6 +16,10 @@
 package org.openehealth.ipf.platform.camel.ihe.mllp.dispatch
 
 import org.junit.BeforeClass
+import org.junit.Test
+import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpDispatchEndpoint
+
+import static org.junit.Assert.assertEquals
 
 /**
  * @author Dmytro Rud
@@ -37,4 +41,23 @@ class TestDispatch1 extends TestDispatch {
     protected String getDispatcherPort() {
         '18500'
     }
+
+    @Test
+    void testHappyCaseAndAuditNetty() {
+        doTestHappyCaseAndAudit('18506')
+    }
+
+    @Test
+    void testDispatchCounts() {
+        def endpoint = camelContext.getEndpoint('mllp-dispatch://0.0.0.0:18500?routes=pixfeed,xadpid', MllpDispatchEndpoint)
+        def pixfeed = endpoint.dispatchCounts['pixfeed']
+        def undispatched = endpoint.undispatchedCount
+
+        send('pix-iti8://localhost:18500', ITI_8_REQUEST)
+        send('pix-iti9://localhost:18500', ITI_9_REQUEST)
+
+        assertEquals(['pixfeed', 'xadpid'], endpoint.dispatchCounts.keySet() as List)
+        assertEquals(pixfeed + 1, endpoint.dispatchCounts['pixfeed'])
+        assertEquals(undispatched + 1, endpoint.undispatchedCount)
+    }
 }
@@ -43,6 +43,18 @@ class Iti10TestRouteBuilder extends RouteBuilder {
                  .maximumRedeliveries(0)
                  .end()
              .transform(ack())
+
+         from('pix-iti10://0.0.0.0:18109?transport=netty')
+             .onException(Exception.class)
+                 .maximumRedeliveries(0)
+                 .end()
+             .transform(ack())
+
+         from('pix-iti10://0.0.0.0:18110?transport=netty&consumerExecutor=#consumerExecutor')
+             .onException(Exception.class)
+                 .maximumRedeliveries(0)
+                 .end()
+             .transform(ack())
      }
 }
  
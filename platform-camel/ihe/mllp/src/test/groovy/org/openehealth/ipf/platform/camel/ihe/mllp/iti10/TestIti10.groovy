@@ -25,6 +25,9 @@ import org.junit.Test
 import org.openehealth.ipf.platform.camel.core.util.Exchanges
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpTestContainer
 
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
 import static org.junit.Assert.assertEquals
 import static org.junit.Assert.assertFalse
 
@@ -59,6 +62,62 @@ class TestIti10 extends MllpTestContainer {
         doTestHappyCaseAndAudit("pix-iti10://localhost:18107?audit=false&timeout=${TIMEOUT}", 0)
     }
 
+    @Test
+    void testHappyCaseAndAuditNetty() {
+        doTestHappyCaseAndAudit("pix-iti10://localhost:18109?timeout=${TIMEOUT}", 2)
+    }
+
+    @Test
+    void testHappyCaseAndAuditNettyProducer() {
+        doTestHappyCaseAndAudit("pix-iti10://localhost:18109?transport=netty&timeout=${TIMEOUT}", 2)
+    }
+
+    @Test
+    void testRestartedNettyProducerEndpoint() {
+        def endpointUri = "pix-iti10://localhost:18109?transport=netty&connectionPoolSize=2&timeout=${TIMEOUT}"
+        doTestHappyCaseAndAudit(endpointUri, 2)
+        def endpoint = camelContext.getEndpoint(endpointUri)
+        endpoint.stop()
+        endpoint.start()
+        auditSender.clear()
+        doTestHappyCaseAndAudit(endpointUri, 2)
+    }
+
+    @Test
+    void testPooledConnections() {
+        doTestConcurrentRequests("pix-iti10://localhost:18109?transport=netty&connectionPoolSize=3&timeout=${TIMEOUT}")
+    }
+
+    @Test
+    void testPipelining() {
+        doTestConcurrentRequests("pix-iti10://localhost:18109?transport=netty&pipelining=true&timeout=${TIMEOUT}")
+    }
+
+    @Test
+    void testConsumerExecutor() {
+        doTestHappyCaseAndAudit("pix-iti10://localhost:18110?timeout=${TIMEOUT}", 2)
+        auditSender.clear()
+        doTestConcurrentRequests("pix-iti10://localhost:18110?transport=netty&connectionPoolSize=3&timeout=${TIMEOUT}")
+    }
+
+    def doTestConcurrentRequests(String endpointUri) {
+        def executor = Executors.newFixedThreadPool(8)
+        try {
+            def futures = (1..20).collect { i ->
+                def body = getMessageString10('ADT^A31^ADT_A05', '2.5').replace('|123456|', "|msg${i}|")
+                executor.submit({ send(endpointUri, body) } as Callable)
+            }
+            futures.eachWithIndex { future, i ->
+                def msg = future.get()
+                assertACK(msg)
+                assertEquals("msg${i + 1}".toString(), msg.MSA[2].value)
+            }
+        } finally {
+            executor.shutdown()
+        }
+        assertEquals(40, auditSender.messages.size())
+    }
+
     def doTestHappyCaseAndAudit(String endpointUri, int expectedAuditItemsCount) {
         final String body = getMessageString10('ADT^A31^ADT_A05', '2.5')
         def msg = send(endpointUri, body)
@@ -117,6 +117,18 @@ class Iti21TestContinuationsRouteBuilder extends RouteBuilder {
             .transform(staticResponse(BIG_RESPONSE))
             .process(validatingProcessor())
 
+        /**
+         * Full automatism, fragments are created on demand from the stored response.
+         */
+        from(TestIti21Continuations.endpointUri(28212, true, true, true, false, true) +
+                '&interactiveContinuationLazyFragments=true')
+            .onException(Exception.class)
+                .maximumRedeliveries(0)
+                .end()
+            .process(validatingProcessor())
+            .transform(staticResponse(BIG_RESPONSE))
+            .process(validatingProcessor())
+
             
         /**
          * Test interactive continuations on client side.
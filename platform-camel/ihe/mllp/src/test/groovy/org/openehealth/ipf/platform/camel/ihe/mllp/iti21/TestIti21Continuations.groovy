@@ -16,10 +16,13 @@
 package org.openehealth.ipf.platform.camel.ihe.mllp.iti21
 
 import ca.uhn.hl7v2.model.Message
+import org.apache.camel.Processor
 import org.junit.BeforeClass
 import org.junit.Test
 import org.openehealth.ipf.commons.ihe.core.payload.PayloadLoggerBase
 import org.openehealth.ipf.commons.ihe.hl7v2.storage.EhcacheInteractiveContinuationStorage
+import org.openehealth.ipf.commons.ihe.hl7v2.storage.InteractiveContinuationResponse
+import org.openehealth.ipf.commons.ihe.hl7v2.storage.InteractiveContinuationStorage
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpTestContainer
 
 import static java.lang.String.format
@@ -103,8 +106,39 @@ class TestIti21Continuations extends MllpTestContainer {
         assert '0' == msg.QAK[6].value
     }
 
+    @Test
+    void testHappyCaseAndAuditLazyFragments() {
+        Message msg = send(endpointUri(28212, true, true, true, true, false),
+                           format(REQUEST_MESSAGE, currentTimeMillis()))
+        assert 4 == msg.QUERY_RESPONSEReps
+        assert 2 == auditSender.messages.size()
+        assert '4' == msg.QAK[4].value
+        assert '4' == msg.QAK[5].value
+        assert '0' == msg.QAK[6].value
+
+        EhcacheInteractiveContinuationStorage storage = appContext.getBean('interactiveContinuationStorage')
+        assert storage.ehcache.iterator().hasNext() == false
+    }
+
     @Test
     void testInteractiveContinuation() {
+        doTestInteractiveContinuation(28210)
+    }
+
+    @Test
+    void testInteractiveContinuationLazyFragments() {
+        doTestInteractiveContinuation(28212)
+    }
+
+    @Test(expected = IllegalArgumentException)
+    void testLazyFragmentsRequireResponseStorage() {
+        camelContext.registry.bind('eagerOnlyStorage', new EagerOnlyStorage())
+        camelContext.getEndpoint('pdq-iti21://0.0.0.0:28219?supportInteractiveContinuation=true' +
+                '&interactiveContinuationLazyFragments=true&interactiveContinuationStorage=#eagerOnlyStorage')
+                .createConsumer({} as Processor)
+    }
+
+    private void doTestInteractiveContinuation(int port) {
         String continuationPointer = ""
         String DSC = "DSC|%s|I"
         String queryId = currentTimeMillis()
@@ -112,7 +146,7 @@ class TestIti21Continuations extends MllpTestContainer {
         int hitsLeft = 4
         4.times {
             String requestMsg = continuationPointer? request + format(DSC, continuationPointer): request
-            Message msg = send("pdq-iti21://localhost:28210", requestMsg)
+            Message msg = send("pdq-iti21://localhost:${port}", requestMsg)
             --hitsLeft
             assert 1 == msg.QUERY_RESPONSEReps
             assert 2 == auditSender.messages.size()
@@ -121,10 +155,23 @@ class TestIti21Continuations extends MllpTestContainer {
             assert "${hitsLeft}" == msg.QAK[6].value
             continuationPointer = msg.DSC[1].value
         }
-        Message ack = send("pdq-iti21://localhost:28210", format(CANCEL_MESSAGE, queryId))
+        Message ack = send("pdq-iti21://localhost:${port}", format(CANCEL_MESSAGE, queryId))
         assert ack.MSH[9][1].value == "ACK"
         assert ack.MSH[9][2].value == "J01"
         assert ack.MSA[1].value == "AA"
     }
 
+    /**
+     * Storage that does not implement storing encoded responses.
+     */
+    static class EagerOnlyStorage implements InteractiveContinuationStorage {
+        void put(String continuationPointer, String chainId, Message fragment) {}
+        Message get(String continuationPointer, String chainId) { null }
+        boolean delete(String chainId) { false }
+        void putResponse(String chainId, InteractiveContinuationResponse response) {
+            throw new UnsupportedOperationException()
+        }
+        InteractiveContinuationResponse getResponse(String chainId) { null }
+    }
+
 }
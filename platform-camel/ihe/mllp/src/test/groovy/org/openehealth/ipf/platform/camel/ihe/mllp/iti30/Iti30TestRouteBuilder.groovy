@@ -17,6 +17,9 @@ package org.openehealth.ipf.platform.camel.ihe.mllp.iti30
 
 import org.apache.camel.builder.RouteBuilder
 
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
 import static org.openehealth.ipf.platform.camel.core.util.Exchanges.resultMessage
 import static org.openehealth.ipf.platform.camel.hl7.HL7v2.ack
 
@@ -27,6 +30,9 @@ import static org.openehealth.ipf.platform.camel.hl7.HL7v2.ack
  */
 class Iti30TestRouteBuilder extends RouteBuilder {
 
+    // control IDs of processed messages per patient ID
+    static final Map<String, List<String>> PROCESSED = new ConcurrentHashMap<>()
+
     void configure() throws Exception {
 
         // normal processing with auditing
@@ -51,6 +57,16 @@ class Iti30TestRouteBuilder extends RouteBuilder {
         from('pam-iti30://0.0.0.0:18103?options=MERGE,LINK_UNLINK')
                 .routeId("withOptions")
                 .transform(ack())
+
+        // route with patient-ordered processing on parallel lanes
+        def random = new Random()
+        from('pam-iti30://0.0.0.0:18104?transport=netty&orderingLanes=4&orderingHighWaterMark=4')
+                .process {
+                    def msg = it.in.body
+                    PROCESSED.computeIfAbsent(msg.PID[3][1].value) { new CopyOnWriteArrayList<>() } << msg.MSH[10].value
+                    Thread.sleep(random.nextInt(20))
+                }
+                .transform(ack())
     }
 }
 
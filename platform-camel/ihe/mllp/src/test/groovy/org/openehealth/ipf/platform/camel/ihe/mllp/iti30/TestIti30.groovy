@@ -75,6 +75,52 @@ class TestIti30 extends MllpTestContainer {
         doTestHappyCaseAndAudit('ADT^A24^ADT_A24', "pam-iti30://localhost:18103?audit=false&timeout=${TIMEOUT}&options=LINK_UNLINK", 1)
     }
     
+    /**
+     * Pipelined messages concerning different patients, processed on ordering lanes.
+     * Expected result: responses in the order of requests, per-patient processing in the order of requests.
+     */
+    @Test
+    void testOrderingLanes() {
+        def patients = ['p1', 'p2', 'p3', 'p4', 'p5']
+        def requests = (1..30).collect { i -> [patient: patients[i % patients.size()], id: "order${i}".toString()] }
+        new Socket('localhost', 18104).withCloseable { socket ->
+            socket.soTimeout = TIMEOUT as int
+            def out = socket.outputStream
+            requests.each { r ->
+                def body = getMessageString('ADT^A28^ADT_A05', '2.5')
+                        .replace('|123456|', "|${r.id}|")
+                        .replace('001^^^XREF2005', "${r.patient}^^^XREF2005")
+                        .replace('\n', '\r')
+                out.write(0x0b)
+                out.write(body.getBytes('UTF-8'))
+                out.write([0x1c, 0x0d] as byte[])
+            }
+            out.flush()
+            requests.each { r ->
+                def msg = new PipeParser().parse(readFrame(socket.inputStream))
+                assertACK(msg)
+                assertEquals(r.id, msg.MSA[2].value)
+            }
+        }
+        patients.each { p ->
+            assertEquals(requests.findAll { it.patient == p }*.id, Iti30TestRouteBuilder.PROCESSED[p])
+        }
+    }
+
+    static String readFrame(InputStream input) {
+        def bytes = new ByteArrayOutputStream()
+        int b
+        while ((b = input.read()) != 0x0b) {
+            if (b < 0) throw new EOFException()
+        }
+        while ((b = input.read()) != 0x1c) {
+            if (b < 0) throw new EOFException()
+            bytes.write(b)
+        }
+        input.read()
+        bytes.toString('UTF-8')
+    }
+
     def doTestHappyCaseAndAudit(String trigger, String endpointUri, int expectedAuditItemsCount) {
         final String body = getMessageString(trigger, '2.5')
         def msg = send(endpointUri, body)
@@ -20,10 +20,13 @@ import ca.uhn.hl7v2.HapiContext
 import ca.uhn.hl7v2.model.Message
 import org.junit.Test
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.FeedAuditDataset
+import org.openehealth.ipf.commons.ihe.hl7v2.audit.MllpAuditUtils
+import org.openehealth.ipf.commons.ihe.hl7v2.audit.iti8.Iti8AuditStrategy
 import org.openehealth.ipf.commons.ihe.hl7v2.audit.iti8.Iti8AuditStrategyUtils
 import org.openehealth.ipf.commons.ihe.hl7v2.definitions.CustomModelClassUtils
 import org.openehealth.ipf.commons.ihe.hl7v2.definitions.HapiContextFactory
 import org.openehealth.ipf.gazelle.validation.profile.pixpdq.PixPdqTransactions
+import org.openehealth.ipf.modules.hl7.message.MessageCharSequence
 
 import static org.junit.Assert.assertEquals
 import static org.junit.Assert.assertNull
@@ -55,6 +58,27 @@ class Iti8AuditStrategyUtilsTest {
         assertNull(dataset.patientId)
     }
 
+    @Test
+    void testExtractFromEncodedMessage() {
+        Message message = load(CONTEXT, 'iti8/iti8-a40.hl7')
+        FeedAuditDataset expected = new FeedAuditDataset(true)
+        Iti8AuditStrategyUtils.enrichAuditDatasetFromRequest(expected, message)
+
+        def encoded = MessageCharSequence.wrap(message.encode())
+        FeedAuditDataset dataset = new FeedAuditDataset(true)
+        MllpAuditUtils.enrichGenericAuditDatasetFromRequest(dataset, encoded)
+        new Iti8AuditStrategy(true).enrichAuditDatasetFromRequest(dataset, encoded, [:])
+        assertEquals(expected.patientId, dataset.patientId)
+        assertEquals(expected.oldPatientId, dataset.oldPatientId)
+        assertEquals('A40', dataset.messageType)
+        assertEquals(message.MSH[10].value, dataset.messageControlId)
+
+        FeedAuditDataset incomplete = new FeedAuditDataset(true)
+        new Iti8AuditStrategy(true).enrichAuditDatasetFromRequest(incomplete,
+                MessageCharSequence.wrap(load(CONTEXT, 'iti8/iti8-a01-incomplete.hl7').encode()), [:])
+        assertNull(incomplete.patientId)
+    }
+
     private static <T extends Message> T load(HapiContext context, String fileName) throws HL7Exception {
         return (T)context.getPipeParser().parse(
                 new Scanner(Iti8AuditStrategyUtilsTest.class.getResourceAsStream("/" + fileName)).useDelimiter("\\A").next())
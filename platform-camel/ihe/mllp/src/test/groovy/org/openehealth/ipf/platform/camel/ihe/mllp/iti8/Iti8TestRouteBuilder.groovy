@@ -16,6 +16,9 @@
 package org.openehealth.ipf.platform.camel.ihe.mllp.iti8
 
 import org.apache.camel.builder.RouteBuilder
+
+import java.util.concurrent.atomic.AtomicInteger
+
 import static org.openehealth.ipf.platform.camel.core.util.Exchanges.resultMessage
 import static org.openehealth.ipf.platform.camel.hl7.HL7v2.ack
 
@@ -25,6 +28,8 @@ import static org.openehealth.ipf.platform.camel.hl7.HL7v2.ack
  * @author Dmytro Rud
  */
 class Iti8TestRouteBuilder extends RouteBuilder {
+
+    static final AtomicInteger IDEMPOTENT_ROUTE_COUNTER = new AtomicInteger()
     
     void configure() throws Exception {
 
@@ -36,10 +41,23 @@ class Iti8TestRouteBuilder extends RouteBuilder {
         from('pix-iti8://0.0.0.0:18082?interceptorFactories=#serverInLogger,#serverOutLogger')
                 .transform(ack())
 
+        // normal processing with auditing based on the encoded messages
+        from('pix-iti8://0.0.0.0:18092?rawAudit=true')
+                .transform(ack())
+
         // normal processing with tracing
         from('pix-iti8://0.0.0.0:18083?interceptorFactories=#consumerTracingInterceptor,#serverInLogger,#serverOutLogger')
                 .transform(ack())
 
+        // duplicate requests are answered without being processed again
+        from('pix-iti8://0.0.0.0:18096?audit=false&idempotentReceiverStorage=#idempotentReceiverStorage')
+                .process { IDEMPOTENT_ROUTE_COUNTER.incrementAndGet() }
+                .transform(ack())
+
+        // normal processing with tracing on encoded messages
+        from('pix-iti8://0.0.0.0:18095?interceptorFactories=#encodedConsumerTracingInterceptor,#serverInLogger,#serverOutLogger')
+                .transform(ack())
+
         // fictive route to test producer-side acceptance checking
         from('pix-iti8://0.0.0.0:18084?interceptorFactories=#serverInLogger,#serverOutLogger')
                 .process {
@@ -24,6 +24,7 @@ import org.junit.BeforeClass
 import org.junit.Ignore
 import org.junit.Test
 import org.openehealth.ipf.commons.ihe.core.payload.PayloadLoggerBase
+import org.openehealth.ipf.commons.ihe.hl7v2.storage.BoundedIdempotentReceiverStorage
 import org.openehealth.ipf.platform.camel.core.util.Exchanges
 import org.openehealth.ipf.platform.camel.ihe.mllp.core.MllpTestContainer
 import zipkin2.Span
@@ -66,6 +67,13 @@ class TestIti8 extends MllpTestContainer {
         doTestHappyCaseAndAudit("xds-iti8://localhost:18081?audit=false&timeout=${TIMEOUT}&interceptorFactories=#clientInLogger,#clientOutLogger", 0)
     }
     @Test
+    void testHappyCaseAndRawAudit() {
+        doTestHappyCaseAndAudit("pix-iti8://localhost:18092?rawAudit=true&timeout=${TIMEOUT}", 2)
+        auditSender.messages.each { auditMessage ->
+            assertEquals('001^^^XREF2005~002^^^HIMSS2005', auditMessage.participantObjectIdentifications[0].participantObjectID)
+        }
+    }
+    @Test
     void testHappyCaseAndTrace() {
         doTestHappyCaseAndAudit("pix-iti8://localhost:18083?interceptorFactories=#producerTracingInterceptor,#clientInLogger,#clientOutLogger&timeout=${TIMEOUT}", 2)
         MockReporter reporter = appContext.getBean(MockReporter)
@@ -81,7 +89,50 @@ class TestIti8 extends MllpTestContainer {
         assertTrue(clientSpan.durationAsLong() > serverSpan.durationAsLong())
 
     }
+
+    @Test
+    void testHappyCaseAndEncodedTrace() {
+        MockReporter reporter = appContext.getBean(MockReporter)
+        reporter.spans.clear()
+        try {
+            // encoded and parsed messages can be traced interchangeably
+            doTestHappyCaseAndAudit("pix-iti8://localhost:18095?interceptorFactories=#encodedProducerTracingInterceptor&timeout=${TIMEOUT}", 2)
+            auditSender.clear()
+            doTestHappyCaseAndAudit("pix-iti8://localhost:18083?interceptorFactories=#encodedProducerTracingInterceptor&timeout=${TIMEOUT}", 2)
+            assertEquals(4, reporter.spans.size())
+
+            reporter.spans.groupBy { span -> span.traceId() }.values().each { spans ->
+                Span clientSpan = spans.find { span -> span.kind() == Span.Kind.CLIENT }
+                Span serverSpan = spans.find { span -> span.kind() == Span.Kind.SERVER }
+                assertFalse(clientSpan.tags().isEmpty())
+                assertEquals(clientSpan.id(), serverSpan.parentId())
+            }
+        } finally {
+            reporter.spans.clear()
+        }
+    }
     
+    @Test
+    void testIdempotentReceiver() {
+        def endpointUri = "pix-iti8://localhost:18096?timeout=${TIMEOUT}"
+        def body = getMessageString('ADT^A01', '2.3.1').replace('|123456|', '|IDEMPOTENT1|')
+        def ack1 = send(endpointUri, body)
+        def ack2 = send(endpointUri, body)
+        assertACK(ack1)
+        assertEquals(ack1.MSH[10].value, ack2.MSH[10].value)
+        assertEquals(1, Iti8TestRouteBuilder.IDEMPOTENT_ROUTE_COUNTER.get())
+
+        // a different control ID is processed
+        def ack3 = send(endpointUri, body.replace('|IDEMPOTENT1|', '|IDEMPOTENT2|'))
+        assertACK(ack3)
+        assertNotEquals(ack1.MSH[10].value, ack3.MSH[10].value)
+        assertEquals(2, Iti8TestRouteBuilder.IDEMPOTENT_ROUTE_COUNTER.get())
+
+        def storage = appContext.getBean(BoundedIdempotentReceiverStorage)
+        assertEquals(2, storage.entries)
+        assertEquals(1, storage.hits)
+    }
+
     def doTestHappyCaseAndAudit(String endpointUri, int expectedAuditItemsCount) {
         final String body = getMessageString('ADT^A01', '2.3.1')
         def msg = send(endpointUri, body)